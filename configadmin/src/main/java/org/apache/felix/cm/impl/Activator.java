@@ -18,6 +18,7 @@
  */
 package org.apache.felix.cm.impl;
 
+import java.io.IOException;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
@@ -27,6 +28,7 @@ import java.util.List;
 
 import org.apache.felix.cm.PersistenceManager;
 import org.apache.felix.cm.file.FilePersistenceManager;
+import org.apache.felix.cm.impl.persistence.JournalPersistenceManager;
 import org.apache.felix.cm.impl.persistence.MemoryPersistenceManager;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleActivator;
@@ -45,6 +47,9 @@ import org.osgi.service.log.LogService;
  *  <li>Sets up the logger {@link Log}.
  *  <li>A {@link FilePersistenceManager} instance is registered as a default
  * {@link PersistenceManager}.
+ *  <li>A {@link MemoryPersistenceManager} and a {@link JournalPersistenceManager}
+ * instance are registered as alternative {@link PersistenceManager}s, which
+ * may be selected with the <code>felix.cm.pm</code> framework property.
  *  <li>Creates and sets up the {@link ConfigurationManager}.
  * </ul>
  * <p>
@@ -52,7 +57,8 @@ import org.osgi.service.log.LogService;
  * location taken from the <code>felix.cm.dir</code> framework property. If
  * this property is not set the <code>config</code> directory in the current
  * working directory as specified in the <code>user.dir</code> system property
- * is used.
+ * is used. The {@link JournalPersistenceManager} keeps its journal in the same
+ * directory.
  */
 public class Activator implements BundleActivator
 {
@@ -70,7 +76,8 @@ public class Activator implements BundleActivator
      * manager to be used. If this property is not set or empty, the built-in
      * persistence manager (named file) is used. If it is specified it refers
      * to the name property of a persistence manager and that persistence manager
-     * needs to be registered.
+     * needs to be registered. Besides file, the built-in persistence managers
+     * named memory and journal are available.
      *
      * @see #start(BundleContext)
      */
@@ -95,6 +102,13 @@ public class Activator implements BundleActivator
     // the service registration of the memory persistence manager
     private volatile ServiceRegistration<PersistenceManager> memorypmRegistration;
 
+    // the service registration of the journal persistence manager
+    private volatile ServiceRegistration<PersistenceManager> journalpmRegistration;
+
+    // the journal persistence manager shared by all its users, created once
+    // it is used and closed when stopping
+    private JournalPersistenceManager journalpm;
+
     @Override
     public void start( final BundleContext bundleContext ) throws BundleException
     {
@@ -107,6 +121,9 @@ public class Activator implements BundleActivator
         // register memory persistence manager
         registerMemoryPersistenceManager(bundleContext);
 
+        // register journal persistence manager
+        registerJournalPersistenceManager(bundleContext);
+
         try
         {
             this.tracker = new DependencyTracker(bundleContext, defaultFactory,
@@ -164,6 +181,7 @@ public class Activator implements BundleActivator
         // shutdown the file and memory persistence manager and unregister
         this.unregisterFilePersistenceManager();
         this.unregisterMemoryPersistenceManager();
+        this.unregisterJournalPersistenceManager();
     }
 
     private ServiceFactory<PersistenceManager> registerFilePersistenceManager(final BundleContext bundleContext)
@@ -209,6 +227,44 @@ public class Activator implements BundleActivator
         memorypmRegistration = bundleContext.registerService(PersistenceManager.class, mpm, props);
     }
 
+    private void registerJournalPersistenceManager(final BundleContext bundleContext) {
+        final Dictionary<String, Object> props = new Hashtable<>();
+        props.put(Constants.SERVICE_DESCRIPTION, "Platform Journal Persistence Manager");
+        props.put(Constants.SERVICE_VENDOR, "The Apache Software Foundation");
+        props.put(PersistenceManager.PROPERTY_NAME, JournalPersistenceManager.PERSISTENCE_MANAGER_NAME);
+
+        // the journal is only created and read once the persistence manager is used
+        final ServiceFactory<PersistenceManager> factory = new ServiceFactory<PersistenceManager>()
+        {
+
+            @Override
+            public PersistenceManager getService(Bundle bundle, ServiceRegistration<PersistenceManager> registration) {
+                synchronized (Activator.this) {
+                    if (journalpm == null) {
+                        // use the same directory as the file persistence manager
+                        final FilePersistenceManager fpm = new FilePersistenceManager(bundleContext, bundleContext.getProperty(CM_CONFIG_DIR));
+                        try {
+                            journalpm = new JournalPersistenceManager(fpm.getLocation());
+                        } catch (final IOException ioe) {
+                            Log.logger.log(LogService.LOG_ERROR, "Cannot open the configuration journal in " + fpm.getLocation(), ioe);
+                            return null;
+                        }
+                    }
+
+                    return journalpm;
+                }
+            }
+
+            @Override
+            public void ungetService(Bundle bundle, ServiceRegistration<PersistenceManager> registration,
+                    PersistenceManager service) {
+                // the journal is shared by all bundles, closed when stopping
+            }
+
+        };
+        journalpmRegistration = bundleContext.registerService(PersistenceManager.class, factory, props);
+    }
+
     private void unregisterFilePersistenceManager()
     {
         if ( this.filepmRegistration != null )
@@ -225,6 +281,19 @@ public class Activator implements BundleActivator
         }
     }
 
+    private void unregisterJournalPersistenceManager() {
+        if (this.journalpmRegistration != null) {
+            this.journalpmRegistration.unregister();
+            this.journalpmRegistration = null;
+        }
+        synchronized (this) {
+            if (this.journalpm != null) {
+                this.journalpm.close();
+                this.journalpm = null;
+            }
+        }
+    }
+
     public static String getLocation(final Bundle bundle)
     {
         if (System.getSecurityManager() != null)
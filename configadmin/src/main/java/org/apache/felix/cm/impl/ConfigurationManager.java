@@ -27,6 +27,7 @@ import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -87,6 +88,20 @@ import org.osgi.util.tracker.ServiceTracker;
  */
 public class ConfigurationManager implements BundleListener
 {
+    /**
+     * The name of the framework context property defining the number of
+     * threads updating <code>ManagedService[Factory]</code> services
+     * (value is "felix.cm.update.threads"). Updates of different services
+     * are delivered in parallel by these threads, updates of the same service
+     * are delivered in order. If this property is not set or not a positive
+     * number, a single thread delivers all updates in the order they are
+     * scheduled.
+     */
+    public static final String CM_UPDATE_THREADS = "felix.cm.update.threads";
+
+    // the number of update threads if CM_UPDATE_THREADS is not set
+    private static final int DEFAULT_UPDATE_THREADS = 1;
+
     // random number generator to create configuration PIDs for factory
     // configurations
     private static Random numberGenerator;
@@ -171,7 +186,7 @@ public class ConfigurationManager implements BundleListener
         // initialize the asynchonous updater thread
         ThreadGroup tg = new ThreadGroup( "Configuration Admin Service" );
         tg.setDaemon( true );
-        this.updateThread = new UpdateThread( tg, "CM Configuration Updater" );
+        this.updateThread = new UpdateThread( tg, "CM Configuration Updater", getUpdateThreadCount() );
         this.eventThread = new UpdateThread( tg, "CM Event Dispatcher" );
 
         // register as bundle and service listener
@@ -212,6 +227,30 @@ public class ConfigurationManager implements BundleListener
     }
 
 
+    private int getUpdateThreadCount()
+    {
+        final String value = bundleContext.getProperty( CM_UPDATE_THREADS );
+        if ( value != null )
+        {
+            try
+            {
+                final int count = Integer.parseInt( value.trim() );
+                if ( count > 0 )
+                {
+                    return count;
+                }
+            }
+            catch ( NumberFormatException nfe )
+            {
+                // fall back to default
+            }
+            Log.logger.log( LogService.LOG_WARNING, "Ignoring invalid value {0} of {1}", new Object[]
+                    { value, CM_UPDATE_THREADS } );
+        }
+        return DEFAULT_UPDATE_THREADS;
+    }
+
+
     public void stop( )
     {
 
@@ -1050,7 +1089,7 @@ public class ConfigurationManager implements BundleListener
      * ManagedService is registered with multiple PIDs an instance of this
      * class is used for each registered PID.
      */
-    private class ManagedServiceUpdate implements Runnable
+    private class ManagedServiceUpdate implements UpdateThread.UpdateTask
     {
         private final String[] pids;
 
@@ -1122,6 +1161,21 @@ public class ConfigurationManager implements BundleListener
             managedServiceTracker.provideConfiguration( sr, configPid, null, properties, revision, this.configs );
         }
 
+        @Override
+        public Object getKey()
+        {
+            // updates of the same service are run in order
+            return this.sr;
+        }
+
+
+        @Override
+        public boolean supersedes( Runnable task )
+        {
+            return false;
+        }
+
+
         @Override
         public String toString()
         {
@@ -1136,7 +1190,7 @@ public class ConfigurationManager implements BundleListener
      * multiple PIDs an instance of this class is used for each registered
      * PID.
      */
-    private class ManagedServiceFactoryUpdate implements Runnable
+    private class ManagedServiceFactoryUpdate implements UpdateThread.UpdateTask
     {
         private final String[] factoryPids;
 
@@ -1260,6 +1314,21 @@ public class ConfigurationManager implements BundleListener
         }
 
 
+        @Override
+        public Object getKey()
+        {
+            // updates of the same service are run in order
+            return this.sr;
+        }
+
+
+        @Override
+        public boolean supersedes( Runnable task )
+        {
+            return false;
+        }
+
+
         @Override
         public String toString()
         {
@@ -1267,7 +1336,7 @@ public class ConfigurationManager implements BundleListener
         }
     }
 
-    private abstract class ConfigurationProvider<T> implements Runnable
+    private abstract class ConfigurationProvider<T> implements UpdateThread.UpdateTask
     {
 
         protected final ConfigurationImpl config;
@@ -1275,6 +1344,11 @@ public class ConfigurationManager implements BundleListener
         protected final Dictionary<String, ?> properties;
         private BaseTracker<T> helper;
 
+        // the only service targeted when this task is scheduled or null if
+        // this task is run exclusively
+        private ServiceReference<T> target;
+        private boolean targetResolved;
+
 
         protected ConfigurationProvider( final ConfigurationImpl config )
         {
@@ -1298,6 +1372,52 @@ public class ConfigurationManager implements BundleListener
         }
 
 
+        @Override
+        public Object getKey()
+        {
+            // updates of the same service are run in order, so a task only
+            // targeting a single service is keyed by that service; a task
+            // targeting several services, or none, is run exclusively
+            if ( !this.targetResolved )
+            {
+                final BaseTracker<T> helper = this.getHelper();
+                if ( helper != null )
+                {
+                    final List<ServiceReference<T>> srList = helper.getServices( getTargetedServicePid() );
+                    this.target = ( srList.size() == 1 ) ? srList.get( 0 ) : null;
+                }
+                this.targetResolved = true;
+            }
+            return this.target;
+        }
+
+
+        /**
+         * Returns the services to provide the configuration to. If this task
+         * has been scheduled for a single service, only that service is
+         * returned: services registered in the meantime are provided with the
+         * configuration by their own <code>ManagedService[Factory]Update</code>
+         * task and must not be updated concurrently from another lane.
+         */
+        protected List<ServiceReference<T>> getServices()
+        {
+            final List<ServiceReference<T>> srList = this.getHelper().getServices( getTargetedServicePid() );
+            if ( this.target == null )
+            {
+                return srList;
+            }
+            return srList.contains( this.target ) ? Collections.singletonList( this.target )
+                : Collections.<ServiceReference<T>> emptyList();
+        }
+
+
+        @Override
+        public boolean supersedes( Runnable task )
+        {
+            return false;
+        }
+
+
         protected BaseTracker<T> getHelper()
         {
             if ( this.helper == null )
@@ -1376,7 +1496,7 @@ public class ConfigurationManager implements BundleListener
             Log.logger.log( LogService.LOG_DEBUG, "Updating configuration {0} to revision #{1}", new Object[]
                     { config.getPid(), new Long( revision ) } );
 
-            final List<ServiceReference<?>> srList = this.getHelper().getServices( getTargetedServicePid() );
+            final List<ServiceReference<?>> srList = this.getServices();
             if ( !srList.isEmpty() )
             {
                 // optionally bind dynamically to the first service
@@ -1429,6 +1549,15 @@ public class ConfigurationManager implements BundleListener
         }
 
 
+        @Override
+        public boolean supersedes( Runnable task )
+        {
+            // only the latest revision of the configuration needs to be
+            // provided if the update of an earlier one has not started yet
+            return ( task instanceof UpdateConfiguration ) && ( ( UpdateConfiguration ) task ).config == this.config;
+        }
+
+
         @Override
         public String toString()
         {
@@ -1463,7 +1592,7 @@ public class ConfigurationManager implements BundleListener
         @Override
         public void run()
         {
-            List<ServiceReference<?>> srList = this.getHelper().getServices( getTargetedServicePid() );
+            List<ServiceReference<?>> srList = this.getServices();
             if ( !srList.isEmpty() )
             {
                 for (ServiceReference<?> sr : srList)
@@ -1519,7 +1648,7 @@ public class ConfigurationManager implements BundleListener
         @Override
         public void run()
         {
-            List<ServiceReference<?>> srList = this.getHelper().getServices( getTargetedServicePid() );
+            List<ServiceReference<?>> srList = this.getServices();
             if ( !srList.isEmpty() )
             {
                 for (final ServiceReference<?> sr : srList)
@@ -22,8 +22,11 @@ import java.security.AccessControlContext;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
-import java.util.concurrent.BlockingDeque;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.osgi.service.log.LogService;
 
@@ -31,57 +34,119 @@ import org.osgi.service.log.LogService;
 /**
  * The <code>UpdateThread</code> is the thread used to update managed services
  * and managed service factories as well as to send configuration events.
+ * <p>
+ * Tasks implementing {@link UpdateTask} declare the key of their target, for
+ * example the reference of the service to update. Tasks for
+ * different keys are run in parallel by the configured number of worker
+ * threads while tasks for the same key are run in the order they have been
+ * scheduled. A pending task for a key is dropped if a newer task for the
+ * same key {@link UpdateTask#supersedes(Runnable) supersedes} it. Any other
+ * task is run exclusively: It is only started once all tasks scheduled
+ * before have terminated and tasks scheduled after it are only started once
+ * it has terminated.
  */
 public class UpdateThread implements Runnable
 {
 
-    // the thread group into which the worker thread will be placed
+    /**
+     * The <code>UpdateTask</code> is implemented by tasks which may run in
+     * parallel to tasks for other targets.
+     */
+    interface UpdateTask extends Runnable
+    {
+        /**
+         * Returns the key of the target of this task or <code>null</code> if
+         * this task must be run exclusively.
+         */
+        Object getKey();
+
+
+        /**
+         * Returns <code>true</code> if this task makes the given task for the
+         * same key, which has not been started yet, obsolete.
+         */
+        boolean supersedes( Runnable task );
+    }
+
+    // the thread group into which the worker threads will be placed
     private final ThreadGroup workerThreadGroup;
 
-    // the thread's base name
+    // the threads' base name
     private final String workerBaseName;
 
-    // the queue of Runnable instances  to be run
-    private final BlockingDeque<Runnable> updateTasks = new LinkedBlockingDeque<>();
+    // the number of worker threads
+    private final int workerCount;
 
-    // the actual thread
-    private volatile Thread worker;
+    // the actual threads
+    private volatile Thread[] workers;
 
     // the access control context
     private final AccessControlContext acc;
 
+    // the lock guarding the schedule and the statistics
+    private final Object lock = new Object();
+
+    // the tasks to be run: each segment either is a single task to be run
+    // exclusively or holds tasks to be run in parallel by key
+    private final Deque<Segment> segments = new ArrayDeque<>();
+
+    // whether the workers have been asked to terminate
+    private boolean stopping;
+
+    // statistics: the number of scheduled tasks not run yet, the largest
+    // such number, the number of tasks run and dropped and the total and
+    // largest time in nanoseconds from scheduling to terminating a task
+    private int queueDepth;
+    private int maxQueueDepth;
+    private long executedCount;
+    private long coalescedCount;
+    private long totalLatency;
+    private long maxLatency;
+
+    // statistics of the current burst of tasks, started when a task is
+    // scheduled while the queue is empty and logged once it is empty again
+    private long burstStart;
+    private long burstExecuted;
+    private long burstCoalesced;
+    private int burstMaxQueueDepth;
+
     public UpdateThread( final ThreadGroup tg, final String name )
+    {
+        this( tg, name, 1 );
+    }
+
+    public UpdateThread( final ThreadGroup tg, final String name, final int workerCount )
     {
         this.workerThreadGroup = tg;
         this.workerBaseName = name;
+        this.workerCount = Math.max( 1, workerCount );
         this.acc = AccessController.getContext();
     }
 
 
-    // waits on Runnable instances coming into the queue. As instances come
-    // in, this method calls the Runnable.run method, logs any exception
-    // happening and keeps on waiting for the next Runnable. If the Runnable
-    // taken from the queue is this thread instance itself, the thread
-    // terminates.
+    // waits on tasks to become runnable. As tasks become runnable, this
+    // method calls the Runnable.run method, logs any exception happening
+    // and keeps on waiting for the next task. If the thread is asked to
+    // terminate, this method returns.
     @Override
     public void run()
     {
+        final String workerName = Thread.currentThread().getName();
         try
         {
-            Runnable task;
-            // return if the task is this thread itself
-            while ((task = updateTasks.take()) != this)
+            Task task;
+            while ( ( task = take() ) != null )
             {
                 // otherwise execute the task, log any issues
                 try
                 {
                     // set the thread name indicating the current task
-                    Thread.currentThread().setName( workerBaseName + " (" + task + ")" );
+                    Thread.currentThread().setName( workerName + " (" + task.runnable + ")" );
 
                     Log.logger.log( LogService.LOG_DEBUG, "Running task {0}", new Object[]
-                        { task } );
+                        { task.runnable } );
 
-                    run0(task);
+                    run0(task.runnable);
                 }
                 catch ( Throwable t )
                 {
@@ -90,7 +155,8 @@ public class UpdateThread implements Runnable
                 finally
                 {
                     // reset the thread name to "idle"
-                    Thread.currentThread().setName( workerBaseName );
+                    Thread.currentThread().setName( workerName );
+                    done( task );
                 }
             }
         }
@@ -125,60 +191,81 @@ public class UpdateThread implements Runnable
 
     /**
      * Starts processing the queued tasks. This method does nothing if the
-     * worker has already been started.
+     * workers have already been started.
      */
     synchronized void start()
     {
-        if ( this.worker == null )
+        if ( this.workers == null )
         {
-            Thread workerThread = new Thread( workerThreadGroup, this, workerBaseName );
-            workerThread.setDaemon( true );
-            workerThread.start();
-            this.worker = workerThread;
+            synchronized ( lock )
+            {
+                stopping = false;
+            }
+
+            final Thread[] workerThreads = new Thread[workerCount];
+            for ( int i = 0; i < workerThreads.length; i++ )
+            {
+                final String name = ( workerCount == 1 ) ? workerBaseName : workerBaseName + " #" + ( i + 1 );
+                workerThreads[i] = new Thread( workerThreadGroup, this, name );
+                workerThreads[i].setDaemon( true );
+                workerThreads[i].start();
+            }
+            this.workers = workerThreads;
         }
     }
 
 
     /**
-     * Terminates the worker thread and waits for the thread to have processed
-     * all outstanding events up to and including the termination job. All
-     * jobs {@link #schedule(Runnable) scheduled} after termination has been
-     * initiated will not be processed any more. This method does nothing if
-     * the worker thread is not currently active.
+     * Terminates the worker threads and waits for the threads to have
+     * finished the tasks they are currently running. Tasks not started yet
+     * and all tasks {@link #schedule(Runnable) scheduled} after termination
+     * has been initiated will not be processed any more. This method does
+     * nothing if the worker threads are not currently active.
      * <p>
-     * If the worker thread does not terminate within 5 seconds it is killed
-     * by calling the (deprecated) <code>Thread.stop()</code> method. It may
-     * be that the worker thread may be blocked by a deadlock (it should not,
-     * though). In this case hope is that <code>Thread.stop()</code> will be
-     * able to released that deadlock at the expense of one or more tasks to
-     * not be executed any longer.... In any case an ERROR message is logged
-     * with the LogService in this situation.
+     * If the worker threads do not terminate within 5 seconds they are
+     * interrupted. It may be that a worker thread may be blocked by a
+     * deadlock (it should not, though). In any case an ERROR message is
+     * logged with the LogService in this situation.
      */
     synchronized void terminate()
     {
-        if ( this.worker != null )
+        if ( this.workers != null )
         {
-            Thread workerThread = this.worker;
-            this.worker = null;
+            final Thread[] workerThreads = this.workers;
+            this.workers = null;
 
-            updateTasks.offerFirst( this );
-
-            // wait for all updates to terminate (<= 10 seconds !)
-            try
-            {
-                workerThread.join( 5000 );
-            }
-            catch ( InterruptedException ie )
+            synchronized ( lock )
             {
-                // don't really care
+                stopping = true;
+                segments.clear();
+                queueDepth = 0;
+                lock.notifyAll();
             }
 
-            if ( workerThread.isAlive() )
+            // wait for all updates to terminate (<= 5 seconds !)
+            final long deadline = System.currentTimeMillis() + 5000;
+            for ( Thread workerThread : workerThreads )
             {
-                Log.logger.log( LogService.LOG_ERROR,
-                    "Worker thread {0} did not terminate within 5 seconds; trying to kill", new Object[]
-                        { workerBaseName } );
-                workerThread.interrupt();
+                try
+                {
+                    final long wait = deadline - System.currentTimeMillis();
+                    if ( wait > 0 )
+                    {
+                        workerThread.join( wait );
+                    }
+                }
+                catch ( InterruptedException ie )
+                {
+                    // don't really care
+                }
+
+                if ( workerThread.isAlive() )
+                {
+                    Log.logger.log( LogService.LOG_ERROR,
+                        "Worker thread {0} did not terminate within 5 seconds; trying to kill", new Object[]
+                            { workerThread.getName() } );
+                    workerThread.interrupt();
+                }
             }
         }
     }
@@ -190,7 +277,293 @@ public class UpdateThread implements Runnable
         Log.logger.log( LogService.LOG_DEBUG, "Scheduling task {0}", new Object[]
             { update } );
 
-        // append to the task queue
-        updateTasks.offer( update );
+        final Object key = ( update instanceof UpdateTask ) ? ( ( UpdateTask ) update ).getKey() : null;
+        final Task task = new Task( update, System.nanoTime() );
+        synchronized ( lock )
+        {
+            if ( queueDepth == 0 && segments.isEmpty() )
+            {
+                burstStart = task.scheduled;
+            }
+
+            if ( key == null )
+            {
+                segments.addLast( new Segment( task ) );
+            }
+            else
+            {
+                Segment segment = segments.peekLast();
+                if ( segment == null || segment.exclusive != null )
+                {
+                    segment = new Segment( null );
+                    segments.addLast( segment );
+                }
+
+                Lane lane = segment.lanes.get( key );
+                if ( lane == null )
+                {
+                    lane = new Lane( segment, key );
+                    segment.lanes.put( key, lane );
+                    segment.ready.addLast( lane );
+                }
+                else
+                {
+                    final Task last = lane.tasks.peekLast();
+                    if ( last != null && ( ( UpdateTask ) update ).supersedes( last.runnable ) )
+                    {
+                        // replace the pending task keeping its scheduling
+                        // time for the latency to cover the whole delay
+                        lane.tasks.removeLast();
+                        task.scheduled = last.scheduled;
+                        queueDepth--;
+                        coalescedCount++;
+                        burstCoalesced++;
+                        Log.logger.log( LogService.LOG_DEBUG, "Task {0} superseded by {1}", new Object[]
+                            { last.runnable, update } );
+                    }
+                }
+                task.lane = lane;
+                lane.tasks.addLast( task );
+            }
+
+            queueDepth++;
+            maxQueueDepth = Math.max( maxQueueDepth, queueDepth );
+            burstMaxQueueDepth = Math.max( burstMaxQueueDepth, queueDepth );
+            lock.notifyAll();
+        }
+    }
+
+
+    // returns the next task to run waiting for one to become runnable or
+    // null if the workers are asked to terminate
+    private Task take() throws InterruptedException
+    {
+        synchronized ( lock )
+        {
+            while ( !stopping )
+            {
+                final Segment segment = segments.peekFirst();
+                if ( segment != null )
+                {
+                    if ( segment.exclusive != null )
+                    {
+                        // all tasks before have terminated once the
+                        // exclusive task heads the schedule
+                        if ( !segment.started )
+                        {
+                            segment.started = true;
+                            queueDepth--;
+                            return segment.exclusive;
+                        }
+                    }
+                    else
+                    {
+                        final Lane lane = segment.ready.pollFirst();
+                        if ( lane != null )
+                        {
+                            lane.active = true;
+                            queueDepth--;
+                            return lane.tasks.removeFirst();
+                        }
+                    }
+                }
+                lock.wait();
+            }
+            return null;
+        }
+    }
+
+
+    // records the termination of the task and makes the next task of its
+    // lane or the next segment runnable
+    private void done( final Task task )
+    {
+        final long latency = System.nanoTime() - task.scheduled;
+        Object[] burst = null;
+        synchronized ( lock )
+        {
+            executedCount++;
+            burstExecuted++;
+            totalLatency += latency;
+            maxLatency = Math.max( maxLatency, latency );
+
+            if ( stopping )
+            {
+                return;
+            }
+
+            final Lane lane = task.lane;
+            if ( lane == null )
+            {
+                segments.removeFirst();
+            }
+            else
+            {
+                lane.active = false;
+                if ( lane.tasks.isEmpty() )
+                {
+                    lane.segment.lanes.remove( lane.key );
+                    if ( lane.segment.lanes.isEmpty() && segments.peekFirst() == lane.segment )
+                    {
+                        segments.removeFirst();
+                    }
+                }
+                else
+                {
+                    lane.segment.ready.addLast( lane );
+                }
+            }
+
+            if ( segments.isEmpty() )
+            {
+                burst = new Object[]
+                    { workerBaseName, burstExecuted, burstCoalesced, burstMaxQueueDepth,
+                        TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - burstStart ) };
+                burstExecuted = 0;
+                burstCoalesced = 0;
+                burstMaxQueueDepth = 0;
+            }
+            lock.notifyAll();
+        }
+
+        if ( burst != null )
+        {
+            Log.logger.log( LogService.LOG_DEBUG,
+                "{0}: Ran {1} tasks ({2} superseded tasks dropped, maximum queue depth {3}) in {4}ms", burst );
+        }
+    }
+
+
+    /**
+     * Returns the number of scheduled tasks which have not been started yet.
+     */
+    int getQueueDepth()
+    {
+        synchronized ( lock )
+        {
+            return queueDepth;
+        }
+    }
+
+
+    /**
+     * Returns the largest number of scheduled tasks which have not been
+     * started yet at any time.
+     */
+    int getMaxQueueDepth()
+    {
+        synchronized ( lock )
+        {
+            return maxQueueDepth;
+        }
+    }
+
+
+    /**
+     * Returns the number of tasks run.
+     */
+    long getExecutedCount()
+    {
+        synchronized ( lock )
+        {
+            return executedCount;
+        }
+    }
+
+
+    /**
+     * Returns the number of tasks dropped because a newer task superseded
+     * them before they had been started.
+     */
+    long getCoalescedCount()
+    {
+        synchronized ( lock )
+        {
+            return coalescedCount;
+        }
+    }
+
+
+    /**
+     * Returns the average time in nanoseconds from scheduling a task until
+     * it has terminated.
+     */
+    long getAverageLatency()
+    {
+        synchronized ( lock )
+        {
+            return ( executedCount == 0 ) ? 0 : totalLatency / executedCount;
+        }
+    }
+
+
+    /**
+     * Returns the longest time in nanoseconds from scheduling a task until
+     * it has terminated.
+     */
+    long getMaxLatency()
+    {
+        synchronized ( lock )
+        {
+            return maxLatency;
+        }
+    }
+
+    // a scheduled task
+    private static final class Task
+    {
+        final Runnable runnable;
+
+        // the nanoTime the task has been scheduled at
+        long scheduled;
+
+        // the lane of the task, null if run exclusively
+        Lane lane;
+
+        Task( final Runnable runnable, final long scheduled )
+        {
+            this.runnable = runnable;
+            this.scheduled = scheduled;
+        }
+    }
+
+    // a part of the schedule
+    private static final class Segment
+    {
+        // the task to run exclusively or null
+        final Task exclusive;
+
+        // whether the exclusive task has been started
+        boolean started;
+
+        // the lanes of tasks by key
+        final Map<Object, Lane> lanes = new HashMap<>();
+
+        // the lanes with tasks waiting whose previous task has terminated
+        final Deque<Lane> ready = new ArrayDeque<>();
+
+        Segment( final Task exclusive )
+        {
+            this.exclusive = exclusive;
+        }
+    }
+
+    // the tasks for a key to run in order
+    private static final class Lane
+    {
+        final Segment segment;
+
+        final Object key;
+
+        final Deque<Task> tasks = new ArrayDeque<>();
+
+        // whether a task of this lane is running
+        boolean active;
+
+        Lane( final Segment segment, final Object key )
+        {
+            this.segment = segment;
+            this.key = key;
+        }
     }
 }
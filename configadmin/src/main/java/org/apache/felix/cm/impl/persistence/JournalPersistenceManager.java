@@ -0,0 +1,720 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.cm.impl.persistence;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.apache.felix.cm.PersistenceManager;
+import org.apache.felix.cm.file.ConfigurationHandler;
+import org.apache.felix.cm.impl.Log;
+import org.osgi.service.log.LogService;
+
+
+/**
+ * The <code>JournalPersistenceManager</code> stores all configurations in a
+ * single append-only journal file. Each {@link #store(String, Dictionary)}
+ * and {@link #delete(String)} appends a record to the journal and all current
+ * configurations are kept in an in-memory index in their serialized form, so
+ * starting up requires a single sequential read of the journal.
+ * <p>
+ * Each record carries a checksum. A record at the end of the journal which
+ * has not been completely written, for example because the system crashed,
+ * is cut off when the journal is read. A corrupt record followed by other
+ * data ends the journal: the journal is moved aside, so the records after
+ * the corrupt one are kept for inspection, and a new journal is written
+ * with the configurations read up to the corrupt record.
+ * <p>
+ * Appended records are forced to disk before the <code>store</code> or
+ * <code>delete</code> call returns. Concurrent calls share a single force of
+ * the file instead of forcing it once for each call. The journal is written
+ * and forced through a <code>RandomAccessFile</code> rather than through its
+ * channel, as interrupting a thread using a channel closes the channel.
+ * <p>
+ * Once the journal is mostly made of records which have been superseded by
+ * later records, it is compacted by writing the current configurations to a
+ * new journal which then replaces the old one.
+ */
+public class JournalPersistenceManager implements PersistenceManager
+{
+
+    /**
+     * The name of this persistence manager as registered by the
+     * Configuration Admin Service (value is "journal").
+     */
+    public static final String PERSISTENCE_MANAGER_NAME = "journal";
+
+    /**
+     * The name of the journal file in the configuration directory (value is
+     * "config.journal").
+     */
+    public static final String JOURNAL_FILE = "config.journal";
+
+    // the magic number and version at the start of the journal ("FCMJ", 1)
+    private static final int MAGIC = 0x46434D4A;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 8;
+
+    // record types
+    private static final byte STORE = 1;
+
+    private static final byte DELETE = 2;
+
+    // length and checksum preceding each record
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    // the journal is compacted once it is larger than this and more than
+    // half of it consists of superseded records
+    private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+
+    private final File journalFile;
+
+    // the current configurations by PID
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    // the journal opened for appending records
+    private RandomAccessFile journal;
+
+    // the size of the journal and of its records still current
+    private long journalSize;
+
+    private long liveSize;
+
+    // the number of records appended and the number of them forced to disk
+    private long written;
+
+    private final Object syncLock = new Object();
+
+    private final AtomicLong synced = new AtomicLong();
+
+
+    /**
+     * Creates a persistence manager keeping its journal in the given
+     * directory and reads the journal if it exists.
+     *
+     * @param directory The directory of the journal, which must exist.
+     *
+     * @throws IOException If the journal cannot be read or opened.
+     */
+    public JournalPersistenceManager( final File directory ) throws IOException
+    {
+        this.journalFile = new File( directory, JOURNAL_FILE );
+        synchronized ( this )
+        {
+            this.read();
+            this.open();
+            if ( this.needsCompaction() )
+            {
+                this.compact();
+            }
+        }
+    }
+
+
+    @Override
+    public synchronized boolean exists( final String pid )
+    {
+        return this.entries.containsKey( pid );
+    }
+
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public Dictionary load( final String pid ) throws IOException
+    {
+        final Entry entry;
+        synchronized ( this )
+        {
+            entry = this.entries.get( pid );
+        }
+        if ( entry == null )
+        {
+            throw new IOException( "No configuration for " + pid );
+        }
+        return entry.toDictionary();
+    }
+
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public Enumeration getDictionaries()
+    {
+        final List<Entry> current;
+        synchronized ( this )
+        {
+            current = new ArrayList<>( this.entries.values() );
+        }
+
+        // parse the dictionaries lazily
+        return new Enumeration()
+        {
+            private int index;
+
+            private Dictionary next = seek();
+
+
+            @Override
+            public boolean hasMoreElements()
+            {
+                return next != null;
+            }
+
+
+            @Override
+            public Object nextElement()
+            {
+                if ( next == null )
+                {
+                    throw new NoSuchElementException();
+                }
+                final Dictionary result = next;
+                next = seek();
+                return result;
+            }
+
+
+            private Dictionary seek()
+            {
+                while ( index < current.size() )
+                {
+                    final Entry entry = current.get( index++ );
+                    try
+                    {
+                        return entry.toDictionary();
+                    }
+                    catch ( IOException ioe )
+                    {
+                        Log.logger.log( LogService.LOG_ERROR, "Cannot read configuration " + entry.pid, ioe );
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public void store( final String pid, final Dictionary properties ) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ConfigurationHandler.write( out, properties );
+        final byte[] data = out.toByteArray();
+        final byte[] record = record( STORE, pid, data );
+        final Entry entry = new Entry( pid, data, record.length );
+
+        privileged( new PrivilegedExceptionAction<Object>()
+        {
+            @Override
+            public Object run() throws IOException
+            {
+                append( pid, entry, record );
+                return null;
+            }
+        } );
+    }
+
+
+    @Override
+    public void delete( final String pid ) throws IOException
+    {
+        synchronized ( this )
+        {
+            if ( !this.entries.containsKey( pid ) )
+            {
+                return;
+            }
+        }
+
+        final byte[] record = record( DELETE, pid, new byte[0] );
+        privileged( new PrivilegedExceptionAction<Object>()
+        {
+            @Override
+            public Object run() throws IOException
+            {
+                append( pid, null, record );
+                return null;
+            }
+        } );
+    }
+
+
+    /**
+     * Forces all records to disk and closes the journal. Any further
+     * modification fails.
+     */
+    public synchronized void close()
+    {
+        if ( this.journal != null )
+        {
+            try
+            {
+                this.journal.getFD().sync();
+                this.markSynced( this.written );
+            }
+            catch ( IOException ioe )
+            {
+                Log.logger.log( LogService.LOG_ERROR, "Cannot force configuration journal " + this.journalFile, ioe );
+            }
+            try
+            {
+                this.journal.close();
+            }
+            catch ( IOException ioe )
+            {
+                Log.logger.log( LogService.LOG_ERROR, "Cannot close configuration journal " + this.journalFile, ioe );
+            }
+            this.journal = null;
+        }
+    }
+
+
+    /**
+     * Returns the current size of the journal in bytes.
+     */
+    synchronized long getJournalSize()
+    {
+        return this.journalSize;
+    }
+
+
+    // appends the record to the journal, updates the index with the entry
+    // (or removes the PID if the entry is null) and waits for the record
+    // to be on disk
+    void append( final String pid, final Entry entry, final byte[] record ) throws IOException
+    {
+        final long sequence;
+        synchronized ( this )
+        {
+            if ( this.journal == null )
+            {
+                throw new IOException( "Configuration journal " + this.journalFile + " is closed" );
+            }
+
+            try
+            {
+                this.journal.seek( this.journalSize );
+                this.journal.write( record );
+            }
+            catch ( IOException ioe )
+            {
+                // cut off the partially written record
+                this.journal.setLength( this.journalSize );
+                throw ioe;
+            }
+            this.journalSize += record.length;
+
+            final Entry old = entry == null ? this.entries.remove( pid ) : this.entries.put( pid, entry );
+            if ( old != null )
+            {
+                this.liveSize -= old.size;
+            }
+            if ( entry != null )
+            {
+                this.liveSize += entry.size;
+            }
+            sequence = ++this.written;
+
+            if ( this.needsCompaction() )
+            {
+                // compaction writes and forces the complete journal
+                this.compact();
+                return;
+            }
+        }
+
+        this.sync( sequence );
+    }
+
+
+    // forces the journal to disk unless a force started after the record
+    // with the given sequence number was written
+    private void sync( final long sequence ) throws IOException
+    {
+        synchronized ( this.syncLock )
+        {
+            while ( this.synced.get() < sequence )
+            {
+                final long target;
+                final RandomAccessFile file;
+                synchronized ( this )
+                {
+                    if ( this.journal == null )
+                    {
+                        throw new IOException( "Configuration journal " + this.journalFile + " is closed" );
+                    }
+                    target = this.written;
+                    file = this.journal;
+                }
+                try
+                {
+                    file.getFD().sync();
+                    this.markSynced( target );
+                }
+                catch ( IOException ioe )
+                {
+                    synchronized ( this )
+                    {
+                        // if the journal has been compacted or closed in the
+                        // meantime, all records written before are on disk
+                        // and the loop ends, otherwise forcing failed
+                        if ( this.journal == file )
+                        {
+                            throw ioe;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+
+    private void markSynced( final long target )
+    {
+        long current = this.synced.get();
+        while ( current < target && !this.synced.compareAndSet( current, target ) )
+        {
+            current = this.synced.get();
+        }
+    }
+
+
+    private boolean needsCompaction()
+    {
+        return this.journalSize > MIN_COMPACTION_SIZE && this.journalSize > 2 * ( this.liveSize + HEADER_SIZE );
+    }
+
+
+    // reads the journal into the index, cutting off an incomplete record at
+    // its end and moving the journal aside if it has a corrupt record
+    private void read() throws IOException
+    {
+        final long fileLength = this.journalFile.length();
+        if ( fileLength == 0 )
+        {
+            // no journal or the system crashed creating it
+            return;
+        }
+        long position = 0;
+        String incomplete = null;
+        String corrupt = null;
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( this.journalFile ), 65536 ) ) )
+        {
+            if ( fileLength < HEADER_SIZE || in.readInt() != MAGIC || in.readInt() != VERSION )
+            {
+                throw new IOException( "Not a configuration journal: " + this.journalFile );
+            }
+            position = HEADER_SIZE;
+
+            final CRC32 crc = new CRC32();
+            while ( position < fileLength )
+            {
+                final long remaining = fileLength - position;
+                if ( remaining < RECORD_HEADER_SIZE )
+                {
+                    incomplete = "Incomplete record header";
+                    break;
+                }
+                final int length = in.readInt();
+                final int checksum = in.readInt();
+                if ( length <= 0 )
+                {
+                    // a crash may leave the end of the file filled with zeros
+                    if ( length == 0 && checksum == 0 && isZeroFilled( in, remaining - RECORD_HEADER_SIZE ) )
+                    {
+                        incomplete = "Unwritten record";
+                    }
+                    else
+                    {
+                        corrupt = "Invalid record length " + length;
+                    }
+                    break;
+                }
+                if ( length > remaining - RECORD_HEADER_SIZE )
+                {
+                    incomplete = "Incomplete record";
+                    break;
+                }
+                final byte[] payload = new byte[length];
+                in.readFully( payload );
+                crc.reset();
+                crc.update( payload );
+                if ( ( int ) crc.getValue() != checksum )
+                {
+                    // only the last record may have been partially written
+                    if ( length == remaining - RECORD_HEADER_SIZE )
+                    {
+                        incomplete = "Incompletely written record";
+                    }
+                    else
+                    {
+                        corrupt = "Checksum mismatch";
+                    }
+                    break;
+                }
+
+                final DataInputStream record = new DataInputStream( new ByteArrayInputStream( payload ) );
+                final byte type;
+                final String pid;
+                try
+                {
+                    type = record.readByte();
+                    pid = record.readUTF();
+                }
+                catch ( IOException ioe )
+                {
+                    corrupt = "Invalid record";
+                    break;
+                }
+                final Entry old;
+                if ( type == STORE )
+                {
+                    final byte[] data = new byte[record.available()];
+                    record.readFully( data );
+                    final Entry entry = new Entry( pid, data, RECORD_HEADER_SIZE + length );
+                    old = this.entries.put( pid, entry );
+                    this.liveSize += entry.size;
+                }
+                else
+                {
+                    old = this.entries.remove( pid );
+                }
+                if ( old != null )
+                {
+                    this.liveSize -= old.size;
+                }
+                position += RECORD_HEADER_SIZE + length;
+            }
+        }
+
+        if ( corrupt != null )
+        {
+            // keep the complete journal and start a new one with the
+            // configurations read so far
+            final File aside = new File( this.journalFile.getPath() + ".corrupt-" + System.currentTimeMillis() );
+            Files.move( this.journalFile.toPath(), aside.toPath() );
+            Log.logger.log( LogService.LOG_ERROR, corrupt + " at position " + position + " of configuration journal "
+                + this.journalFile + ", configurations stored after it are not read; the journal has been moved to "
+                + aside, ( Throwable ) null );
+            this.journalSize = 0;
+            return;
+        }
+
+        if ( incomplete != null )
+        {
+            Log.logger.log( LogService.LOG_WARNING, incomplete + " at the end of configuration journal "
+                + this.journalFile + " is cut off from position " + position, ( Throwable ) null );
+            try ( RandomAccessFile file = new RandomAccessFile( this.journalFile, "rw" ) )
+            {
+                file.setLength( position );
+            }
+        }
+        this.journalSize = position;
+    }
+
+
+    // returns whether the next count bytes of the stream are all zero
+    private static boolean isZeroFilled( final DataInputStream in, long count ) throws IOException
+    {
+        final byte[] buffer = new byte[8192];
+        while ( count > 0 )
+        {
+            final int n = ( int ) Math.min( buffer.length, count );
+            in.readFully( buffer, 0, n );
+            for ( int i = 0; i < n; i++ )
+            {
+                if ( buffer[i] != 0 )
+                {
+                    return false;
+                }
+            }
+            count -= n;
+        }
+        return true;
+    }
+
+
+    // opens the journal for appending, creating it if needed
+    private void open() throws IOException
+    {
+        if ( this.journalSize == 0 )
+        {
+            this.writeJournal( this.journalFile );
+        }
+        this.journal = new RandomAccessFile( this.journalFile, "rw" );
+    }
+
+
+    // replaces the journal with one only containing the current entries
+    private void compact() throws IOException
+    {
+        final File tmpFile = new File( this.journalFile.getPath() + ".tmp" );
+        this.writeJournal( tmpFile );
+
+        if ( this.journal != null )
+        {
+            this.journal.close();
+            this.journal = null;
+        }
+        try
+        {
+            Files.move( tmpFile.toPath(), this.journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch ( AtomicMoveNotSupportedException amnse )
+        {
+            Files.move( tmpFile.toPath(), this.journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING );
+        }
+        this.journal = new RandomAccessFile( this.journalFile, "rw" );
+
+        // all records written so far are on disk now
+        this.markSynced( this.written );
+    }
+
+
+    // writes a journal of the current entries to the given file and forces
+    // it to disk
+    private void writeJournal( final File file ) throws IOException
+    {
+        long size = HEADER_SIZE;
+        try ( FileOutputStream fos = new FileOutputStream( file ) )
+        {
+            final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( fos, 65536 ) );
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            for ( Entry entry : this.entries.values() )
+            {
+                out.write( record( STORE, entry.pid, entry.data ) );
+                size += entry.size;
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        this.journalSize = size;
+        this.liveSize = size - HEADER_SIZE;
+    }
+
+
+    // creates a record of the given type with its length and checksum
+    private static byte[] record( final byte type, final String pid, final byte[] data ) throws IOException
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream( RECORD_HEADER_SIZE + pid.length() + data.length + 8 );
+        final DataOutputStream out = new DataOutputStream( bytes );
+        out.writeInt( 0 );
+        out.writeInt( 0 );
+        out.writeByte( type );
+        out.writeUTF( pid );
+        out.write( data );
+        out.flush();
+
+        final byte[] record = bytes.toByteArray();
+        final int length = record.length - RECORD_HEADER_SIZE;
+        final CRC32 crc = new CRC32();
+        crc.update( record, RECORD_HEADER_SIZE, length );
+        ByteBuffer.wrap( record ).putInt( length ).putInt( ( int ) crc.getValue() );
+        return record;
+    }
+
+
+    private static void privileged( final PrivilegedExceptionAction<Object> action ) throws IOException
+    {
+        if ( System.getSecurityManager() == null )
+        {
+            try
+            {
+                action.run();
+            }
+            catch ( IOException ioe )
+            {
+                throw ioe;
+            }
+            catch ( Exception e )
+            {
+                throw new IOException( e );
+            }
+            return;
+        }
+
+        try
+        {
+            AccessController.doPrivileged( action );
+        }
+        catch ( PrivilegedActionException pae )
+        {
+            throw ( IOException ) pae.getException();
+        }
+    }
+
+    /**
+     * A configuration as stored in the journal.
+     */
+    static final class Entry
+    {
+        final String pid;
+
+        final byte[] data;
+
+        // the size of the record of this entry in the journal
+        final int size;
+
+
+        Entry( final String pid, final byte[] data, final int size )
+        {
+            this.pid = pid;
+            this.data = data;
+            this.size = size;
+        }
+
+
+        @SuppressWarnings("rawtypes")
+        Dictionary toDictionary() throws IOException
+        {
+            return ConfigurationHandler.read( new ByteArrayInputStream( this.data ) );
+        }
+    }
+}
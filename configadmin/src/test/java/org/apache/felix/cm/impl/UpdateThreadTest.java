@@ -19,11 +19,17 @@
 package org.apache.felix.cm.impl;
 
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 
@@ -50,4 +56,157 @@ public class UpdateThreadTest
             updateThread.terminate();
         }
     }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        final UpdateThread updateThread = new UpdateThread(null, "name", 2);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final List<String> runs = Collections.synchronizedList(new ArrayList<String>());
+
+        // nothing is started before start(), so all updates are pending
+        updateThread.schedule(new KeyedTask("a", "a1", runs, null));
+        updateThread.schedule(new KeyedTask("a", "a2", runs, null));
+        updateThread.schedule(new KeyedTask("b", "b1", runs, null));
+        updateThread.schedule(new KeyedTask("a", "a3", runs, null));
+        assertEquals(2, updateThread.getQueueDepth());
+        assertEquals(2, updateThread.getCoalescedCount());
+
+        updateThread.schedule(new SignalTask(blocked));
+        updateThread.start();
+        try {
+            assertTrue(blocked.await(1L, TimeUnit.MINUTES));
+            assertEquals(2, runs.size());
+            assertTrue(runs.contains("a3"));
+            assertTrue(runs.contains("b1"));
+        } finally {
+            updateThread.terminate();
+        }
+
+        // the workers have recorded all tasks once terminated
+        assertEquals(0, updateThread.getQueueDepth());
+        assertEquals(3, updateThread.getExecutedCount());
+        assertEquals(3, updateThread.getMaxQueueDepth());
+        assertTrue(updateThread.getMaxLatency() >= updateThread.getAverageLatency());
+    }
+
+    @Test
+    public void testParallelKeys() throws Exception {
+        final UpdateThread updateThread = new UpdateThread(null, "name", 2);
+        updateThread.start();
+        try {
+            // a task for "a" only completes once one for "b" has run
+            final CountDownLatch b = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(1);
+            final List<String> runs = Collections.synchronizedList(new ArrayList<String>());
+            updateThread.schedule(new KeyedTask("a", "a", runs, b));
+            updateThread.schedule(new KeyedTask("b", "b", runs, null) {
+                @Override
+                public void run() {
+                    super.run();
+                    b.countDown();
+                }
+            });
+            updateThread.schedule(new SignalTask(done));
+            assertTrue(done.await(1L, TimeUnit.MINUTES));
+            assertEquals(2, runs.size());
+        } finally {
+            updateThread.terminate();
+        }
+    }
+
+    @Test
+    public void testOrderPerKey() throws Exception {
+        final UpdateThread updateThread = new UpdateThread(null, "name", 4);
+        updateThread.start();
+        try {
+            final AtomicInteger concurrent = new AtomicInteger();
+            final List<List<Integer>> runs = new ArrayList<>();
+            for (int k = 0; k < 8; k++) {
+                runs.add(Collections.synchronizedList(new ArrayList<Integer>()));
+            }
+            for (int i = 0; i < 100; i++) {
+                for (int k = 0; k < runs.size(); k++) {
+                    final List<Integer> keyRuns = runs.get(k);
+                    final int value = i;
+                    updateThread.schedule(new KeyedTask(k, null, null, null) {
+                        @Override
+                        public void run() {
+                            keyRuns.add(value);
+                        }
+                    });
+                }
+                if (i % 25 == 0) {
+                    // exclusive tasks run alone
+                    updateThread.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            assertEquals(0, concurrent.getAndIncrement());
+                            concurrent.decrementAndGet();
+                        }
+                    });
+                }
+            }
+            final CountDownLatch done = new CountDownLatch(1);
+            updateThread.schedule(new SignalTask(done));
+            assertTrue(done.await(1L, TimeUnit.MINUTES));
+
+            for (List<Integer> keyRuns : runs) {
+                assertEquals(100, keyRuns.size());
+                for (int i = 0; i < 100; i++) {
+                    assertEquals(Integer.valueOf(i), keyRuns.get(i));
+                }
+            }
+        } finally {
+            updateThread.terminate();
+        }
+    }
+
+    private static class KeyedTask implements UpdateThread.UpdateTask {
+        private final Object key;
+        private final String name;
+        private final List<String> runs;
+        private final CountDownLatch await;
+
+        KeyedTask(final Object key, final String name, final List<String> runs, final CountDownLatch await) {
+            this.key = key;
+            this.name = name;
+            this.runs = runs;
+            this.await = await;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (await != null) {
+                    assertTrue(await.await(1L, TimeUnit.MINUTES));
+                }
+            } catch (InterruptedException e) {
+                // the assertion fails
+            }
+            runs.add(name);
+        }
+
+        @Override
+        public Object getKey() {
+            return key;
+        }
+
+        @Override
+        public boolean supersedes(final Runnable task) {
+            return task instanceof KeyedTask && name != null;
+        }
+    }
+
+    private static class SignalTask implements Runnable {
+        private final CountDownLatch latch;
+
+        SignalTask(final CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void run() {
+            latch.countDown();
+        }
+    }
 }
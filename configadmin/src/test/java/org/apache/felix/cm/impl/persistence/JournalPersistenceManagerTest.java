@@ -0,0 +1,322 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.cm.impl.persistence;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Constants;
+
+
+public class JournalPersistenceManagerTest
+{
+    private File dir;
+
+    private JournalPersistenceManager pm;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        dir = File.createTempFile( "journal", "" );
+        dir.delete();
+        dir.mkdirs();
+        pm = new JournalPersistenceManager( dir );
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        pm.close();
+        for ( File f : dir.listFiles() )
+        {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private Dictionary<String, Object> createConfiguration( final String pid, final Object value )
+    {
+        final Dictionary<String, Object> dict = new Hashtable<>();
+        dict.put( Constants.SERVICE_PID, pid );
+        dict.put( "value", value );
+        return dict;
+    }
+
+    private JournalPersistenceManager reopen() throws IOException
+    {
+        pm.close();
+        pm = new JournalPersistenceManager( dir );
+        return pm;
+    }
+
+    @Test
+    public void testStoreLoadDelete() throws Exception
+    {
+        pm.store( "a", createConfiguration( "a", "first" ) );
+        pm.store( "b", createConfiguration( "b", new int[] { 1, 2, 3 } ) );
+        pm.store( "a", createConfiguration( "a", "second" ) );
+
+        assertTrue( pm.exists( "a" ) );
+        assertEquals( "second", pm.load( "a" ).get( "value" ) );
+        assertArrayEquals( new int[] { 1, 2, 3 }, ( int[] ) pm.load( "b" ).get( "value" ) );
+
+        // loaded dictionaries are private to the caller
+        pm.load( "a" ).put( "value", "changed" );
+        assertEquals( "second", pm.load( "a" ).get( "value" ) );
+
+        pm.delete( "a" );
+        pm.delete( "unknown" );
+        assertFalse( pm.exists( "a" ) );
+        try
+        {
+            pm.load( "a" );
+            fail( "Expected IOException loading a deleted configuration" );
+        }
+        catch ( IOException expected )
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testReopen() throws Exception
+    {
+        for ( int i = 0; i < 100; i++ )
+        {
+            pm.store( "pid" + i, createConfiguration( "pid" + i, i ) );
+        }
+        pm.store( "pid5", createConfiguration( "pid5", "updated" ) );
+        pm.delete( "pid7" );
+
+        reopen();
+
+        assertEquals( "updated", pm.load( "pid5" ).get( "value" ) );
+        assertEquals( 42, pm.load( "pid42" ).get( "value" ) );
+        assertFalse( pm.exists( "pid7" ) );
+
+        final Set<Object> pids = new HashSet<>();
+        for ( Enumeration<?> e = pm.getDictionaries(); e.hasMoreElements(); )
+        {
+            pids.add( ( ( Dictionary<?, ?> ) e.nextElement() ).get( Constants.SERVICE_PID ) );
+        }
+        assertEquals( 99, pids.size() );
+    }
+
+    @Test
+    public void testIncompleteRecordIgnored() throws Exception
+    {
+        pm.store( "a", createConfiguration( "a", "first" ) );
+        final long size = pm.getJournalSize();
+        pm.store( "b", createConfiguration( "b", "second" ) );
+        pm.close();
+
+        // cut off the last record as if the system crashed writing it
+        final File journal = new File( dir, JournalPersistenceManager.JOURNAL_FILE );
+        try ( RandomAccessFile file = new RandomAccessFile( journal, "rw" ) )
+        {
+            file.setLength( file.length() - 3 );
+        }
+
+        pm = new JournalPersistenceManager( dir );
+        assertTrue( pm.exists( "a" ) );
+        assertFalse( pm.exists( "b" ) );
+        assertEquals( size, journal.length() );
+
+        // appending continues after the last complete record
+        pm.store( "c", createConfiguration( "c", "third" ) );
+        reopen();
+        assertTrue( pm.exists( "a" ) );
+        assertTrue( pm.exists( "c" ) );
+    }
+
+    @Test
+    public void testUnwrittenEndIgnored() throws Exception
+    {
+        pm.store( "a", createConfiguration( "a", "first" ) );
+        final long size = pm.getJournalSize();
+        pm.close();
+
+        // the end of the file may be filled with zeros after a crash
+        final File journal = new File( dir, JournalPersistenceManager.JOURNAL_FILE );
+        try ( RandomAccessFile file = new RandomAccessFile( journal, "rw" ) )
+        {
+            file.setLength( size + 100 );
+        }
+
+        pm = new JournalPersistenceManager( dir );
+        assertTrue( pm.exists( "a" ) );
+        assertEquals( size, journal.length() );
+    }
+
+    @Test
+    public void testCorruptRecordMovesJournalAside() throws Exception
+    {
+        pm.store( "a", createConfiguration( "a", "first" ) );
+        final long position = pm.getJournalSize();
+        pm.store( "b", createConfiguration( "b", "second" ) );
+        pm.store( "c", createConfiguration( "c", "third" ) );
+        final long size = pm.getJournalSize();
+        pm.close();
+
+        // corrupt the last byte of the record of b
+        final File journal = new File( dir, JournalPersistenceManager.JOURNAL_FILE );
+        try ( RandomAccessFile file = new RandomAccessFile( journal, "rw" ) )
+        {
+            final long last = position + ( size - position ) / 2 - 1;
+            file.seek( last );
+            final int b = file.read();
+            file.seek( last );
+            file.write( b ^ 0xFF );
+        }
+
+        pm = new JournalPersistenceManager( dir );
+        assertTrue( pm.exists( "a" ) );
+        assertFalse( pm.exists( "b" ) );
+        assertFalse( pm.exists( "c" ) );
+
+        // the complete journal is kept
+        final File[] aside = dir.listFiles();
+        assertEquals( 2, aside.length );
+        for ( File file : aside )
+        {
+            if ( !file.equals( journal ) )
+            {
+                assertTrue( file.getName().startsWith( JournalPersistenceManager.JOURNAL_FILE + ".corrupt" ) );
+                assertEquals( size, file.length() );
+            }
+        }
+
+        // the new journal can be appended to
+        pm.store( "d", createConfiguration( "d", "fourth" ) );
+        reopen();
+        assertTrue( pm.exists( "a" ) );
+        assertTrue( pm.exists( "d" ) );
+    }
+
+    @Test
+    public void testInterruptedStore() throws Exception
+    {
+        Thread.currentThread().interrupt();
+        try
+        {
+            pm.store( "a", createConfiguration( "a", "first" ) );
+            assertTrue( Thread.currentThread().isInterrupted() );
+        }
+        finally
+        {
+            Thread.interrupted();
+        }
+
+        // the journal is still open
+        pm.store( "b", createConfiguration( "b", "second" ) );
+        reopen();
+        assertTrue( pm.exists( "a" ) );
+        assertTrue( pm.exists( "b" ) );
+    }
+
+    @Test
+    public void testCompaction() throws Exception
+    {
+        final StringBuilder value = new StringBuilder();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            value.append( 'x' );
+        }
+        for ( int i = 0; i < 3000; i++ )
+        {
+            pm.store( "pid" + ( i % 10 ), createConfiguration( "pid" + ( i % 10 ), value.toString() + i ) );
+        }
+
+        // ten configurations of about 1k each remain
+        assertTrue( pm.getJournalSize() < 1024 * 1024 + 20 * 1024 );
+
+        reopen();
+        for ( int i = 0; i < 10; i++ )
+        {
+            assertEquals( value.toString() + ( 2990 + i ), pm.load( "pid" + i ).get( "value" ) );
+        }
+    }
+
+    @Test
+    public void testConcurrentStores() throws Exception
+    {
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final Thread[] threads = new Thread[8];
+        final Exception[] failure = new Exception[1];
+        for ( int t = 0; t < threads.length; t++ )
+        {
+            final int thread = t;
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        for ( int i = 0; i < 50; i++ )
+                        {
+                            final String pid = "t" + thread + "." + i;
+                            pm.store( pid, createConfiguration( pid, i ) );
+                        }
+                    }
+                    catch ( Exception e )
+                    {
+                        failure[0] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        if ( failure[0] != null )
+        {
+            throw failure[0];
+        }
+
+        reopen();
+        for ( int t = 0; t < threads.length; t++ )
+        {
+            for ( int i = 0; i < 50; i++ )
+            {
+                assertEquals( i, pm.load( "t" + t + "." + i ).get( "value" ) );
+            }
+        }
+    }
+}
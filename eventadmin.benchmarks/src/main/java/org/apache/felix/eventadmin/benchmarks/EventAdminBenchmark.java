@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.benchmarks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.felix.eventadmin.impl.handler.EventAdminImpl;
+import org.apache.felix.eventadmin.impl.tasks.AsyncDeliverTasks;
+import org.apache.felix.eventadmin.impl.tasks.DefaultThreadPool;
+import org.apache.felix.framework.Felix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
+
+/**
+ * Measures delivering an event to the handlers registered for its topic
+ * through the event admin running in-process on an embedded framework.
+ * The handlers subscribe either to the exact topic of the event or to a
+ * wildcard topic, optionally with an event filter matching the event, and
+ * the delivery timeout is either disabled or enabled. Posted events are
+ * awaited until all handlers received them, so both modes report the
+ * throughput and the latency distribution, including the p99, of
+ * delivering one event to all handlers. With many handlers pass
+ * <code>-tu ms</code> or <code>-tu s</code> to get readable throughput.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class EventAdminBenchmark
+{
+    private static final String TOPIC = "org/apache/felix/eventadmin/benchmarks/EVENT";
+
+    private static final String WILDCARD_TOPIC = "org/apache/felix/eventadmin/benchmarks/*";
+
+    @Param({ "1", "100", "10000" })
+    int handlers;
+
+    @Param({ "exact", "wildcard" })
+    String topic;
+
+    @Param({ "false", "true" })
+    boolean filter;
+
+    @Param({ "0", "5000" })
+    int timeout;
+
+    private final AtomicLong m_delivered = new AtomicLong();
+
+    private final List<ServiceRegistration<EventHandler>> m_registrations =
+        new ArrayList<ServiceRegistration<EventHandler>>();
+
+    private File m_cacheDir;
+
+    private Felix m_felix;
+
+    private DefaultThreadPool m_syncPool;
+
+    private DefaultThreadPool m_asyncPool;
+
+    private EventAdminImpl m_eventAdmin;
+
+    private Event m_event;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        m_cacheDir = File.createTempFile("felix-benchmark", ".dir");
+        m_cacheDir.delete();
+        m_cacheDir.mkdirs();
+
+        Map<String, String> params = new HashMap<String, String>();
+        params.put(Constants.FRAMEWORK_STORAGE, m_cacheDir.getPath());
+        params.put(Constants.FRAMEWORK_STORAGE_CLEAN,
+            Constants.FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT);
+        m_felix = new Felix(params);
+        m_felix.init();
+        m_felix.start();
+
+        BundleContext context = m_felix.getBundleContext();
+        EventHandler handler = new EventHandler()
+        {
+            @Override
+            public void handleEvent(Event event)
+            {
+                m_delivered.incrementAndGet();
+            }
+        };
+        for (int i = 0; i < handlers; i++)
+        {
+            Hashtable<String, Object> props = new Hashtable<String, Object>();
+            props.put(EventConstants.EVENT_TOPIC,
+                "wildcard".equals(topic) ? WILDCARD_TOPIC : TOPIC);
+            if (filter)
+            {
+                props.put(EventConstants.EVENT_FILTER, "(&(type=created)(id=*))");
+            }
+            m_registrations.add(context.registerService(EventHandler.class, handler, props));
+        }
+
+        // the same sizes as the defaults of the event admin bundle
+        m_syncPool = new DefaultThreadPool(20, true);
+        m_asyncPool = new DefaultThreadPool(10, false);
+        m_eventAdmin = new EventAdminImpl(context, m_syncPool, m_asyncPool,
+            timeout, null, true, null, 0, AsyncDeliverTasks.QueuePolicy.BLOCK);
+
+        Map<String, Object> props = new HashMap<String, Object>();
+        props.put("type", "created");
+        props.put("id", 42L);
+        m_event = new Event(TOPIC, props);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        m_eventAdmin.stop();
+        m_syncPool.close();
+        m_asyncPool.close();
+        for (ServiceRegistration<EventHandler> reg : m_registrations)
+        {
+            reg.unregister();
+        }
+        m_registrations.clear();
+        m_felix.stop();
+        m_felix.waitForStop(10000);
+        deleteDir(m_cacheDir);
+    }
+
+    @Benchmark
+    public long send()
+    {
+        m_eventAdmin.sendEvent(m_event);
+        return m_delivered.get();
+    }
+
+    @Benchmark
+    public long postAndAwait()
+    {
+        long expected = m_delivered.get() + handlers;
+        m_eventAdmin.postEvent(m_event);
+        long delivered;
+        while ((delivered = m_delivered.get()) < expected)
+        {
+            Thread.yield();
+        }
+        return delivered;
+    }
+
+    private static void deleteDir(File root)
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        root.delete();
+    }
+}
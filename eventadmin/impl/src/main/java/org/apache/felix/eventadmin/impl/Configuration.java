@@ -32,6 +32,7 @@ import org.apache.felix.eventadmin.impl.adapter.LogEventAdapter;
 import org.apache.felix.eventadmin.impl.adapter.ServiceEventAdapter;
 import org.apache.felix.eventadmin.impl.handler.EventAdminImpl;
 import org.apache.felix.eventadmin.impl.security.SecureEventAdminFactory;
+import org.apache.felix.eventadmin.impl.tasks.AsyncDeliverTasks;
 import org.apache.felix.eventadmin.impl.tasks.DefaultThreadPool;
 import org.apache.felix.eventadmin.impl.util.LogWrapper;
 import org.osgi.framework.BundleContext;
@@ -116,6 +117,17 @@ import org.osgi.service.metatype.MetaTypeProvider;
  * </p>
  * <p>
  * <p>
+ *      <tt>org.apache.felix.eventadmin.AsyncQueueSize</tt> - The maximum number of
+ *          posted events queued for a single <tt>EventHandler</tt>.
+ * </p>
+ * The default value is 0 which does not limit the queues. If a limit is set, the
+ * <tt>org.apache.felix.eventadmin.AsyncQueuePolicy</tt> defines what happens if an
+ * event is posted to a full queue: <tt>block</tt> (the default) blocks the posting
+ * thread until the queue has room, <tt>dropOldest</tt> drops the oldest queued event
+ * and <tt>dropNewest</tt> drops the posted event.
+ * </p>
+ * <p>
+ * <p>
  * These properties are read at startup and serve as a default configuration.
  * If a configuration admin is configured, the event admin can be configured
  * through the config admin.
@@ -135,6 +147,12 @@ public class Configuration
     static final String PROP_IGNORE_TIMEOUT = "org.apache.felix.eventadmin.IgnoreTimeout";
     static final String PROP_IGNORE_TOPIC = "org.apache.felix.eventadmin.IgnoreTopic";
     static final String PROP_LOG_LEVEL = "org.apache.felix.eventadmin.LogLevel";
+    static final String PROP_ASYNC_QUEUE_SIZE = "org.apache.felix.eventadmin.AsyncQueueSize";
+    static final String PROP_ASYNC_QUEUE_POLICY = "org.apache.felix.eventadmin.AsyncQueuePolicy";
+
+    static final String QUEUE_POLICY_BLOCK = "block";
+    static final String QUEUE_POLICY_DROP_OLDEST = "dropOldest";
+    static final String QUEUE_POLICY_DROP_NEWEST = "dropNewest";
 
     /** The bundle context. */
     private final BundleContext m_bundleContext;
@@ -155,6 +173,10 @@ public class Configuration
 
     private int m_logLevel;
 
+    private int m_asyncQueueSize;
+
+    private AsyncDeliverTasks.QueuePolicy m_asyncQueuePolicy;
+
     // The thread pool used - this is a member because we need to close it on stop
     private volatile DefaultThreadPool m_sync_pool;
 
@@ -329,6 +351,12 @@ public class Configuration
                     m_bundleContext.getProperty(PROP_LOG_LEVEL),
                     LogWrapper.LOG_WARNING, // default log level is WARNING
                     LogWrapper.LOG_ERROR);
+
+            // The maximum number of events queued per handler - 0 means no limit
+            m_asyncQueueSize = getIntProperty(PROP_ASYNC_QUEUE_SIZE,
+                    m_bundleContext.getProperty(PROP_ASYNC_QUEUE_SIZE), 0, 0);
+            m_asyncQueuePolicy = getQueuePolicyProperty(PROP_ASYNC_QUEUE_POLICY,
+                    m_bundleContext.getProperty(PROP_ASYNC_QUEUE_POLICY));
         }
         else
         {
@@ -371,6 +399,8 @@ public class Configuration
                     config.get(PROP_LOG_LEVEL),
                     LogWrapper.LOG_WARNING, // default log level is WARNING
                     LogWrapper.LOG_ERROR);
+            m_asyncQueueSize = getIntProperty(PROP_ASYNC_QUEUE_SIZE, config.get(PROP_ASYNC_QUEUE_SIZE), 0, 0);
+            m_asyncQueuePolicy = getQueuePolicyProperty(PROP_ASYNC_QUEUE_POLICY, config.get(PROP_ASYNC_QUEUE_POLICY));
         }
         // a timeout less or equals to 100 means : disable timeout
         if ( m_timeout <= 100 )
@@ -395,6 +425,10 @@ public class Configuration
             PROP_TIMEOUT + "=" + m_timeout);
         LogWrapper.getLogger().log(LogWrapper.LOG_DEBUG,
             PROP_REQUIRE_TOPIC + "=" + m_requireTopic);
+        LogWrapper.getLogger().log(LogWrapper.LOG_DEBUG,
+            PROP_ASYNC_QUEUE_SIZE + "=" + m_asyncQueueSize);
+        LogWrapper.getLogger().log(LogWrapper.LOG_DEBUG,
+            PROP_ASYNC_QUEUE_POLICY + "=" + m_asyncQueuePolicy);
 
         // Note that this uses a lazy thread pool that will create new threads on
         // demand - in case none of its cached threads is free - until threadPoolSize
@@ -426,7 +460,9 @@ public class Configuration
                     m_timeout,
                     m_ignoreTimeout,
                     m_requireTopic,
-                    m_ignoreTopics);
+                    m_ignoreTopics,
+                    m_asyncQueueSize,
+                    m_asyncQueuePolicy);
 
             // Finally, adapt the outside events to our kind of events as per spec
             adaptEvents(m_admin);
@@ -439,7 +475,8 @@ public class Configuration
         }
         else
         {
-            m_admin.update(m_timeout, m_ignoreTimeout, m_requireTopic, m_ignoreTopics);
+            m_admin.update(m_timeout, m_ignoreTimeout, m_requireTopic, m_ignoreTopics,
+                    m_asyncQueueSize, m_asyncQueuePolicy);
         }
 
     }
@@ -510,7 +547,8 @@ public class Configuration
         {
             return new MetaTypeProviderImpl((ManagedService)managedService,
                     m_threadPoolSize, m_timeout, m_requireTopic,
-                    m_ignoreTimeout, m_ignoreTopics, m_asyncToSyncThreadRatio);
+                    m_ignoreTimeout, m_ignoreTopics, m_asyncToSyncThreadRatio,
+                    m_asyncQueueSize, m_asyncQueuePolicy);
         }
         catch (final Throwable t)
         {
@@ -621,6 +659,33 @@ public class Configuration
         return defaultValue;
     }
 
+    /**
+     * Returns the queue policy named by the value of the property if it is set or
+     * the default policy to block. Additionally, a warning is generated in case
+     * the value does not name a policy.
+     */
+    private AsyncDeliverTasks.QueuePolicy getQueuePolicyProperty(final String key, final Object value)
+    {
+        if ( null != value )
+        {
+            final String policy = value.toString().trim();
+            if ( QUEUE_POLICY_DROP_OLDEST.equalsIgnoreCase(policy) )
+            {
+                return AsyncDeliverTasks.QueuePolicy.DROP_OLDEST;
+            }
+            if ( QUEUE_POLICY_DROP_NEWEST.equalsIgnoreCase(policy) )
+            {
+                return AsyncDeliverTasks.QueuePolicy.DROP_NEWEST;
+            }
+            if ( !QUEUE_POLICY_BLOCK.equalsIgnoreCase(policy) )
+            {
+                LogWrapper.getLogger().log(LogWrapper.LOG_WARNING,
+                        "Value for property: " + key + " is not a queue policy - Using default");
+            }
+        }
+        return AsyncDeliverTasks.QueuePolicy.BLOCK;
+    }
+
     /**
      * Returns true if the value of the property is set and is either 1, true, or yes
      * Returns false if the value of the property is set and is either 0, false, or no
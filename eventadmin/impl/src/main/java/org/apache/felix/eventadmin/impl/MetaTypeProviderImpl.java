@@ -22,6 +22,7 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Dictionary;
 
+import org.apache.felix.eventadmin.impl.tasks.AsyncDeliverTasks;
 import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.cm.ManagedService;
 import org.osgi.service.metatype.AttributeDefinition;
@@ -42,6 +43,8 @@ public class MetaTypeProviderImpl
     private final String[] m_ignoreTimeout;
     private final String[] m_ignoreTopic;
     private final double m_asyncThreadPoolRatio;
+    private final int m_asyncQueueSize;
+    private final AsyncDeliverTasks.QueuePolicy m_asyncQueuePolicy;
 
     private final ManagedService m_delegatee;
 
@@ -50,7 +53,9 @@ public class MetaTypeProviderImpl
             final int timeout, final boolean requireTopic,
             final String[] ignoreTimeout,
             final String[] ignoreTopic,
-            final double asyncThreadPoolRatio)
+            final double asyncThreadPoolRatio,
+            final int asyncQueueSize,
+            final AsyncDeliverTasks.QueuePolicy asyncQueuePolicy)
     {
         m_threadPoolSize = threadPoolSize;
         m_timeout = timeout;
@@ -59,6 +64,8 @@ public class MetaTypeProviderImpl
         m_ignoreTimeout = ignoreTimeout;
         m_ignoreTopic = ignoreTopic;
         m_asyncThreadPoolRatio = asyncThreadPoolRatio;
+        m_asyncQueueSize = asyncQueueSize;
+        m_asyncQueuePolicy = asyncQueuePolicy;
     }
 
     private ObjectClassDefinition ocd;
@@ -143,6 +150,26 @@ public class MetaTypeProviderImpl
                     "are ignored. If a single value neither ends with a dot nor with a start, this is assumed " +
                     "to define an exact topic. A single star can be used to disable delivery completely.",
                     AttributeDefinition.STRING, m_ignoreTopic, Integer.MAX_VALUE, null, null));
+            adList.add( new AttributeDefinitionImpl( Configuration.PROP_ASYNC_QUEUE_SIZE, "Async Queue Size",
+                    "The maximum number of posted events queued for a single event handler. The default " +
+                    "value is 0 which does not limit the queues. If a limit is set, the async queue policy " +
+                    "defines what happens if an event is posted to a full queue.",
+                    m_asyncQueueSize ) );
+            final String policy;
+            switch ( m_asyncQueuePolicy )
+            {
+                case DROP_OLDEST: policy = Configuration.QUEUE_POLICY_DROP_OLDEST; break;
+                case DROP_NEWEST: policy = Configuration.QUEUE_POLICY_DROP_NEWEST; break;
+                default: policy = Configuration.QUEUE_POLICY_BLOCK;
+            }
+            adList.add( new AttributeDefinitionImpl( Configuration.PROP_ASYNC_QUEUE_POLICY, "Async Queue Policy",
+                    "What to do if an event is posted to the full queue of an event handler: Block the " +
+                    "posting thread until the queue has room, drop the oldest queued event or drop the " +
+                    "posted event.",
+                    AttributeDefinition.STRING, new String[] {policy}, 0,
+                    new String[] {"Block", "Drop Oldest", "Drop Newest"},
+                    new String[] {Configuration.QUEUE_POLICY_BLOCK, Configuration.QUEUE_POLICY_DROP_OLDEST,
+                        Configuration.QUEUE_POLICY_DROP_NEWEST}));
             ocd = new ObjectClassDefinition()
             {
 
@@ -58,6 +58,8 @@ public class EventAdminImpl implements EventAdmin
      *
      * @param syncPool The synchronous thread pool
      * @param asyncPool The asynchronous thread pool
+     * @param asyncQueueSize The maximum number of events queued per handler
+     * @param asyncQueuePolicy What to do if an event is posted to a full queue
      */
     public EventAdminImpl(
                     final BundleContext bundleContext,
@@ -66,7 +68,9 @@ public class EventAdminImpl implements EventAdmin
                     final int timeout,
                     final String[] ignoreTimeout,
                     final boolean requireTopic,
-                    final String[] ignoreTopics)
+                    final String[] ignoreTopics,
+                    final int asyncQueueSize,
+                    final AsyncDeliverTasks.QueuePolicy asyncQueuePolicy)
     {
         checkNull(syncPool, "syncPool");
         checkNull(asyncPool, "asyncPool");
@@ -75,7 +79,7 @@ public class EventAdminImpl implements EventAdmin
         this.tracker.update(ignoreTimeout, requireTopic);
         this.tracker.open();
         m_sendManager = new SyncDeliverTasks(syncPool, timeout);
-        m_postManager = new AsyncDeliverTasks(asyncPool, m_sendManager);
+        m_postManager = new AsyncDeliverTasks(asyncPool, timeout, asyncQueueSize, asyncQueuePolicy);
         m_ignoreTopics = Matchers.createEventTopicMatchers(ignoreTopics);
     }
 
@@ -155,6 +159,7 @@ public class EventAdminImpl implements EventAdmin
     {
         this.tracker.close();
         this.tracker = null;
+        this.m_postManager.stop();
     }
 
     /**
@@ -163,11 +168,14 @@ public class EventAdminImpl implements EventAdmin
     public void update(final int timeout,
                     final String[] ignoreTimeout,
                     final boolean requireTopic,
-                    final String[] ignoreTopics)
+                    final String[] ignoreTopics,
+                    final int asyncQueueSize,
+                    final AsyncDeliverTasks.QueuePolicy asyncQueuePolicy)
     {
         this.tracker.close();
         this.tracker.update(ignoreTimeout, requireTopic);
         this.m_sendManager.update(timeout);
+        this.m_postManager.update(timeout, asyncQueueSize, asyncQueuePolicy);
         this.tracker.open();
         this.m_ignoreTopics = Matchers.createEventTopicMatchers(ignoreTopics);
     }
@@ -325,6 +325,14 @@ public class EventHandlerProxy {
         return this.topics;
     }
 
+    /**
+     * Get the event filter of this handler or <code>null</code>.
+     */
+    Filter getFilter()
+    {
+        return this.filter;
+    }
+
     /**
      * Check if this handler is allowed to receive the event
      * - blacklisted
@@ -351,11 +359,14 @@ public class EventHandlerProxy {
             return false;
         }
 
-        // permission check
-        final Object p = PermissionsUtil.createSubscribePermission(event.getTopic());
-        if (p != null && !bundle.hasPermission(p) )
+        // permission check, which always passes without security manager
+        if ( System.getSecurityManager() != null )
         {
-            return false;
+            final Object p = PermissionsUtil.createSubscribePermission(event.getTopic());
+            if (p != null && !bundle.hasPermission(p) )
+            {
+                return false;
+            }
         }
 
         return true;
@@ -426,6 +437,14 @@ public class EventHandlerProxy {
         }
     }
 
+    /**
+     * Is this handler blacklisted?
+     */
+    public boolean isBlacklisted()
+    {
+        return this.blacklisted;
+    }
+
     /**
      * Blacklist the handler.
      */
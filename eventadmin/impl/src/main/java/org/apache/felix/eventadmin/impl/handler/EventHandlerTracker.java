@@ -19,7 +19,7 @@
 package org.apache.felix.eventadmin.impl.handler;
 
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -54,6 +54,14 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
 	private final Map<String, List<EventHandlerProxy>> matchingPrefixTopic;
 
 
+    /** The maximum number of topics for which the handlers are cached. */
+    private static final int MAX_CACHED_TOPICS = 4096;
+
+    /** The handlers by topic, computed on demand. The map is replaced
+     * whenever the handlers change.
+     */
+    private volatile Map<String, MatchingHandlers> topicHandlers = new ConcurrentHashMap<>();
+
 	/** The context for the proxies. */
 	private HandlerContext handlerContext;
 
@@ -161,6 +169,7 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
     			}
     		}
 		}
+		this.topicHandlers = new ConcurrentHashMap<>();
 	}
 
     /**
@@ -189,21 +198,41 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
                 }
             }
         }
+        this.topicHandlers = new ConcurrentHashMap<>();
 	}
 
 	/**
 	 * Get all handlers for this event
 	 *
 	 * @param event The event topic
-	 * @return All handlers for the event
+	 * @return All handlers for the event, the collection must not be modified
 	 */
 	public Collection<EventHandlerProxy> getHandlers(final Event event) {
 	    final String topic = event.getTopic();
 
-		final Set<EventHandlerProxy> handlers = new HashSet<>();
+	    // the cache is read before the proxy collections, so an entry
+	    // computed concurrently to a change is put into the replaced cache
+	    final Map<String, MatchingHandlers> cache = this.topicHandlers;
+	    MatchingHandlers handlers = cache.get(topic);
+	    if ( handlers == null )
+	    {
+	        handlers = new MatchingHandlers(this.getSubscribedHandlers(topic));
+	        if ( cache.size() < MAX_CACHED_TOPICS )
+	        {
+	            cache.put(topic, handlers);
+	        }
+	    }
+	    return handlers.getHandlers(event);
+	}
+
+	/**
+	 * Get the handlers subscribed to the topic regardless of their filter
+	 */
+	private Collection<EventHandlerProxy> getSubscribedHandlers(final String topic) {
+		final Set<EventHandlerProxy> handlers = new LinkedHashSet<>();
 
 		// Add all handlers matching everything
-        this.checkHandlerAndAdd(handlers, this.matchingAllEvents, event);
+		this.addAll(handlers, this.matchingAllEvents);
 
 		// Now check for prefix matches
 		if ( !this.matchingPrefixTopic.isEmpty() )
@@ -212,35 +241,23 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
 			while (pos != -1)
 			{
 			    final String prefix = topic.substring(0, pos);
-		        this.checkHandlerAndAdd(handlers, this.matchingPrefixTopic.get(prefix), event);
+		        this.addAll(handlers, this.matchingPrefixTopic.get(prefix));
 
 				pos = prefix.lastIndexOf('/');
 			}
 		}
 
 		// Add the handlers for matching topic names
-		this.checkHandlerAndAdd(handlers, this.matchingTopic.get(topic), event);
+		this.addAll(handlers, this.matchingTopic.get(topic));
 
 		return handlers;
 	}
 
-	/**
-	 * Checks each handler from the proxy list if it can deliver the event
-	 * If the event can be delivered, the proxy is added to the handlers.
-	 */
-	private void checkHandlerAndAdd( final Set<EventHandlerProxy> handlers,
-	        final List<EventHandlerProxy> proxies,
-	        final Event event)
+	private void addAll(final Set<EventHandlerProxy> handlers, final List<EventHandlerProxy> proxies)
 	{
 	    if ( proxies != null )
 	    {
-            for(final EventHandlerProxy p : proxies)
-            {
-                if ( p.canDeliver(event) )
-                {
-                    handlers.add(p);
-                }
-            }
+	        handlers.addAll(proxies);
 	    }
 	}
 
@@ -0,0 +1,269 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.eventadmin.impl.handler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.osgi.framework.Filter;
+import org.osgi.service.event.Event;
+
+/**
+ * The handlers subscribed to one topic. Instances are immutable and
+ * cached by the {@link EventHandlerTracker} until the handlers change.
+ * <p>
+ * Handlers with an event filter having an equality term which must match,
+ * like <code>(type=added)</code> in <code>(&amp;(type=added)(id=*))</code>,
+ * are grouped by the attribute and value of that term: For an event only
+ * the handlers of the group matching the event property are checked.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+final class MatchingHandlers
+{
+    /** All handlers. */
+    private final Collection<EventHandlerProxy> all;
+
+    /** The handlers without filter or without equality term. */
+    private final EventHandlerProxy[] unindexed;
+
+    /** The attributes of the equality terms. */
+    private final String[] attributes;
+
+    /** The handlers by value of the term for each attribute. */
+    private final List<Map<String, EventHandlerProxy[]>> indexed;
+
+    /**
+     * Create the handlers
+     * @param proxies The handlers subscribed to the topic, without duplicates
+     */
+    MatchingHandlers(final Collection<EventHandlerProxy> proxies)
+    {
+        final List<EventHandlerProxy> unindexedList = new ArrayList<>();
+        final Map<String, Map<String, List<EventHandlerProxy>>> groups = new LinkedHashMap<>();
+        for(final EventHandlerProxy proxy : proxies)
+        {
+            final Filter filter = proxy.getFilter();
+            final String[] term = filter == null ? null : getIndexTerm(filter.toString());
+            if ( term == null )
+            {
+                unindexedList.add(proxy);
+                continue;
+            }
+            Map<String, List<EventHandlerProxy>> byValue = groups.get(term[0]);
+            if ( byValue == null )
+            {
+                byValue = new HashMap<>();
+                groups.put(term[0], byValue);
+            }
+            List<EventHandlerProxy> group = byValue.get(term[1]);
+            if ( group == null )
+            {
+                group = new ArrayList<>();
+                byValue.put(term[1], group);
+            }
+            group.add(proxy);
+        }
+
+        this.all = Collections.unmodifiableList(new ArrayList<>(proxies));
+        this.unindexed = unindexedList.toArray(new EventHandlerProxy[unindexedList.size()]);
+        this.attributes = groups.keySet().toArray(new String[groups.size()]);
+        this.indexed = new ArrayList<>(groups.size());
+        for(final Map<String, List<EventHandlerProxy>> byValue : groups.values())
+        {
+            final Map<String, EventHandlerProxy[]> group = new HashMap<>();
+            for(final Map.Entry<String, List<EventHandlerProxy>> entry : byValue.entrySet())
+            {
+                group.put(entry.getKey(), entry.getValue().toArray(new EventHandlerProxy[entry.getValue().size()]));
+            }
+            this.indexed.add(group);
+        }
+    }
+
+    /**
+     * Get the handlers which can receive the event. If all handlers can
+     * receive the event the returned collection is shared and must not be
+     * modified.
+     */
+    Collection<EventHandlerProxy> getHandlers(final Event event)
+    {
+        if ( this.attributes.length == 0 )
+        {
+            for(int i = 0; i < this.unindexed.length; i++)
+            {
+                if ( !this.unindexed[i].canDeliver(event) )
+                {
+                    final List<EventHandlerProxy> handlers = new ArrayList<>(this.unindexed.length - 1);
+                    for(int j = 0; j < i; j++)
+                    {
+                        handlers.add(this.unindexed[j]);
+                    }
+                    this.checkHandlerAndAdd(handlers, this.unindexed, i + 1, event);
+                    return handlers;
+                }
+            }
+            return this.all;
+        }
+
+        final List<EventHandlerProxy> handlers = new ArrayList<>();
+        this.checkHandlerAndAdd(handlers, this.unindexed, 0, event);
+        for(int i = 0; i < this.attributes.length; i++)
+        {
+            final Object value = event.getProperty(this.attributes[i]);
+            if ( value instanceof String )
+            {
+                this.checkHandlerAndAdd(handlers, this.indexed.get(i).get(value), 0, event);
+            }
+            else if ( value != null )
+            {
+                // other types are compared after converting the filter
+                // value, so all handlers of the attribute may match
+                for(final EventHandlerProxy[] group : this.indexed.get(i).values())
+                {
+                    this.checkHandlerAndAdd(handlers, group, 0, event);
+                }
+            }
+        }
+        return handlers;
+    }
+
+    /**
+     * Checks each handler from the given index on if it can deliver the
+     * event. If the event can be delivered, the proxy is added to the handlers.
+     */
+    private void checkHandlerAndAdd(final List<EventHandlerProxy> handlers,
+            final EventHandlerProxy[] proxies,
+            final int start,
+            final Event event)
+    {
+        if ( proxies != null )
+        {
+            for(int i = start; i < proxies.length; i++)
+            {
+                if ( proxies[i].canDeliver(event) )
+                {
+                    handlers.add(proxies[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the attribute and value of the equality term of the given
+     * filter string used for grouping, or <code>null</code> if the filter
+     * has no equality term which must match for the filter to match. Only
+     * the terms of a filter consisting of a single term or of a top-level
+     * conjunction are considered.
+     */
+    static String[] getIndexTerm(final String filter)
+    {
+        if ( filter.startsWith("(&") && filter.endsWith(")") )
+        {
+            int start = 2;
+            while ( start < filter.length() - 1 && filter.charAt(start) == '(' )
+            {
+                final int end = findClosingParenthesis(filter, start);
+                if ( end < 0 )
+                {
+                    return null;
+                }
+                final String[] term = getEqualityTerm(filter.substring(start, end + 1));
+                if ( term != null )
+                {
+                    return term;
+                }
+                start = end + 1;
+            }
+            return null;
+        }
+        return getEqualityTerm(filter);
+    }
+
+    /**
+     * Returns the index of the parenthesis closing the one at start.
+     */
+    private static int findClosingParenthesis(final String filter, final int start)
+    {
+        int depth = 0;
+        for(int i = start; i < filter.length(); i++)
+        {
+            switch ( filter.charAt(i) )
+            {
+                case '\\':
+                    i++;
+                    break;
+                case '(':
+                    depth++;
+                    break;
+                case ')':
+                    if ( --depth == 0 )
+                    {
+                        return i;
+                    }
+                    break;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the attribute and unescaped value of the simple filter if it
+     * is an equality term without wildcards.
+     */
+    private static String[] getEqualityTerm(final String simple)
+    {
+        if ( simple.length() < 4 || simple.charAt(0) != '(' || simple.charAt(simple.length() - 1) != ')' )
+        {
+            return null;
+        }
+        final int eq = simple.indexOf('=');
+        if ( eq < 2 )
+        {
+            return null;
+        }
+        final String attribute = simple.substring(1, eq);
+        if ( attribute.indexOf('(') >= 0 || "&|!~<>".indexOf(attribute.charAt(attribute.length() - 1)) >= 0
+            || "&|!".indexOf(attribute.charAt(0)) >= 0 )
+        {
+            return null;
+        }
+
+        final StringBuilder value = new StringBuilder();
+        for(int i = eq + 1; i < simple.length() - 1; i++)
+        {
+            char c = simple.charAt(i);
+            if ( c == '*' )
+            {
+                // presence or substring
+                return null;
+            }
+            if ( c == '\\' && i < simple.length() - 2 )
+            {
+                c = simple.charAt(++i);
+            }
+            value.append(c);
+        }
+        return new String[] {attribute, value.toString()};
+    }
+}
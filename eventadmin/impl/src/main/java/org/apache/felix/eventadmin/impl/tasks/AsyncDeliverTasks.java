@@ -18,44 +18,164 @@
  */
 package org.apache.felix.eventadmin.impl.tasks;
 
+import java.util.ArrayDeque;
 import java.util.Collection;
-import java.util.Map;
+import java.util.Deque;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.felix.eventadmin.impl.handler.EventHandlerProxy;
+import org.apache.felix.eventadmin.impl.util.LogWrapper;
 import org.osgi.service.event.Event;
 
 /**
  * This class does the actual work of the asynchronous event dispatch.
  *
+ * Each event handler has its own lane, a queue of the events posted to it.
+ * Posting an event appends it to the lanes of all handlers, so each handler
+ * receives the events in the order they have been posted. A lane with events
+ * is drained by a thread from the pool, delivering a batch of events before
+ * giving the thread back to the pool. Lanes of different handlers are
+ * drained in parallel.
+ *
+ * Handlers are called directly by the draining thread. If a timeout is
+ * configured, a watchdog checks the running deliveries and blacklists a
+ * handler once it exceeds the timeout. Events queued for a blacklisted
+ * handler are discarded, events posted to it are dropped and threads
+ * waiting for room in its lane are released.
+ *
+ * If a queue size is configured, the lanes are bounded and the queue policy
+ * defines what happens if an event is posted to a full lane: the posting
+ * thread is blocked until the lane has room, the oldest queued event is
+ * dropped or the posted event is dropped. Threads delivering events are
+ * never blocked, as this could block the delivery itself.
+ *
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
 public class AsyncDeliverTasks
 {
+    /** What to do if an event is posted to a full lane. */
+    public enum QueuePolicy
+    {
+        /** Block the posting thread until the lane has room. */
+        BLOCK,
+        /** Drop the oldest event queued in the lane. */
+        DROP_OLDEST,
+        /** Drop the posted event. */
+        DROP_NEWEST
+    }
+
+    /** The number of events delivered by a thread before it is released. */
+    private static final int BATCH_SIZE = 64;
+
+    /** Marks the threads currently draining a lane. */
+    private static final ThreadLocal<Lane> DRAINING = new ThreadLocal<Lane>();
+
     /** The thread pool to use to spin-off new threads. */
     private final DefaultThreadPool m_pool;
 
-    /** The deliver task for actually delivering the events. This
-     * is the sync deliver tasks as this has all the code for timeout
-     * handling etc.
-     */
-    private final SyncDeliverTasks m_deliver_task;
+    /** The lanes by event handler. Idle lanes are removed. */
+    private final ConcurrentMap<EventHandlerProxy, Lane> m_lanes = new ConcurrentHashMap<EventHandlerProxy, Lane>();
 
-    /** A map of running threads currently delivering async events. */
-    private final Map<Long, TaskExecuter> m_running_threads = new ConcurrentHashMap<Long, TaskExecuter>();
+    /** The watchdog checking for handlers exceeding the timeout. */
+    private final ScheduledExecutorService m_watchdog;
+
+    /** The scheduled watchdog check, if a timeout is configured. */
+    private ScheduledFuture<?> m_watchdogCheck;
+
+    private volatile long m_timeout;
+
+    private volatile int m_queueSize;
+
+    private volatile QueuePolicy m_queuePolicy;
+
+    /** Metrics. */
+    private final AtomicLong m_posted = new AtomicLong();
+    private final AtomicLong m_delivered = new AtomicLong();
+    private final AtomicLong m_dropped = new AtomicLong();
+    private final AtomicLong m_blacklisted = new AtomicLong();
+    private final AtomicInteger m_maxQueueDepth = new AtomicInteger();
 
     /**
      * The constructor of the class that will use the asynchronous.
      *
      * @param pool The thread pool used to spin-off new asynchronous event
-     *      dispatching threads in case of timeout or that the asynchronous event
-     *      dispatching thread is used to send a synchronous event
-     * @param deliverTask The deliver tasks for dispatching the event.
+     *      dispatching threads
+     * @param timeout The timeout in milliseconds after which a handler is
+     *      blacklisted or <code>0</code> to disable timeouts
+     * @param queueSize The maximum number of events queued per handler or
+     *      <code>0</code> for no limit
+     * @param queuePolicy What to do if an event is posted to a full queue
      */
-    public AsyncDeliverTasks(final DefaultThreadPool pool, final SyncDeliverTasks deliverTask)
+    public AsyncDeliverTasks(final DefaultThreadPool pool,
+            final long timeout,
+            final int queueSize,
+            final QueuePolicy queuePolicy)
     {
         m_pool = pool;
-        m_deliver_task = deliverTask;
+        m_watchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(final Runnable command)
+            {
+                final Thread thread = new Thread(command, "EventAdminWatchdog");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.update(timeout, queueSize, queuePolicy);
+    }
+
+    /**
+     * Update the configuration
+     */
+    public synchronized void update(final long timeout, final int queueSize, final QueuePolicy queuePolicy)
+    {
+        m_queueSize = queueSize;
+        m_queuePolicy = queuePolicy;
+        if ( m_timeout != timeout || m_watchdogCheck == null )
+        {
+            m_timeout = timeout;
+            if ( m_watchdogCheck != null )
+            {
+                m_watchdogCheck.cancel(false);
+                m_watchdogCheck = null;
+            }
+            if ( timeout > 0 )
+            {
+                final long period = Math.max(10, timeout / 2);
+                m_watchdogCheck = m_watchdog.scheduleAtFixedRate(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        checkTimeouts();
+                    }
+                }, period, period, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Stop the watchdog. Events still queued are delivered as long as the
+     * thread pool is available.
+     */
+    public synchronized void stop()
+    {
+        m_watchdog.shutdownNow();
+        LogWrapper.getLogger().log(LogWrapper.LOG_DEBUG,
+                "Asynchronous delivery: posted=" + getPostedCount()
+                + ", delivered=" + getDeliveredCount()
+                + ", dropped=" + getDroppedCount()
+                + ", blacklisted=" + getBlacklistedCount()
+                + ", maxQueueDepth=" + getMaxQueueDepth());
     }
 
     /**
@@ -66,127 +186,296 @@ public class AsyncDeliverTasks
      */
     public void execute(final Collection<EventHandlerProxy> tasks, final Event event)
     {
-        /*
-        final Iterator i = tasks.iterator();
-        boolean hasOrdered = false;
-        while ( i.hasNext() )
+        for(final EventHandlerProxy task : tasks)
         {
-            final EventHandlerProxy task = (EventHandlerProxy)i.next();
-            if ( !task.isAsyncOrderedDelivery() )
+            this.enqueue(task, event);
+        }
+    }
+
+    /**
+     * Append the event to the lane of the handler and make sure the lane is
+     * drained.
+     */
+    private void enqueue(final EventHandlerProxy handler, final Event event)
+    {
+        while ( true )
+        {
+            Lane lane = m_lanes.get(handler);
+            if ( lane == null )
             {
-                // do somethimg
+                final Lane newLane = new Lane(handler);
+                lane = m_lanes.putIfAbsent(handler, newLane);
+                if ( lane == null )
+                {
+                    lane = newLane;
+                }
             }
-            else
+
+            final boolean schedule;
+            synchronized ( lane )
             {
-                hasOrdered = true;
-            }
+                if ( lane.closed )
+                {
+                    // the lane has just been removed, get a new one
+                    continue;
+                }
+                if ( !this.makeRoom(lane) )
+                {
+                    m_dropped.incrementAndGet();
+                    return;
+                }
+                if ( lane.closed )
+                {
+                    // drained and removed while waiting for room
+                    continue;
+                }
+                lane.events.addLast(event);
+                m_posted.incrementAndGet();
 
-        }
-        if ( hasOrdered )
-        {*/
-            final TaskInfo info = new TaskInfo(tasks, event);
-            final Long currentThreadId = Thread.currentThread().getId();
-            TaskExecuter executer = m_running_threads.get(currentThreadId);
-            if ( executer == null )
+                final int depth = lane.events.size();
+                int max;
+                while ( depth > (max = m_maxQueueDepth.get()) && !m_maxQueueDepth.compareAndSet(max, depth) )
+                {
+                    // retry
+                }
+
+                schedule = !lane.scheduled;
+                lane.scheduled = true;
+            }
+            if ( schedule )
             {
-                executer = new TaskExecuter(currentThreadId, m_running_threads);
+                this.schedule(lane);
             }
-            synchronized ( executer )
+            return;
+        }
+    }
+
+    /**
+     * Make room for an event in the lane according to the queue policy.
+     * Must be called holding the lane lock.
+     * @return <code>false</code> if the event must be dropped
+     */
+    private boolean makeRoom(final Lane lane)
+    {
+        if ( lane.handler.isBlacklisted() )
+        {
+            return false;
+        }
+        final int queueSize = m_queueSize;
+        if ( queueSize <= 0 )
+        {
+            return true;
+        }
+        while ( lane.events.size() >= queueSize )
+        {
+            switch ( m_queuePolicy )
             {
-                executer.add(info);
-                if ( !executer.isActive() )
-                {
-                    // reactivate thread
-                    executer.setSyncDeliverTasks(m_deliver_task);
-                    if ( !m_pool.executeTask(executer) )
+                case DROP_NEWEST:
+                    return false;
+
+                case DROP_OLDEST:
+                    lane.events.removeFirst();
+                    m_dropped.incrementAndGet();
+                    break;
+
+                default:
+                    if ( DRAINING.get() != null )
                     {
-                        // scheduling failed: last resort, call directly
-                        executer.run();
+                        // never block a delivering thread
+                        return true;
+                    }
+                    try
+                    {
+                        lane.wait();
+                    }
+                    catch (final InterruptedException ie)
+                    {
+                        Thread.currentThread().interrupt();
+                        return true;
                     }
-                    m_running_threads.put(currentThreadId, executer);
-                }
             }
-        //}
+        }
+        // the handler may have been blacklisted while waiting
+        return !lane.handler.isBlacklisted();
     }
 
-    private final static class TaskInfo {
-        public final Collection<EventHandlerProxy> tasks;
-        public final Event event;
+    /**
+     * Schedule the lane to be drained by a thread from the pool.
+     */
+    private void schedule(final Lane lane)
+    {
+        if ( !m_pool.executeTask(lane) )
+        {
+            // scheduling failed: last resort, call directly
+            lane.run();
+        }
+    }
 
-        public TaskInfo next;
+    /**
+     * Blacklist the handlers currently exceeding the timeout.
+     */
+    private void checkTimeouts()
+    {
+        final long timeout = m_timeout;
+        final long now = System.currentTimeMillis();
+        for(final Lane lane : m_lanes.values())
+        {
+            final long start = lane.deliveryStart;
+            if ( start > 0 && now - start > timeout && lane.handler.useTimeout() )
+            {
+                this.blacklist(lane.handler);
+            }
+        }
+    }
 
-        public TaskInfo(final Collection<EventHandlerProxy> tasks, final Event event) {
-            this.tasks = tasks;
-            this.event = event;
+    private void blacklist(final EventHandlerProxy handler)
+    {
+        if ( !handler.isBlacklisted() )
+        {
+            handler.blackListHandler();
+            m_blacklisted.incrementAndGet();
+        }
+        final Lane lane = m_lanes.get(handler);
+        if ( lane != null )
+        {
+            synchronized ( lane )
+            {
+                // discard the queued events and release the waiting posters
+                m_dropped.addAndGet(lane.events.size());
+                lane.events.clear();
+                lane.notifyAll();
+            }
         }
     }
 
-    private final static class TaskExecuter implements Runnable
+    /**
+     * Returns the number of events queued for delivery to a handler.
+     */
+    public long getPostedCount()
     {
-        private volatile TaskInfo first;
-        private volatile TaskInfo last;
+        return m_posted.get();
+    }
 
-        private volatile SyncDeliverTasks m_deliver_task;
+    /**
+     * Returns the number of events delivered to a handler.
+     */
+    public long getDeliveredCount()
+    {
+        return m_delivered.get();
+    }
 
-        private final Map<Long, TaskExecuter> m_running_threads;
+    /**
+     * Returns the number of events dropped due to the queue policy.
+     */
+    public long getDroppedCount()
+    {
+        return m_dropped.get();
+    }
 
-        private final long threadId;
+    /**
+     * Returns the number of handlers blacklisted due to a timeout.
+     */
+    public long getBlacklistedCount()
+    {
+        return m_blacklisted.get();
+    }
 
-        public TaskExecuter(final long threadId, final Map<Long, TaskExecuter> runningThreads) {
-            m_running_threads = runningThreads;
-            this.threadId = threadId;
-        }
+    /**
+     * Returns the largest number of events queued for a handler.
+     */
+    public int getMaxQueueDepth()
+    {
+        return m_maxQueueDepth.get();
+    }
 
-        public boolean isActive()
-        {
-            return this.m_deliver_task != null;
-        }
+    /**
+     * The events to deliver to one handler.
+     */
+    private final class Lane implements Runnable
+    {
+        final EventHandlerProxy handler;
+
+        /** The queued events, guarded by this lane. */
+        final Deque<Event> events = new ArrayDeque<Event>();
+
+        /** Is the lane scheduled or being drained, guarded by this lane. */
+        boolean scheduled;
+
+        /** Has the lane been removed, guarded by this lane. */
+        boolean closed;
 
-        public void setSyncDeliverTasks(final SyncDeliverTasks syncDeliverTasks)
+        /** The start time of the current delivery or 0 if idle. */
+        volatile long deliveryStart;
+
+        Lane(final EventHandlerProxy handler)
         {
-            this.m_deliver_task = syncDeliverTasks;
+            this.handler = handler;
         }
 
+        /**
+         * Deliver batches of events. If more events are queued after a
+         * batch, the lane is scheduled again to give other lanes a chance
+         * to run.
+         */
         @Override
         public void run()
         {
-            boolean running;
-            do
+            final Lane previous = DRAINING.get();
+            DRAINING.set(this);
+            try
             {
-                TaskInfo info = null;
-                synchronized ( this )
+                do
                 {
-                    info = first;
-                    first = info.next;
-                    if ( first == null )
+                    for(int i = 0; i < BATCH_SIZE; i++)
                     {
-                        last = null;
+                        final Event event;
+                        synchronized ( this )
+                        {
+                            event = this.events.pollFirst();
+                            if ( event == null )
+                            {
+                                this.scheduled = false;
+                                this.closed = true;
+                                m_lanes.remove(this.handler, this);
+                                return;
+                            }
+                            // release a poster waiting for room
+                            this.notifyAll();
+                        }
+                        this.deliver(event);
                     }
                 }
-                m_deliver_task.execute(info.tasks, info.event, true);
-                synchronized ( this )
-                {
-                    running = first != null;
-                    if ( !running )
-                    {
-                        this.m_deliver_task = null;
-                        this.m_running_threads.remove(threadId);
-                    }
-                }
-            } while ( running );
+                // scheduling failed: last resort, continue directly
+                while ( !m_pool.executeTask(this) );
+            }
+            finally
+            {
+                DRAINING.set(previous);
+            }
         }
 
-        public void add(final TaskInfo info)
+        private void deliver(final Event event)
         {
-            if ( first == null )
+            if ( this.handler.isBlacklisted() )
+            {
+                m_dropped.incrementAndGet();
+                return;
+            }
+            final long timeout = m_timeout;
+            final long start = System.currentTimeMillis();
+            this.deliveryStart = start;
+            try
+            {
+                this.handler.sendEvent(event);
+            }
+            finally
             {
-                first = info;
-                last = info;
+                this.deliveryStart = 0;
             }
-            else
+            m_delivered.incrementAndGet();
+            if ( timeout > 0 && System.currentTimeMillis() - start > timeout && this.handler.useTimeout() )
             {
-                last.next = info;
-                last = info;
+                blacklist(this.handler);
             }
         }
     }
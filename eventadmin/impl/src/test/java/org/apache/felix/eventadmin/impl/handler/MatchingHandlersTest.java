@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.eventadmin.impl.handler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.service.event.Event;
+
+public class MatchingHandlersTest {
+
+    @Test public void testIndexTerm()
+    {
+        assertArrayEquals(new String[] {"type", "added"}, MatchingHandlers.getIndexTerm("(type=added)"));
+        assertArrayEquals(new String[] {"type", "added"}, MatchingHandlers.getIndexTerm("(&(id=*)(type=added))"));
+        assertArrayEquals(new String[] {"type", "a(b)*"}, MatchingHandlers.getIndexTerm("(type=a\\(b\\)\\*)"));
+        assertArrayEquals(new String[] {"type", "added"}, MatchingHandlers.getIndexTerm("(&(|(a=b)(c=d))(!(e=f))(type=added))"));
+
+        assertNull(MatchingHandlers.getIndexTerm("(type=add*)"));
+        assertNull(MatchingHandlers.getIndexTerm("(type=*)"));
+        assertNull(MatchingHandlers.getIndexTerm("(count>=5)"));
+        assertNull(MatchingHandlers.getIndexTerm("(type~=added)"));
+        assertNull(MatchingHandlers.getIndexTerm("(|(type=added)(type=removed))"));
+        assertNull(MatchingHandlers.getIndexTerm("(!(type=added))"));
+    }
+
+    @Test public void testUnfilteredHandlersShared()
+    {
+        final List<EventHandlerProxy> proxies = Arrays.<EventHandlerProxy> asList(new TestProxy(null), new TestProxy(null));
+        final MatchingHandlers handlers = new MatchingHandlers(proxies);
+
+        final Collection<EventHandlerProxy> result = handlers.getHandlers(event("type", "added"));
+        assertEquals(proxies, new ArrayList<>(result));
+        assertSame(result, handlers.getHandlers(event("type", "removed")));
+
+        // handlers which cannot receive the event are removed
+        ((TestProxy) proxies.get(0)).blacklisted = true;
+        assertEquals(Arrays.asList(proxies.get(1)), handlers.getHandlers(event("type", "added")));
+    }
+
+    @Test public void testFilteredHandlers() throws Exception
+    {
+        final List<TestProxy> proxies = new ArrayList<>();
+        for(int i = 0; i < 100; i++)
+        {
+            proxies.add(new TestProxy("(&(id=" + i + ")(type=added))"));
+        }
+        final TestProxy range = new TestProxy("(count>=5)");
+        proxies.add(range);
+        final TestProxy unfiltered = new TestProxy(null);
+        proxies.add(unfiltered);
+        final MatchingHandlers handlers = new MatchingHandlers(new ArrayList<EventHandlerProxy>(proxies));
+
+        final Map<String, Object> props = new HashMap<>();
+        props.put("id", "42");
+        props.put("type", "added");
+        props.put("count", 7);
+        assertEquals(new HashSet<>(Arrays.asList(proxies.get(42), range, unfiltered)),
+                new HashSet<>(handlers.getHandlers(new Event("a/b", props))));
+
+        // only the handlers of the matching group are checked
+        int checked = 0;
+        for(final TestProxy proxy : proxies)
+        {
+            checked += proxy.checks;
+        }
+        assertEquals(3, checked);
+
+        props.put("id", "other");
+        assertEquals(new HashSet<>(Arrays.asList(range, unfiltered)),
+                new HashSet<>(handlers.getHandlers(new Event("a/b", props))));
+
+        // non string values are converted by the filter, so all may match
+        props.put("id", 42);
+        assertEquals(new HashSet<>(Arrays.asList(proxies.get(42), range, unfiltered)),
+                new HashSet<>(handlers.getHandlers(new Event("a/b", props))));
+
+        props.remove("id");
+        assertEquals(new HashSet<>(Arrays.asList(range, unfiltered)),
+                new HashSet<>(handlers.getHandlers(new Event("a/b", props))));
+    }
+
+    @Test public void testGroupedMatchesFilter() throws Exception
+    {
+        final List<TestProxy> proxies = Arrays.asList(
+                new TestProxy("(&(id=a)(type=added))"),
+                new TestProxy("(id=b)"),
+                new TestProxy("(Id=c)"),
+                new TestProxy("(id=d*)"));
+        final MatchingHandlers handlers = new MatchingHandlers(new ArrayList<EventHandlerProxy>(proxies));
+
+        for(final String id : new String[] {"a", "b", "c", "dd", "e"})
+        {
+            final Map<String, Object> props = new HashMap<>();
+            props.put("id", id);
+            props.put("type", "added");
+            final Event event = new Event("a/b", props);
+            final Collection<EventHandlerProxy> result = handlers.getHandlers(event);
+            for(final TestProxy proxy : proxies)
+            {
+                assertEquals(proxy.getFilter() + " " + id, event.matches(proxy.getFilter()), result.contains(proxy));
+            }
+        }
+        assertTrue(handlers.getHandlers(event("id", "c")).isEmpty());
+    }
+
+    private static Event event(final String key, final Object value)
+    {
+        final Map<String, Object> props = new HashMap<>();
+        props.put(key, value);
+        return new Event("a/b", props);
+    }
+
+    private static final class TestProxy extends EventHandlerProxy
+    {
+        private final Filter filter;
+
+        boolean blacklisted;
+
+        int checks;
+
+        TestProxy(final String filter)
+        {
+            super(null, null);
+            try
+            {
+                this.filter = filter == null ? null : FrameworkUtil.createFilter(filter);
+            }
+            catch (final Exception e)
+            {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        @Override
+        Filter getFilter()
+        {
+            return this.filter;
+        }
+
+        @Override
+        public boolean canDeliver(final Event event)
+        {
+            this.checks++;
+            return !this.blacklisted && (this.filter == null || event.matches(this.filter));
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.eventadmin.impl.tasks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.eventadmin.impl.handler.EventHandlerProxy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.service.event.Event;
+
+public class AsyncDeliverTasksTest {
+
+    private DefaultThreadPool pool;
+
+    private AsyncDeliverTasks tasks;
+
+    @Before public void setUp()
+    {
+        pool = new DefaultThreadPool(4, false);
+    }
+
+    @After public void tearDown()
+    {
+        if ( tasks != null )
+        {
+            tasks.stop();
+        }
+        pool.close();
+    }
+
+    @Test public void testOrderPerHandler() throws Exception
+    {
+        tasks = new AsyncDeliverTasks(pool, 0, 0, AsyncDeliverTasks.QueuePolicy.BLOCK);
+        final TestHandler[] handlers = new TestHandler[3];
+        for(int i = 0; i < handlers.length; i++)
+        {
+            handlers[i] = new TestHandler(1000);
+        }
+        for(int i = 0; i < 1000; i++)
+        {
+            tasks.execute(Arrays.<EventHandlerProxy> asList(handlers), event(i));
+        }
+        for(final TestHandler handler : handlers)
+        {
+            assertTrue(handler.done.await(1, TimeUnit.MINUTES));
+            for(int i = 0; i < 1000; i++)
+            {
+                assertEquals(i, handler.received.get(i).intValue());
+            }
+        }
+        assertEquals(3000, tasks.getPostedCount());
+        assertEquals(3000, tasks.getDeliveredCount());
+        assertEquals(0, tasks.getDroppedCount());
+    }
+
+    @Test public void testTimeoutBlacklists() throws Exception
+    {
+        tasks = new AsyncDeliverTasks(pool, 100, 0, AsyncDeliverTasks.QueuePolicy.BLOCK);
+        final CountDownLatch release = new CountDownLatch(1);
+        final TestHandler slow = new TestHandler(1)
+        {
+            @Override
+            public void sendEvent(final Event event)
+            {
+                try
+                {
+                    release.await(1, TimeUnit.MINUTES);
+                }
+                catch (final InterruptedException ie)
+                {
+                    // ignore
+                }
+                super.sendEvent(event);
+            }
+        };
+
+        tasks.execute(Collections.<EventHandlerProxy> singletonList(slow), event(0));
+        tasks.execute(Collections.<EventHandlerProxy> singletonList(slow), event(1));
+
+        // the watchdog blacklists the handler while it is still running
+        final long end = System.currentTimeMillis() + 10000;
+        while ( !slow.isBlacklisted() && System.currentTimeMillis() < end )
+        {
+            Thread.sleep(10);
+        }
+        assertTrue(slow.isBlacklisted());
+        release.countDown();
+
+        assertTrue(slow.done.await(1, TimeUnit.MINUTES));
+        waitFor(tasks, 1);
+        assertEquals(Arrays.asList(0), slow.received);
+        assertEquals(1, tasks.getBlacklistedCount());
+    }
+
+    @Test public void testBlacklistReleasesBlockedPoster() throws Exception
+    {
+        tasks = new AsyncDeliverTasks(pool, 100, 1, AsyncDeliverTasks.QueuePolicy.BLOCK);
+        final CountDownLatch release = new CountDownLatch(1);
+        final TestHandler hung = new TestHandler(1)
+        {
+            @Override
+            public void sendEvent(final Event event)
+            {
+                try
+                {
+                    release.await(1, TimeUnit.MINUTES);
+                }
+                catch (final InterruptedException ie)
+                {
+                    // ignore
+                }
+                super.sendEvent(event);
+            }
+        };
+
+        final Thread poster = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                for(int i = 0; i < 5; i++)
+                {
+                    tasks.execute(Collections.<EventHandlerProxy> singletonList(hung), event(i));
+                }
+            }
+        };
+        poster.start();
+
+        // the poster blocks on the full lane until the handler is blacklisted
+        poster.join(10000);
+        try
+        {
+            assertFalse(poster.isAlive());
+            assertTrue(hung.isBlacklisted());
+            assertEquals(4, tasks.getDroppedCount());
+        }
+        finally
+        {
+            release.countDown();
+        }
+        assertTrue(hung.done.await(1, TimeUnit.MINUTES));
+        waitFor(tasks, 1);
+        assertEquals(Arrays.asList(0), hung.received);
+    }
+
+    @Test public void testDropNewest() throws Exception
+    {
+        assertEquals(Arrays.asList(0, 1, 2, 3), deliverToBlockedHandler(AsyncDeliverTasks.QueuePolicy.DROP_NEWEST));
+        assertEquals(6, tasks.getDroppedCount());
+    }
+
+    @Test public void testDropOldest() throws Exception
+    {
+        assertEquals(Arrays.asList(0, 7, 8, 9), deliverToBlockedHandler(AsyncDeliverTasks.QueuePolicy.DROP_OLDEST));
+        assertEquals(6, tasks.getDroppedCount());
+    }
+
+    @Test public void testBlock() throws Exception
+    {
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9),
+                deliverToBlockedHandler(AsyncDeliverTasks.QueuePolicy.BLOCK));
+        assertEquals(0, tasks.getDroppedCount());
+        assertTrue(tasks.getMaxQueueDepth() <= 3);
+    }
+
+    /**
+     * Posts ten events to a handler with a queue of three events, where the
+     * handler blocks on the first event until all events have been posted
+     * or the posting thread is blocked.
+     */
+    private List<Integer> deliverToBlockedHandler(final AsyncDeliverTasks.QueuePolicy policy) throws Exception
+    {
+        tasks = new AsyncDeliverTasks(pool, 0, 3, policy);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final TestHandler handler = new TestHandler(1)
+        {
+            @Override
+            public void sendEvent(final Event event)
+            {
+                started.countDown();
+                try
+                {
+                    release.await(1, TimeUnit.MINUTES);
+                }
+                catch (final InterruptedException ie)
+                {
+                    // ignore
+                }
+                super.sendEvent(event);
+            }
+        };
+
+        final Thread poster = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                for(int i = 0; i < 10; i++)
+                {
+                    tasks.execute(Collections.<EventHandlerProxy> singletonList(handler), event(i));
+                    if ( i == 0 )
+                    {
+                        try
+                        {
+                            started.await(1, TimeUnit.MINUTES);
+                        }
+                        catch (final InterruptedException ie)
+                        {
+                            // ignore
+                        }
+                    }
+                }
+            }
+        };
+        poster.start();
+        if ( policy == AsyncDeliverTasks.QueuePolicy.BLOCK )
+        {
+            final long end = System.currentTimeMillis() + 10000;
+            while ( poster.getState() != Thread.State.WAITING && System.currentTimeMillis() < end )
+            {
+                Thread.sleep(10);
+            }
+            assertEquals(Thread.State.WAITING, poster.getState());
+        }
+        else
+        {
+            poster.join(10000);
+        }
+        release.countDown();
+        poster.join(10000);
+
+        final int expected = policy == AsyncDeliverTasks.QueuePolicy.BLOCK ? 10 : 4;
+        waitFor(tasks, expected);
+        return handler.received;
+    }
+
+    private static void waitFor(final AsyncDeliverTasks tasks, final int delivered) throws InterruptedException
+    {
+        final long end = System.currentTimeMillis() + 10000;
+        while ( tasks.getDeliveredCount() < delivered && System.currentTimeMillis() < end )
+        {
+            Thread.sleep(10);
+        }
+        // give the lane the chance to deliver more events than expected
+        Thread.sleep(50);
+    }
+
+    private static Event event(final int index)
+    {
+        final Map<String, Object> props = new HashMap<>();
+        props.put("index", index);
+        return new Event("test/event", props);
+    }
+
+    private static class TestHandler extends EventHandlerProxy
+    {
+        final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+
+        final CountDownLatch done;
+
+        private volatile boolean blacklisted;
+
+        TestHandler(final int expected)
+        {
+            super(null, null);
+            this.done = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void sendEvent(final Event event)
+        {
+            received.add((Integer) event.getProperty("index"));
+            done.countDown();
+        }
+
+        @Override
+        public boolean useTimeout()
+        {
+            return true;
+        }
+
+        @Override
+        public boolean isBlacklisted()
+        {
+            return this.blacklisted;
+        }
+
+        @Override
+        public void blackListHandler()
+        {
+            this.blacklisted = true;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.benchmarks;
+
+import java.io.File;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.framework.Felix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.wiring.BundleWiring;
+
+/**
+ * Measures class and resource lookups through the class loader of a bundle
+ * wiring, for classes found in an imported package, in the bundle itself
+ * and for names that cannot be found at all.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class BundleWiringBenchmark
+{
+    private File m_cacheDir;
+    private Felix m_felix;
+    private ClassLoader m_loader;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        m_cacheDir = Frameworks.createCacheDir();
+        m_felix = Frameworks.start(m_cacheDir);
+
+        File file = Frameworks.createBundle(
+            "Bundle-SymbolicName: wiring.benchmark\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Import-Package: org.osgi.framework\n",
+            m_cacheDir, LocalClass.class);
+        Bundle bundle = m_felix.getBundleContext().installBundle(file.toURI().toString());
+        bundle.start();
+        m_loader = bundle.adapt(BundleWiring.class).getClassLoader();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        Frameworks.stop(m_felix, m_cacheDir);
+    }
+
+    @Benchmark
+    public Class loadImportedClass() throws ClassNotFoundException
+    {
+        return m_loader.loadClass("org.osgi.framework.Bundle");
+    }
+
+    @Benchmark
+    public Class loadLocalClass() throws ClassNotFoundException
+    {
+        return m_loader.loadClass(LocalClass.class.getName());
+    }
+
+    @Benchmark
+    public Object loadMissingClass()
+    {
+        try
+        {
+            return m_loader.loadClass("org.apache.felix.framework.benchmarks.Missing");
+        }
+        catch (ClassNotFoundException ex)
+        {
+            return ex;
+        }
+    }
+
+    @Benchmark
+    public URL getMissingResource()
+    {
+        return m_loader.getResource("org/apache/felix/framework/benchmarks/missing.txt");
+    }
+
+    public static class LocalClass
+    {
+        // Packaged into the benchmark bundle to be loaded locally.
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.benchmarks;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.framework.capabilityset.CapabilitySet;
+import org.apache.felix.framework.capabilityset.SimpleFilter;
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Version;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.resource.Capability;
+
+/**
+ * Measures matching package requirements against a capability set holding
+ * the package capabilities of {@code size} bundles, with lookups that can
+ * and cannot use the index of the set.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class CapabilitySetBenchmark
+{
+    @Param({ "1000", "10000" })
+    int size;
+
+    private CapabilitySet m_capSet;
+    private SimpleFilter m_indexed;
+    private SimpleFilter m_indexedVersion;
+    private SimpleFilter m_unindexed;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        m_capSet = new CapabilitySet(
+            Collections.singletonList(BundleRevision.PACKAGE_NAMESPACE), true);
+        for (int i = 0; i < size; i++)
+        {
+            Map<String, Object> attrs = new HashMap<String, Object>();
+            attrs.put(BundleRevision.PACKAGE_NAMESPACE, "org.example.pkg" + i);
+            attrs.put(Constants.VERSION_ATTRIBUTE, new Version(1, i % 10, 0));
+            attrs.put(Constants.BUNDLE_SYMBOLICNAME_ATTRIBUTE, "org.example.bundle" + i);
+            m_capSet.addCapability(new BundleCapabilityImpl(
+                null, BundleRevision.PACKAGE_NAMESPACE,
+                Collections.<String, String>emptyMap(), attrs));
+        }
+
+        m_indexed = SimpleFilter.parse(
+            "(osgi.wiring.package=org.example.pkg42)");
+        m_indexedVersion = SimpleFilter.parse(
+            "(&(osgi.wiring.package=org.example.pkg42)(version>=1.0.0)(!(version>=2.0.0)))");
+        m_unindexed = SimpleFilter.parse(
+            "(bundle-symbolic-name=org.example.bundle42)");
+    }
+
+    @Benchmark
+    public Set<Capability> matchIndexed()
+    {
+        return m_capSet.match(m_indexed, true);
+    }
+
+    @Benchmark
+    public Set<Capability> matchIndexedWithVersion()
+    {
+        return m_capSet.match(m_indexedVersion, true);
+    }
+
+    @Benchmark
+    public Set<Capability> matchUnindexed()
+    {
+        return m_capSet.match(m_unindexed, true);
+    }
+}
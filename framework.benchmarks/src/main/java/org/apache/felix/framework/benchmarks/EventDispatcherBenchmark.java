@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.framework.EventDispatcher;
+import org.apache.felix.framework.Felix;
+import org.apache.felix.framework.FilterImpl;
+import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.ServiceRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Measures firing a service event while {@code size} service listeners are
+ * registered, each filtering on one of
+ * {@link ServiceRegistryBenchmark#INTERFACES} service interfaces, with and
+ * without indexing the listeners by the objectClass their filter requires.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class EventDispatcherBenchmark
+{
+    @Param({ "1000", "10000" })
+    int size;
+
+    @Param({ "true", "false" })
+    boolean index;
+
+    private File m_cacheDir;
+    private Felix m_felix;
+    private EventDispatcher m_dispatcher;
+    private ServiceEvent m_event;
+    private int m_delivered;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        m_cacheDir = Frameworks.createCacheDir();
+        m_felix = Frameworks.start(m_cacheDir);
+
+        Logger logger = new Logger();
+        ServiceRegistry registry = new ServiceRegistry(logger, null);
+        m_dispatcher = new EventDispatcher(logger, registry, 0, index);
+        for (int i = 0; i < size; i++)
+        {
+            ServiceListener listener = new ServiceListener()
+            {
+                public void serviceChanged(ServiceEvent event)
+                {
+                    m_delivered++;
+                }
+            };
+            m_dispatcher.addListener(m_felix.getBundleContext(), ServiceListener.class,
+                listener, new FilterImpl("(" + Constants.OBJECTCLASS + "=svc.Service"
+                    + (i % ServiceRegistryBenchmark.INTERFACES) + ")"));
+        }
+
+        ServiceRegistration reg = registry.registerService(
+            m_felix, new String[] { "svc.Service42" }, new Object(), null);
+        m_event = new ServiceEvent(ServiceEvent.MODIFIED, reg.getReference());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        Frameworks.stop(m_felix, m_cacheDir);
+    }
+
+    @Benchmark
+    public int fireServiceEvent()
+    {
+        m_dispatcher.fireServiceEvent(m_event, null, m_felix);
+        return m_delivered;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.benchmarks;
+
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.framework.FilterImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Version;
+
+/**
+ * Measures matching typical service and event filters against a set of
+ * service properties.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class FilterBenchmark
+{
+    @Param({
+        "(objectClass=org.example.Service)",
+        "(&(objectClass=org.example.Service)(service.ranking>=10))",
+        "(&(objectClass=org.example.*)(|(name=foo)(name=bar*))(!(version=1.0.0)))" })
+    String filter;
+
+    private FilterImpl m_filter;
+    private Hashtable<String, Object> m_dict;
+    private Map<String, Object> m_map;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        m_filter = new FilterImpl(filter);
+
+        m_dict = new Hashtable<String, Object>();
+        m_dict.put(Constants.OBJECTCLASS, new String[] { "org.example.Service" });
+        m_dict.put(Constants.SERVICE_ID, Long.valueOf(42));
+        m_dict.put(Constants.SERVICE_RANKING, Integer.valueOf(20));
+        m_dict.put("name", "barbaz");
+        m_dict.put("version", new Version(2, 1, 0));
+        m_map = new HashMap<String, Object>(m_dict);
+    }
+
+    @Benchmark
+    public boolean matchDictionary()
+    {
+        return m_filter.match(m_dict);
+    }
+
+    @Benchmark
+    public boolean matchCaseDictionary()
+    {
+        return m_filter.matchCase(m_dict);
+    }
+
+    @Benchmark
+    public boolean matchMap()
+    {
+        return m_filter.matches(m_map);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import org.apache.felix.framework.Felix;
+import org.osgi.framework.Constants;
+
+/**
+ * Helpers to run benchmarks against a started framework instance using
+ * a temporary bundle cache.
+ */
+final class Frameworks
+{
+    private Frameworks()
+    {
+    }
+
+    static Felix start(File cacheDir) throws Exception
+    {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        params.put(Constants.FRAMEWORK_STORAGE_CLEAN,
+            Constants.FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT);
+        Felix felix = new Felix(params);
+        felix.init();
+        felix.start();
+        return felix;
+    }
+
+    static void stop(Felix felix, File cacheDir) throws Exception
+    {
+        if (felix != null)
+        {
+            felix.stop();
+            felix.waitForStop(10000);
+        }
+        deleteDir(cacheDir);
+    }
+
+    static File createCacheDir() throws IOException
+    {
+        File cacheDir = File.createTempFile("felix-benchmark", ".dir");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+        return cacheDir;
+    }
+
+    /**
+     * Creates a bundle JAR with the given manifest headers, which contains
+     * the class files of the given classes.
+     */
+    static File createBundle(String manifest, File tempDir, Class... classes)
+        throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", tempDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+        try
+        {
+            for (Class clazz : classes)
+            {
+                String path = clazz.getName().replace('.', '/') + ".class";
+                os.putNextEntry(new ZipEntry(path));
+
+                InputStream is = clazz.getClassLoader().getResourceAsStream(path);
+                try
+                {
+                    byte[] buffer = new byte[4096];
+                    for (int n = is.read(buffer); n != -1; n = is.read(buffer))
+                    {
+                        os.write(buffer, 0, n);
+                    }
+                }
+                finally
+                {
+                    is.close();
+                }
+            }
+        }
+        finally
+        {
+            os.close();
+        }
+        return f;
+    }
+
+    private static void deleteDir(File root)
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        root.delete();
+    }
+}
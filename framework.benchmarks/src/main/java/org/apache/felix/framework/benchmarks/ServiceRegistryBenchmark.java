@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.benchmarks;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.felix.framework.Felix;
+import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.ServiceRegistry;
+import org.apache.felix.framework.capabilityset.SimpleFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.resource.Capability;
+
+/**
+ * Measures service lookups in a registry holding {@code size} services
+ * spread over {@link #INTERFACES} service interfaces, as well as registering
+ * and unregistering services in the same registry on 1, 4 and 16 threads.
+ * Each thread registers its services under its own service interface, so
+ * the threads only contend on the registry itself. A registration is
+ * created or removed around each invocation of the other benchmark, so
+ * these benchmarks include a small per invocation overhead.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class ServiceRegistryBenchmark
+{
+    static final int INTERFACES = 100;
+
+    @Param({ "1000", "10000" })
+    int size;
+
+    private File m_cacheDir;
+    private Felix m_felix;
+    private ServiceRegistry m_registry;
+    private SimpleFilter m_propFilter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        m_cacheDir = Frameworks.createCacheDir();
+        m_felix = Frameworks.start(m_cacheDir);
+
+        m_registry = new ServiceRegistry(new Logger(), null);
+        for (int i = 0; i < size; i++)
+        {
+            Hashtable<String, Object> props = new Hashtable<String, Object>();
+            props.put("index", Integer.toString(i));
+            props.put("group", "group" + (i % 10));
+            m_registry.registerService(m_felix,
+                new String[] { "svc.Service" + (i % INTERFACES) }, new Object(), props);
+        }
+        m_propFilter = SimpleFilter.parse("(index=42)");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        Frameworks.stop(m_felix, m_cacheDir);
+    }
+
+    @Benchmark
+    public Collection<Capability> getByClass()
+    {
+        return m_registry.getServiceReferences("svc.Service42", null);
+    }
+
+    @Benchmark
+    public Collection<Capability> getByClassAndFilter()
+    {
+        return m_registry.getServiceReferences("svc.Service42", m_propFilter);
+    }
+
+    @Benchmark
+    public Collection<Capability> getByFilter()
+    {
+        return m_registry.getServiceReferences(null, m_propFilter);
+    }
+
+    @Benchmark
+    public Collection<Capability> getAll()
+    {
+        return m_registry.getServiceReferences(null, null);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public ServiceRegistration<?> register1(Registering state)
+    {
+        return state.register(this);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ServiceRegistration<?> register4(Registering state)
+    {
+        return state.register(this);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public ServiceRegistration<?> register16(Registering state)
+    {
+        return state.register(this);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void unregister1(Unregistering state)
+    {
+        state.unregister();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void unregister4(Unregistering state)
+    {
+        state.unregister();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void unregister16(Unregistering state)
+    {
+        state.unregister();
+    }
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    /**
+     * The service interface of a benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class ThreadClass
+    {
+        final String[] m_classNames = new String[] {
+            "svc.Service" + (THREADS.getAndIncrement() % INTERFACES) };
+    }
+
+    /**
+     * Registers a service in the benchmark and unregisters it afterwards.
+     */
+    @State(Scope.Thread)
+    public static class Registering extends ThreadClass
+    {
+        private ServiceRegistration<?> m_reg;
+
+        ServiceRegistration<?> register(ServiceRegistryBenchmark benchmark)
+        {
+            m_reg = benchmark.m_registry.registerService(
+                benchmark.m_felix, m_classNames, new Object(), null);
+            return m_reg;
+        }
+
+        @TearDown(Level.Invocation)
+        public void unregister()
+        {
+            if (m_reg != null)
+            {
+                m_reg.unregister();
+                m_reg = null;
+            }
+        }
+    }
+
+    /**
+     * Registers a service before the benchmark unregisters it.
+     */
+    @State(Scope.Thread)
+    public static class Unregistering extends ThreadClass
+    {
+        private ServiceRegistration<?> m_reg;
+
+        @Setup(Level.Invocation)
+        public void register(ServiceRegistryBenchmark benchmark)
+        {
+            m_reg = benchmark.m_registry.registerService(
+                benchmark.m_felix, m_classNames, new Object(), null);
+        }
+
+        void unregister()
+        {
+            m_reg.unregister();
+        }
+    }
+}
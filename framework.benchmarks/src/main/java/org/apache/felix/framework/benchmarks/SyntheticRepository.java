@@ -0,0 +1,349 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.felix.framework.capabilityset.CapabilitySet;
+import org.apache.felix.framework.capabilityset.SimpleFilter;
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Version;
+import org.osgi.framework.namespace.IdentityNamespace;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wiring;
+import org.osgi.service.resolver.HostedCapability;
+import org.osgi.service.resolver.ResolveContext;
+
+/**
+ * A generated repository of bundles that export one package each and import
+ * a few packages of bundles generated before them, using the imported
+ * packages in their export. Every tenth package is exported twice in
+ * different versions, so the resolver has to choose between candidates.
+ * The same seed always generates the same repository.
+ */
+final class SyntheticRepository
+{
+    private static final int IMPORTS = 3;
+
+    private final List<Resource> m_resources = new ArrayList<Resource>();
+    private final Map<Requirement, List<Capability>> m_candidates =
+        new HashMap<Requirement, List<Capability>>();
+
+    SyntheticRepository(int size, long seed)
+    {
+        Random random = new Random(seed);
+        Map<String, List<Capability>> exports = new HashMap<String, List<Capability>>();
+        Map<SyntheticRequirement, String> imports = new HashMap<SyntheticRequirement, String>();
+        for (int i = 0; i < size; i++)
+        {
+            SyntheticResource resource = new SyntheticResource();
+
+            Map<String, Object> attrs = new HashMap<String, Object>();
+            attrs.put(IdentityNamespace.IDENTITY_NAMESPACE, "org.example.bundle" + i);
+            attrs.put(IdentityNamespace.CAPABILITY_TYPE_ATTRIBUTE, IdentityNamespace.TYPE_BUNDLE);
+            attrs.put(IdentityNamespace.CAPABILITY_VERSION_ATTRIBUTE, Version.emptyVersion);
+            resource.addCapability(IdentityNamespace.IDENTITY_NAMESPACE,
+                Collections.<String, String>emptyMap(), attrs);
+
+            StringBuilder uses = new StringBuilder();
+            for (int j = 0; (i > 0) && (j < IMPORTS); j++)
+            {
+                String pkg = "org.example.pkg" + random.nextInt(i);
+                if (uses.indexOf(pkg + ",") >= 0)
+                {
+                    continue;
+                }
+                uses.append(pkg).append(',');
+
+                Map<String, String> dirs = new HashMap<String, String>();
+                dirs.put(Constants.FILTER_DIRECTIVE, "(&(" + PackageNamespace.PACKAGE_NAMESPACE
+                    + "=" + pkg + ")(version>=1.0.0)(!(version>=2.0.0)))");
+                imports.put(resource.addRequirement(
+                    PackageNamespace.PACKAGE_NAMESPACE, dirs), pkg);
+            }
+
+            String pkg = "org.example.pkg" + i;
+            addExport(resource, exports, pkg, new Version(1, 0, 0), uses);
+            if (((i % 10) == 9) && (i > 10))
+            {
+                // Export an existing package again in a newer version.
+                addExport(resource, exports, "org.example.pkg" + (i - 10),
+                    new Version(1, 1, 0), uses);
+            }
+
+            m_resources.add(resource);
+        }
+
+        // Compute the candidates up front, so that the benchmarks only
+        // measure the resolver itself.
+        for (Map.Entry<SyntheticRequirement, String> entry : imports.entrySet())
+        {
+            List<Capability> candidates = new ArrayList<Capability>();
+            for (Capability cap : exports.get(entry.getValue()))
+            {
+                if (entry.getKey().matches(cap))
+                {
+                    candidates.add(cap);
+                }
+            }
+            m_candidates.put(entry.getKey(), candidates);
+        }
+    }
+
+    private static void addExport(SyntheticResource resource,
+        Map<String, List<Capability>> exports, String pkg, Version version,
+        StringBuilder uses)
+    {
+        Map<String, String> dirs = new HashMap<String, String>();
+        if (uses.length() > 0)
+        {
+            dirs.put(Constants.USES_DIRECTIVE, uses.substring(0, uses.length() - 1));
+        }
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(PackageNamespace.PACKAGE_NAMESPACE, pkg);
+        attrs.put(PackageNamespace.CAPABILITY_VERSION_ATTRIBUTE, version);
+        Capability cap = resource.addCapability(PackageNamespace.PACKAGE_NAMESPACE, dirs, attrs);
+
+        List<Capability> caps = exports.get(pkg);
+        if (caps == null)
+        {
+            caps = new ArrayList<Capability>();
+            exports.put(pkg, caps);
+        }
+        // Prefer the highest version, like the framework does.
+        caps.add(0, cap);
+    }
+
+    ResolveContext createResolveContext()
+    {
+        return new SyntheticResolveContext(m_resources, m_candidates);
+    }
+
+    static final class SyntheticResolveContext extends ResolveContext
+    {
+        private final Collection<Resource> m_mandatory;
+        private final Map<Requirement, List<Capability>> m_candidates;
+
+        SyntheticResolveContext(Collection<Resource> mandatory,
+            Map<Requirement, List<Capability>> candidates)
+        {
+            m_mandatory = mandatory;
+            m_candidates = candidates;
+        }
+
+        @Override
+        public Collection<Resource> getMandatoryResources()
+        {
+            return new ArrayList<Resource>(m_mandatory);
+        }
+
+        @Override
+        public List<Capability> findProviders(Requirement requirement)
+        {
+            List<Capability> caps = m_candidates.get(requirement);
+            return (caps == null)
+                ? new ArrayList<Capability>() : new ArrayList<Capability>(caps);
+        }
+
+        @Override
+        public int insertHostedCapability(
+            List<Capability> capabilities, HostedCapability hostedCapability)
+        {
+            capabilities.add(0, hostedCapability);
+            return 0;
+        }
+
+        @Override
+        public boolean isEffective(Requirement requirement)
+        {
+            return true;
+        }
+
+        @Override
+        public Map<Resource, Wiring> getWirings()
+        {
+            return Collections.emptyMap();
+        }
+    }
+
+    static final class SyntheticResource implements Resource
+    {
+        private final List<Capability> m_caps = new ArrayList<Capability>();
+        private final List<Requirement> m_reqs = new ArrayList<Requirement>();
+
+        Capability addCapability(String namespace, Map<String, String> dirs,
+            Map<String, Object> attrs)
+        {
+            Capability cap = new SyntheticCapability(this, namespace, dirs, attrs);
+            m_caps.add(cap);
+            return cap;
+        }
+
+        SyntheticRequirement addRequirement(String namespace, Map<String, String> dirs)
+        {
+            SyntheticRequirement req = new SyntheticRequirement(this, namespace, dirs);
+            m_reqs.add(req);
+            return req;
+        }
+
+        public List<Capability> getCapabilities(String namespace)
+        {
+            if (namespace == null)
+            {
+                return m_caps;
+            }
+            List<Capability> result = new ArrayList<Capability>();
+            for (Capability cap : m_caps)
+            {
+                if (namespace.equals(cap.getNamespace()))
+                {
+                    result.add(cap);
+                }
+            }
+            return result;
+        }
+
+        public List<Requirement> getRequirements(String namespace)
+        {
+            if (namespace == null)
+            {
+                return m_reqs;
+            }
+            List<Requirement> result = new ArrayList<Requirement>();
+            for (Requirement req : m_reqs)
+            {
+                if (namespace.equals(req.getNamespace()))
+                {
+                    result.add(req);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public String toString()
+        {
+            return m_caps.get(0).getAttributes().get(
+                IdentityNamespace.IDENTITY_NAMESPACE).toString();
+        }
+    }
+
+    static final class SyntheticCapability implements Capability
+    {
+        private final Resource m_resource;
+        private final String m_namespace;
+        private final Map<String, String> m_dirs;
+        private final Map<String, Object> m_attrs;
+
+        SyntheticCapability(Resource resource, String namespace,
+            Map<String, String> dirs, Map<String, Object> attrs)
+        {
+            m_resource = resource;
+            m_namespace = namespace;
+            m_dirs = dirs;
+            m_attrs = attrs;
+        }
+
+        public String getNamespace()
+        {
+            return m_namespace;
+        }
+
+        public Map<String, String> getDirectives()
+        {
+            return m_dirs;
+        }
+
+        public Map<String, Object> getAttributes()
+        {
+            return m_attrs;
+        }
+
+        public Resource getResource()
+        {
+            return m_resource;
+        }
+
+        @Override
+        public String toString()
+        {
+            return m_namespace + "; " + m_attrs;
+        }
+    }
+
+    static final class SyntheticRequirement implements Requirement
+    {
+        private final Resource m_resource;
+        private final String m_namespace;
+        private final Map<String, String> m_dirs;
+        private final SimpleFilter m_filter;
+
+        SyntheticRequirement(Resource resource, String namespace, Map<String, String> dirs)
+        {
+            m_resource = resource;
+            m_namespace = namespace;
+            m_dirs = dirs;
+            m_filter = SimpleFilter.parse(dirs.get(Constants.FILTER_DIRECTIVE));
+        }
+
+        public String getNamespace()
+        {
+            return m_namespace;
+        }
+
+        public Map<String, String> getDirectives()
+        {
+            return m_dirs;
+        }
+
+        public Map<String, Object> getAttributes()
+        {
+            return Collections.emptyMap();
+        }
+
+        public Resource getResource()
+        {
+            return m_resource;
+        }
+
+        boolean matches(Capability cap)
+        {
+            // The framework only matches its own capability implementation.
+            return m_namespace.equals(cap.getNamespace())
+                && CapabilitySet.matches(new BundleCapabilityImpl(null, cap.getNamespace(),
+                    cap.getDirectives(), cap.getAttributes()), m_filter);
+        }
+
+        @Override
+        public String toString()
+        {
+            return m_namespace + "; " + m_filter;
+        }
+    }
+}
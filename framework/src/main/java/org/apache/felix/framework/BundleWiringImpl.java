@@ -19,6 +19,8 @@
 package org.apache.felix.framework;
 
 import org.apache.felix.framework.cache.Content;
+import org.apache.felix.framework.cache.MappedJarContent;
+import org.apache.felix.framework.capabilityset.CapabilitySet;
 import org.apache.felix.framework.capabilityset.SimpleFilter;
 import org.apache.felix.framework.resolver.ResourceNotFoundException;
 import org.apache.felix.framework.util.CompoundEnumeration;
@@ -27,6 +29,7 @@ import org.apache.felix.framework.util.SecurityManagerEx;
 import org.apache.felix.framework.util.Util;
 import org.apache.felix.framework.util.manifestparser.ManifestParser;
 import org.apache.felix.framework.util.manifestparser.NativeLibrary;
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
 import org.apache.felix.framework.wiring.BundleRequirementImpl;
 import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
 import org.osgi.framework.Bundle;
@@ -56,6 +59,7 @@ import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.security.PrivilegedActionException;
@@ -75,6 +79,7 @@ import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class BundleWiringImpl implements BundleWiring
 {
@@ -83,6 +88,9 @@ public class BundleWiringImpl implements BundleWiring
     public final static int EAGER_ACTIVATION = 0;
     public final static int LAZY_ACTIVATION = 1;
 
+    // Default number of entries of the negative lookup cache.
+    static final int DEFAULT_NEGATIVE_CACHE_SIZE = 256;
+
     public static final ClassLoader CNFE_CLASS_LOADER = new ClassLoader()
     {
         @Override
@@ -104,6 +112,10 @@ public class BundleWiringImpl implements BundleWiring
     // due to dynamic imports.
     private volatile Map<String, BundleRevision> m_importedPkgs;
     private final Map<String, List<BundleRevision>> m_requiredPkgs;
+    // Package source map merging imported and required packages, so
+    // that delegation needs a single lookup. It is copy-on-write for
+    // the same reason as the imported package map.
+    private volatile Map<String, PackageSource> m_pkgSources;
     private final List<BundleCapability> m_resolvedCaps;
     private final Map<String, List<List<String>>> m_includedPkgFilters;
     private final Map<String, List<List<String>>> m_excludedPkgFilters;
@@ -172,6 +184,14 @@ public class BundleWiringImpl implements BundleWiring
 
     private volatile ConcurrentHashMap<String, ClassLoader> m_accessorLookupCache;
 
+    // Bounded cache of classes and resources that could not be found by
+    // the static search of this wiring; it is replaced whenever the
+    // package sources of the wiring change.
+    private final int m_negativeCacheSize;
+    private volatile NegativeLookupCache m_negativeCache;
+    private final AtomicLong m_negativeCacheHits = new AtomicLong();
+    private final AtomicLong m_negativeCacheMisses = new AtomicLong();
+
     BundleWiringImpl(
         Logger logger, Map configMap, StatefulResolver resolver,
         BundleRevisionImpl revision, List<BundleRevision> fragments,
@@ -185,6 +205,7 @@ public class BundleWiringImpl implements BundleWiring
         m_revision = revision;
         m_importedPkgs = importedPkgs;
         m_requiredPkgs = requiredPkgs;
+        m_pkgSources = createPackageSources(importedPkgs, requiredPkgs);
         m_wires =  Util.newImmutableList(wires);
 
         // We need to sort the fragments and add ourself as a dependent of each one.
@@ -463,6 +484,47 @@ public class BundleWiringImpl implements BundleWiring
 
         m_useLocalURLs =
             m_configMap.get(FelixConstants.USE_LOCALURLS_PROP) != null;
+
+        int negativeCacheSize = DEFAULT_NEGATIVE_CACHE_SIZE;
+        String s = (String) m_configMap.get(FelixConstants.CLASSLOADER_NEGATIVE_CACHE_SIZE_PROP);
+        if (s != null)
+        {
+            try
+            {
+                negativeCacheSize = Integer.parseInt(s.trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                // Ignore and use the default.
+            }
+        }
+        m_negativeCacheSize = negativeCacheSize;
+        m_negativeCache = (m_negativeCacheSize > 0) ? new NegativeLookupCache() : null;
+    }
+
+    private static Map<String, PackageSource> createPackageSources(
+        Map<String, BundleRevision> importedPkgs,
+        Map<String, List<BundleRevision>> requiredPkgs)
+    {
+        Map<String, PackageSource> pkgSources = new HashMap<String, PackageSource>();
+        // Add required packages first, since an import of the same
+        // package shadows them.
+        if (requiredPkgs != null)
+        {
+            for (Map.Entry<String, List<BundleRevision>> entry : requiredPkgs.entrySet())
+            {
+                pkgSources.put(entry.getKey(), new PackageSource(entry.getValue(), false));
+            }
+        }
+        if (importedPkgs != null)
+        {
+            for (Map.Entry<String, BundleRevision> entry : importedPkgs.entrySet())
+            {
+                pkgSources.put(entry.getKey(), new PackageSource(
+                    Collections.singletonList(entry.getValue()), true));
+            }
+        }
+        return pkgSources;
     }
 
     private static List<List<String>> parsePkgFilters(BundleCapability cap, String filtername)
@@ -502,13 +564,14 @@ public class BundleWiringImpl implements BundleWiring
         m_classLoader = null;
         m_isDisposed = true;
         m_accessorLookupCache = null;
+        m_negativeCache = null;
     }
 
     // TODO: OSGi R4.3 - This really shouldn't be public, but it is needed by the
     //       resolver to determine if a bundle can dynamically import.
     public boolean hasPackageSource(String pkgName)
     {
-        return (m_importedPkgs.containsKey(pkgName) || m_requiredPkgs.containsKey(pkgName));
+        return m_pkgSources.containsKey(pkgName);
     }
 
     // TODO: OSGi R4.3 - This really shouldn't be public, but it is needed by the
@@ -677,6 +740,17 @@ public class BundleWiringImpl implements BundleWiring
                     wire.getProviderWiring().getRevision());
 
             m_importedPkgs = importedPkgs;
+
+            Map<String, PackageSource> pkgSources =
+                    new HashMap<String, PackageSource>(m_pkgSources);
+            pkgSources.put(
+                    (String) wire.getCapability().getAttributes().get(BundleRevision.PACKAGE_NAMESPACE),
+                    new PackageSource(Collections.singletonList(
+                        wire.getProviderWiring().getRevision()), true));
+            m_pkgSources = pkgSources;
+
+            // Lookups that failed before may now succeed.
+            invalidateNegativeCache();
         }
         // Update associated member values.
         // Technically, there is a window here where readers won't see
@@ -1542,37 +1616,50 @@ public class BundleWiringImpl implements BundleWiring
                     }
                 }
 
-                // Look in the revision's imports. Note that the search may
-                // be aborted if this method throws an exception, otherwise
-                // it continues if a null is returned.
-                result = searchImports(pkgName, name, isClass);
-
-                // If not found, try the revision's own class path.
-                if (result == null)
+                // If the static search already failed for this class or
+                // resource, only implicit boot delegation can still find
+                // it since that depends on the instigator of the load.
+                NegativeLookupCache negativeCache = (accessor) ? null : m_negativeCache;
+                if ((negativeCache != null) && negativeCache.contains(name, isClass))
+                {
+                    m_negativeCacheHits.incrementAndGet();
+                    result = tryImplicitBootDelegation(name, isClass);
+                }
+                else
                 {
-                    if (isClass)
+                    // Look in the revision's imports. Note that the search may
+                    // be aborted if this method throws an exception, otherwise
+                    // it continues if a null is returned.
+                    result = searchImports(pkgName, name, isClass);
+
+                    // If not found, try the revision's own class path.
+                    if (result == null)
                     {
-                        ClassLoader cl = getClassLoaderInternal();
-                        if (cl == null)
+                        if (isClass)
+                        {
+                            ClassLoader cl = getClassLoaderInternal();
+                            if (cl == null)
+                            {
+                                throw new ClassNotFoundException(
+                                        "Unable to load class '"
+                                                + name
+                                                + "' because the bundle wiring for "
+                                                + m_revision.getSymbolicName()
+                                                + " is no longer valid.");
+                            }
+                            result = ((BundleClassLoader) cl).findClass(name);
+                        }
+                        else
                         {
-                            throw new ClassNotFoundException(
-                                    "Unable to load class '"
-                                            + name
-                                            + "' because the bundle wiring for "
-                                            + m_revision.getSymbolicName()
-                                            + " is no longer valid.");
+                            result = m_revision.getResourceLocal(name);
                         }
-                        result = ((BundleClassLoader) cl).findClass(name);
-                    }
-                    else
-                    {
-                        result = m_revision.getResourceLocal(name);
-                    }
 
-                    // If still not found, then try the revision's dynamic imports.
-                    if (result == null)
-                    {
-                        result = searchDynamicImports(pkgName, name, isClass);
+                        // If still not found, then try the revision's dynamic imports.
+                        if (result == null)
+                        {
+                            result = searchDynamicImports(
+                                pkgName, name, isClass, negativeCache);
+                        }
                     }
                 }
             }
@@ -1609,10 +1696,17 @@ public class BundleWiringImpl implements BundleWiring
     private Object searchImports(String pkgName, String name, boolean isClass)
             throws ClassNotFoundException, ResourceNotFoundException
     {
+        PackageSource source = m_pkgSources.get(pkgName);
+        if (source == null)
+        {
+            return null;
+        }
+
         // Check if the package is imported.
-        BundleRevision provider = m_importedPkgs.get(pkgName);
-        if (provider != null)
+        if (source.m_imported)
         {
+            BundleRevision provider = source.m_providers.get(0);
+
             // If we find the class or resource, then return it.
             Object result = (isClass)
                 ? (Object) ((BundleWiringImpl) provider.getWiring()).getClassByDelegation(name)
@@ -1632,30 +1726,26 @@ public class BundleWiringImpl implements BundleWiring
                 throw new ResourceNotFoundException(name);
         }
 
-        // Check if the package is required.
-        List<BundleRevision> providers = m_requiredPkgs.get(pkgName);
-        if (providers != null)
+        // Otherwise the package is required.
+        for (BundleRevision p : source.m_providers)
         {
-            for (BundleRevision p : providers)
+            // If we find the class or resource, then return it.
+            try
             {
-                // If we find the class or resource, then return it.
-                try
-                {
-                    Object result = (isClass)
-                        ? (Object) ((BundleWiringImpl) p.getWiring()).getClassByDelegation(name)
-                                : (Object) ((BundleWiringImpl) p.getWiring()).getResourceByDelegation(name);
-                        if (result != null)
-                        {
-                            return result;
-                        }
-                }
-                catch (ClassNotFoundException ex)
-                {
-                    // Since required packages can be split, don't throw an
-                    // exception here if it is not found. Instead, we'll just
-                    // continue searching other required bundles and the
-                    // revision's local content.
-                }
+                Object result = (isClass)
+                    ? (Object) ((BundleWiringImpl) p.getWiring()).getClassByDelegation(name)
+                            : (Object) ((BundleWiringImpl) p.getWiring()).getResourceByDelegation(name);
+                    if (result != null)
+                    {
+                        return result;
+                    }
+            }
+            catch (ClassNotFoundException ex)
+            {
+                // Since required packages can be split, don't throw an
+                // exception here if it is not found. Instead, we'll just
+                // continue searching other required bundles and the
+                // revision's local content.
             }
         }
 
@@ -1663,7 +1753,8 @@ public class BundleWiringImpl implements BundleWiring
     }
 
     private Object searchDynamicImports(
-            final String pkgName, final String name, final boolean isClass)
+            final String pkgName, final String name, final boolean isClass,
+            final NegativeLookupCache negativeCache)
                     throws ClassNotFoundException, ResourceNotFoundException
     {
         // At this point, the module's imports were searched and so was the
@@ -1696,9 +1787,84 @@ public class BundleWiringImpl implements BundleWiring
                             : (Object) ((BundleWiringImpl) provider.getWiring()).getResourceByDelegation(name);
         }
 
+        // The static search failed, so remember it unless a provider for
+        // a matching dynamic import may still show up later.
+        m_negativeCacheMisses.incrementAndGet();
+        if ((negativeCache != null) && !isDynamicallyImportable(pkgName))
+        {
+            negativeCache.add(name, isClass, m_negativeCacheSize);
+        }
+
         return tryImplicitBootDelegation(name, isClass);
     }
 
+    private boolean isDynamicallyImportable(String pkgName)
+    {
+        List<BundleRequirement> dynamics = Util.getDynamicRequirements(getRequirements(null));
+        if ((dynamics == null) || dynamics.isEmpty())
+        {
+            return false;
+        }
+
+        // Only the package name clause of the dynamic imports is checked,
+        // since the remaining attributes depend on the future provider.
+        BundleCapabilityImpl cap = new BundleCapabilityImpl(
+            m_revision, BundleRevision.PACKAGE_NAMESPACE, Collections.EMPTY_MAP,
+            Collections.singletonMap(BundleRevision.PACKAGE_NAMESPACE, (Object) pkgName));
+        for (BundleRequirement req : dynamics)
+        {
+            SimpleFilter sf = ((BundleRequirementImpl) req).getFilter();
+            List<SimpleFilter> clauses = (sf.getOperation() == SimpleFilter.AND)
+                ? (List<SimpleFilter>) sf.getValue() : Collections.singletonList(sf);
+            boolean found = false;
+            for (SimpleFilter clause : clauses)
+            {
+                if (BundleRevision.PACKAGE_NAMESPACE.equals(clause.getName()))
+                {
+                    found = true;
+                    if (CapabilitySet.matches(cap, clause))
+                    {
+                        return true;
+                    }
+                }
+            }
+            // Be conservative if the filter has an unexpected form.
+            if (!found)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void invalidateNegativeCache()
+    {
+        if (m_negativeCache != null)
+        {
+            m_negativeCache = new NegativeLookupCache();
+        }
+    }
+
+    /**
+     * Returns the number of class and resource lookups that were answered
+     * by the negative lookup cache of this wiring.
+     * @return the number of negative lookup cache hits.
+     */
+    public long getNegativeCacheHits()
+    {
+        return m_negativeCacheHits.get();
+    }
+
+    /**
+     * Returns the number of class and resource lookups that failed the
+     * full static search of this wiring.
+     * @return the number of negative lookup cache misses.
+     */
+    public long getNegativeCacheMisses()
+    {
+        return m_negativeCacheMisses.get();
+    }
+
     private Object tryImplicitBootDelegation(final String name, final boolean isClass)
             throws ClassNotFoundException, ResourceNotFoundException
     {
@@ -2039,19 +2205,28 @@ public class BundleWiringImpl implements BundleWiring
                 String actual = name.replace('.', '/') + ".class";
 
                 byte[] bytes = null;
+                ByteBuffer buffer = null;
 
                 // Check the bundle class path.
                 List<Content> contentPath = m_wiring.m_revision.getContentPath();
                 Content content = null;
                 for (int i = 0;
-                        (bytes == null) &&
+                        (bytes == null) && (buffer == null) &&
                         (i < contentPath.size()); i++)
                 {
-                    bytes = contentPath.get(i).getEntryAsBytes(actual);
                     content = contentPath.get(i);
+                    // Mapped JAR files can define classes from the mapping.
+                    if (content instanceof MappedJarContent)
+                    {
+                        buffer = ((MappedJarContent) content).getEntryAsByteBuffer(actual);
+                    }
+                    else
+                    {
+                        bytes = content.getEntryAsBytes(actual);
+                    }
                 }
 
-                if (bytes != null)
+                if ((bytes != null) || (buffer != null))
                 {
                     // Get package name.
                     String pkgName = Util.getClassPackage(name);
@@ -2074,6 +2249,14 @@ public class BundleWiringImpl implements BundleWiring
                     WovenClassImpl wci = null;
                     if (!hooks.isEmpty())
                     {
+                        // Weaving hooks need the byte code as an array.
+                        if (bytes == null)
+                        {
+                            bytes = new byte[buffer.remaining()];
+                            buffer.get(bytes);
+                            buffer = null;
+                        }
+
                         // Create woven class to be used for hooks.
                         wci = new WovenClassImpl(name, m_wiring, bytes);
                         try
@@ -2093,8 +2276,8 @@ public class BundleWiringImpl implements BundleWiring
 
                     try
                     {
-                        clazz = isParallel() ? defineClassParallel(name, felix, wovenClassListeners, wci, bytes, content, pkgName) :
-                            defineClassNotParallel(name, felix, wovenClassListeners, wci, bytes, content, pkgName);
+                        clazz = isParallel() ? defineClassParallel(name, felix, wovenClassListeners, wci, bytes, buffer, content, pkgName) :
+                            defineClassNotParallel(name, felix, wovenClassListeners, wci, bytes, buffer, content, pkgName);
                     }
                     catch (ClassFormatError e)
                     {
@@ -2141,7 +2324,7 @@ public class BundleWiringImpl implements BundleWiring
         }
 
         Class defineClassParallel(String name, Felix felix, Set<ServiceReference<WovenClassListener>> wovenClassListeners, WovenClassImpl wci, byte[] bytes,
-            Content content, String pkgName) throws ClassFormatError
+            ByteBuffer buffer, Content content, String pkgName) throws ClassFormatError
         {
             Class clazz = null;
 
@@ -2160,7 +2343,7 @@ public class BundleWiringImpl implements BundleWiring
                     if (clazz == null)
                     {
                         clazz = defineClass(felix, wovenClassListeners, wci, name,
-                            bytes, content, pkgName);
+                            bytes, buffer, content, pkgName);
                     }
                 }
                 finally
@@ -2172,7 +2355,7 @@ public class BundleWiringImpl implements BundleWiring
         }
 
         Class defineClassNotParallel(String name, Felix felix, Set<ServiceReference<WovenClassListener>> wovenClassListeners, WovenClassImpl wci, byte[] bytes,
-            Content content, String pkgName) throws ClassFormatError
+            ByteBuffer buffer, Content content, String pkgName) throws ClassFormatError
         {
             Class clazz = findLoadedClass(name);
 
@@ -2184,7 +2367,7 @@ public class BundleWiringImpl implements BundleWiring
                     if (clazz == null)
                     {
                         clazz = defineClass(felix, wovenClassListeners, wci, name,
-                            bytes, content, pkgName);
+                            bytes, buffer, content, pkgName);
                     }
                 }
             }
@@ -2193,7 +2376,8 @@ public class BundleWiringImpl implements BundleWiring
 
         Class defineClass(Felix felix,
             Set<ServiceReference<WovenClassListener>> wovenClassListeners,
-            WovenClassImpl wci, String name, byte[] bytes, Content content, String pkgName)
+            WovenClassImpl wci, String name, byte[] bytes, ByteBuffer buffer,
+            Content content, String pkgName)
             throws ClassFormatError
         {
             // If we have a woven class then get the class bytes from
@@ -2272,6 +2456,8 @@ public class BundleWiringImpl implements BundleWiring
                             allWovenReqs.addAll(0, m_wiring.m_wovenReqs);
                         }
                         m_wiring.m_wovenReqs = allWovenReqs;
+                        // New dynamic imports may find what was missing.
+                        m_wiring.invalidateNegativeCache();
                     }
                 }
             }
@@ -2339,7 +2525,14 @@ public class BundleWiringImpl implements BundleWiring
             // If we have a security context, then use it to
             // define the class with it for security purposes,
             // otherwise define the class without a protection domain.
-            if (m_wiring.m_revision.getProtectionDomain() != null)
+            // Classes read from a mapped JAR file are defined from the
+            // buffer, which accepts a null protection domain.
+            if (bytes == null)
+            {
+                clazz = defineClass(name, buffer,
+                    m_wiring.m_revision.getProtectionDomain());
+            }
+            else if (m_wiring.m_revision.getProtectionDomain() != null)
             {
                 clazz = defineClass(name, bytes, 0, bytes.length,
                     m_wiring.m_revision.getProtectionDomain());
@@ -2892,4 +3085,42 @@ public class BundleWiringImpl implements BundleWiring
 
         return sb.toString();
     }
+
+    static final class PackageSource
+    {
+        final List<BundleRevision> m_providers;
+        // Imported packages cannot be split, required packages can.
+        final boolean m_imported;
+
+        PackageSource(List<BundleRevision> providers, boolean imported)
+        {
+            m_providers = providers;
+            m_imported = imported;
+        }
+    }
+
+    static final class NegativeLookupCache
+    {
+        private final Set<String> m_classes =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private final Set<String> m_resources =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        boolean contains(String name, boolean isClass)
+        {
+            return (isClass) ? m_classes.contains(name) : m_resources.contains(name);
+        }
+
+        void add(String name, boolean isClass, int maxSize)
+        {
+            Set<String> names = (isClass) ? m_classes : m_resources;
+            // Keep the cache bounded by simply starting over once it is
+            // full, which avoids any bookkeeping on the lookup path.
+            if (names.size() >= maxSize)
+            {
+                names.clear();
+            }
+            names.add(name);
+        }
+    }
 }
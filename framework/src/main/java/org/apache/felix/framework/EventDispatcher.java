@@ -23,22 +23,34 @@ import java.security.PrivilegedAction;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Dictionary;
 import java.util.EventListener;
 import java.util.EventObject;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.felix.framework.capabilityset.SimpleFilter;
 import org.apache.felix.framework.util.*;
 import org.osgi.framework.AllServiceListener;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleListener;
+import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkEvent;
 import org.osgi.framework.FrameworkListener;
@@ -64,6 +76,11 @@ public class EventDispatcher
         m_syncBndlListeners = Collections.EMPTY_MAP;
     private Map<BundleContext, List<ListenerInfo>>
         m_svcListeners = Collections.EMPTY_MAP;
+    // Service listeners indexed by the objectClass their filter requires,
+    // rebuilt on demand when the service listeners change.
+    private final boolean m_indexServiceListeners;
+    private volatile ServiceListenerIndex m_svcIndex = null;
+    private final Object m_svcIndexLock = new Object();
 
     // A single thread is used to deliver events for all dispatchers.
     private static Thread m_thread = null;
@@ -76,16 +93,85 @@ public class EventDispatcher
     // Pooled requests to avoid memory allocation.
     private static final List<Request> m_requestPool = new ArrayList<Request>();
 
+    // Number of currently queued and highest number of queued requests.
+    private static final AtomicInteger m_sharedDepth = new AtomicInteger();
+    private static final AtomicInteger m_sharedMaxDepth = new AtomicInteger();
+
     private static final SecureAction m_secureAction = new SecureAction();
 
+    // Alternatively, a dispatcher may use its own thread pool which drains
+    // one ordered queue per bundle context, so a slow listener only delays
+    // events for listeners registered by the same bundle context.
+    private final int m_threads;
+    private volatile ThreadPoolExecutor m_executor = null;
+    private final Map<BundleContext, ContextQueue> m_queues =
+        new HashMap<BundleContext, ContextQueue>();
+    private final AtomicInteger m_depth = new AtomicInteger();
+    private final AtomicInteger m_maxDepth = new AtomicInteger();
+
+    // Bundle events whose asynchronous delivery is deferred by the
+    // current thread, or null if they are delivered right away.
+    private final ThreadLocal<DeferredBundleEvents> m_deferredBundleEvents =
+        new ThreadLocal<DeferredBundleEvents>();
+
     public EventDispatcher(Logger logger, ServiceRegistry registry)
+    {
+        this(logger, registry, 0);
+    }
+
+    /**
+     * Creates an event dispatcher delivering asynchronous events on the
+     * given number of threads. If <tt>threads</tt> is zero, asynchronous
+     * events are delivered by a single thread shared by all dispatchers.
+    **/
+    public EventDispatcher(Logger logger, ServiceRegistry registry, int threads)
+    {
+        this(logger, registry, threads, true);
+    }
+
+    /**
+     * Creates an event dispatcher which optionally does not index the
+     * service listeners by the objectClass their filter requires, but
+     * evaluates the filters of all service listeners for each service
+     * event. This allows to compare both ways of delivering service events.
+    **/
+    public EventDispatcher(Logger logger, ServiceRegistry registry, int threads,
+        boolean indexServiceListeners)
     {
         m_logger = logger;
         m_registry = registry;
+        m_threads = threads;
+        m_indexServiceListeners = indexServiceListeners;
     }
 
     public void startDispatching()
     {
+        if (m_threads > 0)
+        {
+            synchronized (m_queues)
+            {
+                if (m_executor == null)
+                {
+                    final AtomicInteger count = new AtomicInteger();
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                        m_threads, m_threads, 60, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+                        {
+                            public Thread newThread(Runnable r)
+                            {
+                                Thread t = new Thread(
+                                    r, "FelixDispatchQueue-" + count.incrementAndGet());
+                                t.setDaemon(true);
+                                return t;
+                            }
+                        });
+                    executor.allowCoreThreadTimeOut(true);
+                    m_executor = executor;
+                }
+            }
+            return;
+        }
+
         synchronized (m_threadLock)
         {
             // Start event dispatching thread if necessary.
@@ -125,6 +211,38 @@ public class EventDispatcher
 
     public void stopDispatching()
     {
+        if (m_threads > 0)
+        {
+            ThreadPoolExecutor executor;
+            synchronized (m_queues)
+            {
+                executor = m_executor;
+                m_executor = null;
+            }
+            if (executor != null)
+            {
+                // Already queued events are still delivered.
+                executor.shutdown();
+                boolean interrupted = false;
+                while (!executor.isTerminated())
+                {
+                    try
+                    {
+                        executor.awaitTermination(1, TimeUnit.SECONDS);
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return;
+        }
+
         synchronized (m_threadLock)
         {
             // Return if already dead or stopping.
@@ -522,9 +640,46 @@ public class EventDispatcher
             (event.getType() != BundleEvent.STOPPING) &&
             (event.getType() != BundleEvent.LAZY_ACTIVATION))
         {
-            // Fire asynchronous bundle listeners on a separate thread.
-            fireEventAsynchronously(
-                this, Request.BUNDLE_EVENT, listeners, event);
+            DeferredBundleEvents deferred = m_deferredBundleEvents.get();
+            if (deferred != null)
+            {
+                deferred.m_listeners.add(listeners);
+                deferred.m_events.add(event);
+            }
+            else
+            {
+                // Fire asynchronous bundle listeners on a separate thread.
+                fireEventAsynchronously(
+                    this, Request.BUNDLE_EVENT, listeners, event);
+            }
+        }
+    }
+
+    /**
+     * Defers delivering the bundle events fired by the calling thread to
+     * asynchronous bundle listeners until they are passed to
+     * fireDeferredBundleEvents(). Synchronous bundle listeners still
+     * receive the events right away.
+     * @return the events deferred until endDeferBundleEvents() is called.
+    **/
+    DeferredBundleEvents beginDeferBundleEvents()
+    {
+        DeferredBundleEvents deferred = new DeferredBundleEvents();
+        m_deferredBundleEvents.set(deferred);
+        return deferred;
+    }
+
+    void endDeferBundleEvents()
+    {
+        m_deferredBundleEvents.remove();
+    }
+
+    void fireDeferredBundleEvents(DeferredBundleEvents deferred)
+    {
+        for (int i = 0; i < deferred.m_events.size(); i++)
+        {
+            fireEventAsynchronously(this, Request.BUNDLE_EVENT,
+                deferred.m_listeners.get(i), deferred.m_events.get(i));
         }
     }
 
@@ -538,6 +693,13 @@ public class EventDispatcher
             listeners = m_svcListeners;
         }
 
+        // Skip listeners whose filter cannot match the service's objectClass.
+        if (m_indexServiceListeners)
+        {
+            listeners = getServiceListenerIndex(listeners).getCandidates(
+                event.getServiceReference(), listeners);
+        }
+
         // Use service registry hooks to filter target listeners.
         listeners = filterListenersUsingHooks(event, felix, listeners);
 
@@ -764,11 +926,46 @@ public class EventDispatcher
         return whitelist;
     }
 
+    /**
+     * Returns the number of asynchronous event deliveries that are currently
+     * queued. If this dispatcher shares its thread with other dispatchers,
+     * this includes their deliveries.
+    **/
+    public int getQueueDepth()
+    {
+        return (m_threads > 0) ? m_depth.get() : m_sharedDepth.get();
+    }
+
+    /**
+     * Returns the highest number of asynchronous event deliveries that were
+     * queued at the same time.
+    **/
+    public int getMaxQueueDepth()
+    {
+        return (m_threads > 0) ? m_maxDepth.get() : m_sharedMaxDepth.get();
+    }
+
+    private static void updateDepth(AtomicInteger depth, AtomicInteger maxDepth)
+    {
+        int current = depth.incrementAndGet();
+        int max = maxDepth.get();
+        while ((current > max) && !maxDepth.compareAndSet(max, current))
+        {
+            max = maxDepth.get();
+        }
+    }
+
     private static void fireEventAsynchronously(
         EventDispatcher dispatcher, int type,
         Map<BundleContext, List<ListenerInfo>> listeners,
         EventObject event)
     {
+        if (dispatcher.m_threads > 0)
+        {
+            dispatcher.queueEvent(type, listeners, event);
+            return;
+        }
+
         //TODO: should possibly check this within thread lock, seems to be ok though without
         // If dispatch thread is stopped, then ignore dispatch request.
         if (m_stopping || m_thread == null)
@@ -801,6 +998,7 @@ public class EventDispatcher
         {
             // Add our request to the list.
             m_requestList.add(req);
+            updateDepth(m_sharedDepth, m_sharedMaxDepth);
             // Notify the dispatch thread that there is work to do.
             m_requestList.notify();
         }
@@ -1136,6 +1334,7 @@ public class EventDispatcher
 
                 // Get the dispatch request.
                 req = m_requestList.remove(0);
+                m_sharedDepth.decrementAndGet();
             }
 
             // Deliver event outside of synchronized block
@@ -1160,6 +1359,308 @@ public class EventDispatcher
         }
     }
 
+    private void queueEvent(
+        int type, Map<BundleContext, List<ListenerInfo>> listeners, EventObject event)
+    {
+        ThreadPoolExecutor executor = m_executor;
+        // If dispatching is stopped, then ignore dispatch request.
+        if (executor == null)
+        {
+            return;
+        }
+
+        for (Entry<BundleContext, List<ListenerInfo>> entry : listeners.entrySet())
+        {
+            Request req = new Request();
+            req.m_dispatcher = this;
+            req.m_type = type;
+            req.m_listeners = Collections.singletonMap(entry.getKey(), entry.getValue());
+            req.m_event = event;
+
+            ContextQueue queue;
+            boolean schedule = false;
+            synchronized (m_queues)
+            {
+                queue = m_queues.get(entry.getKey());
+                if (queue == null)
+                {
+                    queue = new ContextQueue(entry.getKey());
+                    m_queues.put(entry.getKey(), queue);
+                }
+                queue.m_requests.add(req);
+                updateDepth(m_depth, m_maxDepth);
+                if (!queue.m_scheduled)
+                {
+                    queue.m_scheduled = true;
+                    schedule = true;
+                }
+            }
+
+            if (schedule)
+            {
+                try
+                {
+                    executor.execute(queue);
+                }
+                catch (RejectedExecutionException ex)
+                {
+                    // Dispatching was stopped concurrently, so drop the
+                    // requests like the shared thread does.
+                    synchronized (m_queues)
+                    {
+                        m_depth.addAndGet(-queue.m_requests.size());
+                        queue.m_requests.clear();
+                        queue.m_scheduled = false;
+                        m_queues.remove(queue.m_context);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Ordered requests for the listeners of one bundle context. At most one
+     * pool thread drains a queue at a time, which preserves the delivery
+     * order for each listener.
+    **/
+    private class ContextQueue implements Runnable
+    {
+        private final BundleContext m_context;
+        private final LinkedList<Request> m_requests = new LinkedList<Request>();
+        private boolean m_scheduled = false;
+
+        ContextQueue(BundleContext context)
+        {
+            m_context = context;
+        }
+
+        public void run()
+        {
+            while (true)
+            {
+                Request req;
+                synchronized (m_queues)
+                {
+                    if (m_requests.isEmpty())
+                    {
+                        m_scheduled = false;
+                        if (m_queues.get(m_context) == this)
+                        {
+                            m_queues.remove(m_context);
+                        }
+                        return;
+                    }
+                    req = m_requests.removeFirst();
+                    m_depth.decrementAndGet();
+                }
+
+                fireEventImmediately(
+                    req.m_dispatcher, req.m_type, req.m_listeners,
+                    req.m_event, null);
+            }
+        }
+    }
+
+    private ServiceListenerIndex getServiceListenerIndex(
+        Map<BundleContext, List<ListenerInfo>> listeners)
+    {
+        ServiceListenerIndex index = m_svcIndex;
+        if ((index == null) || (index.m_listeners != listeners))
+        {
+            synchronized (m_svcIndexLock)
+            {
+                index = m_svcIndex;
+                if ((index == null) || (index.m_listeners != listeners))
+                {
+                    index = new ServiceListenerIndex(listeners, index);
+                    m_svcIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * An immutable index of a service listener snapshot by the objectClass
+     * values their filters require. Listeners whose filter does not
+     * constrain the objectClass, or which are unfiltered, are always
+     * candidates. Since the objectClass of a service never changes, this
+     * is also valid for MODIFIED_ENDMATCH events.
+    **/
+    static class ServiceListenerIndex
+    {
+        private static final String[] UNINDEXED = new String[0];
+
+        private final Map<BundleContext, List<ListenerInfo>> m_listeners;
+        private final Map<ListenerInfo, String[]> m_objectClasses =
+            new IdentityHashMap<ListenerInfo, String[]>();
+        private final Map<ListenerInfo, Integer> m_order =
+            new IdentityHashMap<ListenerInfo, Integer>();
+        private final Map<String, List<ListenerInfo>> m_indexed =
+            new HashMap<String, List<ListenerInfo>>();
+        private final List<ListenerInfo> m_unindexed = new ArrayList<ListenerInfo>();
+
+        ServiceListenerIndex(
+            Map<BundleContext, List<ListenerInfo>> listeners, ServiceListenerIndex previous)
+        {
+            m_listeners = listeners;
+            for (List<ListenerInfo> infos : listeners.values())
+            {
+                for (ListenerInfo info : infos)
+                {
+                    m_order.put(info, m_order.size());
+
+                    // Reuse the filter analysis of the previous snapshot.
+                    String[] classes = (previous != null)
+                        ? previous.m_objectClasses.get(info) : null;
+                    if (classes == null)
+                    {
+                        classes = getObjectClasses(info);
+                    }
+                    m_objectClasses.put(info, classes);
+
+                    if (classes == UNINDEXED)
+                    {
+                        m_unindexed.add(info);
+                    }
+                    else
+                    {
+                        for (String clazz : classes)
+                        {
+                            List<ListenerInfo> list = m_indexed.get(clazz);
+                            if (list == null)
+                            {
+                                list = new ArrayList<ListenerInfo>();
+                                m_indexed.put(clazz, list);
+                            }
+                            list.add(info);
+                        }
+                    }
+                }
+            }
+        }
+
+        Map<BundleContext, List<ListenerInfo>> getCandidates(
+            ServiceReference ref, Map<BundleContext, List<ListenerInfo>> listeners)
+        {
+            if (m_indexed.isEmpty())
+            {
+                return listeners;
+            }
+
+            List<ListenerInfo> candidates = new ArrayList<ListenerInfo>(m_unindexed);
+            Object value = ref.getProperty(Constants.OBJECTCLASS);
+            if (value instanceof String[])
+            {
+                for (String clazz : (String[]) value)
+                {
+                    List<ListenerInfo> infos = m_indexed.get(clazz);
+                    if (infos != null)
+                    {
+                        candidates.addAll(infos);
+                    }
+                }
+            }
+
+            // Restore the registration order of the candidates and drop
+            // listeners which were found under more than one objectClass.
+            Collections.sort(candidates, new Comparator<ListenerInfo>()
+            {
+                public int compare(ListenerInfo o1, ListenerInfo o2)
+                {
+                    return m_order.get(o1).compareTo(m_order.get(o2));
+                }
+            });
+            Map<BundleContext, List<ListenerInfo>> result =
+                new LinkedHashMap<BundleContext, List<ListenerInfo>>();
+            ListenerInfo last = null;
+            for (ListenerInfo info : candidates)
+            {
+                if (info != last)
+                {
+                    List<ListenerInfo> infos = result.get(info.getBundleContext());
+                    if (infos == null)
+                    {
+                        infos = new ArrayList<ListenerInfo>();
+                        result.put(info.getBundleContext(), infos);
+                    }
+                    infos.add(info);
+                    last = info;
+                }
+            }
+            return result;
+        }
+
+        private static String[] getObjectClasses(ListenerInfo info)
+        {
+            if ((info.getParsedFilter() == null)
+                || (info.getListener() instanceof UnfilteredServiceListener))
+            {
+                return UNINDEXED;
+            }
+            try
+            {
+                Set<String> classes = getObjectClasses(SimpleFilter.parse(info.getFilter()));
+                return (classes != null)
+                    ? classes.toArray(new String[classes.size()]) : UNINDEXED;
+            }
+            catch (Exception ex)
+            {
+                return UNINDEXED;
+            }
+        }
+
+        /**
+         * Returns the objectClass values of which a service must have at
+         * least one to match the given filter, or <tt>null</tt> if the
+         * filter does not restrict the objectClass.
+        **/
+        static Set<String> getObjectClasses(SimpleFilter sf)
+        {
+            switch (sf.getOperation())
+            {
+                case SimpleFilter.EQ:
+                    if (Constants.OBJECTCLASS.equalsIgnoreCase(sf.getName())
+                        && (sf.getValue() instanceof String))
+                    {
+                        return Collections.singleton((String) sf.getValue());
+                    }
+                    return null;
+                case SimpleFilter.AND:
+                    for (SimpleFilter child : (List<SimpleFilter>) sf.getValue())
+                    {
+                        Set<String> classes = getObjectClasses(child);
+                        if (classes != null)
+                        {
+                            return classes;
+                        }
+                    }
+                    return null;
+                case SimpleFilter.OR:
+                    Set<String> union = new HashSet<String>();
+                    for (SimpleFilter child : (List<SimpleFilter>) sf.getValue())
+                    {
+                        Set<String> classes = getObjectClasses(child);
+                        if (classes == null)
+                        {
+                            return null;
+                        }
+                        union.addAll(classes);
+                    }
+                    return union;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    static class DeferredBundleEvents
+    {
+        private final List<Map<BundleContext, List<ListenerInfo>>> m_listeners =
+            new ArrayList<Map<BundleContext, List<ListenerInfo>>>();
+        private final List<BundleEvent> m_events = new ArrayList<BundleEvent>();
+    }
+
     private static class Request
     {
         public static final int FRAMEWORK_EVENT = 0;
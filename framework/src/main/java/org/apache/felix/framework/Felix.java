@@ -106,6 +106,13 @@ import java.util.StringTokenizer;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -454,7 +461,8 @@ public class Felix extends BundleImpl implements Framework
         }
 
         // Create event dispatcher.
-        m_dispatcher = new EventDispatcher(m_logger, m_registry);
+        m_dispatcher = new EventDispatcher(
+            m_logger, m_registry, getEventDispatcherThreads());
 
         // Create framework wiring object.
         m_fwkWiring = new FrameworkWiringImpl(this, m_registry);
@@ -856,6 +864,10 @@ public class Felix extends BundleImpl implements Framework
                 // keep the max value.
                 m_nextId = Math.max(m_nextId, loadNextId());
 
+                // Load the wiring snapshot of the previous session, if enabled,
+                // so unchanged bundles can be wired without the resolver.
+                loadWiringSnapshot();
+
                 // The framework is now in its startup sequence.
                 setBundleStateAndNotify(this, Bundle.STARTING);
 
@@ -1456,6 +1468,14 @@ public class Felix extends BundleImpl implements Framework
             int high = (isLowering) ? m_activeStartLevel : m_targetStartLevel;
             m_activeStartLevel = (isLowering) ? high : low;
 
+            // If configured, start the bundles of each start level concurrently.
+            int parallelism = getStartLevelParallelism();
+            if (!isLowering && bundlesRemaining && (parallelism > 1))
+            {
+                startStartLevelBundles(low, high, parallelism);
+                bundlesRemaining = false;
+            }
+
             // Process bundles and stop or start them accordingly.
             while (bundlesRemaining)
             {
@@ -1606,6 +1626,245 @@ public class Felix extends BundleImpl implements Framework
         }
     }
 
+    private int getEventDispatcherThreads()
+    {
+        String s = (String) m_configMap.get(FelixConstants.EVENT_DISPATCHER_THREADS_PROP);
+        if (s != null)
+        {
+            try
+            {
+                return Math.max(0, Integer.parseInt(s.trim()));
+            }
+            catch (NumberFormatException ex)
+            {
+                // Ignore and use the shared dispatch thread.
+            }
+        }
+        return 0;
+    }
+
+    private int getStartLevelParallelism()
+    {
+        String s = (String) m_configMap.get(FelixConstants.STARTLEVEL_PARALLELISM_PROP);
+        if (s != null)
+        {
+            try
+            {
+                return Integer.parseInt(s.trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                // Ignore and start bundles sequentially.
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Raises the active start level like the sequential loop in
+     * setActiveStartLevel(), but starts all bundles of a given start level
+     * concurrently on a bounded pool. A start level is only entered once
+     * all bundles of the previous one have been processed, the bundles of
+     * a start level are resolved together before any of them is started.
+     * Once the whole start level has been processed, the bundle events of
+     * each bundle and its errors are delivered in bundle identifier order,
+     * like the sequential loop delivers them. Only synchronous bundle
+     * listeners receive the bundle events while the bundles are started,
+     * since they must see them before the bundles change their state.
+    **/
+    private void startStartLevelBundles(int low, int high, int parallelism)
+    {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            parallelism, parallelism,
+            60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory()
+            {
+                final AtomicInteger counter = new AtomicInteger();
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r,
+                        FrameworkStartLevelImpl.WORKER_THREAD_NAME_PREFIX
+                            + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        try
+        {
+            while (true)
+            {
+                // Take all bundles of the lowest remaining start level.
+                List<StartLevelTuple> batch = new ArrayList<StartLevelTuple>();
+                synchronized (m_startLevelBundles)
+                {
+                    if (m_startLevelBundles.isEmpty())
+                    {
+                        break;
+                    }
+                    int level = m_startLevelBundles.first().m_level;
+                    if ((level >= low) && (level <= high))
+                    {
+                        m_activeStartLevel = level;
+                    }
+                    for (StartLevelTuple tuple : m_startLevelBundles)
+                    {
+                        if (tuple.m_level != level)
+                        {
+                            break;
+                        }
+                        batch.add(tuple);
+                    }
+                }
+
+                // Resolve the bundles to be started up front, so the
+                // concurrent starts do not compete for the global lock.
+                List<Bundle> unresolved = new ArrayList<Bundle>();
+                for (StartLevelTuple tuple : batch)
+                {
+                    if ((tuple.m_bundle.getBundleId() != 0)
+                        && (tuple.m_bundle.getState() == Bundle.INSTALLED)
+                        && isStartLevelStartPending(tuple))
+                    {
+                        unresolved.add(tuple.m_bundle);
+                    }
+                }
+                if (!unresolved.isEmpty())
+                {
+                    resolveBundles(unresolved);
+                }
+
+                final StartLevelResult[] results = new StartLevelResult[batch.size()];
+                List<Future<?>> futures = new ArrayList<Future<?>>(batch.size());
+                for (int i = 0; i < batch.size(); i++)
+                {
+                    final StartLevelResult result = new StartLevelResult();
+                    final StartLevelTuple tuple = batch.get(i);
+                    results[i] = result;
+                    futures.add(executor.submit(new Runnable()
+                    {
+                        public void run()
+                        {
+                            result.m_events = m_dispatcher.beginDeferBundleEvents();
+                            try
+                            {
+                                startStartLevelBundle(tuple, result);
+                            }
+                            finally
+                            {
+                                m_dispatcher.endDeferBundleEvents();
+                            }
+                        }
+                    }));
+                }
+                for (int i = 0; i < futures.size(); i++)
+                {
+                    try
+                    {
+                        futures.get(i).get();
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        Thread.currentThread().interrupt();
+                        results[i].m_error = ex;
+                    }
+                    catch (ExecutionException ex)
+                    {
+                        results[i].m_error = ex.getCause();
+                    }
+                }
+
+                for (int i = 0; i < batch.size(); i++)
+                {
+                    StartLevelTuple tuple = batch.get(i);
+                    StartLevelResult result = results[i];
+                    if (result.m_events != null)
+                    {
+                        m_dispatcher.fireDeferredBundleEvents(result.m_events);
+                    }
+                    if (result.m_error != null)
+                    {
+                        fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, result.m_error);
+                        m_logger.log(tuple.m_bundle,
+                            Logger.LOG_ERROR,
+                            (result.m_locking ? "Error locking " : "Error starting ")
+                                + tuple.m_bundle._getLocation(), result.m_error);
+                    }
+                }
+
+                synchronized (m_startLevelBundles)
+                {
+                    m_startLevelBundles.removeAll(batch);
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    private boolean isStartLevelStartPending(StartLevelTuple tuple)
+    {
+        return ((tuple.m_bundle.getPersistentState() == Bundle.ACTIVE)
+            || (tuple.m_bundle.getPersistentState() == Bundle.STARTING))
+            && (tuple.m_level == m_activeStartLevel);
+    }
+
+    /**
+     * Starts a single bundle on behalf of startStartLevelBundles(),
+     * following the same rules as the sequential start level loop.
+     * @param result receives the error to report for the bundle.
+    **/
+    private void startStartLevelBundle(StartLevelTuple tuple, StartLevelResult result)
+    {
+        // Ignore the system bundle, since its start() method
+        // gets called explicitly in Felix.start().
+        if (tuple.m_bundle.getBundleId() == 0)
+        {
+            return;
+        }
+
+        try
+        {
+            acquireBundleLock(tuple.m_bundle,
+                Bundle.INSTALLED | Bundle.RESOLVED | Bundle.ACTIVE
+                | Bundle.STARTING | Bundle.STOPPING);
+        }
+        catch (IllegalStateException ex)
+        {
+            // Ignore if the bundle has been uninstalled.
+            if (tuple.m_bundle.getState() != Bundle.UNINSTALLED)
+            {
+                result.m_error = ex;
+                result.m_locking = true;
+            }
+            return;
+        }
+
+        try
+        {
+            if (isStartLevelStartPending(tuple))
+            {
+                int options = Bundle.START_TRANSIENT;
+                options = (tuple.m_bundle.getPersistentState() == Bundle.STARTING)
+                    ? options | Bundle.START_ACTIVATION_POLICY
+                    : options;
+                startBundle(tuple.m_bundle, options);
+            }
+        }
+        catch (Throwable th)
+        {
+            result.m_error = th;
+        }
+        finally
+        {
+            // Always release bundle lock.
+            releaseBundleLock(tuple.m_bundle);
+        }
+    }
+
     /**
      * Returns the start level into which newly installed bundles will
      * be placed by default; this method implements functionality for
@@ -2190,7 +2449,7 @@ public class Felix extends BundleImpl implements Framework
             // queued but processed synchronously.
             // Note: Don't queue starts from the start level thread, otherwise
             // we'd never get anything started.
-            if (!Thread.currentThread().getName().equals(FrameworkStartLevelImpl.THREAD_NAME))
+            if (!FrameworkStartLevelImpl.isStartLevelThread(Thread.currentThread()))
             {
                 synchronized (m_startLevelBundles)
                 {
@@ -2493,6 +2752,9 @@ public class Felix extends BundleImpl implements Framework
             }
         }
 
+        // The wiring snapshot no longer reflects the installed bundles.
+        m_resolver.discardWiringSnapshot();
+
         // We must release the lock and close the input stream, so do both
         // in a finally block.
         try
@@ -2885,6 +3147,9 @@ public class Felix extends BundleImpl implements Framework
             }
         }
 
+        // The wiring snapshot no longer reflects the installed bundles.
+        m_resolver.discardWiringSnapshot();
+
         try
         {
             // Check if the bundle is not currently STARTING or STOPPING because if it is
@@ -3218,6 +3483,9 @@ public class Felix extends BundleImpl implements Framework
             existing = (BundleImpl) getBundle(location);
             if (existing == null)
             {
+                // The wiring snapshot no longer reflects the installed bundles.
+                m_resolver.discardWiringSnapshot();
+
                 // First generate an identifier for it.
                 long id = getNextId();
 
@@ -5012,6 +5280,46 @@ public class Felix extends BundleImpl implements Framework
     // Private utility methods.
     //
 
+    private void loadWiringSnapshot()
+    {
+        File file = m_cache.getWiringSnapshotFile();
+        if (file != null)
+        {
+            try
+            {
+                m_resolver.setWiringSnapshot(WiringSnapshot.read(this, file));
+            }
+            catch (Exception ex)
+            {
+                m_logger.log(
+                    Logger.LOG_WARNING,
+                    "Unable to read wiring snapshot, ignoring it.",
+                    ex);
+                m_secureAction.deleteFile(file);
+            }
+        }
+    }
+
+    private void storeWiringSnapshot()
+    {
+        m_resolver.discardWiringSnapshot();
+        File file = m_cache.getWiringSnapshotFile();
+        if (file != null)
+        {
+            try
+            {
+                WiringSnapshot.write(this, file);
+            }
+            catch (Exception ex)
+            {
+                m_logger.log(
+                    Logger.LOG_WARNING,
+                    "Unable to write wiring snapshot.",
+                    ex);
+            }
+        }
+    }
+
     /**
      * Generated the next valid bundle identifier.
     **/
@@ -5208,6 +5516,9 @@ public class Felix extends BundleImpl implements Framework
                 }
             }
 
+            // Record the resolved wiring for the next session, if enabled.
+            storeWiringSnapshot();
+
             // Dispose of the bundles to close their associated contents.
             bundles = getBundles();
             for (int i = 0; i < bundles.length; i++)
@@ -5242,6 +5553,9 @@ public class Felix extends BundleImpl implements Framework
 
             m_dependencies.removeDependents(adapt(BundleRevision.class));
 
+            // Stop services
+            m_resolver.stop();
+
             // Dispose of the bundle cache.
             m_cache.release();
             m_cache = null;
@@ -5356,6 +5670,15 @@ public class Felix extends BundleImpl implements Framework
         }
     }
 
+    // The outcome of starting a bundle concurrently with the other
+    // bundles of its start level.
+    private static class StartLevelResult
+    {
+        private EventDispatcher.DeferredBundleEvents m_events;
+        private Throwable m_error;
+        private boolean m_locking;
+    }
+
     // Compares bundles by start level. Within a start level,
     // bundles are sorted by bundle ID.
     private static class StartLevelTuple implements Comparable<StartLevelTuple>
@@ -33,6 +33,7 @@ import org.osgi.service.startlevel.StartLevel;
 class FrameworkStartLevelImpl implements FrameworkStartLevel, Runnable
 {
     static final String THREAD_NAME = "FelixStartLevel";
+    static final String WORKER_THREAD_NAME_PREFIX = THREAD_NAME + "-Worker-";
 
     private static final int BUNDLE_IDX = 0;
     private static final int STARTLEVEL_IDX = 1;
@@ -60,6 +61,17 @@ class FrameworkStartLevelImpl implements FrameworkStartLevel, Runnable
                 null);
     }
 
+    /**
+     * Returns whether the given thread processes start level changes, which
+     * is the start level thread itself or one of the workers it uses to
+     * start bundles concurrently.
+    **/
+    static boolean isStartLevelThread(Thread thread)
+    {
+        String name = thread.getName();
+        return name.equals(THREAD_NAME) || name.startsWith(WORKER_THREAD_NAME_PREFIX);
+    }
+
     // Should only be called hold requestList lock.
     private void startThread()
     {
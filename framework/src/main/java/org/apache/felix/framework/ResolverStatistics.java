@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.List;
+
+import org.apache.felix.resolver.ResolveStatistics;
+import org.osgi.resource.Requirement;
+
+/**
+ * Sums up the statistics of the resolve operations of the framework.
+ */
+public class ResolverStatistics implements ResolverStatisticsMBean
+{
+    private static final int OFFENDING_REQUIREMENTS = 10;
+
+    private long m_resolveCount;
+    private long m_failedResolveCount;
+    private long m_totalTime;
+    private long m_maxTime;
+    private long m_lastTime;
+    private long m_initialCandidatesTime;
+    private long m_packageSpacesTime;
+    private long m_consistencyTime;
+    private long m_permutationTime;
+    private long m_usesPermutations;
+    private long m_importPermutations;
+    private long m_substitutePermutations;
+    private long m_usesCacheHits;
+    private long m_usesCacheMisses;
+    private int m_lastResourceCount;
+    private long m_lastCandidateCount;
+    private String[] m_lastOffendingRequirements = new String[0];
+
+    synchronized void add(ResolveStatistics statistics)
+    {
+        m_resolveCount++;
+        if (!statistics.isSuccessful())
+        {
+            m_failedResolveCount++;
+        }
+        m_lastTime = statistics.getElapsedTime();
+        m_totalTime += m_lastTime;
+        m_maxTime = Math.max(m_maxTime, m_lastTime);
+        m_initialCandidatesTime += statistics.getInitialCandidatesTime();
+        m_packageSpacesTime += statistics.getPackageSpacesTime();
+        m_consistencyTime += statistics.getConsistencyTime();
+        m_permutationTime += statistics.getPermutationTime();
+        m_usesPermutations += statistics.getUsesPermutations();
+        m_importPermutations += statistics.getImportPermutations();
+        m_substitutePermutations += statistics.getSubstitutePermutations();
+        m_usesCacheHits += statistics.getUsesCacheHits();
+        m_usesCacheMisses += statistics.getUsesCacheMisses();
+        m_lastResourceCount = statistics.getResourceCount();
+        m_lastCandidateCount = statistics.getCandidateCount();
+
+        List<Requirement> reqs =
+            statistics.getTopOffendingRequirements(OFFENDING_REQUIREMENTS);
+        m_lastOffendingRequirements = new String[reqs.size()];
+        for (int i = 0; i < reqs.size(); i++)
+        {
+            Requirement req = reqs.get(i);
+            m_lastOffendingRequirements[i] = req.getResource() + ": " + req;
+        }
+    }
+
+    public synchronized long getResolveCount()
+    {
+        return m_resolveCount;
+    }
+
+    public synchronized long getFailedResolveCount()
+    {
+        return m_failedResolveCount;
+    }
+
+    public synchronized long getTotalTime()
+    {
+        return millis(m_totalTime);
+    }
+
+    public synchronized long getMaxTime()
+    {
+        return millis(m_maxTime);
+    }
+
+    public synchronized long getLastTime()
+    {
+        return millis(m_lastTime);
+    }
+
+    public synchronized long getInitialCandidatesTime()
+    {
+        return millis(m_initialCandidatesTime);
+    }
+
+    public synchronized long getPackageSpacesTime()
+    {
+        return millis(m_packageSpacesTime);
+    }
+
+    public synchronized long getConsistencyTime()
+    {
+        return millis(m_consistencyTime);
+    }
+
+    public synchronized long getPermutationTime()
+    {
+        return millis(m_permutationTime);
+    }
+
+    public synchronized long getUsesPermutations()
+    {
+        return m_usesPermutations;
+    }
+
+    public synchronized long getImportPermutations()
+    {
+        return m_importPermutations;
+    }
+
+    public synchronized long getSubstitutePermutations()
+    {
+        return m_substitutePermutations;
+    }
+
+    public synchronized double getUsesCacheHitRate()
+    {
+        long lookups = m_usesCacheHits + m_usesCacheMisses;
+        return (lookups == 0) ? 0 : (double) m_usesCacheHits / lookups;
+    }
+
+    public synchronized int getLastResourceCount()
+    {
+        return m_lastResourceCount;
+    }
+
+    public synchronized long getLastCandidateCount()
+    {
+        return m_lastCandidateCount;
+    }
+
+    public synchronized String[] getLastOffendingRequirements()
+    {
+        return m_lastOffendingRequirements.clone();
+    }
+
+    public synchronized void reset()
+    {
+        m_resolveCount = 0;
+        m_failedResolveCount = 0;
+        m_totalTime = 0;
+        m_maxTime = 0;
+        m_lastTime = 0;
+        m_initialCandidatesTime = 0;
+        m_packageSpacesTime = 0;
+        m_consistencyTime = 0;
+        m_permutationTime = 0;
+        m_usesPermutations = 0;
+        m_importPermutations = 0;
+        m_substitutePermutations = 0;
+        m_usesCacheHits = 0;
+        m_usesCacheMisses = 0;
+        m_lastResourceCount = 0;
+        m_lastCandidateCount = 0;
+        m_lastOffendingRequirements = new String[0];
+    }
+
+    private static long millis(long nanos)
+    {
+        return nanos / 1000000;
+    }
+}
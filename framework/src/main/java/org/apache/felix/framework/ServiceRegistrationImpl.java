@@ -127,6 +127,8 @@ class ServiceRegistrationImpl implements ServiceRegistration
             oldProps = m_propMap;
             // Set the properties.
             initializeProperties(dict);
+            // Update the registry indices while no other change can interleave.
+            m_registry.reindexService(this, oldProps);
         }
         // Tell registry about it.
         m_registry.servicePropertiesModified(this, new MapToDictionary(oldProps));
@@ -27,6 +27,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
@@ -49,11 +50,13 @@ public class ServiceRegistry
     /** Counter for the service id */
     private final AtomicLong m_currentServiceId = new AtomicLong(1);
 
-    // Maps bundle to an array of service registrations.
+    // Maps bundle to a copy-on-write list of service registrations, so
+    // readers iterate a snapshot without blocking registering threads.
     private final ConcurrentMap<Bundle, List<ServiceRegistration<?>>> m_regsMap = new ConcurrentHashMap<Bundle, List<ServiceRegistration<?>>>();
 
-    // Capability set for all service registrations.
-    private final CapabilitySet m_regCapSet = new CapabilitySet(Collections.singletonList(Constants.OBJECTCLASS), false);
+    // Capability set for all service registrations, indexed on objectClass
+    // and adaptively on properties that are frequently filtered on.
+    private final CapabilitySet m_regCapSet = new CapabilitySet(Collections.singletonList(Constants.OBJECTCLASS), false, true);
 
     // Maps bundle to an array of usage counts.
     private final ConcurrentMap<Bundle, UsageCount[]> m_inUseMap = new ConcurrentHashMap<Bundle, UsageCount[]>();
@@ -79,19 +82,15 @@ public class ServiceRegistry
         if (regs != null)
         {
             final List<ServiceReference<?>> refs = new ArrayList<ServiceReference<?>>(regs.size());
-            // this is a per bundle list, therefore synchronizing this should be fine
-            synchronized ( regs )
+            for (final ServiceRegistration<?> reg : regs)
             {
-                for (final ServiceRegistration<?> reg : regs)
+                try
                 {
-                    try
-                    {
-                        refs.add(reg.getReference());
-                    }
-                    catch (final IllegalStateException ex)
-                    {
-                        // Don't include the reference as it is not valid anymore
-                    }
+                    refs.add(reg.getReference());
+                }
+                catch (final IllegalStateException ex)
+                {
+                    // Don't include the reference as it is not valid anymore
                 }
             }
             return refs.toArray(new ServiceReference[refs.size()]);
@@ -124,17 +123,18 @@ public class ServiceRegistry
         this.hookRegistry.addHooks(classNames, svcObj, reg.getReference());
 
         // Get the bundles current registered services.
-        final List<ServiceRegistration<?>> newRegs = new ArrayList<ServiceRegistration<?>>();
-        List<ServiceRegistration<?>> regs = m_regsMap.putIfAbsent(bundle, newRegs);
+        List<ServiceRegistration<?>> regs = m_regsMap.get(bundle);
         if (regs == null)
         {
-            regs = newRegs;
-        }
-        // this is a per bundle list, therefore synchronizing this should be fine
-        synchronized ( regs )
-        {
-            regs.add(reg);
+            final List<ServiceRegistration<?>> newRegs =
+                new CopyOnWriteArrayList<ServiceRegistration<?>>();
+            regs = m_regsMap.putIfAbsent(bundle, newRegs);
+            if (regs == null)
+            {
+                regs = newRegs;
+            }
         }
+        regs.add(reg);
         m_regCapSet.addCapability((BundleCapabilityImpl) reg.getReference());
 
         return reg;
@@ -156,11 +156,7 @@ public class ServiceRegistry
         final List<ServiceRegistration<?>> regs = m_regsMap.get(bundle);
         if (regs != null)
         {
-            // this is a per bundle list, therefore synchronizing this should be fine
-            synchronized ( regs )
-            {
-                regs.remove(reg);
-            }
+            regs.remove(reg);
         }
         m_regCapSet.removeCapability((BundleCapabilityImpl) reg.getReference());
 
@@ -225,14 +221,9 @@ public class ServiceRegistry
         // Unregister each service.
         if (regs != null)
         {
-            final List<ServiceRegistration<?>> copyRefs;
-            // there shouldn't be a need to sync, but just to be safe
-            // we create a copy array and use that for iterating
-            synchronized ( regs )
-            {
-                copyRefs = new ArrayList<ServiceRegistration<?>>(regs);
-            }
-            for (final ServiceRegistration<?> reg : copyRefs)
+            // The list is copy-on-write, so iterating it while unregistering
+            // sees a stable snapshot.
+            for (final ServiceRegistration<?> reg : regs)
             {
                 if (((ServiceRegistrationImpl) reg).isValid())
                 {
@@ -616,6 +607,17 @@ public class ServiceRegistry
         return bundles;
     }
 
+    /**
+     * Updates the indices used for service lookups after the properties
+     * of a service changed.
+     * @param reg the registration whose properties changed.
+     * @param oldProps the properties before the change.
+    **/
+    void reindexService(ServiceRegistration<?> reg, Map<String, Object> oldProps)
+    {
+        m_regCapSet.updateCapability((BundleCapabilityImpl) reg.getReference(), oldProps);
+    }
+
     void servicePropertiesModified(ServiceRegistration<?> reg, Dictionary<?,?> oldProps)
     {
         this.hookRegistry.updateHooks(reg.getReference());
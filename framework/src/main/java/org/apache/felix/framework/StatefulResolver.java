@@ -18,6 +18,7 @@
  */
 package org.apache.felix.framework;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -38,6 +39,8 @@ import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.management.ObjectName;
+
 import org.apache.felix.framework.capabilityset.CapabilitySet;
 import org.apache.felix.framework.capabilityset.SimpleFilter;
 import org.apache.felix.framework.resolver.CandidateComparator;
@@ -48,7 +51,11 @@ import org.apache.felix.framework.util.Util;
 import org.apache.felix.framework.util.manifestparser.NativeLibrary;
 import org.apache.felix.framework.wiring.BundleRequirementImpl;
 import org.apache.felix.framework.wiring.BundleWireImpl;
+import org.apache.felix.resolver.ResolutionError;
+import org.apache.felix.resolver.ResolveStatistics;
 import org.apache.felix.resolver.ResolverImpl;
+import org.apache.felix.resolver.ResolverOptions;
+import org.apache.felix.resolver.reason.BudgetExceededException;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleException;
@@ -79,6 +86,8 @@ class StatefulResolver
     private final ServiceRegistry m_registry;
     private final Executor m_executor;
     private final ResolverImpl m_resolver;
+    private final ResolverStatistics m_statistics = new ResolverStatistics();
+    private ObjectName m_statisticsName;
     private boolean m_isResolving = false;
 
     // Set of all revisions.
@@ -91,6 +100,8 @@ class StatefulResolver
     private final Map<String, List<BundleRevision>> m_singletons;
     // Selected singleton bundle revisions.
     private final Set<BundleRevision> m_selectedSingletons;
+    // Wiring snapshot of the previous framework session, if any.
+    private volatile WiringSnapshot m_snapshot;
 
     StatefulResolver(Felix felix, ServiceRegistry registry)
     {
@@ -98,7 +109,16 @@ class StatefulResolver
         m_registry = registry;
         m_logger = m_felix.getLogger();
         m_executor = getExecutor();
-        m_resolver = new ResolverImpl(m_logger, m_executor);
+        // Package spaces of resolved revisions are reused across resolves
+        // unless disabled; they are keyed on the wiring, so refreshing a
+        // revision invalidates them.
+        m_resolver = new ResolverImpl(new ResolverLogger(), new ResolverOptions()
+            .setExecutor(m_executor)
+            .setCachePackageSpaces(!"false".equalsIgnoreCase(
+                m_felix.getProperty(FelixConstants.RESOLVER_PACKAGE_SPACE_CACHE_PROP)))
+            .setPermutationBatchSize(getPermutationParallelism())
+            .setTimeout(getLongProperty(FelixConstants.RESOLVER_TIMEOUT_PROP))
+            .setPermutationLimit(getLongProperty(FelixConstants.RESOLVER_PERMUTATION_LIMIT_PROP)));
 
         m_revisions = new HashSet<BundleRevision>();
         m_fragments = new HashSet<BundleRevision>();
@@ -119,6 +139,44 @@ class StatefulResolver
         m_capSets.put(BundleRevision.HOST_NAMESPACE,  new CapabilitySet(indices, true));
     }
 
+    private int getPermutationParallelism()
+    {
+        // Candidate permutations are checked one at a time unless configured
+        // otherwise, since checking them concurrently may pick a different
+        // (but still deterministic) solution.
+        String str = m_felix.getProperty(FelixConstants.RESOLVER_PERMUTATION_PARALLELISM_PROP);
+        if (str != null)
+        {
+            try
+            {
+                return Integer.parseInt(str);
+            }
+            catch (NumberFormatException e)
+            {
+                // Ignore
+            }
+        }
+        return 1;
+    }
+
+    private long getLongProperty(String name)
+    {
+        // Resolve operations are not limited unless configured otherwise.
+        String str = m_felix.getProperty(name);
+        if (str != null)
+        {
+            try
+            {
+                return Long.parseLong(str.trim());
+            }
+            catch (NumberFormatException e)
+            {
+                // Ignore
+            }
+        }
+        return 0;
+    }
+
     private Executor getExecutor()
     {
         String str = m_felix.getProperty(FelixConstants.RESOLVER_PARALLELISM);
@@ -172,6 +230,58 @@ class StatefulResolver
                 new String[] { Resolver.class.getName() },
                 new ResolverImpl(m_logger, 1),
                 null);
+
+        if ("true".equalsIgnoreCase(
+            m_felix.getProperty(FelixConstants.RESOLVER_STATISTICS_JMX_PROP)))
+        {
+            try
+            {
+                ObjectName name = new ObjectName(
+                    "org.apache.felix.framework:type=ResolverStatistics,uuid="
+                    + m_felix.getProperty(FelixConstants.FRAMEWORK_UUID));
+                ManagementFactory.getPlatformMBeanServer().registerMBean(m_statistics, name);
+                m_statisticsName = name;
+            }
+            catch (Throwable ex)
+            {
+                // JMX may not be available on this platform.
+                m_logger.log(Logger.LOG_WARNING,
+                    "Unable to register resolver statistics MBean.", ex);
+            }
+        }
+    }
+
+    void stop()
+    {
+        if (m_statisticsName != null)
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer()
+                    .unregisterMBean(m_statisticsName);
+            }
+            catch (Throwable ex)
+            {
+                m_logger.log(Logger.LOG_WARNING,
+                    "Unable to unregister resolver statistics MBean.", ex);
+            }
+            m_statisticsName = null;
+        }
+    }
+
+    ResolverStatistics getStatistics()
+    {
+        return m_statistics;
+    }
+
+    void setWiringSnapshot(WiringSnapshot snapshot)
+    {
+        m_snapshot = snapshot;
+    }
+
+    void discardWiringSnapshot()
+    {
+        m_snapshot = null;
     }
 
     synchronized void addRevision(BundleRevision br)
@@ -427,6 +537,9 @@ class StatefulResolver
         m_isResolving = true;
 
         Map<Resource, List<Wire>> wireMap = null;
+        Map<Resource, List<Wire>> snapshotWireMap = null;
+        // Set if the resolver ran out of budget, but resolved some revisions.
+        ResolutionException partialFailure = null;
         try
         {
             // Make our own copy of revisions.
@@ -469,20 +582,63 @@ class StatefulResolver
                 }
             }
 
+            // Wire whatever the snapshot of the previous session covers
+            // first, so the resolver only has to deal with the remainder.
+            // The snapshot does not know about hooks or permissions, so
+            // it is only used when neither of them can affect the result.
+            WiringSnapshot snapshot = m_snapshot;
+            if ((snapshot != null) && record.getResolverHookRefs().isEmpty()
+                && (System.getSecurityManager() == null))
+            {
+                snapshotWireMap = snapshot.getWireMap(this, mandatory, optional);
+                if (snapshotWireMap != null)
+                {
+                    try
+                    {
+                        markResolvedRevisions(snapshotWireMap);
+                        if (!mandatory.isEmpty())
+                        {
+                            mandatory.removeAll(snapshotWireMap.keySet());
+                        }
+                        if (!optional.isEmpty())
+                        {
+                            optional.removeAll(snapshotWireMap.keySet());
+                        }
+                    }
+                    catch (ResolveException ex)
+                    {
+                        m_logger.log(Logger.LOG_WARNING,
+                            "Unable to apply wiring snapshot, discarding it.", ex);
+                        m_snapshot = null;
+                        snapshotWireMap = null;
+                    }
+                }
+            }
+
             // Catch any resolve exception to rethrow later because
             // we may need to call end() on resolver hooks.
             ResolutionException rethrow = null;
             try
             {
                 // Resolve the revision.
-                wireMap = m_resolver.resolve(
-                    new ResolveContextImpl(
-                        this,
-                        getWirings(),
-                        record,
-                        mandatory,
-                        optional,
-                        getFragments()));
+                if ((snapshotWireMap == null)
+                    || !mandatory.isEmpty() || !optional.isEmpty())
+                {
+                    wireMap = m_resolver.resolve(
+                        new ResolveContextImpl(
+                            this,
+                            getWirings(),
+                            record,
+                            mandatory,
+                            optional,
+                            getFragments()));
+                }
+            }
+            catch (BudgetExceededException ex)
+            {
+                // Keep the revisions that were resolved in time.
+                wireMap = ex.getWireMap();
+                partialFailure = ex;
             }
             catch (ResolutionException ex)
             {
@@ -509,7 +665,13 @@ class StatefulResolver
             m_felix.releaseGlobalLock();
         }
 
+        fireResolvedEvents(snapshotWireMap);
         fireResolvedEvents(wireMap);
+
+        if (partialFailure != null)
+        {
+            throw partialFailure;
+        }
     }
 
     BundleRevision resolve(BundleRevision revision, String pkgName)
@@ -1418,7 +1580,7 @@ class StatefulResolver
         }
     }
 
-    private synchronized boolean isSelectedSingleton(BundleRevision br)
+    synchronized boolean isSelectedSingleton(BundleRevision br)
     {
         return m_selectedSingletons.contains(br);
     }
@@ -1774,4 +1936,42 @@ class StatefulResolver
             };
         }
     }
+
+    /**
+     * Passes the log output of the resolver on to the framework logger and
+     * records the statistics of each resolve operation.
+     */
+    private class ResolverLogger extends org.apache.felix.resolver.Logger
+    {
+        ResolverLogger()
+        {
+            // Leave filtering by level to the framework logger.
+            super(LOG_DEBUG);
+        }
+
+        @Override
+        public boolean isDebugEnabled()
+        {
+            return m_logger.isDebugEnabled();
+        }
+
+        @Override
+        protected void doLog(int level, String msg, Throwable throwable)
+        {
+            m_logger.log(level, msg, throwable);
+        }
+
+        @Override
+        public void logUsesConstraintViolation(Resource resource, ResolutionError error)
+        {
+            m_logger.logUsesConstraintViolation(resource, error);
+        }
+
+        @Override
+        public void logResolveStatistics(ResolveStatistics statistics)
+        {
+            m_statistics.add(statistics);
+            m_logger.logResolveStatistics(statistics);
+        }
+    }
 }
@@ -0,0 +1,586 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.apache.felix.framework.cache.BundleArchive;
+import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.util.Util;
+import org.apache.felix.framework.wiring.BundleWireImpl;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.namespace.NativeNamespace;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
+
+/**
+ * A persistent snapshot of the resolved wiring of all cached bundles. The
+ * snapshot is written when the framework shuts down and is used on the next
+ * start to wire bundles without invoking the resolver, as long as neither the
+ * involved bundle archives nor the system bundle capabilities have changed.
+ * Wires are recorded as indices into the declared requirements and
+ * capabilities of the involved revisions, so the snapshot can only be applied
+ * to revisions that are identical to the ones it was taken from.
+**/
+class WiringSnapshot
+{
+    private static final int MAGIC = 0x46575300;
+    private static final int VERSION = 1;
+
+    private final Felix m_felix;
+    private final long m_systemFingerprint;
+    private final Map<Long, Entry> m_entries;
+    private Boolean m_valid = null;
+
+    private WiringSnapshot(Felix felix, long systemFingerprint, Map<Long, Entry> entries)
+    {
+        m_felix = felix;
+        m_systemFingerprint = systemFingerprint;
+        m_entries = entries;
+    }
+
+    /**
+     * Reads a snapshot from the specified file.
+     * @param felix the framework instance the snapshot is applied to.
+     * @param file the snapshot file.
+     * @return the snapshot or <tt>null</tt> if the file does not exist.
+     * @throws IOException if the file is unreadable or of an unknown format.
+    **/
+    static WiringSnapshot read(Felix felix, File file) throws IOException
+    {
+        if (!Felix.m_secureAction.fileExists(file))
+        {
+            return null;
+        }
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            Felix.m_secureAction.getFileInputStream(file)));
+        try
+        {
+            if ((in.readInt() != MAGIC) || (in.readInt() != VERSION))
+            {
+                throw new IOException("Unknown wiring snapshot format: " + file);
+            }
+            long fingerprint = in.readLong();
+            int count = in.readInt();
+            Map<Long, Entry> entries = new HashMap<Long, Entry>(count);
+            for (int i = 0; i < count; i++)
+            {
+                Entry entry = Entry.read(in);
+                entries.put(entry.m_bundleId, entry);
+            }
+            return new WiringSnapshot(felix, fingerprint, entries);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the current wiring of all installed bundles to the specified file.
+     * Bundles whose wiring involves revisions that are not current, such as
+     * updated bundles that were not refreshed, are left out.
+     * @param felix the framework instance to take the snapshot from.
+     * @param file the snapshot file.
+     * @throws IOException if the file cannot be written.
+    **/
+    static void write(Felix felix, File file) throws IOException
+    {
+        List<Entry> entries = new ArrayList<Entry>();
+        Bundle[] bundles = felix.getBundles();
+        for (int i = 0; i < bundles.length; i++)
+        {
+            Entry entry = Entry.create((BundleImpl) bundles[i]);
+            if (entry != null)
+            {
+                entries.add(entry);
+            }
+        }
+
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            Felix.m_secureAction.getFileOutputStream(tmp)));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(getSystemFingerprint(felix));
+            out.writeInt(entries.size());
+            for (Entry entry : entries)
+            {
+                entry.write(out);
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+
+        Felix.m_secureAction.deleteFile(file);
+        if (!Felix.m_secureAction.renameFile(tmp, file))
+        {
+            Felix.m_secureAction.deleteFile(tmp);
+            throw new IOException("Unable to rename wiring snapshot: " + tmp);
+        }
+    }
+
+    /**
+     * Calculates the wires for the given revisions from the snapshot. All
+     * mandatory revisions must be covered by the snapshot, including the
+     * unresolved revisions they are wired to and their attached fragments;
+     * optional revisions are included only if their closure is covered.
+     * @param resolver the resolver state used for singleton selection.
+     * @param mandatory the revisions that must be resolved.
+     * @param optional the revisions that may be resolved.
+     * @return a wire map suitable for marking the revisions as resolved or
+     *         <tt>null</tt> if the snapshot does not apply.
+    **/
+    synchronized Map<Resource, List<Wire>> getWireMap(
+        StatefulResolver resolver,
+        Collection<BundleRevision> mandatory,
+        Collection<BundleRevision> optional)
+    {
+        if (m_valid == null)
+        {
+            // The system bundle capabilities depend on the configuration
+            // and the installed extensions, so they can only be compared
+            // once all extensions have been reloaded.
+            m_valid = Boolean.valueOf(m_systemFingerprint == getSystemFingerprint(m_felix));
+        }
+        if (!m_valid.booleanValue())
+        {
+            return null;
+        }
+
+        Map<Resource, List<Wire>> wireMap = new HashMap<Resource, List<Wire>>();
+        for (BundleRevision br : mandatory)
+        {
+            Map<Resource, List<Wire>> closure = getClosure(resolver, br, wireMap);
+            if (closure == null)
+            {
+                return null;
+            }
+            wireMap.putAll(closure);
+        }
+        for (BundleRevision br : optional)
+        {
+            Map<Resource, List<Wire>> closure = getClosure(resolver, br, wireMap);
+            if (closure != null)
+            {
+                wireMap.putAll(closure);
+            }
+        }
+        return wireMap.isEmpty() ? null : wireMap;
+    }
+
+    private Map<Resource, List<Wire>> getClosure(
+        StatefulResolver resolver, BundleRevision revision, Map<Resource, List<Wire>> wireMap)
+    {
+        Map<Resource, List<Wire>> closure = new HashMap<Resource, List<Wire>>();
+        LinkedList<BundleRevision> queue = new LinkedList<BundleRevision>();
+        queue.add(revision);
+        while (!queue.isEmpty())
+        {
+            BundleRevision br = queue.removeFirst();
+            if (wireMap.containsKey(br) || closure.containsKey(br))
+            {
+                continue;
+            }
+            else if (br.getWiring() != null)
+            {
+                // Resolved hosts can be wired to as they are, but a resolved
+                // fragment cannot be attached to an additional host here.
+                if (Util.isFragment(br))
+                {
+                    return null;
+                }
+                continue;
+            }
+
+            Entry entry = m_entries.get(br.getBundle().getBundleId());
+            if ((entry == null) || (getRevision(entry.m_bundleId) != br)
+                || (Util.isSingleton(br) && !resolver.isSelectedSingleton(br)))
+            {
+                return null;
+            }
+
+            List<Wire> wires = new ArrayList<Wire>(entry.m_wires.length);
+            for (WireEntry we : entry.m_wires)
+            {
+                BundleWire wire = we.createWire(this, br);
+                if (wire == null)
+                {
+                    return null;
+                }
+                BundleRevision provider = wire.getProvider();
+                BundleWiring providerWiring = provider.getWiring();
+                if (providerWiring == null)
+                {
+                    queue.add(provider);
+                }
+                else if (Util.isFragment(br)
+                    || !providerWiring.getCapabilities(null).contains(wire.getCapability()))
+                {
+                    // Fragments cannot be attached to hosts that are already
+                    // resolved and the capability may have been substituted.
+                    return null;
+                }
+                wires.add(wire);
+            }
+            closure.put(br, wires);
+
+            for (long fragmentId : entry.m_fragments)
+            {
+                BundleRevision fragment = getRevision(fragmentId);
+                if (fragment == null)
+                {
+                    return null;
+                }
+                queue.add(fragment);
+            }
+        }
+        return closure;
+    }
+
+    /**
+     * Returns the current revision of the given bundle if it is unchanged
+     * since the snapshot was taken.
+    **/
+    BundleRevision getRevision(long bundleId)
+    {
+        BundleImpl bundle = (BundleImpl) m_felix.getBundle(bundleId);
+        if ((bundle == null) || (bundle.getState() == Bundle.UNINSTALLED))
+        {
+            return null;
+        }
+        BundleRevision br = bundle.adapt(BundleRevision.class);
+        if (bundleId == 0)
+        {
+            return br;
+        }
+        Entry entry = m_entries.get(bundleId);
+        return ((entry != null) && entry.matches(bundle, br)) ? br : null;
+    }
+
+    private static long getSystemFingerprint(Felix felix)
+    {
+        CRC32 crc = new CRC32();
+        for (BundleCapability cap : felix.adapt(BundleRevision.class).getDeclaredCapabilities(null))
+        {
+            StringBuilder sb = new StringBuilder(cap.getNamespace());
+            for (Map.Entry<String, Object> entry
+                : new TreeMap<String, Object>(cap.getAttributes()).entrySet())
+            {
+                // The native capability carries all framework properties,
+                // including per-session ones such as the framework UUID.
+                if (cap.getNamespace().equals(NativeNamespace.NATIVE_NAMESPACE)
+                    && !entry.getKey().startsWith(NativeNamespace.NATIVE_NAMESPACE))
+                {
+                    continue;
+                }
+                Object value = entry.getValue();
+                sb.append(';').append(entry.getKey()).append('=').append(
+                    (value instanceof Object[]) ? Arrays.asList((Object[]) value) : value);
+            }
+            sb.append(new TreeMap<String, String>(cap.getDirectives()));
+            try
+            {
+                crc.update(sb.toString().getBytes("UTF-8"));
+            }
+            catch (IOException ex)
+            {
+                // Cannot happen, UTF-8 is always supported.
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static String toString(Object o)
+    {
+        return (o == null) ? "" : o.toString();
+    }
+
+    private static class Entry
+    {
+        final long m_bundleId;
+        final long m_revision;
+        final long m_lastModified;
+        final String m_symbolicName;
+        final String m_version;
+        final int m_capCount;
+        final int m_reqCount;
+        final long[] m_fragments;
+        final WireEntry[] m_wires;
+
+        Entry(long bundleId, long revision, long lastModified, String symbolicName,
+            String version, int capCount, int reqCount, long[] fragments, WireEntry[] wires)
+        {
+            m_bundleId = bundleId;
+            m_revision = revision;
+            m_lastModified = lastModified;
+            m_symbolicName = symbolicName;
+            m_version = version;
+            m_capCount = capCount;
+            m_reqCount = reqCount;
+            m_fragments = fragments;
+            m_wires = wires;
+        }
+
+        static Entry create(BundleImpl bundle)
+        {
+            if ((bundle.getBundleId() == 0) || bundle.isExtension()
+                || (bundle.getState() == Bundle.UNINSTALLED))
+            {
+                return null;
+            }
+            BundleRevision br = bundle.adapt(BundleRevision.class);
+            BundleWiring wiring = (br != null) ? br.getWiring() : null;
+            if (wiring == null)
+            {
+                return null;
+            }
+
+            List<BundleRevision> fragmentRevs = Util.getFragments(wiring);
+            long[] fragments = new long[fragmentRevs.size()];
+            for (int i = 0; i < fragments.length; i++)
+            {
+                if (!isCurrent(fragmentRevs.get(i)))
+                {
+                    return null;
+                }
+                fragments[i] = fragmentRevs.get(i).getBundle().getBundleId();
+            }
+
+            List<WireEntry> wires = new ArrayList<WireEntry>();
+            for (BundleWire wire : wiring.getRequiredWires(null))
+            {
+                // Dynamic wires are created on demand and are
+                // not part of the resolved wiring.
+                if (FelixConstants.RESOLUTION_DYNAMIC.equals(
+                    wire.getRequirement().getDirectives().get(Constants.RESOLUTION_DIRECTIVE)))
+                {
+                    continue;
+                }
+                WireEntry we = WireEntry.create(wire);
+                if (we == null)
+                {
+                    return null;
+                }
+                wires.add(we);
+            }
+
+            try
+            {
+                BundleArchive archive = bundle.getArchive();
+                return new Entry(
+                    bundle.getBundleId(),
+                    archive.getCurrentRevisionNumber().longValue(),
+                    archive.getLastModified(),
+                    WiringSnapshot.toString(br.getSymbolicName()),
+                    WiringSnapshot.toString(br.getVersion()),
+                    br.getDeclaredCapabilities(null).size(),
+                    br.getDeclaredRequirements(null).size(),
+                    fragments,
+                    wires.toArray(new WireEntry[wires.size()]));
+            }
+            catch (Exception ex)
+            {
+                return null;
+            }
+        }
+
+        static Entry read(DataInputStream in) throws IOException
+        {
+            long bundleId = in.readLong();
+            long revision = in.readLong();
+            long lastModified = in.readLong();
+            String symbolicName = in.readUTF();
+            String version = in.readUTF();
+            int capCount = in.readInt();
+            int reqCount = in.readInt();
+            long[] fragments = new long[in.readInt()];
+            for (int i = 0; i < fragments.length; i++)
+            {
+                fragments[i] = in.readLong();
+            }
+            WireEntry[] wires = new WireEntry[in.readInt()];
+            for (int i = 0; i < wires.length; i++)
+            {
+                wires[i] = WireEntry.read(in);
+            }
+            return new Entry(bundleId, revision, lastModified, symbolicName,
+                version, capCount, reqCount, fragments, wires);
+        }
+
+        void write(DataOutputStream out) throws IOException
+        {
+            out.writeLong(m_bundleId);
+            out.writeLong(m_revision);
+            out.writeLong(m_lastModified);
+            out.writeUTF(m_symbolicName);
+            out.writeUTF(m_version);
+            out.writeInt(m_capCount);
+            out.writeInt(m_reqCount);
+            out.writeInt(m_fragments.length);
+            for (long fragment : m_fragments)
+            {
+                out.writeLong(fragment);
+            }
+            out.writeInt(m_wires.length);
+            for (WireEntry wire : m_wires)
+            {
+                wire.write(out);
+            }
+        }
+
+        boolean matches(BundleImpl bundle, BundleRevision br)
+        {
+            if ((br == null) || bundle.isExtension())
+            {
+                return false;
+            }
+            try
+            {
+                BundleArchive archive = bundle.getArchive();
+                return (archive.getCurrentRevisionNumber().longValue() == m_revision)
+                    && (archive.getLastModified() == m_lastModified)
+                    && m_symbolicName.equals(WiringSnapshot.toString(br.getSymbolicName()))
+                    && m_version.equals(WiringSnapshot.toString(br.getVersion()))
+                    && (br.getDeclaredCapabilities(null).size() == m_capCount)
+                    && (br.getDeclaredRequirements(null).size() == m_reqCount);
+            }
+            catch (Exception ex)
+            {
+                return false;
+            }
+        }
+    }
+
+    private static class WireEntry
+    {
+        final String m_namespace;
+        final long m_requirementBundleId;
+        final int m_requirementIndex;
+        final long m_providerBundleId;
+        final long m_capabilityBundleId;
+        final int m_capabilityIndex;
+
+        WireEntry(String namespace, long requirementBundleId, int requirementIndex,
+            long providerBundleId, long capabilityBundleId, int capabilityIndex)
+        {
+            m_namespace = namespace;
+            m_requirementBundleId = requirementBundleId;
+            m_requirementIndex = requirementIndex;
+            m_providerBundleId = providerBundleId;
+            m_capabilityBundleId = capabilityBundleId;
+            m_capabilityIndex = capabilityIndex;
+        }
+
+        static WireEntry create(BundleWire wire)
+        {
+            BundleRequirement req = wire.getRequirement();
+            BundleCapability cap = wire.getCapability();
+            if (!isCurrent(req.getRevision()) || !isCurrent(cap.getRevision())
+                || !isCurrent(wire.getProvider()))
+            {
+                return null;
+            }
+            int reqIndex = req.getRevision().getDeclaredRequirements(null).indexOf(req);
+            int capIndex = cap.getRevision().getDeclaredCapabilities(null).indexOf(cap);
+            if ((reqIndex < 0) || (capIndex < 0))
+            {
+                return null;
+            }
+            return new WireEntry(
+                req.getNamespace(),
+                req.getRevision().getBundle().getBundleId(),
+                reqIndex,
+                wire.getProvider().getBundle().getBundleId(),
+                cap.getRevision().getBundle().getBundleId(),
+                capIndex);
+        }
+
+        static WireEntry read(DataInputStream in) throws IOException
+        {
+            return new WireEntry(in.readUTF(), in.readLong(), in.readInt(),
+                in.readLong(), in.readLong(), in.readInt());
+        }
+
+        void write(DataOutputStream out) throws IOException
+        {
+            out.writeUTF(m_namespace);
+            out.writeLong(m_requirementBundleId);
+            out.writeInt(m_requirementIndex);
+            out.writeLong(m_providerBundleId);
+            out.writeLong(m_capabilityBundleId);
+            out.writeInt(m_capabilityIndex);
+        }
+
+        BundleWire createWire(WiringSnapshot snapshot, BundleRevision requirer)
+        {
+            BundleRevision reqRev = snapshot.getRevision(m_requirementBundleId);
+            BundleRevision capRev = snapshot.getRevision(m_capabilityBundleId);
+            BundleRevision provider = snapshot.getRevision(m_providerBundleId);
+            if ((reqRev == null) || (capRev == null) || (provider == null))
+            {
+                return null;
+            }
+            List<BundleRequirement> reqs = reqRev.getDeclaredRequirements(null);
+            List<BundleCapability> caps = capRev.getDeclaredCapabilities(null);
+            if ((m_requirementIndex >= reqs.size()) || (m_capabilityIndex >= caps.size()))
+            {
+                return null;
+            }
+            BundleRequirement req = reqs.get(m_requirementIndex);
+            BundleCapability cap = caps.get(m_capabilityIndex);
+            if (!m_namespace.equals(req.getNamespace())
+                || !m_namespace.equals(cap.getNamespace()))
+            {
+                return null;
+            }
+            return new BundleWireImpl(requirer, req, provider, cap);
+        }
+    }
+
+    private static boolean isCurrent(BundleRevision br)
+    {
+        return (br != null) && (br.getBundle().adapt(BundleRevision.class) == br);
+    }
+}
@@ -638,8 +638,8 @@ public class BundleArchive
         // we'll use later to determine if we need to rename its directory.
         Map<String, Object> headers = getCurrentRevision().getManifestHeader();
 
-        boolean hasNativeLibs = headers != null && getCurrentRevision().getManifestHeader()
-            .containsKey(Constants.BUNDLE_NATIVECODE);
+        boolean hasNativeLibs = headers != null
+            && headers.containsKey(Constants.BUNDLE_NATIVECODE);
 
         // Close all revisions and then delete all but the current revision.
         // We don't delete it the current revision, because we want to rename it
@@ -18,10 +18,16 @@
  */
 package org.apache.felix.framework.cache;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.util.Map;
 
 import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.util.StringMap;
 
 /**
  * <p>
@@ -41,6 +47,9 @@ import org.apache.felix.framework.Logger;
 **/
 public abstract class BundleArchiveRevision
 {
+    private static final transient String MANIFEST_CACHE_FILE = "manifest.cache";
+    private static final transient int MANIFEST_CACHE_MAGIC = 0x464d4301;
+
     private final Logger m_logger;
     private final Map m_configMap;
     private final File m_revisionRootDir;
@@ -128,6 +137,129 @@ public abstract class BundleArchiveRevision
 
     public abstract Content getContent() throws Exception;
 
+    /**
+     * <p>
+     * Returns the main attributes of the JAR file manifest as previously
+     * stored by <tt>writeCachedManifestHeader()</tt> in the revision's
+     * directory. This allows subclasses to avoid reopening and parsing the
+     * manifest of unchanged content on every framework start.
+     * </p>
+     * @param stamp a value identifying the state of the content the cached
+     *        headers were taken from, such as its size and last modified time.
+     * @return the case-insensitive cached headers or <tt>null</tt> if there
+     *         are no cached headers for the given stamp.
+    **/
+    protected Map<String, Object> readCachedManifestHeader(long stamp)
+    {
+        File file = new File(m_revisionRootDir, MANIFEST_CACHE_FILE);
+        if (!BundleCache.getSecureAction().fileExists(file))
+        {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream(new BufferedInputStream(
+                BundleCache.getSecureAction().getFileInputStream(file)));
+            if ((in.readInt() != MANIFEST_CACHE_MAGIC) || (in.readLong() != stamp))
+            {
+                return null;
+            }
+            Map<String, Object> headers = new StringMap();
+            for (int i = in.readInt(); i > 0; i--)
+            {
+                headers.put(readString(in), readString(in));
+            }
+            return headers;
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(Logger.LOG_DEBUG,
+                "Unable to read cached manifest headers: " + file, ex);
+            return null;
+        }
+        finally
+        {
+            try
+            {
+                if (in != null) in.close();
+            }
+            catch (IOException ex)
+            {
+                // Ignore.
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Stores the main attributes of the JAR file manifest in the revision's
+     * directory, so they can be returned by <tt>readCachedManifestHeader()</tt>
+     * as long as the content is unchanged. Failures are logged and ignored,
+     * since the headers can always be parsed from the content again.
+     * </p>
+     * @param headers the headers to store.
+     * @param stamp a value identifying the state of the content the headers
+     *        were taken from.
+    **/
+    protected void writeCachedManifestHeader(Map<String, Object> headers, long stamp)
+    {
+        File file = new File(m_revisionRootDir, MANIFEST_CACHE_FILE);
+        File tmp = new File(m_revisionRootDir, MANIFEST_CACHE_FILE + ".tmp");
+        DataOutputStream out = null;
+        try
+        {
+            out = new DataOutputStream(new BufferedOutputStream(
+                BundleCache.getSecureAction().getFileOutputStream(tmp)));
+            out.writeInt(MANIFEST_CACHE_MAGIC);
+            out.writeLong(stamp);
+            out.writeInt(headers.size());
+            for (Map.Entry<String, Object> entry : headers.entrySet())
+            {
+                writeString(out, entry.getKey());
+                writeString(out, String.valueOf(entry.getValue()));
+            }
+            out.close();
+            out = null;
+
+            BundleCache.getSecureAction().deleteFile(file);
+            if (!BundleCache.getSecureAction().renameFile(tmp, file))
+            {
+                BundleCache.getSecureAction().deleteFile(tmp);
+            }
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(Logger.LOG_DEBUG,
+                "Unable to cache manifest headers: " + file, ex);
+            try
+            {
+                if (out != null) out.close();
+            }
+            catch (IOException ex2)
+            {
+                // Ignore.
+            }
+            BundleCache.getSecureAction().deleteFile(tmp);
+        }
+    }
+
+    // Manifest values are not limited to the 64k supported by writeUTF().
+    private static String readString(DataInputStream in) throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException
+    {
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
     /**
      * <p>
      * This method is called when the revision is no longer needed. The directory
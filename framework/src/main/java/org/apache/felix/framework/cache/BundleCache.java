@@ -75,6 +75,18 @@ import java.util.Map;
  *       string provides control over the size of the internal buffer of the
  *       disk cache for performance reasons.
  *   </li>
+ *   <li><tt>felix.cache.wiring.snapshot</tt> - Enables or disables the
+ *       wiring snapshot, which records the resolved wiring of the cached
+ *       bundles on shutdown so that unchanged bundles can be wired on the
+ *       next start without running the resolver. This is disabled by
+ *       default; set this property to <tt>true</tt> to enable it.
+ *   </li>
+ *   <li><tt>felix.cache.mapped</tt> - Enables or disables memory mapping
+ *       of bundle JAR files, which serves entries from the mapping using an
+ *       entry index stored in the cache instead of reading them through
+ *       <tt>ZipFile</tt>. This is disabled by default; set this property to
+ *       <tt>true</tt> to enable it.
+ *   </li>
  * <p>
  * For specific information on how to configure the Felix framework, refer
  * to the Felix framework usage documentation.
@@ -87,12 +99,15 @@ public class BundleCache
     public static final String CACHE_ROOTDIR_PROP = "felix.cache.rootdir";
     public static final String CACHE_LOCKING_PROP = "felix.cache.locking";
     public static final String CACHE_FILELIMIT_PROP = "felix.cache.filelimit";
+    public static final String CACHE_WIRING_SNAPSHOT_PROP = "felix.cache.wiring.snapshot";
+    public static final String CACHE_MAPPED_PROP = "felix.cache.mapped";
     private static final ThreadLocal m_defaultBuffer = new ThreadLocal();
     private static volatile int DEFAULT_BUFFER = 1024 * 64;
 
     private static transient final String CACHE_DIR_NAME = "felix-cache";
     private static transient final String CACHE_ROOTDIR_DEFAULT = ".";
     private static transient final String CACHE_LOCK_NAME = "cache.lock";
+    private static transient final String CACHE_WIRING_SNAPSHOT_NAME = "wiring.snapshot";
     static transient final String BUNDLE_DIR_PREFIX = "bundle";
 
     private static final SecureAction m_secureAction = new SecureAction();
@@ -517,6 +532,22 @@ public class BundleCache
         return dataFile;
     }
 
+    /**
+     * Returns the file used to persist the resolved wiring of the cached
+     * bundles between framework sessions.
+     * @return the wiring snapshot file or <tt>null</tt> if the wiring
+     *         snapshot is disabled.
+    **/
+    public File getWiringSnapshotFile()
+    {
+        Object enabled = m_configMap.get(CACHE_WIRING_SNAPSHOT_PROP);
+        if ((enabled == null) || !Boolean.valueOf(enabled.toString()).booleanValue())
+        {
+            return null;
+        }
+        return new File(determineCacheDir(m_configMap), CACHE_WIRING_SNAPSHOT_NAME);
+    }
+
     //
     // Static file-related utility methods.
     //
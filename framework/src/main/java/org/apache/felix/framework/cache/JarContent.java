@@ -41,12 +41,12 @@ public class JarContent implements Content
     private static final transient String EMBEDDED_DIRECTORY = "-embedded";
     private static final transient String LIBRARY_DIRECTORY = "-lib";
 
-    private final Logger m_logger;
-    private final Map m_configMap;
-    private final WeakZipFileFactory m_zipFactory;
-    private final Object m_revisionLock;
+    final Logger m_logger;
+    final Map m_configMap;
+    final WeakZipFileFactory m_zipFactory;
+    final Object m_revisionLock;
     private final File m_rootDir;
-    private final File m_file;
+    final File m_file;
     private final WeakZipFile m_zipFile;
     private final boolean m_isZipFileOwner;
     private Map m_nativeLibMap;
@@ -201,8 +201,7 @@ public class JarContent implements Content
         // just return it immediately.
         if (entryName.equals(FelixConstants.CLASS_PATH_DOT))
         {
-            return new JarContent(m_logger, m_configMap, m_zipFactory, m_revisionLock,
-                m_rootDir, m_file, m_zipFile);
+            return newJarContent(m_rootDir, m_file, m_zipFile);
         }
 
         // Remove any leading slash.
@@ -261,9 +260,7 @@ public class JarContent implements Content
                         }
                     }
                 }
-                return new JarContent(
-                    m_logger, m_configMap, m_zipFactory, m_revisionLock,
-                    extractJar.getParentFile(), extractJar, null);
+                return newJarContent(extractJar.getParentFile(), extractJar, null);
             }
             catch (Exception ex)
             {
@@ -388,6 +385,16 @@ public class JarContent implements Content
         return result;
     }
 
+    /**
+     * Creates the content for this JAR file itself or for a JAR file
+     * embedded in it; subclasses may return their own content type.
+    **/
+    JarContent newJarContent(File rootDir, File file, WeakZipFile zipFile)
+    {
+        return new JarContent(m_logger, m_configMap, m_zipFactory, m_revisionLock,
+            rootDir, file, zipFile);
+    }
+
     public String toString()
     {
         return "JAR " + m_file.getPath();
@@ -97,16 +97,37 @@ class JarRevision extends BundleArchiveRevision
 
     public Map<String, Object> getManifestHeader() throws Exception
     {
+        // Use the headers cached in the revision directory, unless the
+        // JAR file has changed since, which can only happen if it is
+        // referenced in place.
+        long stamp = (31 * m_bundleFile.length()) ^ m_bundleFile.lastModified();
+        Map<String, Object> manifest = readCachedManifestHeader(stamp);
+        if (manifest != null)
+        {
+            return manifest;
+        }
+
         // Read and parse headers into a case insensitive map of manifest attributes and return it.
         ZipEntry manifestEntry = m_zipFile.getEntry("META-INF/MANIFEST.MF");
 
-        Map<String, Object> manifest = manifestEntry != null ? BundleCache.getMainAttributes(new StringMap(), m_zipFile.getInputStream(manifestEntry), manifestEntry.getSize()) : null;
+        manifest = manifestEntry != null ? BundleCache.getMainAttributes(new StringMap(), m_zipFile.getInputStream(manifestEntry), manifestEntry.getSize()) : null;
+
+        if (manifest != null)
+        {
+            writeCachedManifestHeader(manifest, stamp);
+        }
 
         return manifest;
     }
 
     public Content getContent() throws Exception
     {
+        Object mapped = getConfig().get(BundleCache.CACHE_MAPPED_PROP);
+        if ((mapped != null) && Boolean.valueOf(mapped.toString()).booleanValue())
+        {
+            return new MappedJarContent(getLogger(), getConfig(), m_zipFactory,
+                this, getRevisionRootDir(), m_bundleFile, m_zipFile);
+        }
         return new JarContent(getLogger(), getConfig(), m_zipFactory,
             this, getRevisionRootDir(), m_bundleFile, m_zipFile);
     }
@@ -0,0 +1,611 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Inflater;
+
+import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.util.WeakZipFileFactory;
+import org.apache.felix.framework.util.WeakZipFileFactory.WeakZipFile;
+
+/**
+ * <p>
+ * A JAR file content which memory maps the JAR file and reads entries
+ * directly from the mapping, using an index of the entries which is
+ * persisted next to the JAR file in the bundle cache. Stored entries are
+ * returned as slices of the mapping without copying; deflated entries are
+ * inflated from the mapping. This avoids reopening the JAR file when the
+ * <tt>felix.cache.filelimit</tt> is exceeded.
+ * </p>
+ * <p>
+ * JAR files which cannot be mapped, such as ZIP64 files or files larger
+ * than 2GB, as well as encrypted entries or unsupported compression methods
+ * are handled by <tt>JarContent</tt>.
+ * </p>
+ * <p>
+ * The mapping is shared by the contents created for the JAR file itself
+ * and is dropped when the last of them is closed. The mapped memory is
+ * reclaimed by the garbage collector once the buffers and streams returned
+ * for its entries are no longer used, since a class may still be defined
+ * from such a buffer after the content is closed. The JAR file itself is
+ * not kept open, but the mapping may lock it on some platforms until then.
+ * </p>
+**/
+public class MappedJarContent extends JarContent
+{
+    private static final String INDEX_SUFFIX = ".index";
+    private static final int INDEX_MAGIC = 0x464a4901;
+
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int END_HEADER_SIG = 0x06054b50;
+    private static final int END_HEADER_SIZE = 22;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final int UNSUPPORTED = -1;
+
+    private final File m_indexFile;
+    private final Mapping m_mapping;
+    private final Map<String, IndexEntry> m_index;
+    private boolean m_closed = false;
+
+    public MappedJarContent(Logger logger, Map configMap, WeakZipFileFactory zipFactory,
+        Object revisionLock, File rootDir, File file, WeakZipFile zipFile)
+    {
+        super(logger, configMap, zipFactory, revisionLock, rootDir, file, zipFile);
+        m_indexFile = new File(rootDir, file.getName() + INDEX_SUFFIX);
+
+        ByteBuffer buffer = null;
+        Map<String, IndexEntry> index = null;
+        try
+        {
+            buffer = map(file);
+            if (buffer != null)
+            {
+                long stamp = (31 * file.length()) ^ file.lastModified();
+                index = readIndex(stamp);
+                if (index == null)
+                {
+                    index = createIndex(buffer);
+                    writeIndex(index, stamp);
+                }
+            }
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(Logger.LOG_DEBUG,
+                "MappedJarContent: Unable to map JAR file " + file
+                + ", using the ZIP file instead.", ex);
+            buffer = null;
+            index = null;
+        }
+        m_mapping = (buffer != null) ? new Mapping(buffer) : null;
+        m_index = index;
+    }
+
+    private MappedJarContent(MappedJarContent content, File rootDir, WeakZipFile zipFile)
+    {
+        super(content.m_logger, content.m_configMap, content.m_zipFactory,
+            content.m_revisionLock, rootDir, content.m_file, zipFile);
+        m_indexFile = content.m_indexFile;
+        m_mapping = (content.m_mapping != null) && content.m_mapping.acquire()
+            ? content.m_mapping : null;
+        m_index = (m_mapping != null) ? content.m_index : null;
+    }
+
+    JarContent newJarContent(File rootDir, File file, WeakZipFile zipFile)
+    {
+        // The content itself shares the mapping and the index.
+        if (file.equals(m_file) && (zipFile != null))
+        {
+            return new MappedJarContent(this, rootDir, zipFile);
+        }
+        return new MappedJarContent(m_logger, m_configMap, m_zipFactory,
+            m_revisionLock, rootDir, file, zipFile);
+    }
+
+    public void close()
+    {
+        synchronized (this)
+        {
+            if (m_closed)
+            {
+                return;
+            }
+            m_closed = true;
+        }
+        if (m_mapping != null)
+        {
+            m_mapping.release();
+        }
+        super.close();
+    }
+
+    public boolean hasEntry(String name) throws IllegalStateException
+    {
+        if (m_index == null)
+        {
+            return super.hasEntry(name);
+        }
+        return (getIndexEntry(name) != null);
+    }
+
+    /**
+     * Returns the bytes of the specified entry. For stored entries, the
+     * returned buffer is a read-only view of the mapped JAR file.
+     * @param name the name of the entry.
+     * @return the bytes of the entry or <tt>null</tt> if it does not exist.
+    **/
+    public ByteBuffer getEntryAsByteBuffer(String name)
+    {
+        IndexEntry entry = null;
+        if (m_index != null)
+        {
+            entry = getIndexEntry(name);
+            if (entry == null)
+            {
+                return null;
+            }
+        }
+        if ((entry == null) || (entry.m_method == UNSUPPORTED))
+        {
+            byte[] bytes = super.getEntryAsBytes(name);
+            return (bytes != null) ? ByteBuffer.wrap(bytes) : null;
+        }
+
+        try
+        {
+            ByteBuffer data = m_mapping.getBuffer();
+            data.limit(entry.m_offset + entry.m_compressedSize);
+            data.position(entry.m_offset);
+            if (entry.m_method == STORED)
+            {
+                return data.slice();
+            }
+
+            // The inflater needs an extra byte when no ZLIB header is used.
+            byte[] input = new byte[entry.m_compressedSize + 1];
+            data.get(input, 0, entry.m_compressedSize);
+            byte[] output = new byte[entry.m_size];
+            Inflater inflater = new Inflater(true);
+            try
+            {
+                inflater.setInput(input);
+                int count = 0;
+                while (count < output.length)
+                {
+                    int n = inflater.inflate(output, count, output.length - count);
+                    if ((n == 0) && (inflater.finished() || inflater.needsInput()
+                        || inflater.needsDictionary()))
+                    {
+                        break;
+                    }
+                    count += n;
+                }
+                if (count != output.length)
+                {
+                    throw new IOException("Truncated entry " + name);
+                }
+            }
+            finally
+            {
+                inflater.end();
+            }
+            return ByteBuffer.wrap(output);
+        }
+        catch (IllegalStateException ex)
+        {
+            throw ex;
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(
+                Logger.LOG_ERROR,
+                "MappedJarContent: Unable to read bytes for file " + name
+                + " in ZIP file " + m_file.getAbsolutePath(), ex);
+            return null;
+        }
+    }
+
+    public byte[] getEntryAsBytes(String name) throws IllegalStateException
+    {
+        if (m_index == null)
+        {
+            return super.getEntryAsBytes(name);
+        }
+
+        ByteBuffer buffer = getEntryAsByteBuffer(name);
+        if (buffer == null)
+        {
+            return null;
+        }
+        if (buffer.hasArray() && (buffer.arrayOffset() == 0)
+            && (buffer.array().length == buffer.remaining()))
+        {
+            return buffer.array();
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    public InputStream getEntryAsStream(String name)
+        throws IllegalStateException, IOException
+    {
+        if (m_index != null)
+        {
+            IndexEntry entry = getIndexEntry(name);
+            if (entry == null)
+            {
+                return null;
+            }
+            else if (entry.m_method == STORED)
+            {
+                ByteBuffer data = getEntryAsByteBuffer(name);
+                return (data != null) ? new ByteBufferInputStream(m_mapping, data) : null;
+            }
+        }
+        // Stream deflated entries from the ZIP file rather than inflating
+        // them into memory, since resources may be large.
+        return super.getEntryAsStream(name);
+    }
+
+    private IndexEntry getIndexEntry(String name)
+    {
+        IndexEntry entry = m_index.get(name);
+        // Like ZipFile, also find directory entries without trailing slash.
+        if ((entry == null) && !name.endsWith("/"))
+        {
+            entry = m_index.get(name + "/");
+        }
+        return entry;
+    }
+
+    private static ByteBuffer map(File file) throws IOException
+    {
+        FileInputStream fis = BundleCache.getSecureAction().getFileInputStream(file);
+        try
+        {
+            FileChannel channel = fis.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+            {
+                return null;
+            }
+            // The mapping remains valid after the channel is closed.
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        finally
+        {
+            fis.close();
+        }
+    }
+
+    /**
+     * Creates the entry index from the central directory of the mapped
+     * ZIP file.
+    **/
+    static Map<String, IndexEntry> createIndex(ByteBuffer buffer) throws IOException
+    {
+        int end = -1;
+        for (int i = buffer.limit() - END_HEADER_SIZE;
+            (i >= 0) && (i >= buffer.limit() - END_HEADER_SIZE - 0xFFFF); i--)
+        {
+            if (buffer.getInt(i) == END_HEADER_SIG)
+            {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0)
+        {
+            throw new IOException("No ZIP central directory found.");
+        }
+
+        int count = buffer.getShort(end + 10) & 0xFFFF;
+        long offset = buffer.getInt(end + 16) & 0xFFFFFFFFL;
+        if ((count == 0xFFFF) || (offset == 0xFFFFFFFFL))
+        {
+            throw new IOException("ZIP64 files are not supported.");
+        }
+
+        Map<String, IndexEntry> index = new HashMap<String, IndexEntry>();
+        int pos = (int) offset;
+        for (int i = 0; i < count; i++)
+        {
+            if (buffer.getInt(pos) != CENTRAL_HEADER_SIG)
+            {
+                throw new IOException("Invalid ZIP central directory.");
+            }
+            int flags = buffer.getShort(pos + 8) & 0xFFFF;
+            int method = buffer.getShort(pos + 10) & 0xFFFF;
+            long compressedSize = buffer.getInt(pos + 20) & 0xFFFFFFFFL;
+            long size = buffer.getInt(pos + 24) & 0xFFFFFFFFL;
+            int nameLength = buffer.getShort(pos + 28) & 0xFFFF;
+            int extraLength = buffer.getShort(pos + 30) & 0xFFFF;
+            int commentLength = buffer.getShort(pos + 32) & 0xFFFF;
+            long localOffset = buffer.getInt(pos + 42) & 0xFFFFFFFFL;
+
+            byte[] nameBytes = new byte[nameLength];
+            for (int j = 0; j < nameLength; j++)
+            {
+                nameBytes[j] = buffer.get(pos + 46 + j);
+            }
+            String name = new String(nameBytes, "UTF-8");
+
+            IndexEntry entry;
+            if (((flags & 1) != 0) || ((method != STORED) && (method != DEFLATED))
+                || (compressedSize > Integer.MAX_VALUE) || (size > Integer.MAX_VALUE)
+                || (localOffset > Integer.MAX_VALUE - 30))
+            {
+                entry = new IndexEntry(UNSUPPORTED, 0, 0, 0);
+            }
+            else
+            {
+                int local = (int) localOffset;
+                if (buffer.getInt(local) != LOCAL_HEADER_SIG)
+                {
+                    throw new IOException("Invalid ZIP local header for " + name);
+                }
+                long data = local + 30L
+                    + (buffer.getShort(local + 26) & 0xFFFF)
+                    + (buffer.getShort(local + 28) & 0xFFFF);
+                if (data + compressedSize > buffer.limit())
+                {
+                    throw new IOException("Invalid ZIP entry size for " + name);
+                }
+                entry = new IndexEntry(method, (int) compressedSize, (int) size, (int) data);
+            }
+            if (!index.containsKey(name))
+            {
+                index.put(name, entry);
+            }
+
+            pos += 46 + nameLength + extraLength + commentLength;
+        }
+        return index;
+    }
+
+    private Map<String, IndexEntry> readIndex(long stamp)
+    {
+        if (!BundleCache.getSecureAction().fileExists(m_indexFile))
+        {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream(new BufferedInputStream(
+                BundleCache.getSecureAction().getFileInputStream(m_indexFile)));
+            if ((in.readInt() != INDEX_MAGIC) || (in.readLong() != stamp))
+            {
+                return null;
+            }
+            int count = in.readInt();
+            Map<String, IndexEntry> index = new HashMap<String, IndexEntry>();
+            for (int i = 0; i < count; i++)
+            {
+                String name = in.readUTF();
+                index.put(name, new IndexEntry(
+                    in.readInt(), in.readInt(), in.readInt(), in.readInt()));
+            }
+            return index;
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(Logger.LOG_DEBUG,
+                "Unable to read JAR index: " + m_indexFile, ex);
+            return null;
+        }
+        finally
+        {
+            try
+            {
+                if (in != null) in.close();
+            }
+            catch (IOException ex)
+            {
+                // Ignore.
+            }
+        }
+    }
+
+    private void writeIndex(Map<String, IndexEntry> index, long stamp)
+    {
+        File tmp = new File(m_indexFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try
+        {
+            out = new DataOutputStream(new BufferedOutputStream(
+                BundleCache.getSecureAction().getFileOutputStream(tmp)));
+            out.writeInt(INDEX_MAGIC);
+            out.writeLong(stamp);
+            out.writeInt(index.size());
+            for (Map.Entry<String, IndexEntry> entry : index.entrySet())
+            {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().m_method);
+                out.writeInt(entry.getValue().m_compressedSize);
+                out.writeInt(entry.getValue().m_size);
+                out.writeInt(entry.getValue().m_offset);
+            }
+            out.close();
+            out = null;
+
+            BundleCache.getSecureAction().deleteFile(m_indexFile);
+            if (!BundleCache.getSecureAction().renameFile(tmp, m_indexFile))
+            {
+                BundleCache.getSecureAction().deleteFile(tmp);
+            }
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(Logger.LOG_DEBUG,
+                "Unable to write JAR index: " + m_indexFile, ex);
+            try
+            {
+                if (out != null) out.close();
+            }
+            catch (IOException ex2)
+            {
+                // Ignore.
+            }
+            BundleCache.getSecureAction().deleteFile(tmp);
+        }
+    }
+
+    public String toString()
+    {
+        return "Mapped JAR " + m_file.getPath();
+    }
+
+    /**
+     * A mapped JAR file shared by several contents, which is dropped when
+     * the last of them releases it. The mapping is not unmapped explicitly,
+     * since the buffers returned for its entries may still be read.
+    **/
+    private static class Mapping
+    {
+        private ByteBuffer m_buffer;
+        private int m_users = 1;
+
+        Mapping(ByteBuffer buffer)
+        {
+            m_buffer = buffer;
+        }
+
+        synchronized boolean acquire()
+        {
+            if (m_users == 0)
+            {
+                return false;
+            }
+            m_users++;
+            return true;
+        }
+
+        synchronized void release()
+        {
+            if ((m_users > 0) && (--m_users == 0))
+            {
+                m_buffer = null;
+            }
+        }
+
+        synchronized boolean isReleased()
+        {
+            return (m_users == 0);
+        }
+
+        synchronized ByteBuffer getBuffer()
+        {
+            if (m_users == 0)
+            {
+                throw new IllegalStateException("The JAR file is closed.");
+            }
+            return m_buffer.duplicate();
+        }
+    }
+
+    static class IndexEntry
+    {
+        final int m_method;
+        final int m_compressedSize;
+        final int m_size;
+        final int m_offset;
+
+        IndexEntry(int method, int compressedSize, int size, int offset)
+        {
+            m_method = method;
+            m_compressedSize = compressedSize;
+            m_size = size;
+            m_offset = offset;
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream
+    {
+        private final Mapping m_mapping;
+        private final ByteBuffer m_data;
+
+        ByteBufferInputStream(Mapping mapping, ByteBuffer data)
+        {
+            m_mapping = mapping;
+            m_data = data;
+        }
+
+        private void check() throws IOException
+        {
+            if (m_mapping.isReleased())
+            {
+                throw new IOException("The JAR file is closed.");
+            }
+        }
+
+        public int read() throws IOException
+        {
+            check();
+            return m_data.hasRemaining() ? (m_data.get() & 0xFF) : -1;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            check();
+            if (len == 0)
+            {
+                return 0;
+            }
+            if (!m_data.hasRemaining())
+            {
+                return -1;
+            }
+            len = Math.min(len, m_data.remaining());
+            m_data.get(b, off, len);
+            return len;
+        }
+
+        public long skip(long n)
+        {
+            int count = (int) Math.max(0, Math.min(n, m_data.remaining()));
+            m_data.position(m_data.position() + count);
+            return count;
+        }
+
+        public int available()
+        {
+            return m_data.remaining();
+        }
+    }
+}
@@ -34,6 +34,7 @@ import java.util.SortedMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.felix.framework.util.SecureAction;
 import org.apache.felix.framework.util.StringComparator;
@@ -45,13 +46,29 @@ import org.osgi.resource.Capability;
 
 public class CapabilitySet
 {
-    private final SortedMap<String, Map<Object, Set<BundleCapability>>> m_indices; // Should also be concurrent!
+    private final SortedMap<String, ConcurrentMap<Object, Set<BundleCapability>>> m_indices;
     private final Set<Capability> m_capSet = Collections.newSetFromMap(new ConcurrentHashMap<Capability, Boolean>());
     private final static SecureAction m_secureAction = new SecureAction();
 
+    // Number of equality lookups on an unindexed attribute, each scanning at
+    // least ADAPTIVE_INDEX_MIN_SCAN capabilities, before the attribute gets
+    // its own index.
+    static final int ADAPTIVE_INDEX_THRESHOLD = 32;
+    static final int ADAPTIVE_INDEX_MIN_SCAN = 32;
+    static final int ADAPTIVE_INDEX_MAX = 8;
+    private static final int ADAPTIVE_INDEX_MAX_TRACKED = 64;
+
+    // Adaptive indices are only maintained for attributes whose values are
+    // all strings, since index lookups use the filter value verbatim.
+    private final boolean m_adaptive;
+    private final ConcurrentMap<String, AtomicInteger> m_lookupCounts;
+    private final Set<String> m_adaptiveIndices;
+    private final Set<String> m_pendingIndices;
+    private final Set<String> m_unindexable;
+
     public void dump()
     {
-        for (Entry<String, Map<Object, Set<BundleCapability>>> entry : m_indices.entrySet())
+        for (Entry<String, ConcurrentMap<Object, Set<BundleCapability>>> entry : m_indices.entrySet())
         {
             boolean header1 = false;
             for (Entry<Object, Set<BundleCapability>> entry2 : entry.getValue().entrySet())
@@ -79,16 +96,53 @@ public class CapabilitySet
     }
 
     public CapabilitySet(final List<String> indexProps, final boolean caseSensitive)
+    {
+        this(indexProps, caseSensitive, false);
+    }
+
+    /**
+     * Creates a capability set indexed on the given attributes. If
+     * <tt>adaptive</tt> is true, additional indices are created on demand
+     * for attributes that are frequently matched for equality.
+     * @param indexProps the attributes to always index or <tt>null</tt>.
+     * @param caseSensitive whether attribute names are case sensitive.
+     * @param adaptive whether to create indices for observed filters.
+    **/
+    public CapabilitySet(
+        final List<String> indexProps, final boolean caseSensitive, final boolean adaptive)
     {
         m_indices = (caseSensitive)
-            ? new ConcurrentSkipListMap<String, Map<Object, Set<BundleCapability>>>()
-            : new ConcurrentSkipListMap<String, Map<Object, Set<BundleCapability>>>(
+            ? new ConcurrentSkipListMap<String, ConcurrentMap<Object, Set<BundleCapability>>>()
+            : new ConcurrentSkipListMap<String, ConcurrentMap<Object, Set<BundleCapability>>>(
                 StringComparator.COMPARATOR);
         for (int i = 0; (indexProps != null) && (i < indexProps.size()); i++)
         {
             m_indices.put(
                 indexProps.get(i), new ConcurrentHashMap<Object, Set<BundleCapability>>());
         }
+
+        m_adaptive = adaptive;
+        m_lookupCounts = (caseSensitive)
+            ? new ConcurrentSkipListMap<String, AtomicInteger>()
+            : new ConcurrentSkipListMap<String, AtomicInteger>(StringComparator.COMPARATOR);
+        m_adaptiveIndices = Collections.newSetFromMap((caseSensitive)
+            ? new ConcurrentSkipListMap<String, Boolean>()
+            : new ConcurrentSkipListMap<String, Boolean>(StringComparator.COMPARATOR));
+        m_pendingIndices = Collections.newSetFromMap((caseSensitive)
+            ? new ConcurrentSkipListMap<String, Boolean>()
+            : new ConcurrentSkipListMap<String, Boolean>(StringComparator.COMPARATOR));
+        m_unindexable = Collections.newSetFromMap((caseSensitive)
+            ? new ConcurrentSkipListMap<String, Boolean>()
+            : new ConcurrentSkipListMap<String, Boolean>(StringComparator.COMPARATOR));
+    }
+
+    /**
+     * Returns the attributes for which indices were created adaptively.
+     * @return the adaptively indexed attribute names.
+    **/
+    Set<String> getAdaptiveIndices()
+    {
+        return Collections.unmodifiableSet(m_adaptiveIndices);
     }
 
     public void addCapability(final BundleCapability cap)
@@ -96,7 +150,7 @@ public class CapabilitySet
         m_capSet.add(cap);
 
         // Index capability.
-        for (Entry<String, Map<Object, Set<BundleCapability>>> entry : m_indices.entrySet())
+        for (Entry<String, ConcurrentMap<Object, Set<BundleCapability>>> entry : m_indices.entrySet())
         {
             Object value = cap.getAttributes().get(entry.getKey());
             if (value != null)
@@ -106,8 +160,13 @@ public class CapabilitySet
                     value = convertArrayToList(value);
                 }
 
-                ConcurrentMap<Object, Set<BundleCapability>> index =
-                        (ConcurrentMap<Object, Set<BundleCapability>>) entry.getValue();
+                if (m_adaptiveIndices.contains(entry.getKey()) && !isIndexable(value))
+                {
+                    dropAdaptiveIndex(entry.getKey());
+                    continue;
+                }
+
+                ConcurrentMap<Object, Set<BundleCapability>> index = entry.getValue();
 
                 if (value instanceof Collection)
                 {
@@ -128,18 +187,38 @@ public class CapabilitySet
     private void indexCapability(
         ConcurrentMap<Object, Set<BundleCapability>> index, BundleCapability cap, Object capValue)
     {
-        Set<BundleCapability> caps = Collections.newSetFromMap(new ConcurrentHashMap<BundleCapability, Boolean>());
-        Set<BundleCapability> prevval = index.putIfAbsent(capValue, caps);
-        if (prevval != null)
-            caps = prevval;
-        caps.add(cap);
+        // Each index value set doubles as the lock for its value, so adding
+        // and removing capabilities only contends for the same attribute
+        // value (e.g., the same objectClass). If the set was emptied and
+        // dropped from the index concurrently, retry with a fresh set.
+        for (;;)
+        {
+            Set<BundleCapability> caps = index.get(capValue);
+            if (caps == null)
+            {
+                caps = Collections.newSetFromMap(new ConcurrentHashMap<BundleCapability, Boolean>());
+                Set<BundleCapability> prevval = index.putIfAbsent(capValue, caps);
+                if (prevval != null)
+                {
+                    caps = prevval;
+                }
+            }
+            synchronized (caps)
+            {
+                if (index.get(capValue) == caps)
+                {
+                    caps.add(cap);
+                    return;
+                }
+            }
+        }
     }
 
     public void removeCapability(final BundleCapability cap)
     {
         if (m_capSet.remove(cap))
         {
-            for (Entry<String, Map<Object, Set<BundleCapability>>> entry : m_indices.entrySet())
+            for (Entry<String, ConcurrentMap<Object, Set<BundleCapability>>> entry : m_indices.entrySet())
             {
                 Object value = cap.getAttributes().get(entry.getKey());
                 if (value != null)
@@ -149,7 +228,7 @@ public class CapabilitySet
                         value = convertArrayToList(value);
                     }
 
-                    Map<Object, Set<BundleCapability>> index = entry.getValue();
+                    ConcurrentMap<Object, Set<BundleCapability>> index = entry.getValue();
 
                     if (value instanceof Collection)
                     {
@@ -168,16 +247,105 @@ public class CapabilitySet
         }
     }
 
+    /**
+     * Updates the indices of a capability whose attributes changed, e.g.,
+     * the properties of a service. The capability must already report the
+     * new attributes.
+     * @param cap the capability with the changed attributes.
+     * @param oldAttrs the attributes of the capability before the change.
+    **/
+    public void updateCapability(final BundleCapability cap, final Map<String, Object> oldAttrs)
+    {
+        if (!m_capSet.contains(cap))
+        {
+            return;
+        }
+
+        for (Entry<String, ConcurrentMap<Object, Set<BundleCapability>>> entry : m_indices.entrySet())
+        {
+            Object oldValue = oldAttrs.get(entry.getKey());
+            Object newValue = cap.getAttributes().get(entry.getKey());
+            if (oldValue != null && oldValue.getClass().isArray())
+            {
+                oldValue = convertArrayToList(oldValue);
+            }
+            if (newValue != null && newValue.getClass().isArray())
+            {
+                newValue = convertArrayToList(newValue);
+            }
+            if ((oldValue == null) ? (newValue == null) : oldValue.equals(newValue))
+            {
+                continue;
+            }
+
+            ConcurrentMap<Object, Set<BundleCapability>> index = entry.getValue();
+            if (oldValue != null)
+            {
+                deindexValue(index, cap, oldValue);
+            }
+            if (newValue != null)
+            {
+                if (m_adaptiveIndices.contains(entry.getKey()) && !isIndexable(newValue))
+                {
+                    dropAdaptiveIndex(entry.getKey());
+                    continue;
+                }
+                indexValue(index, cap, newValue);
+
+                // Undo if the capability was removed while we indexed it.
+                if (!m_capSet.contains(cap))
+                {
+                    deindexValue(index, cap, newValue);
+                }
+            }
+        }
+    }
+
+    private void indexValue(
+        ConcurrentMap<Object, Set<BundleCapability>> index, BundleCapability cap, Object value)
+    {
+        if (value instanceof Collection)
+        {
+            for (Object o : (Collection) value)
+            {
+                indexCapability(index, cap, o);
+            }
+        }
+        else
+        {
+            indexCapability(index, cap, value);
+        }
+    }
+
+    private void deindexValue(
+        ConcurrentMap<Object, Set<BundleCapability>> index, BundleCapability cap, Object value)
+    {
+        if (value instanceof Collection)
+        {
+            for (Object o : (Collection) value)
+            {
+                deindexCapability(index, cap, o);
+            }
+        }
+        else
+        {
+            deindexCapability(index, cap, value);
+        }
+    }
+
     private void deindexCapability(
-        Map<Object, Set<BundleCapability>> index, BundleCapability cap, Object value)
+        ConcurrentMap<Object, Set<BundleCapability>> index, BundleCapability cap, Object value)
     {
         Set<BundleCapability> caps = index.get(value);
         if (caps != null)
         {
-            caps.remove(cap);
-            if (caps.isEmpty())
+            synchronized (caps)
             {
-                index.remove(value);
+                caps.remove(cap);
+                if (caps.isEmpty())
+                {
+                    index.remove(value, caps);
+                }
             }
         }
     }
@@ -235,6 +403,16 @@ public class CapabilitySet
         else
         {
             Map<Object, Set<BundleCapability>> index = m_indices.get(sf.getName());
+            if ((index != null) && m_pendingIndices.contains(sf.getName()))
+            {
+                index = null;
+            }
+            else if ((index == null) && (sf.getOperation() == SimpleFilter.EQ)
+                && (caps.size() >= ADAPTIVE_INDEX_MIN_SCAN))
+            {
+                index = recordUnindexedLookup(sf.getName());
+            }
+
             if ((sf.getOperation() == SimpleFilter.EQ) && (index != null))
             {
                 Set<BundleCapability> existingCaps = index.get(sf.getValue());
@@ -267,6 +445,130 @@ public class CapabilitySet
         return matches;
     }
 
+    private Map<Object, Set<BundleCapability>> recordUnindexedLookup(String name)
+    {
+        if (!m_adaptive || m_unindexable.contains(name)
+            || (m_adaptiveIndices.size() >= ADAPTIVE_INDEX_MAX))
+        {
+            return null;
+        }
+
+        AtomicInteger count = m_lookupCounts.get(name);
+        if (count == null)
+        {
+            if (m_lookupCounts.size() >= ADAPTIVE_INDEX_MAX_TRACKED)
+            {
+                return null;
+            }
+            count = new AtomicInteger();
+            AtomicInteger prevval = m_lookupCounts.putIfAbsent(name, count);
+            if (prevval != null)
+            {
+                count = prevval;
+            }
+        }
+
+        // Only the thread reaching the threshold builds the index, all
+        // others keep scanning until it is complete.
+        if (count.incrementAndGet() == ADAPTIVE_INDEX_THRESHOLD)
+        {
+            return createAdaptiveIndex(name);
+        }
+        return null;
+    }
+
+    private Map<Object, Set<BundleCapability>> createAdaptiveIndex(String name)
+    {
+        // Publish the index before populating it, so capabilities added
+        // concurrently are indexed by addCapability(), but keep it pending
+        // so it is not used for lookups until it is complete.
+        ConcurrentMap<Object, Set<BundleCapability>> index =
+            new ConcurrentHashMap<Object, Set<BundleCapability>>();
+        m_pendingIndices.add(name);
+        m_adaptiveIndices.add(name);
+        m_indices.put(name, index);
+
+        try
+        {
+            for (Capability cap : m_capSet)
+            {
+                Object value = cap.getAttributes().get(name);
+                if (value != null)
+                {
+                    if (value.getClass().isArray())
+                    {
+                        value = convertArrayToList(value);
+                    }
+
+                    if (!isIndexable(value))
+                    {
+                        dropAdaptiveIndex(name);
+                        return null;
+                    }
+
+                    if (value instanceof Collection)
+                    {
+                        for (Object o : (Collection) value)
+                        {
+                            indexCapability(index, (BundleCapability) cap, o);
+                        }
+                    }
+                    else
+                    {
+                        indexCapability(index, (BundleCapability) cap, value);
+                    }
+
+                    // Undo if the capability was removed while we indexed it.
+                    if (!m_capSet.contains(cap))
+                    {
+                        if (value instanceof Collection)
+                        {
+                            for (Object o : (Collection) value)
+                            {
+                                deindexCapability(index, (BundleCapability) cap, o);
+                            }
+                        }
+                        else
+                        {
+                            deindexCapability(index, (BundleCapability) cap, value);
+                        }
+                    }
+                }
+            }
+        }
+        finally
+        {
+            m_pendingIndices.remove(name);
+        }
+
+        return (m_indices.get(name) == index) ? index : null;
+    }
+
+    private void dropAdaptiveIndex(String name)
+    {
+        m_unindexable.add(name);
+        if (m_adaptiveIndices.remove(name))
+        {
+            m_indices.remove(name);
+        }
+    }
+
+    private static boolean isIndexable(Object value)
+    {
+        if (value instanceof Collection)
+        {
+            for (Object o : (Collection) value)
+            {
+                if (!(o instanceof String))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return (value instanceof String);
+    }
+
     public static boolean matches(Capability cap, SimpleFilter sf)
     {
         return matchesInternal(cap, sf) && matchMandatory(cap, sf);
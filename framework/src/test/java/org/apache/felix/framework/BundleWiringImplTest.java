@@ -665,6 +665,56 @@ public class BundleWiringImplTest
         verify(requiredPkgs, never()).values();
     }
 
+    @Test
+    public void testNegativeLookupCache() throws Exception
+    {
+        String classToBeLoaded = "org.apache.felix.test.NonExistant";
+
+        Felix mockFramework = mock(Felix.class);
+        when(mockFramework.getBootPackages()).thenReturn(new String[0]);
+
+        initializeSimpleBundleWiring();
+
+        when(bundleWiring.getBundle().getFramework()).thenReturn(mockFramework);
+
+        BundleClassLoader bundleClassLoader = createBundleClassLoader(
+                BundleClassLoader.class, bundleWiring);
+        assertNotNull(bundleClassLoader);
+
+        for (int i = 0; i < 3; i++)
+        {
+            try
+            {
+                bundleClassLoader.loadClass(classToBeLoaded, true);
+                fail();
+            }
+            catch (ClassNotFoundException cnf)
+            {
+                //this is expected
+            }
+        }
+
+        //only the first load does the full search, including the dynamic imports
+        verify(mockResolver, times(1)).resolve(mockRevisionImpl, "org.apache.felix.test");
+        assertEquals(1, bundleWiring.getNegativeCacheMisses());
+        assertEquals(2, bundleWiring.getNegativeCacheHits());
+
+        //after invalidation the full search is done again
+        bundleWiring.invalidateNegativeCache();
+        try
+        {
+            bundleClassLoader.loadClass(classToBeLoaded, true);
+            fail();
+        }
+        catch (ClassNotFoundException cnf)
+        {
+            //this is expected
+        }
+        verify(mockResolver, times(2)).resolve(mockRevisionImpl, "org.apache.felix.test");
+        assertEquals(2, bundleWiring.getNegativeCacheMisses());
+        assertEquals(2, bundleWiring.getNegativeCacheHits());
+    }
+
     @Test
     public void testParallelClassload() throws Exception
     {
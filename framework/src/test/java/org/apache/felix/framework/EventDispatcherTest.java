@@ -19,13 +19,19 @@
 package org.apache.felix.framework;
 
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import junit.framework.TestCase;
 
+import org.apache.felix.framework.capabilityset.SimpleFilter;
+import org.apache.felix.framework.util.ListenerInfo;
 import org.easymock.EasyMock;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceListener;
 import org.osgi.framework.ServiceReference;
@@ -137,6 +143,129 @@ public class EventDispatcherTest extends TestCase
         assertTrue(calledHooks.contains(eh2));
     }
 
+    public void testFireFrameworkEventOnThreadPool() throws Exception
+    {
+        final Bundle b1 = getMockBundle();
+        final Bundle b2 = getMockBundle();
+
+        Logger logger = new Logger();
+        EventDispatcher ed = new EventDispatcher(logger, new ServiceRegistry(logger, null), 2);
+        ed.startDispatching();
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final List slowFired = Collections.synchronizedList(new ArrayList());
+        FrameworkListener slow = new FrameworkListener()
+        {
+            public void frameworkEvent(FrameworkEvent event)
+            {
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException ex)
+                {
+                }
+                slowFired.add(event);
+            }
+        };
+        ed.addListener(b1.getBundleContext(), FrameworkListener.class, slow, null);
+
+        final CountDownLatch fastDone = new CountDownLatch(3);
+        FrameworkListener fast = new FrameworkListener()
+        {
+            public void frameworkEvent(FrameworkEvent event)
+            {
+                fastDone.countDown();
+            }
+        };
+        ed.addListener(b2.getBundleContext(), FrameworkListener.class, fast, null);
+
+        List events = new ArrayList();
+        for (int i = 0; i < 3; i++)
+        {
+            FrameworkEvent event = new FrameworkEvent(FrameworkEvent.INFO, b1, null);
+            events.add(event);
+            ed.fireFrameworkEvent(event);
+        }
+
+        // The blocked listener must not hold up other bundle contexts.
+        assertTrue(fastDone.await(5, TimeUnit.SECONDS));
+        assertEquals(0, slowFired.size());
+        assertTrue(ed.getQueueDepth() > 0);
+        assertTrue(ed.getMaxQueueDepth() >= 3);
+
+        release.countDown();
+        ed.stopDispatching();
+        assertEquals(events, slowFired);
+        assertEquals(0, ed.getQueueDepth());
+    }
+
+    public void testServiceListenerObjectClasses()
+    {
+        assertEquals(Collections.singleton("foo"), EventDispatcher.ServiceListenerIndex
+            .getObjectClasses(SimpleFilter.parse("(objectClass=foo)")));
+        assertEquals(Collections.singleton("foo"), EventDispatcher.ServiceListenerIndex
+            .getObjectClasses(SimpleFilter.parse("(&(service.pid=bar)(objectclass=foo))")));
+        assertEquals(new HashSet(Arrays.asList("foo", "bar")), EventDispatcher.ServiceListenerIndex
+            .getObjectClasses(SimpleFilter.parse("(|(objectClass=foo)(objectClass=bar))")));
+        assertNull(EventDispatcher.ServiceListenerIndex
+            .getObjectClasses(SimpleFilter.parse("(|(objectClass=foo)(service.pid=bar))")));
+        assertNull(EventDispatcher.ServiceListenerIndex
+            .getObjectClasses(SimpleFilter.parse("(objectClass=foo*)")));
+        assertNull(EventDispatcher.ServiceListenerIndex
+            .getObjectClasses(SimpleFilter.parse("(!(objectClass=foo))")));
+    }
+
+    public void testServiceListenerIndexCandidates() throws Exception
+    {
+        Bundle b1 = getMockBundle();
+        Bundle b2 = getMockBundle();
+        ServiceListener l = new ServiceListener()
+        {
+            public void serviceChanged(ServiceEvent event)
+            {
+            }
+        };
+
+        ListenerInfo foo = new ListenerInfo(b1, b1.getBundleContext(), ServiceListener.class,
+            l, new FilterImpl("(objectClass=foo)"), null, false);
+        ListenerInfo fooOrBar = new ListenerInfo(b1, b1.getBundleContext(), ServiceListener.class,
+            l, new FilterImpl("(|(objectClass=foo)(objectClass=bar))"), null, false);
+        ListenerInfo all = new ListenerInfo(b2, b2.getBundleContext(), ServiceListener.class,
+            l, null, null, false);
+        ListenerInfo bar = new ListenerInfo(b2, b2.getBundleContext(), ServiceListener.class,
+            l, new FilterImpl("(&(objectClass=bar)(x=y))"), null, false);
+
+        Map listeners = new HashMap();
+        listeners.put(b1.getBundleContext(), Arrays.asList(foo, fooOrBar));
+        listeners.put(b2.getBundleContext(), Arrays.asList(all, bar));
+        EventDispatcher.ServiceListenerIndex index =
+            new EventDispatcher.ServiceListenerIndex(listeners, null);
+
+        Map candidates = index.getCandidates(getMockReference("foo", "baz"), listeners);
+        assertEquals(Arrays.asList(foo, fooOrBar), candidates.get(b1.getBundleContext()));
+        assertEquals(Arrays.asList(all), candidates.get(b2.getBundleContext()));
+
+        candidates = index.getCandidates(getMockReference("foo", "bar"), listeners);
+        assertEquals(Arrays.asList(foo, fooOrBar), candidates.get(b1.getBundleContext()));
+        assertEquals(Arrays.asList(all, bar), candidates.get(b2.getBundleContext()));
+
+        candidates = index.getCandidates(getMockReference("baz"), listeners);
+        assertNull(candidates.get(b1.getBundleContext()));
+        assertEquals(Arrays.asList(all), candidates.get(b2.getBundleContext()));
+    }
+
+    private ServiceReference getMockReference(String... classes)
+    {
+        ServiceReference sr = EasyMock.createNiceMock(ServiceReference.class);
+        EasyMock.expect(sr.getProperty(Constants.OBJECTCLASS)).andReturn(classes).anyTimes();
+        EasyMock.replay(new Object[]
+            {
+                sr
+            });
+        return sr;
+    }
+
     private Bundle getMockBundle()
     {
         BundleContext bc = EasyMock.createNiceMock(BundleContext.class);
@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.startlevel.BundleStartLevel;
+import org.osgi.framework.startlevel.FrameworkStartLevel;
+
+public class ParallelStartLevelTest extends TestCase
+{
+    public static final int DELAY = 1000;
+    private static final int BUNDLES = 4;
+
+    public void testParallelStart() throws Exception
+    {
+        Map params = new HashMap();
+        params.put(Constants.FRAMEWORK_SYSTEMPACKAGES,
+            "org.osgi.framework; version=1.4.0");
+        File cacheDir = File.createTempFile("felix-cache", ".dir");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        params.put(FelixConstants.STARTLEVEL_PARALLELISM_PROP, Integer.toString(BUNDLES));
+
+        Framework f = new Felix(params);
+        f.init();
+        f.start();
+
+        try
+        {
+            List<Bundle> bundles = new ArrayList<Bundle>();
+            for (int i = 0; i < BUNDLES; i++)
+            {
+                Bundle bundle = f.getBundleContext().installBundle(
+                    createBundle("Bundle-SymbolicName: parallel.test." + i + "\n"
+                        + "Bundle-ManifestVersion: 2\n"
+                        + "Import-Package: org.osgi.framework\n", cacheDir).toURI().toString());
+                bundle.adapt(BundleStartLevel.class).setStartLevel(2);
+                bundle.start();
+                assertEquals(Bundle.INSTALLED, bundle.getState());
+                bundles.add(bundle);
+            }
+
+            final List<Long> started = new ArrayList<Long>();
+            f.getBundleContext().addBundleListener(new BundleListener()
+            {
+                public void bundleChanged(BundleEvent event)
+                {
+                    if (event.getType() == BundleEvent.STARTED)
+                    {
+                        synchronized (started)
+                        {
+                            started.add(event.getBundle().getBundleId());
+                        }
+                    }
+                }
+            });
+
+            final CountDownLatch latch = new CountDownLatch(1);
+            long t0 = System.currentTimeMillis();
+            f.adapt(FrameworkStartLevel.class).setStartLevel(2, new FrameworkListener()
+            {
+                public void frameworkEvent(FrameworkEvent event)
+                {
+                    latch.countDown();
+                }
+            });
+            assertTrue(latch.await(BUNDLES * DELAY * 2, TimeUnit.MILLISECONDS));
+            long t1 = System.currentTimeMillis();
+
+            for (Bundle bundle : bundles)
+            {
+                assertEquals(Bundle.ACTIVE, bundle.getState());
+            }
+            assertTrue((t1 - t0) < (BUNDLES - 1) * DELAY);
+
+            // The bundles finish starting in reverse order, but the events
+            // are delivered in start order.
+            List<Long> expected = new ArrayList<Long>();
+            for (Bundle bundle : bundles)
+            {
+                expected.add(bundle.getBundleId());
+            }
+            synchronized (started)
+            {
+                assertEquals(expected, started);
+            }
+        }
+        finally
+        {
+            f.stop();
+            f.waitForStop(BUNDLES * DELAY * 2);
+            deleteDir(cacheDir);
+        }
+    }
+
+    private static File createBundle(String manifest, File tempDir) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", tempDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        mf.getMainAttributes().putValue(Constants.BUNDLE_ACTIVATOR, TestBundleActivator.class.getName());
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+
+        String path = TestBundleActivator.class.getName().replace('.', '/') + ".class";
+        os.putNextEntry(new ZipEntry(path));
+
+        InputStream is = TestBundleActivator.class.getClassLoader().getResourceAsStream(path);
+        byte[] b = new byte[is.available()];
+        is.read(b);
+        is.close();
+        os.write(b);
+
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        assertTrue(root.delete());
+    }
+
+    public static class TestBundleActivator implements BundleActivator
+    {
+        public void start(BundleContext context) throws Exception
+        {
+            // Bundles installed later finish starting earlier.
+            Thread.sleep(DELAY - 100 * context.getBundle().getBundleId());
+        }
+
+        public void stop(BundleContext context) throws Exception
+        {
+        }
+    }
+}
@@ -108,6 +108,27 @@ public class ResolveTest extends TestCase
         assertEquals(Bundle.RESOLVED, f.getState());
     }
 
+    public void testResolverStatistics() throws Exception
+    {
+        String bmf = "Bundle-SymbolicName: cap.bundle\n"
+            + "Bundle-Version: 1.2.3.Blah\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Import-Package: org.osgi.framework\n";
+        File bundleFile = createBundle(bmf);
+
+        ResolverStatistics statistics = ((Felix) felix).getResolver().getStatistics();
+        long resolveCount = statistics.getResolveCount();
+
+        Bundle h = felix.getBundleContext().installBundle(bundleFile.toURI().toASCIIString());
+        felix.adapt(FrameworkWiring.class).resolveBundles(Collections.singletonList(h));
+
+        assertEquals(Bundle.RESOLVED, h.getState());
+        assertEquals(resolveCount + 1, statistics.getResolveCount());
+        assertEquals(0, statistics.getFailedResolveCount());
+        assertTrue(statistics.getLastResourceCount() > 0);
+        assertTrue(statistics.getUsesPermutations() > 0);
+    }
+
     public void testResolveOnlyMatchingFragmentWithHost() throws Exception
     {
         String bmf = "Bundle-SymbolicName: cap.bundle\n"
@@ -37,6 +37,7 @@ import junit.framework.TestCase;
 import org.apache.felix.framework.ServiceRegistrationImpl.ServiceReferenceImpl;
 import org.apache.felix.framework.ServiceRegistry.ServiceHolder;
 import org.apache.felix.framework.ServiceRegistry.UsageCount;
+import org.apache.felix.framework.capabilityset.SimpleFilter;
 import org.easymock.MockControl;
 import org.mockito.AdditionalAnswers;
 import org.mockito.InOrder;
@@ -365,6 +366,114 @@ public class ServiceRegistryTest extends TestCase
         assertEquals("Unregistration should have no effect", 0, sr.getHookRegistry().getHooks(ListenerHook.class).size());
     }
 
+    public void testConcurrentRegisterUnregister() throws Exception
+    {
+        final ServiceRegistry sr = new ServiceRegistry(new Logger(), null);
+        final int threads = 8;
+        final int services = 500;
+        final Bundle[] bundles = new Bundle[threads];
+        for (int i = 0; i < threads; i++)
+        {
+            MockControl control = MockControl.createNiceControl(Bundle.class);
+            bundles[i] = (Bundle) control.getMock();
+            control.replay();
+        }
+
+        // Every thread registers services under a shared and a private
+        // objectClass, and unregisters every other one while the rest of
+        // the threads keep registering.
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicInteger failures = new AtomicInteger();
+        for (int i = 0; i < threads; i++)
+        {
+            final int idx = i;
+            new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        for (int j = 0; j < services; j++)
+                        {
+                            ServiceRegistration reg = sr.registerService(bundles[idx],
+                                new String[] { "shared", "private" + idx }, new Object(), null);
+                            if ((j % 2) == 0)
+                            {
+                                sr.unregisterService(bundles[idx], reg);
+                            }
+                        }
+                    }
+                    catch (Throwable t)
+                    {
+                        failures.incrementAndGet();
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        start.countDown();
+        done.await();
+
+        assertEquals(0, failures.get());
+        assertEquals(threads * services / 2, sr.getServiceReferences("shared", null).size());
+        for (int i = 0; i < threads; i++)
+        {
+            assertEquals(services / 2, sr.getServiceReferences("private" + i, null).size());
+            assertEquals(services / 2, sr.getRegisteredServices(bundles[i]).length);
+        }
+
+        for (int i = 0; i < threads; i++)
+        {
+            sr.unregisterServices(bundles[i]);
+        }
+        assertEquals(0, sr.getServiceReferences("shared", null).size());
+        assertNull(sr.getRegisteredServices(bundles[0]));
+    }
+
+    public void testSetPropertiesUpdatesIndices() throws Exception
+    {
+        MockControl control = MockControl.createNiceControl(Bundle.class);
+        Bundle b = (Bundle) control.getMock();
+        control.replay();
+
+        ServiceRegistry sr = new ServiceRegistry(new Logger(), null);
+        ServiceRegistration reg = null;
+        for (int i = 0; i < 64; i++)
+        {
+            Hashtable<String, Object> props = new Hashtable<String, Object>();
+            props.put("type", "t" + i);
+            ServiceRegistration r = sr.registerService(b, new String[] { "svc" }, new Object(), props);
+            if (i == 5)
+            {
+                reg = r;
+            }
+        }
+
+        // look up often enough to get an adaptive index on the attribute
+        SimpleFilter oldFilter = SimpleFilter.parse("(type=t5)");
+        for (int i = 0; i < 64; i++)
+        {
+            assertEquals(1, sr.getServiceReferences(null, oldFilter).size());
+        }
+
+        Hashtable<String, Object> props = new Hashtable<String, Object>();
+        props.put("type", "changed");
+        reg.setProperties(props);
+
+        assertEquals(0, sr.getServiceReferences(null, oldFilter).size());
+        assertEquals(1, sr.getServiceReferences(null, SimpleFilter.parse("(type=changed)")).size());
+
+        reg.setProperties(null);
+        assertEquals(0, sr.getServiceReferences(null, SimpleFilter.parse("(type=changed)")).size());
+        assertEquals(63,
+            sr.getServiceReferences(null, SimpleFilter.parse("(type=*)")).size());
+    }
+
     @SuppressWarnings("unchecked")
     public void testGetService()
     {
@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.cache.BundleCache;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+public class WiringSnapshotTest extends TestCase
+{
+    private File m_cacheDir;
+    private Map<String, String> m_params;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        m_cacheDir = File.createTempFile("felix-cache", ".dir");
+        m_cacheDir.delete();
+        m_cacheDir.mkdirs();
+
+        m_params = new HashMap<String, String>();
+        m_params.put(Constants.FRAMEWORK_SYSTEMPACKAGES,
+            "org.osgi.framework; version=1.4.0");
+        m_params.put(Constants.FRAMEWORK_STORAGE, m_cacheDir.getPath());
+        m_params.put(BundleCache.CACHE_WIRING_SNAPSHOT_PROP, "true");
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        deleteDir(m_cacheDir);
+    }
+
+    public void testWarmStartUsesSnapshot() throws Exception
+    {
+        assertEquals(1, getImporterProvider(true));
+    }
+
+    public void testColdStartWithoutSnapshot() throws Exception
+    {
+        m_params.remove(BundleCache.CACHE_WIRING_SNAPSHOT_PROP);
+        assertEquals(3, getImporterProvider(false));
+    }
+
+    /**
+     * Wires an importer to an exporter before a newer exporter is installed,
+     * restarts the framework and returns the identifier of the bundle the
+     * importer is wired to afterwards. The resolver would prefer the newer
+     * exporter, so the original provider is only kept if the snapshot is used.
+    **/
+    private long getImporterProvider(boolean snapshot) throws Exception
+    {
+        File exporterFile = createBundle("Bundle-SymbolicName: exporter\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Export-Package: org.foo; version=1.0\n");
+        File importerFile = createBundle("Bundle-SymbolicName: importer\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Import-Package: org.foo, org.osgi.framework\n");
+        File newerFile = createBundle("Bundle-SymbolicName: newer.exporter\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Export-Package: org.foo; version=2.0\n");
+
+        Framework f = new Felix(m_params);
+        f.init();
+        f.start();
+        long importerId;
+        try
+        {
+            assertEquals(1, f.getBundleContext().installBundle(
+                exporterFile.toURI().toString()).getBundleId());
+            importerId = f.getBundleContext().installBundle(
+                importerFile.toURI().toString()).getBundleId();
+            assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(null));
+            assertEquals(3, f.getBundleContext().installBundle(
+                newerFile.toURI().toString()).getBundleId());
+            assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(null));
+        }
+        finally
+        {
+            f.stop();
+            f.waitForStop(10000);
+        }
+
+        assertEquals(snapshot, new File(m_cacheDir, "wiring.snapshot").exists());
+
+        f = new Felix(m_params);
+        f.init();
+        f.start();
+        try
+        {
+            Bundle importer = f.getBundleContext().getBundle(importerId);
+            assertEquals(Bundle.INSTALLED, importer.getState());
+            assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(null));
+
+            List<BundleWire> wires = importer.adapt(BundleWiring.class)
+                .getRequiredWires(BundleRevision.PACKAGE_NAMESPACE);
+            assertEquals(2, wires.size());
+            for (BundleWire wire : wires)
+            {
+                if ("org.foo".equals(wire.getCapability().getAttributes()
+                    .get(BundleRevision.PACKAGE_NAMESPACE)))
+                {
+                    return wire.getProvider().getBundle().getBundleId();
+                }
+            }
+            fail("No wire for org.foo");
+            return -1;
+        }
+        finally
+        {
+            f.stop();
+            f.waitForStop(10000);
+        }
+    }
+
+    public void testChangedBundleIsResolvedNormally() throws Exception
+    {
+        File exporterFile = createBundle("Bundle-SymbolicName: exporter\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Export-Package: org.foo; version=1.0\n");
+        File importerFile = createBundle("Bundle-SymbolicName: importer\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Import-Package: org.foo\n");
+        File updateFile = createBundle("Bundle-SymbolicName: exporter\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Export-Package: org.bar; version=1.0\n");
+
+        Framework f = new Felix(m_params);
+        f.init();
+        f.start();
+        long exporterId;
+        long importerId;
+        try
+        {
+            exporterId = f.getBundleContext().installBundle(
+                exporterFile.toURI().toString()).getBundleId();
+            importerId = f.getBundleContext().installBundle(
+                importerFile.toURI().toString()).getBundleId();
+            assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(null));
+        }
+        finally
+        {
+            f.stop();
+            f.waitForStop(10000);
+        }
+
+        f = new Felix(m_params);
+        f.init();
+        f.start();
+        try
+        {
+            // Updating the exporter invalidates its snapshot entry, so the
+            // importer must not be wired to the stale package.
+            f.getBundleContext().getBundle(exporterId).update(
+                new java.io.FileInputStream(updateFile));
+            assertFalse(f.adapt(FrameworkWiring.class).resolveBundles(null));
+            assertEquals(Bundle.RESOLVED, f.getBundleContext().getBundle(exporterId).getState());
+            assertEquals(Bundle.INSTALLED, f.getBundleContext().getBundle(importerId).getState());
+        }
+        finally
+        {
+            f.stop();
+            f.waitForStop(10000);
+        }
+    }
+
+    private File createBundle(String manifest) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", m_cacheDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        assertTrue(root.delete());
+    }
+}
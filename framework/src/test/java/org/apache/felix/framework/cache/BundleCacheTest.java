@@ -20,6 +20,7 @@ package org.apache.felix.framework.cache;
 
 import junit.framework.TestCase;
 import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.util.WeakZipFileFactory;
 import org.osgi.framework.Constants;
 
 import java.io.File;
@@ -28,6 +29,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -36,6 +38,7 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 
 public class BundleCacheTest extends TestCase
@@ -170,6 +173,164 @@ public class BundleCacheTest extends TestCase
         testBundle("bla", jarFile);
     }
 
+    public void testCachedManifestHeader() throws Exception
+    {
+        File bundle = new File(filesDir, "cached.jar");
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().putValue("Manifest-Version", "v1");
+        manifest.getMainAttributes().putValue(Constants.BUNDLE_SYMBOLICNAME, "cached");
+        new JarOutputStream(new FileOutputStream(bundle), manifest).close();
+
+        BundleArchive archive = cache.create(
+            1, 1, "reference:" + bundle.toURI().toURL().toString(), null);
+        BundleArchiveRevision revision = archive.getCurrentRevision();
+        assertEquals("cached", revision.getManifestHeader().get(Constants.BUNDLE_SYMBOLICNAME));
+        assertTrue(new File(revision.getRevisionRootDir(), "manifest.cache").isFile());
+
+        // Cached headers are case insensitive, just like parsed ones.
+        assertEquals("cached", revision.getManifestHeader().get("bundle-symbolicname"));
+
+        // A referenced JAR can change between framework sessions,
+        // which must not result in stale headers.
+        archive.close();
+        manifest.getMainAttributes().putValue(Constants.BUNDLE_SYMBOLICNAME, "changed");
+        manifest.getMainAttributes().putValue("foo", "bar");
+        new JarOutputStream(new FileOutputStream(bundle), manifest).close();
+        bundle.setLastModified(bundle.lastModified() + 2000);
+
+        BundleArchive[] archives = cache.getArchives();
+        assertEquals(1, archives.length);
+        revision = archives[0].getCurrentRevision();
+        assertEquals("changed", revision.getManifestHeader().get(Constants.BUNDLE_SYMBOLICNAME));
+        assertEquals("bar", revision.getManifestHeader().get("foo"));
+
+        archives[0].closeAndDelete();
+    }
+
+    public void testMappedJar() throws Exception
+    {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        params.put(BundleCache.CACHE_MAPPED_PROP, "true");
+        cache.release();
+        cache = new BundleCache(new Logger(){
+            @Override
+            protected void doLog(int level, String msg, Throwable throwable) {
+            }
+        }, params);
+
+        testBundle(jarFile.toURI().toURL().toString(), null);
+
+        BundleArchiveRevision revision = cache.getArchives()[0].getCurrentRevision();
+        assertTrue(revision.getContent() instanceof MappedJarContent);
+        assertTrue(new File(revision.getRevisionRootDir(), "bundle.jar.index").isFile());
+    }
+
+    public void testMappedJarStoredEntry() throws Exception
+    {
+        byte[] data = "stored".getBytes("UTF-8");
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        File bundle = new File(filesDir, "stored.jar");
+        JarOutputStream output = new JarOutputStream(new FileOutputStream(bundle));
+        ZipEntry entry = new ZipEntry("stored");
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(data.length);
+        entry.setCrc(crc.getValue());
+        output.putNextEntry(entry);
+        output.write(data);
+        output.putNextEntry(new ZipEntry("deflated"));
+        output.write(data);
+        output.close();
+
+        File rootDir = new File(tempDir, "mapped");
+        assertTrue(rootDir.mkdirs());
+        MappedJarContent content = new MappedJarContent(new Logger(), new HashMap(),
+            new WeakZipFileFactory(0), this, rootDir, bundle, null);
+        try
+        {
+            ByteBuffer buffer = content.getEntryAsByteBuffer("stored");
+            assertTrue(buffer.isDirect());
+            assertEquals(ByteBuffer.wrap(data), buffer);
+            assertEquals(ByteBuffer.wrap(data), content.getEntryAsByteBuffer("deflated"));
+            assertTrue(Arrays.equals(data, content.getEntryAsBytes("deflated")));
+            assertNull(content.getEntryAsByteBuffer("missing"));
+            assertTrue(new File(rootDir, "stored.jar.index").isFile());
+        }
+        finally
+        {
+            content.close();
+        }
+
+        // A second instance uses the persisted index.
+        content = new MappedJarContent(new Logger(), new HashMap(),
+            new WeakZipFileFactory(0), this, rootDir, bundle, null);
+        try
+        {
+            assertEquals(ByteBuffer.wrap(data), content.getEntryAsByteBuffer("stored"));
+            assertTrue(content.hasEntry("deflated"));
+        }
+        finally
+        {
+            content.close();
+        }
+    }
+
+    public void testMappedJarClose() throws Exception
+    {
+        byte[] data = "stored".getBytes("UTF-8");
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        File bundle = new File(filesDir, "close.jar");
+        JarOutputStream output = new JarOutputStream(new FileOutputStream(bundle));
+        ZipEntry entry = new ZipEntry("stored");
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(data.length);
+        entry.setCrc(crc.getValue());
+        output.putNextEntry(entry);
+        output.write(data);
+        output.close();
+
+        File rootDir = new File(tempDir, "close");
+        assertTrue(rootDir.mkdirs());
+        MappedJarContent content = new MappedJarContent(new Logger(), new HashMap(),
+            new WeakZipFileFactory(0), this, rootDir, bundle, null);
+        Content shared = content.getEntryAsContent(".");
+        assertTrue(shared instanceof MappedJarContent);
+        InputStream in = shared.getEntryAsStream("stored");
+
+        // The mapping is kept while the shared content is open.
+        content.close();
+        content.close();
+        assertEquals(ByteBuffer.wrap(data),
+            ((MappedJarContent) shared).getEntryAsByteBuffer("stored"));
+        assertEquals('s', in.read());
+        ByteBuffer buffer = ((MappedJarContent) shared).getEntryAsByteBuffer("stored");
+
+        shared.close();
+        // A buffer returned before, for example to define a class, remains
+        // readable after the content is closed.
+        assertEquals(ByteBuffer.wrap(data), buffer);
+        try
+        {
+            ((MappedJarContent) shared).getEntryAsByteBuffer("stored");
+            fail("Expected the mapping to be released");
+        }
+        catch (IllegalStateException ex)
+        {
+            // Expected.
+        }
+        try
+        {
+            in.read();
+            fail("Expected the mapping to be released");
+        }
+        catch (IOException ex)
+        {
+            // Expected.
+        }
+    }
+
     private void testBundle(String location, File file) throws Exception
     {
         BundleArchive archive = cache.create(1, 1, location, file != null ? new FileInputStream(file) : null);
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.capabilityset;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
+import org.osgi.framework.Constants;
+import org.osgi.framework.wiring.BundleCapability;
+
+public class CapabilitySetTest extends TestCase
+{
+    private static final int CAPS = CapabilitySet.ADAPTIVE_INDEX_MIN_SCAN * 2;
+
+    public void testAdaptiveIndex()
+    {
+        CapabilitySet capSet = createCapabilitySet(true);
+        SimpleFilter sf = SimpleFilter.parse("(&(objectClass=foo)(service.pid=pid.7))");
+
+        for (int i = 0; i < CapabilitySet.ADAPTIVE_INDEX_THRESHOLD - 1; i++)
+        {
+            assertEquals(1, capSet.match(sf, false).size());
+        }
+        assertTrue(capSet.getAdaptiveIndices().isEmpty());
+
+        assertEquals(1, capSet.match(sf, false).size());
+        assertEquals(Collections.singleton("service.pid"), capSet.getAdaptiveIndices());
+
+        // The index must track later additions and removals.
+        BundleCapability cap = createCapability("pid.7", 1);
+        capSet.addCapability(cap);
+        assertEquals(2, capSet.match(sf, false).size());
+        capSet.removeCapability(cap);
+        assertEquals(1, capSet.match(sf, false).size());
+        assertEquals(0, capSet.match(
+            SimpleFilter.parse("(service.pid=pid.unknown)"), false).size());
+    }
+
+    public void testAdaptiveIndexDisabled()
+    {
+        CapabilitySet capSet = createCapabilitySet(false);
+        SimpleFilter sf = SimpleFilter.parse("(&(objectClass=foo)(service.pid=pid.7))");
+
+        for (int i = 0; i < CapabilitySet.ADAPTIVE_INDEX_THRESHOLD * 2; i++)
+        {
+            assertEquals(1, capSet.match(sf, false).size());
+        }
+        assertTrue(capSet.getAdaptiveIndices().isEmpty());
+    }
+
+    public void testAdaptiveIndexDroppedForNonStringValues()
+    {
+        CapabilitySet capSet = createCapabilitySet(true);
+        SimpleFilter sf = SimpleFilter.parse("(&(objectClass=foo)(service.pid=pid.7))");
+
+        for (int i = 0; i < CapabilitySet.ADAPTIVE_INDEX_THRESHOLD; i++)
+        {
+            capSet.match(sf, false);
+        }
+        assertFalse(capSet.getAdaptiveIndices().isEmpty());
+
+        // A value that is not a string cannot be looked up verbatim, so
+        // the attribute falls back to scanning.
+        capSet.addCapability(createCapability(new Long(7), 1));
+        assertTrue(capSet.getAdaptiveIndices().isEmpty());
+        assertEquals(1, capSet.match(sf, false).size());
+        assertEquals(1, capSet.match(
+            SimpleFilter.parse("(service.pid=7)"), false).size());
+    }
+
+    private static CapabilitySet createCapabilitySet(boolean adaptive)
+    {
+        CapabilitySet capSet = new CapabilitySet(
+            Collections.singletonList(Constants.OBJECTCLASS), false, adaptive);
+        for (int i = 0; i < CAPS; i++)
+        {
+            capSet.addCapability(createCapability("pid." + i, i));
+        }
+        return capSet;
+    }
+
+    private static BundleCapability createCapability(Object pid, int ranking)
+    {
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(Constants.OBJECTCLASS, new String[] { "foo" });
+        attrs.put(Constants.SERVICE_PID, pid);
+        attrs.put(Constants.SERVICE_RANKING, new Integer(ranking));
+        return new BundleCapabilityImpl(null, "test", Collections.<String, String>emptyMap(), attrs);
+    }
+}
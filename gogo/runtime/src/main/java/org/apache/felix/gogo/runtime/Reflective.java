@@ -19,10 +19,14 @@
 package org.apache.felix.gogo.runtime;
 
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -32,9 +36,12 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.felix.service.command.CommandSession;
 import org.apache.felix.service.command.Parameter;
+import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
 
 public final class Reflective
 {
@@ -50,6 +57,16 @@ public final class Reflective
                 "finally", "long", "strictfp", "volatile", "const", "float", "native",
                 "super", "while"));
 
+    // the type of the method handles used to invoke the methods
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+
+    // the number of entries after which the caches are cleared
+    private static final int MAX_CACHE_SIZE = 4096;
+
+    // the cached methods, kept by the target type itself so the cache
+    // does not prevent the classes of removed commands from being unloaded
+    private static volatile ClassValue<TypeCache> cache = newCache();
+
     /**
      * invokes the named method on the given target using the supplied args,
      * which are converted if necessary.
@@ -63,97 +80,88 @@ public final class Reflective
     public static Object invoke(CommandSession session, Object target, String name,
         List<Object> args) throws Exception
     {
-        Method[] methods = target.getClass().getMethods();
         name = name.toLowerCase(Locale.ENGLISH);
+        Candidate[] candidates = getCandidates(target, name);
 
-        String org = name;
-        String get = "get" + name;
-        String is = "is" + name;
-        String set = "set" + name;
-
-        if (KEYWORDS.contains(name))
+        // a selection only depends on the types of the arguments if none
+        // is null or needs to be evaluated and there are no named parameters
+        Key selectionKey = null;
+        if (candidates.length > 0 && !candidates[0].hasParameters)
         {
-            name = "_" + name;
-        }
-
-        if (target instanceof Class<?>)
-        {
-            Method[] staticMethods = ((Class<?>) target).getMethods();
-            for (Method m : staticMethods)
+            Class<?>[] argTypes = new Class<?>[args.size()];
+            for (int i = 0; i < argTypes.length; i++)
             {
-                String mname = m.getName().toLowerCase(Locale.ENGLISH);
-                if (mname.equals(name) || mname.equals(get) || mname.equals(set)
-                    || mname.equals(is) || mname.equals(MAIN))
+                Object arg = args.get(i);
+                if (arg == null || arg instanceof Token)
                 {
-                    methods = staticMethods;
+                    argTypes = null;
                     break;
                 }
+                argTypes[i] = arg.getClass();
+            }
+            if (argTypes != null)
+            {
+                selectionKey = new Key(target, name, argTypes);
+                Candidate selected = getTypeCache(target).selections.get(selectionKey);
+                if (selected != null)
+                {
+                    Object[] parms = new Object[selected.types.length];
+                    if (coerce(session, target, selected, parms, args) == 0)
+                    {
+                        return selected.invoke(target, parms);
+                    }
+                }
             }
         }
 
-        Method bestMethod = null;
+        Candidate bestMethod = null;
         Object[] bestArgs = null;
         int lowestMatch = Integer.MAX_VALUE;
         ArrayList<Class<?>[]> possibleTypes = new ArrayList<>();
 
-        for (Method m : methods)
+        for (Candidate c : candidates)
         {
-            String mname = m.getName().toLowerCase(Locale.ENGLISH);
-            if (mname.equals(name) || mname.equals(get) || mname.equals(set)
-                || mname.equals(is) || mname.equals(MAIN))
-            {
-                Class<?>[] types = m.getParameterTypes();
-                ArrayList<Object> xargs = new ArrayList<>(args);
-
-                // pass command name as argv[0] to main, so it can handle
-                // multiple commands
-                if (mname.equals(MAIN))
-                {
-                    xargs.add(0, org);
-                }
+            Object[] parms = new Object[c.types.length];
+            int match = coerce(session, target, c, parms, args);
 
-                Object[] parms = new Object[types.length];
-                int match = coerce(session, target, m, types, parms, xargs);
-
-                if (match < 0)
+            if (match < 0)
+            {
+                // coerce failed
+                possibleTypes.add(c.types);
+            }
+            else
+            {
+                if (match < lowestMatch)
                 {
-                    // coerce failed
-                    possibleTypes.add(types);
+                    lowestMatch = match;
+                    bestMethod = c;
+                    bestArgs = parms;
                 }
-                else
-                {
-                    if (match < lowestMatch)
-                    {
-                        lowestMatch = match;
-                        bestMethod = m;
-                        bestArgs = parms;
-                    }
 
-                    if (match == 0)
-                        break; // can't get better score
-                }
+                if (match == 0)
+                    break; // can't get better score
             }
         }
 
         if (bestMethod != null)
         {
-            bestMethod.setAccessible(true);
-            try
+            if (lowestMatch == 0 && selectionKey != null)
             {
-                return bestMethod.invoke(target, bestArgs);
-            }
-            catch (InvocationTargetException e)
-            {
-                Throwable cause = e.getCause();
-                if (cause instanceof Exception)
+                ConcurrentMap<Key, Candidate> selections = getTypeCache(target).selections;
+                if (selections.size() >= MAX_CACHE_SIZE)
                 {
-                    throw (Exception) cause;
+                    selections.clear();
                 }
-                throw e;
+                selections.put(selectionKey, bestMethod);
             }
+            return bestMethod.invoke(target, bestArgs);
         }
         else
         {
+            if (KEYWORDS.contains(name))
+            {
+                name = "_" + name;
+            }
             if (args.isEmpty())
             {
                 Field[] fields;
@@ -206,6 +214,240 @@ public final class Reflective
         }
     }
 
+    /**
+     * Clears the cached methods. Called when commands are added or removed,
+     * so no classes of removed commands are kept.
+     */
+    static void clearCache()
+    {
+        cache = newCache();
+    }
+
+    private static ClassValue<TypeCache> newCache()
+    {
+        return new ClassValue<TypeCache>()
+        {
+            @Override
+            protected TypeCache computeValue(Class<?> type)
+            {
+                return new TypeCache();
+            }
+        };
+    }
+
+    private static TypeCache getTypeCache(Object target)
+    {
+        return cache.get(target instanceof Class<?> ? (Class<?>) target : target.getClass());
+    }
+
+    /**
+     * Returns the methods which may be invoked for the lower case name on
+     * the target in the order they are tried.
+     */
+    private static Candidate[] getCandidates(Object target, String name)
+    {
+        Key key = new Key(target, name, null);
+        ConcurrentMap<Key, Candidate[]> cached = getTypeCache(target).candidates;
+        Candidate[] candidates = cached.get(key);
+        if (candidates == null)
+        {
+            candidates = findCandidates(target, name);
+            if (cached.size() >= MAX_CACHE_SIZE)
+            {
+                cached.clear();
+            }
+            cached.put(key, candidates);
+        }
+        return candidates;
+    }
+
+    private static Candidate[] findCandidates(Object target, String name)
+    {
+        Method[] methods = target.getClass().getMethods();
+
+        String org = name;
+        String get = "get" + name;
+        String is = "is" + name;
+        String set = "set" + name;
+
+        if (KEYWORDS.contains(name))
+        {
+            name = "_" + name;
+        }
+
+        if (target instanceof Class<?>)
+        {
+            Method[] staticMethods = ((Class<?>) target).getMethods();
+            for (Method m : staticMethods)
+            {
+                String mname = m.getName().toLowerCase(Locale.ENGLISH);
+                if (mname.equals(name) || mname.equals(get) || mname.equals(set)
+                    || mname.equals(is) || mname.equals(MAIN))
+                {
+                    methods = staticMethods;
+                    break;
+                }
+            }
+        }
+
+        List<Candidate> candidates = new ArrayList<>();
+        boolean hasParameters = false;
+        for (Method m : methods)
+        {
+            String mname = m.getName().toLowerCase(Locale.ENGLISH);
+            if (mname.equals(name) || mname.equals(get) || mname.equals(set)
+                || mname.equals(is) || mname.equals(MAIN))
+            {
+                // pass command name as argv[0] to main, so it can handle
+                // multiple commands
+                Candidate c = new Candidate(m, mname.equals(MAIN) ? org : null);
+                hasParameters |= c.hasParameters;
+                candidates.add(c);
+            }
+        }
+        for (Candidate c : candidates)
+        {
+            c.hasParameters = hasParameters;
+        }
+        return candidates.toArray(new Candidate[candidates.size()]);
+    }
+
+    /**
+     * Coerces the arguments for the candidate.
+     */
+    private static int coerce(CommandSession session, Object target, Candidate c,
+        Object[] parms, List<Object> args)
+    {
+        ArrayList<Object> xargs = new ArrayList<>(args);
+        if (c.argv0 != null)
+        {
+            xargs.add(0, c.argv0);
+        }
+        return coerce(session, target, c.method, c.types, parms, xargs);
+    }
+
+    /**
+     * The cached methods of a target type.
+     */
+    private static final class TypeCache
+    {
+        // the methods matching a command name by name
+        final ConcurrentMap<Key, Candidate[]> candidates = new ConcurrentHashMap<>();
+
+        // the method selected by name and argument types for arguments
+        // which did not need any coercion
+        final ConcurrentMap<Key, Candidate> selections = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * The key of the caches of a target type: the command name and for the
+     * selected methods the argument types.
+     */
+    private static final class Key
+    {
+        private final boolean statics;
+        private final String name;
+        private final Class<?>[] argTypes;
+        private final int hash;
+
+        Key(Object target, String name, Class<?>[] argTypes)
+        {
+            this.statics = target instanceof Class<?>;
+            this.name = name;
+            this.argTypes = argTypes;
+            this.hash = name.hashCode() * 31 + Arrays.hashCode(argTypes) + (statics ? 1 : 0);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key))
+            {
+                return false;
+            }
+            Key other = (Key) obj;
+            return statics == other.statics && name.equals(other.name)
+                && Arrays.equals(argTypes, other.argTypes);
+        }
+    }
+
+    /**
+     * A method matching a command name with the method handle invoking it.
+     */
+    private static final class Candidate
+    {
+        final Method method;
+        final Class<?>[] types;
+        // the command name passed as first argument to main methods
+        final String argv0;
+        // whether this or any other method for the command name has named parameters
+        boolean hasParameters;
+        private volatile MethodHandle handle;
+
+        Candidate(Method method, String argv0)
+        {
+            this.method = method;
+            this.types = method.getParameterTypes();
+            this.argv0 = argv0;
+            for (Annotation[] as : method.getParameterAnnotations())
+            {
+                for (Annotation a : as)
+                {
+                    hasParameters |= a instanceof Parameter;
+                }
+            }
+        }
+
+        // invokeExact is signature polymorphic, which the signature check does not know
+        @IgnoreJRERequirement
+        Object invoke(Object target, Object[] args) throws Exception
+        {
+            // fail like reflection does where the method handle would not
+            if (!Modifier.isStatic(method.getModifiers()) && !method.getDeclaringClass().isInstance(target))
+            {
+                throw new IllegalArgumentException("object is not an instance of declaring class");
+            }
+            for (int i = 0; i < types.length; i++)
+            {
+                if (args[i] == null && types[i].isPrimitive())
+                {
+                    throw new IllegalArgumentException("null passed for primitive parameter " + i);
+                }
+            }
+
+            MethodHandle h = handle;
+            if (h == null)
+            {
+                method.setAccessible(true);
+                h = MethodHandles.lookup().unreflect(method).asFixedArity();
+                if (Modifier.isStatic(method.getModifiers()))
+                {
+                    h = MethodHandles.dropArguments(h, 0, Object.class);
+                }
+                h = h.asSpreader(Object[].class, types.length).asType(INVOKER_TYPE);
+                handle = h;
+            }
+            try
+            {
+                return (Object) h.invokeExact(target, args);
+            }
+            catch (Exception e)
+            {
+                throw e;
+            }
+            catch (Throwable t)
+            {
+                throw new InvocationTargetException(t);
+            }
+        }
+    }
+
     /**
      * transform name/value parameters into ordered argument list.
      * params: --param2, value2, --flag1, arg3
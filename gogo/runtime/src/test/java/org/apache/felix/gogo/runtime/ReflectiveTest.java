@@ -68,7 +68,51 @@ public class ReflectiveTest {
                 Collections.<Object>singletonList(conv));
     }
 
+    @Test
+    public void testRepeatedInvocation() throws Exception {
+        // the selection for the argument types is cached after the first call
+        for (int i = 0; i < 3; i++) {
+            assertEquals("string", invoke("over", Arrays.<Object>asList("ab")));
+            assertEquals("long", invoke("over", Arrays.<Object>asList(42L)));
+            assertEquals("string", invoke("over", Arrays.<Object>asList(Arrays.asList(1, 2))));
+            assertEquals(5L, invoke("sum", Arrays.<Object>asList(2L, 3)));
+        }
+    }
+
+    @Test
+    public void testExceptions() throws Exception {
+        try {
+            invoke("fail", Collections.emptyList());
+            Assert.fail("expected the exception thrown by the method");
+        }
+        catch (java.io.IOException e) {
+            Assert.assertEquals("failed", e.getMessage());
+        }
+
+        InputStream in = new ByteArrayInputStream(new byte[0]);
+        OutputStream out = new ByteArrayOutputStream();
+        CommandProcessorImpl processor = new CommandProcessorImpl(null);
+        assertEquals(Integer.valueOf(42), Reflective.invoke(new CommandSessionImpl(processor, in, out, out),
+                Integer.class, "valueOf", Arrays.<Object>asList("42")));
+    }
+
     static class Target {
+        public String over(String s) {
+            return "string";
+        }
+
+        public String over(Long l) {
+            return "long";
+        }
+
+        public long sum(long a, long b) {
+            return a + b;
+        }
+
+        public void fail() throws java.io.IOException {
+            throw new java.io.IOException("failed");
+        }
+
         public Object test1(CommandSession session, Object[] argv) {
             return argv;
         }
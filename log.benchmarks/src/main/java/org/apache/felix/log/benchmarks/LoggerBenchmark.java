@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.log.LoggerAdminImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Version;
+import org.osgi.service.log.LogLevel;
+import org.osgi.service.log.Logger;
+
+/**
+ * Measures log statements below the effective log level of a logger whose
+ * bundle has a logger context configuring the level of an ancestor of the
+ * logger name. Such statements are the common case in hot code and should
+ * cost no more than checking the cached level. The statements never reach
+ * the log, so the logger admin is created without one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Threads(4)
+public class LoggerBenchmark
+{
+    private Logger m_logger;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        final Bundle bundle = (Bundle) Proxy.newProxyInstance(
+            Bundle.class.getClassLoader(), new Class<?>[] { Bundle.class },
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    String name = method.getName();
+                    if ("getSymbolicName".equals(name) || "getLocation".equals(name))
+                    {
+                        return "benchmark";
+                    }
+                    if ("getVersion".equals(name))
+                    {
+                        return Version.emptyVersion;
+                    }
+                    if ("getBundleId".equals(name))
+                    {
+                        return 1L;
+                    }
+                    if ("hashCode".equals(name))
+                    {
+                        return System.identityHashCode(proxy);
+                    }
+                    if ("equals".equals(name))
+                    {
+                        return proxy == args[0];
+                    }
+                    return null;
+                }
+            });
+
+        LoggerAdminImpl loggerAdmin = new LoggerAdminImpl("WARN", null);
+        Map<String, LogLevel> levels = new HashMap<String, LogLevel>();
+        levels.put("org.apache.felix", LogLevel.INFO);
+        loggerAdmin.getLoggerContext("benchmark").setLogLevels(levels);
+
+        m_logger = loggerAdmin.getLogger(
+            bundle, "org.apache.felix.log.benchmarks.LoggerBenchmark", Logger.class);
+    }
+
+    @Benchmark
+    public boolean isDebugEnabled()
+    {
+        return m_logger.isDebugEnabled();
+    }
+
+    @Benchmark
+    public void debug()
+    {
+        m_logger.debug("disabled");
+    }
+
+    @Benchmark
+    public void debugWithArguments()
+    {
+        m_logger.debug("disabled {} {}", "argument", 42);
+    }
+}
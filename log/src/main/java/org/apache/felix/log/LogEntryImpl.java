@@ -65,8 +65,15 @@ final class LogEntryImpl implements LogEntry
     private final long m_sequence;
     /** The information about the Thread which logged the message. */
     private final String m_threadInfo;
+    /**
+     * The throwable created where the message was originally logged. The
+     * stack trace is only resolved into the location when it is requested
+     * or the entry is kept in the history, as its backtrace references the
+     * classes of the logging bundle.
+     */
+    private volatile Throwable m_callSite;
     /** The StackTraceElement where the message was originally logged. */
-    private final StackTraceElement m_stackTraceElement;
+    private volatile StackTraceElement m_stackTraceElement;
 
     private volatile String _toString;
 
@@ -78,6 +85,7 @@ final class LogEntryImpl implements LogEntry
      * @param level the severity level for this LogEntry object
      * @param message the message to associate with this LogEntry object
      * @param exception the exception to associate with this LogEntry object
+     * @param callSite the throwable created where the message was logged
      */
     LogEntryImpl(
         final String name,
@@ -86,7 +94,7 @@ final class LogEntryImpl implements LogEntry
         final LogLevel level,
         final String message,
         final Throwable exception,
-        final StackTraceElement stackTraceElement)
+        final Throwable callSite)
     {
         this.m_name = name;
         this.m_bundle = bundle;
@@ -98,7 +106,7 @@ final class LogEntryImpl implements LogEntry
         this.m_time = System.currentTimeMillis();
         this.m_sequence = m_sequenceGenerator.getAndIncrement();
         this.m_threadInfo = Thread.currentThread().getName();
-        this.m_stackTraceElement = stackTraceElement;
+        this.m_callSite = callSite;
     }
 
     @SuppressWarnings("deprecation")
@@ -109,7 +117,7 @@ final class LogEntryImpl implements LogEntry
         final int legacyLevel,
         final String message,
         final Throwable exception,
-        final StackTraceElement stackTraceElement)
+        final Throwable callSite)
     {
         this.m_name = name;
         this.m_bundle = bundle;
@@ -135,7 +143,7 @@ final class LogEntryImpl implements LogEntry
         this.m_time = System.currentTimeMillis();
         this.m_sequence = m_sequenceGenerator.getAndIncrement();
         this.m_threadInfo = Thread.currentThread().getName();
-        this.m_stackTraceElement = stackTraceElement;
+        this.m_callSite = callSite;
     }
 
     /**
@@ -240,16 +248,38 @@ final class LogEntryImpl implements LogEntry
 
     @Override
     public StackTraceElement getLocation() {
-        return m_stackTraceElement;
+        // read the call site first, it is cleared after the location is set
+        final Throwable callSite = m_callSite;
+        StackTraceElement location = m_stackTraceElement;
+        if (location == null && callSite != null) {
+            location = Log.getStackTraceElement(callSite);
+            if (location != null) {
+                // only keep the strings of the location
+                location = new StackTraceElement(location.getClassName(), location.getMethodName(),
+                    location.getFileName(), location.getLineNumber());
+            }
+            m_stackTraceElement = location;
+            m_callSite = null;
+        }
+        return location;
+    }
+
+    /**
+     * Resolves the location and drops the call site, so the entry no longer
+     * references the classes of the logging bundle.
+     */
+    void resolveLocation() {
+        getLocation();
     }
 
     @Override
     public String toString() {
         if (_toString == null) {
+            final StackTraceElement location = getLocation();
             _toString = m_time + "#" + m_sequence + " [" + m_threadInfo + "] " + m_level +
                 " (" + m_legacyLevel + ") [" + m_bundle.getBundleId() + ":" + m_name + "] " +
-                    m_stackTraceElement.getClassName() + ":" +
-                    m_stackTraceElement.getLineNumber() + " > " + m_message +
+                    (location != null ? location.getClassName() + ":" +
+                    location.getLineNumber() : "") + " > " + m_message +
                         (m_exception != null ? "\n" + exceptionString(m_exception) : "");
         }
         return _toString;
@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.osgi.service.log.LogEntry;
+
+/**
+ * The historic log returned by the {@link org.osgi.service.log.LogReaderService}.
+ * <p>
+ * A bounded history is a ring buffer: each entry claims the next slot with a
+ * single atomic increment and overwrites the oldest entry once the buffer
+ * is full, so adding entries never takes a lock. An unbounded history is a
+ * concurrent deque.
+ */
+final class LogHistory
+{
+    /** The slots of a bounded history, <code>null</code> if unbounded. */
+    private final AtomicReferenceArray<Slot> m_slots;
+    /** The index of the next slot to write, counting from the start. */
+    private final AtomicLong m_next = new AtomicLong();
+    /** The entries of an unbounded history, most recent first. */
+    private final ConcurrentLinkedDeque<LogEntry> m_unbounded;
+
+    /**
+     * Create a new instance.
+     * @param maxSize the maximum number of entries, negative for no limit
+     */
+    LogHistory(final int maxSize)
+    {
+        if (maxSize < 0)
+        {
+            m_slots = null;
+            m_unbounded = new ConcurrentLinkedDeque<>();
+        }
+        else
+        {
+            m_slots = new AtomicReferenceArray<>(maxSize);
+            m_unbounded = null;
+        }
+    }
+
+    /**
+     * Adds the entry, dropping the oldest entry if the history is full.
+     * @param entry the entry to add
+     */
+    void add(final LogEntry entry)
+    {
+        if (m_slots == null)
+        {
+            m_unbounded.addFirst(entry);
+        }
+        else if (m_slots.length() > 0)
+        {
+            final long index = m_next.getAndIncrement();
+            m_slots.set((int) (index % m_slots.length()), new Slot(index, entry));
+        }
+    }
+
+    /**
+     * Returns a snapshot of the entries most recent first. Entries added
+     * while taking the snapshot may or may not be included.
+     * @return an enumeration of the entries most recent first
+     */
+    Enumeration<LogEntry> getEntries()
+    {
+        final List<LogEntry> entries = new ArrayList<>();
+        if (m_slots == null)
+        {
+            for (Iterator<LogEntry> it = m_unbounded.iterator(); it.hasNext();)
+            {
+                entries.add(it.next());
+            }
+        }
+        else
+        {
+            final long end = m_next.get();
+            final long start = Math.max(0, end - m_slots.length());
+            for (long index = end - 1; index >= start; index--)
+            {
+                final Slot slot = m_slots.get((int) (index % m_slots.length()));
+                // skip slots not written yet or already overwritten
+                if (slot != null && slot.m_index == index)
+                {
+                    entries.add(slot.m_entry);
+                }
+            }
+        }
+        return Collections.enumeration(entries);
+    }
+
+    /**
+     * Removes all entries.
+     */
+    void clear()
+    {
+        if (m_slots == null)
+        {
+            m_unbounded.clear();
+        }
+        else
+        {
+            for (int i = 0; i < m_slots.length(); i++)
+            {
+                m_slots.set(i, null);
+            }
+        }
+    }
+
+    /**
+     * An entry stored in a slot together with the index it was written for.
+     */
+    private static final class Slot
+    {
+        private final long m_index;
+        private final LogEntry m_entry;
+
+        Slot(final long index, final LogEntry entry)
+        {
+            m_index = index;
+            m_entry = entry;
+        }
+    }
+}
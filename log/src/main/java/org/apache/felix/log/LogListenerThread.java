@@ -19,8 +19,11 @@
 package org.apache.felix.log;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
 
 import org.osgi.service.log.LogEntry;
 import org.osgi.service.log.LogListener;
@@ -30,13 +33,21 @@ import org.osgi.service.log.LogListener;
  * any {@link LogListener} subscribers.  A subscriber can be added using the
  * {@link org.osgi.service.log.LogReaderService#addLogListener(LogListener)}
  * method.
+ * <p>
+ * Logging threads only append to a lock-free queue and wake the listener
+ * thread if it is idle; the listener thread drains the queue in batches.
  */
 final class LogListenerThread extends Thread
 {
-    // The list of entries waiting to be delivered to the log listeners.
-    private final List<LogEntry> m_entriesToDeliver = new ArrayList<>();
+    // The maximum number of entries delivered in one batch.
+    private static final int BATCH_SIZE = 256;
+
+    // The queue of entries waiting to be delivered to the log listeners.
+    private final Queue<LogEntry> m_entriesToDeliver = new ConcurrentLinkedQueue<>();
     // The list of listeners.
-    private final List<LogListener> m_listeners = new ArrayList<>();
+    private final List<LogListener> m_listeners = new CopyOnWriteArrayList<>();
+    // Whether the thread is about to park or parked waiting for entries.
+    private volatile boolean m_idle;
 
     LogListenerThread() {
         super("FelixLogListener");
@@ -48,10 +59,10 @@ final class LogListenerThread extends Thread
      */
     void addEntry(final LogEntry entry)
     {
-        synchronized (m_entriesToDeliver)
+        m_entriesToDeliver.offer(entry);
+        if (m_idle)
         {
-            m_entriesToDeliver.add(entry);
-            m_entriesToDeliver.notifyAll();
+            LockSupport.unpark(this);
         }
     }
 
@@ -61,10 +72,7 @@ final class LogListenerThread extends Thread
      */
     void addListener(final LogListener listener)
     {
-        synchronized (m_listeners)
-        {
-            m_listeners.add(listener);
-        }
+        m_listeners.add(listener);
     }
 
     /**
@@ -73,10 +81,7 @@ final class LogListenerThread extends Thread
      */
     void removeListener(final LogListener listener)
     {
-        synchronized (m_listeners)
-        {
-            m_listeners.remove(listener);
-        }
+        m_listeners.remove(listener);
     }
 
     /**
@@ -85,10 +90,7 @@ final class LogListenerThread extends Thread
      */
     int getListenerCount()
     {
-        synchronized (m_listeners)
-        {
-            return m_listeners.size();
-        }
+        return m_listeners.size();
     }
 
     /**
@@ -96,10 +98,7 @@ final class LogListenerThread extends Thread
      */
     void shutdown()
     {
-        synchronized (m_entriesToDeliver)
-        {
-            interrupt();
-        }
+        interrupt();
     }
 
     /**
@@ -108,64 +107,46 @@ final class LogListenerThread extends Thread
      */
     public void run()
     {
+        final List<LogEntry> entriesToDeliver = new ArrayList<>(BATCH_SIZE);
         while (!isInterrupted())
         {
-            List<LogEntry> entriesToDeliver = new ArrayList<>();
-            synchronized (m_entriesToDeliver)
+            LogEntry entry;
+            while (entriesToDeliver.size() < BATCH_SIZE
+                && (entry = m_entriesToDeliver.poll()) != null)
             {
-                if (m_entriesToDeliver.isEmpty())
-                {
-                    try
-                    {
-                        m_entriesToDeliver.wait();
-                    }
-                    catch (InterruptedException e)
-                    {
-                        // the interrupt-flag is cleared; so, let's play nice and
-                        // interrupt this thread again to stop it...
-                        interrupt();
-                    }
-                }
-                else
-                {
-                    // Copy all current entries and deliver them in a single go...
-                    entriesToDeliver.addAll(m_entriesToDeliver);
-                    m_entriesToDeliver.clear();
-                }
+                entriesToDeliver.add(entry);
             }
 
-            if (!entriesToDeliver.isEmpty())
+            if (entriesToDeliver.isEmpty())
             {
-                // Take a snapshot of all current listeners and deliver all
-                // pending messages to them...
-                List<LogListener> listeners = new ArrayList<>();
-                synchronized (m_listeners)
+                // announce parking before the final check, so an entry
+                // added concurrently either is seen here or unparks us
+                m_idle = true;
+                if (m_entriesToDeliver.isEmpty())
                 {
-                    listeners.addAll(m_listeners);
+                    LockSupport.park(this);
                 }
+                m_idle = false;
+                continue;
+            }
 
-                Iterator<LogEntry> entriesIt = entriesToDeliver.iterator();
-                while (entriesIt.hasNext())
+            // Deliver the batch to a snapshot of the current listeners...
+            for (LogEntry e : entriesToDeliver)
+            {
+                for (LogListener listener : m_listeners)
                 {
-                    LogEntry entry = entriesIt.next();
-
-                    Iterator<LogListener> listenerIt = listeners.iterator();
-                    while (listenerIt.hasNext())
+                    try
                     {
-                        LogListener listener = listenerIt.next();
-
-                        try
-                        {
-                            listener.logged(entry);
-                        }
-                        catch (Throwable t)
-                        {
-                            System.err.println("Logger failed to log with " + t.getMessage());
-                            t.printStackTrace(System.err);
-                        }
+                        listener.logged(e);
+                    }
+                    catch (Throwable t)
+                    {
+                        System.err.println("Logger failed to log with " + t.getMessage());
+                        t.printStackTrace(System.err);
                     }
                 }
             }
+            entriesToDeliver.clear();
         }
     }
-}
\ No newline at end of file
+}
@@ -36,6 +36,8 @@ public class LoggerAdminImpl implements LoggerAdmin {
     private final LoggerContext m_rootContext;
     private final ConcurrentMap<String, LoggerContext> m_contexts = new ConcurrentHashMap<>();
     private final ConcurrentMap<LoggerKey, Logger> _loggers = new ConcurrentHashMap<>();
+    // bumped whenever log levels change, invalidating the levels cached by the loggers
+    private volatile int m_generation;
 
     public LoggerAdminImpl(final String defaultLogLevelString, final Log log) {
         m_rootContext = new RootLoggerContextImpl(defaultLogLevelString, this);
@@ -73,6 +75,22 @@ public class LoggerAdminImpl implements LoggerAdmin {
         return loggerContext;
     }
 
+    /**
+     * Returns the generation of the log levels. The effective log levels
+     * cached for a generation remain valid until it changes.
+     */
+    int getGeneration() {
+        return m_generation;
+    }
+
+    /**
+     * Invalidates the effective log levels cached by all loggers. Must be
+     * called after the log levels changed.
+     */
+    synchronized void invalidateLogLevels() {
+        m_generation++;
+    }
+
     public void keepLoggerContext(String name, LoggerContextImpl loggerContext) {
         if (loggerContext instanceof RootLoggerContextImpl) return;
         m_contexts.put(name, loggerContext);
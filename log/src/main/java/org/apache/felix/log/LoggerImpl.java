@@ -38,6 +38,9 @@ public class LoggerImpl implements Logger {
     protected final Bundle m_bundle;
     protected final Log m_log;
     protected final LoggerAdminImpl m_loggerAdmin;
+    // the effective log level and the generation it was computed for; not
+    // volatile as the instances are immutable and recomputing is harmless
+    private LevelCache m_levelCache;
 
     public LoggerImpl(final String name, final Bundle bundle, final Log log, final LoggerAdminImpl loggerAdmin) {
         m_name = name;
@@ -51,9 +54,22 @@ public class LoggerImpl implements Logger {
         return m_name;
     }
 
+    LogLevel getEffectiveLogLevel() {
+        // read the generation first, so a change while computing the
+        // level is caught by the next call
+        final int generation = m_loggerAdmin.getGeneration();
+        LevelCache levelCache = m_levelCache;
+        if (levelCache == null || levelCache.generation != generation) {
+            levelCache = new LevelCache(generation,
+                m_loggerAdmin.getLoggerContext(m_bundle, m_name).getEffectiveLogLevel(m_name));
+            m_levelCache = levelCache;
+        }
+        return levelCache.level;
+    }
+
     @Override
     public boolean isTraceEnabled() {
-        return m_loggerAdmin.getLoggerContext(m_bundle, m_name).getEffectiveLogLevel(m_name).implies(LogLevel.TRACE);
+        return getEffectiveLogLevel().implies(LogLevel.TRACE);
     }
 
     void trace(String message, ServiceReference<?> serviceReference, Throwable t) {
@@ -68,18 +84,21 @@ public class LoggerImpl implements Logger {
 
     @Override
     public void trace(String format, Object arg) {
+        if (!isTraceEnabled()) return;
         LogParameters logParameters = getLogParameters(arg);
         trace(format(format, logParameters), logParameters.sr, logParameters.t);
     }
 
     @Override
     public void trace(String format, Object arg1, Object arg2) {
+        if (!isTraceEnabled()) return;
         LogParameters logParameters = getLogParameters(arg1, arg2);
         trace(format(format, logParameters), logParameters.sr, logParameters.t);
     }
 
     @Override
     public void trace(String format, Object... arguments) {
+        if (!isTraceEnabled()) return;
         LogParameters logParameters = getLogParameters(arguments);
         trace(format(format, logParameters), logParameters.sr, logParameters.t);
     }
@@ -93,7 +112,7 @@ public class LoggerImpl implements Logger {
 
     @Override
     public boolean isDebugEnabled() {
-        return m_loggerAdmin.getLoggerContext(m_bundle, m_name).getEffectiveLogLevel(m_name).implies(LogLevel.DEBUG);
+        return getEffectiveLogLevel().implies(LogLevel.DEBUG);
     }
 
     void debug(String message, ServiceReference<?> serviceReference, Throwable t) {
@@ -108,18 +127,21 @@ public class LoggerImpl implements Logger {
 
     @Override
     public void debug(String format, Object arg) {
+        if (!isDebugEnabled()) return;
         LogParameters logParameters = getLogParameters(arg);
         debug(format(format, logParameters), logParameters.sr, logParameters.t);
     }
 
     @Override
     public void debug(String format, Object arg1, Object arg2) {
+        if (!isDebugEnabled()) return;
         LogParameters logParameters = getLogParameters(arg1, arg2);
         debug(format(format, logParameters), logParameters.sr, logParameters.t);
     }
 
     @Override
     public void debug(String format, Object... arguments) {
+        if (!isDebugEnabled()) return;
         LogParameters logParameters = getLogParameters(arguments);
         debug(format(format, logParameters), logParameters.sr, logParameters.t);
     }
@@ -133,7 +155,7 @@ public class LoggerImpl implements Logger {
 
     @Override
     public boolean isInfoEnabled() {
-        return m_loggerAdmin.getLoggerContext(m_bundle, m_name).getEffectiveLogLevel(m_name).implies(LogLevel.INFO);
+        return getEffectiveLogLevel().implies(LogLevel.INFO);
     }
 
     void info(String message, ServiceReference<?> serviceReference, Throwable t) {
@@ -148,18 +170,21 @@ public class LoggerImpl implements Logger {
 
     @Override
     public void info(String format, Object arg) {
+        if (!isInfoEnabled()) return;
         LogParameters logParameters = getLogParameters(arg);
         info(format(format, logParameters), logParameters.sr, logParameters.t);
     }
 
     @Override
     public void info(String format, Object arg1, Object arg2) {
+        if (!isInfoEnabled()) return;
         LogParameters logParameters = getLogParameters(arg1, arg2);
         info(format(format, logParameters), logParameters.sr, logParameters.t);
     }
 
     @Override
     public void info(String format, Object... arguments) {
+        if (!isInfoEnabled()) return;
         LogParameters logParameters = getLogParameters(arguments);
         info(format(format, logParameters), logParameters.sr, logParameters.t);
     }
@@ -173,7 +198,7 @@ public class LoggerImpl implements Logger {
 
     @Override
     public boolean isWarnEnabled() {
-        return m_loggerAdmin.getLoggerContext(m_bundle, m_name).getEffectiveLogLevel(m_name).implies(LogLevel.WARN);
+        return getEffectiveLogLevel().implies(LogLevel.WARN);
     }
 
     void warn(String message, ServiceReference<?> serviceReference, Throwable t) {
@@ -188,18 +213,21 @@ public class LoggerImpl implements Logger {
 
     @Override
     public void warn(String format, Object arg) {
+        if (!isWarnEnabled()) return;
         LogParameters logParameters = getLogParameters(arg);
         warn(format(format, logParameters), logParameters.sr, logParameters.t);
     }
 
     @Override
     public void warn(String format, Object arg1, Object arg2) {
+        if (!isWarnEnabled()) return;
         LogParameters logParameters = getLogParameters(arg1, arg2);
         warn(format(format, logParameters), logParameters.sr, logParameters.t);
     }
 
     @Override
     public void warn(String format, Object... arguments) {
+        if (!isWarnEnabled()) return;
         LogParameters logParameters = getLogParameters(arguments);
         warn(format(format, logParameters), logParameters.sr, logParameters.t);
     }
@@ -213,7 +241,7 @@ public class LoggerImpl implements Logger {
 
     @Override
     public boolean isErrorEnabled() {
-        return m_loggerAdmin.getLoggerContext(m_bundle, m_name).getEffectiveLogLevel(m_name).implies(LogLevel.ERROR);
+        return getEffectiveLogLevel().implies(LogLevel.ERROR);
     }
 
     void error(String message, ServiceReference<?> serviceReference, Throwable t) {
@@ -228,18 +256,21 @@ public class LoggerImpl implements Logger {
 
     @Override
     public void error(String format, Object arg) {
+        if (!isErrorEnabled()) return;
         LogParameters logParameters = getLogParameters(arg);
         error(format(format, logParameters), logParameters.sr, logParameters.t);
     }
 
     @Override
     public void error(String format, Object arg1, Object arg2) {
+        if (!isErrorEnabled()) return;
         LogParameters logParameters = getLogParameters(arg1, arg2);
         error(format(format, logParameters), logParameters.sr, logParameters.t);
     }
 
     @Override
     public void error(String format, Object... arguments) {
+        if (!isErrorEnabled()) return;
         LogParameters logParameters = getLogParameters(arguments);
         error(format(format, logParameters), logParameters.sr, logParameters.t);
     }
@@ -284,7 +315,7 @@ public class LoggerImpl implements Logger {
         final ServiceReference<?> sr,
         final Throwable exception) {
 
-        m_log.addEntry(new LogEntryImpl(m_name, m_bundle, sr, level, message, exception, Log.getStackTraceElement()));
+        m_log.addEntry(new LogEntryImpl(m_name, m_bundle, sr, level, message, exception, new Throwable()));
     }
 
     LogParameters getLogParameters(Object arg) {
@@ -363,6 +394,15 @@ public class LoggerImpl implements Logger {
         return sb.toString();
     }
 
+    static class LevelCache {
+        LevelCache(int generation, LogLevel level) {
+            this.generation = generation;
+            this.level = level;
+        }
+        final int generation;
+        final LogLevel level;
+    }
+
     static class LogParameters {
         public LogParameters(Object[] args, ServiceReference<?> sr, Throwable t) {
             this.args = args;
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogLevel;
+
+public class LogHistoryTest
+{
+    @Test
+    public void testMostRecentFirst()
+    {
+        final LogHistory history = new LogHistory(5);
+        add(history, 0, 3);
+        assertEquals(messages(2, 1, 0), messages(history));
+    }
+
+    @Test
+    public void testWrapAround()
+    {
+        final LogHistory history = new LogHistory(3);
+        add(history, 0, 3);
+        assertEquals(messages(2, 1, 0), messages(history));
+
+        // each new entry evicts the oldest one
+        add(history, 3, 4);
+        assertEquals(messages(3, 2, 1), messages(history));
+        add(history, 4, 11);
+        assertEquals(messages(10, 9, 8), messages(history));
+    }
+
+    @Test
+    public void testClear()
+    {
+        final LogHistory history = new LogHistory(3);
+        add(history, 0, 5);
+        history.clear();
+        assertEquals(Collections.emptyList(), messages(history));
+
+        add(history, 5, 7);
+        assertEquals(messages(6, 5), messages(history));
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        final LogHistory history = new LogHistory(0);
+        add(history, 0, 3);
+        assertEquals(Collections.emptyList(), messages(history));
+    }
+
+    @Test
+    public void testUnbounded()
+    {
+        final LogHistory history = new LogHistory(-1);
+        add(history, 0, 1000);
+        final List<String> messages = messages(history);
+        assertEquals(1000, messages.size());
+        assertEquals("999", messages.get(0));
+        assertEquals("0", messages.get(999));
+
+        history.clear();
+        assertEquals(Collections.emptyList(), messages(history));
+    }
+
+    private static void add(final LogHistory history, final int from, final int to)
+    {
+        for (int i = from; i < to; i++)
+        {
+            history.add(new LogEntryImpl("test", null, null, LogLevel.INFO, String.valueOf(i), null, null));
+        }
+    }
+
+    private static List<String> messages(final LogHistory history)
+    {
+        final List<String> messages = new ArrayList<>();
+        for (final LogEntry entry : Collections.list(history.getEntries()))
+        {
+            messages.add(entry.getMessage());
+        }
+        return messages;
+    }
+
+    private static List<String> messages(final int... indexes)
+    {
+        final List<String> messages = new ArrayList<>();
+        for (final int index : indexes)
+        {
+            messages.add(String.valueOf(index));
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogLevel;
+import org.osgi.service.log.LogListener;
+
+public class LogListenerThreadTest
+{
+    private final BlockingQueue<String> m_logged = new LinkedBlockingQueue<>();
+
+    private LogListenerThread m_thread;
+
+    @Before
+    public void setUp()
+    {
+        m_thread = new LogListenerThread();
+        m_thread.addListener(new LogListener()
+        {
+            @Override
+            public void logged(final LogEntry entry)
+            {
+                m_logged.add(entry.getMessage());
+            }
+        });
+        m_thread.start();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException
+    {
+        m_thread.shutdown();
+        m_thread.join(10000);
+    }
+
+    @Test
+    public void testDeliveryInOrder() throws InterruptedException
+    {
+        for (int i = 0; i < 1000; i++)
+        {
+            m_thread.addEntry(entry(i));
+        }
+        for (int i = 0; i < 1000; i++)
+        {
+            assertEquals(String.valueOf(i), m_logged.poll(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testDeliveryAfterIdle() throws InterruptedException
+    {
+        for (int round = 0; round < 3; round++)
+        {
+            // the thread parks once it has delivered all entries
+            awaitIdle();
+            m_thread.addEntry(entry(round));
+            assertEquals(String.valueOf(round), m_logged.poll(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testConcurrentDelivery() throws InterruptedException
+    {
+        final List<Thread> loggers = new ArrayList<>();
+        for (int t = 0; t < 4; t++)
+        {
+            loggers.add(new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int i = 0; i < 1000; i++)
+                    {
+                        m_thread.addEntry(entry(i));
+                        if (i % 100 == 0)
+                        {
+                            // let the listener thread run out of entries
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+        }
+        for (final Thread logger : loggers)
+        {
+            logger.start();
+        }
+        for (final Thread logger : loggers)
+        {
+            logger.join(10000);
+        }
+
+        final List<String> logged = new ArrayList<>();
+        for (int i = 0; i < 4000; i++)
+        {
+            final String message = m_logged.poll(10, TimeUnit.SECONDS);
+            assertTrue("missing entry " + i, message != null);
+            logged.add(message);
+        }
+        for (int i = 0; i < 1000; i++)
+        {
+            assertEquals(4, Collections.frequency(logged, String.valueOf(i)));
+        }
+    }
+
+    private void awaitIdle() throws InterruptedException
+    {
+        final long end = System.currentTimeMillis() + 10000;
+        while (m_thread.getState() != Thread.State.WAITING && System.currentTimeMillis() < end)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(Thread.State.WAITING, m_thread.getState());
+    }
+
+    private static LogEntry entry(final int index)
+    {
+        return new LogEntryImpl("test", null, null, LogLevel.INFO, String.valueOf(index), null, null);
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.Field;
+
+import org.junit.Test;
+import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogLevel;
+
+public class LogTest
+{
+    @Test
+    public void testHistoryDropsCallSite() throws Exception
+    {
+        final Log log = new Log(10, false);
+        log.log("test", null, null, LogLevel.INFO, "message", null);
+
+        final LogEntry entry = log.getEntries().nextElement();
+        final Field callSite = LogEntryImpl.class.getDeclaredField("m_callSite");
+        callSite.setAccessible(true);
+        assertNull(callSite.get(entry));
+
+        // the first frame outside of this package, which includes the test
+        final StackTraceElement location = entry.getLocation();
+        assertFalse(location.getClassName().startsWith("org.apache.felix.log"));
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.log;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Hashtable;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Version;
+import org.osgi.service.log.LogLevel;
+import org.osgi.service.log.Logger;
+
+/**
+ * Checks that an existing logger sees the log level changes, which
+ * invalidate the effective log level it caches.
+ */
+public class LoggerImplTest
+{
+    private LoggerAdminImpl m_loggerAdmin;
+
+    private Logger m_logger;
+
+    @Before
+    public void setUp()
+    {
+        // the log is not needed to check the levels
+        m_loggerAdmin = new LoggerAdminImpl("WARN", null);
+        m_logger = m_loggerAdmin.getLogger(bundle("test"), "org.acme.Foo", Logger.class);
+        assertFalse(m_logger.isInfoEnabled());
+        assertTrue(m_logger.isWarnEnabled());
+    }
+
+    @Test
+    public void testSetLogLevels()
+    {
+        m_loggerAdmin.getLoggerContext("test").setLogLevels(
+            Collections.singletonMap("org.acme", LogLevel.INFO));
+        assertTrue(m_logger.isInfoEnabled());
+        assertFalse(m_logger.isDebugEnabled());
+
+        m_loggerAdmin.getLoggerContext("test").setLogLevels(
+            Collections.singletonMap("org.acme.Foo", LogLevel.ERROR));
+        assertFalse(m_logger.isWarnEnabled());
+        assertTrue(m_logger.isErrorEnabled());
+    }
+
+    @Test
+    public void testSetRootLogLevels()
+    {
+        m_loggerAdmin.getLoggerContext(null).setLogLevels(
+            Collections.singletonMap(LoggerContextImpl.ROOT, LogLevel.DEBUG));
+        assertTrue(m_logger.isDebugEnabled());
+    }
+
+    @Test
+    public void testClear()
+    {
+        m_loggerAdmin.getLoggerContext("test").setLogLevels(
+            Collections.singletonMap("org.acme", LogLevel.TRACE));
+        assertTrue(m_logger.isTraceEnabled());
+
+        m_loggerAdmin.getLoggerContext("test").clear();
+        assertFalse(m_logger.isInfoEnabled());
+        assertTrue(m_logger.isWarnEnabled());
+    }
+
+    @Test
+    public void testConfigurationUpdate()
+    {
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put("org.acme", "debug");
+        m_loggerAdmin.updateConfiguration("test", properties);
+        assertTrue(m_logger.isDebugEnabled());
+        assertFalse(m_logger.isTraceEnabled());
+
+        m_loggerAdmin.updateConfiguration("test", new Hashtable<String, Object>());
+        assertFalse(m_logger.isInfoEnabled());
+        assertTrue(m_logger.isWarnEnabled());
+    }
+
+    private static Bundle bundle(final String symbolicName)
+    {
+        return (Bundle) Proxy.newProxyInstance(
+            Bundle.class.getClassLoader(), new Class<?>[] { Bundle.class },
+            new InvocationHandler()
+            {
+                @Override
+                public Object invoke(final Object proxy, final Method method, final Object[] args)
+                {
+                    final String name = method.getName();
+                    if ("getSymbolicName".equals(name) || "getLocation".equals(name))
+                    {
+                        return symbolicName;
+                    }
+                    if ("getVersion".equals(name))
+                    {
+                        return Version.emptyVersion;
+                    }
+                    if ("getBundleId".equals(name))
+                    {
+                        return 1L;
+                    }
+                    if ("hashCode".equals(name))
+                    {
+                        return System.identityHashCode(proxy);
+                    }
+                    if ("equals".equals(name))
+                    {
+                        return proxy == args[0];
+                    }
+                    return null;
+                }
+            });
+    }
+}
@@ -106,6 +106,21 @@ class Candidates
         return m_populateResultCache.size();
     }
 
+    public int getNbRequirements()
+    {
+        return m_candidateMap.size();
+    }
+
+    public long getNbCandidates()
+    {
+        long count = 0;
+        for (CandidateSelector candidates : m_candidateMap.values())
+        {
+            count += candidates.getRemainingCandidateCount();
+        }
+        return count;
+    }
+
     public Map<Resource, Resource> getRootHosts()
     {
         Map<Resource, Resource> hosts = new LinkedHashMap<Resource, Resource>();
@@ -320,7 +335,7 @@ class Candidates
     private static final int SUBSTITUTED = 2;
     private static final int EXPORTED = 3;
 
-    ResolutionError checkSubstitutes()
+    ResolutionError checkSubstitutes(ResolveSession session)
     {
         OpenHashMap<Capability, Integer> substituteStatuses = new OpenHashMap<Capability, Integer>(m_subtitutableMap.size());
         for (Capability substitutable : m_subtitutableMap.keySet())
@@ -341,7 +356,7 @@ class Candidates
             Requirement substitutedReq = m_subtitutableMap.get(substituteStatus.getKey());
             if (substitutedReq != null)
             {
-                m_session.permutateIfNeeded(PermutationType.SUBSTITUTE, substitutedReq, this);
+                session.permutateIfNeeded(PermutationType.SUBSTITUTE, substitutedReq, this);
             }
             Set<Requirement> dependents = m_dependentMap.get(substituteStatus.getKey());
             if (dependents != null)
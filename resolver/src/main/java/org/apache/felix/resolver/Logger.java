@@ -131,4 +131,9 @@ public class Logger
     {
         // do nothing by default
     }
+
+    public void logResolveStatistics(ResolveStatistics statistics)
+    {
+        // do nothing by default
+    }
 }
@@ -0,0 +1,303 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.resource.Requirement;
+
+/**
+ * Statistics of a single resolve operation, which are passed to
+ * {@link Logger#logResolveStatistics(ResolveStatistics)} once the operation
+ * is done, whether it succeeded or not. Times are in nanoseconds. The times
+ * of the phases are summed over all threads working on the operation, so
+ * they may add up to more than the elapsed time.
+ */
+public class ResolveStatistics
+{
+    private final long m_startTime = System.nanoTime();
+    private volatile long m_elapsedTime;
+    private volatile boolean m_successful;
+
+    private final AtomicLong m_initialCandidatesTime = new AtomicLong();
+    private final AtomicLong m_packageSpacesTime = new AtomicLong();
+    private final AtomicLong m_consistencyTime = new AtomicLong();
+    private final AtomicLong m_permutationTime = new AtomicLong();
+
+    private volatile int m_resourceCount;
+    private volatile int m_requirementCount;
+    private volatile long m_candidateCount;
+
+    private final AtomicLong m_usesPermutations = new AtomicLong();
+    private final AtomicLong m_importPermutations = new AtomicLong();
+    private final AtomicLong m_substitutePermutations = new AtomicLong();
+
+    private final AtomicLong m_usesCacheHits = new AtomicLong();
+    private final AtomicLong m_usesCacheMisses = new AtomicLong();
+
+    private final ConcurrentMap<Requirement, AtomicInteger> m_offendingRequirements =
+        new ConcurrentHashMap<Requirement, AtomicInteger>();
+
+    ResolveStatistics()
+    {
+    }
+
+    void done(boolean successful)
+    {
+        m_successful = successful;
+        m_elapsedTime = System.nanoTime() - m_startTime;
+    }
+
+    void addInitialCandidatesTime(long time)
+    {
+        m_initialCandidatesTime.addAndGet(time);
+    }
+
+    void addPackageSpacesTime(long time)
+    {
+        m_packageSpacesTime.addAndGet(time);
+    }
+
+    void addConsistencyTime(long time)
+    {
+        m_consistencyTime.addAndGet(time);
+    }
+
+    void addPermutationTime(long time)
+    {
+        m_permutationTime.addAndGet(time);
+    }
+
+    void setCandidateCounts(int resources, int requirements, long candidates)
+    {
+        m_resourceCount = resources;
+        m_requirementCount = requirements;
+        m_candidateCount = candidates;
+    }
+
+    void addPermutation(ResolverImpl.PermutationType type)
+    {
+        switch (type)
+        {
+            case USES:
+                m_usesPermutations.incrementAndGet();
+                break;
+            case IMPORT:
+                m_importPermutations.incrementAndGet();
+                break;
+            default:
+                m_substitutePermutations.incrementAndGet();
+        }
+    }
+
+    void addUsesCacheLookup(boolean hit)
+    {
+        (hit ? m_usesCacheHits : m_usesCacheMisses).incrementAndGet();
+    }
+
+    void addOffendingRequirement(Requirement requirement)
+    {
+        AtomicInteger count = m_offendingRequirements.get(requirement);
+        if (count == null)
+        {
+            count = m_offendingRequirements.putIfAbsent(requirement, new AtomicInteger(1));
+            if (count == null)
+            {
+                return;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * Returns whether the resolve operation succeeded.
+     */
+    public boolean isSuccessful()
+    {
+        return m_successful;
+    }
+
+    /**
+     * Returns the wall-clock time of the whole resolve operation.
+     */
+    public long getElapsedTime()
+    {
+        return m_elapsedTime;
+    }
+
+    /**
+     * Returns the time spent populating the initial candidates.
+     */
+    public long getInitialCandidatesTime()
+    {
+        return m_initialCandidatesTime.get();
+    }
+
+    /**
+     * Returns the time spent calculating package spaces.
+     */
+    public long getPackageSpacesTime()
+    {
+        return m_packageSpacesTime.get();
+    }
+
+    /**
+     * Returns the time spent checking package spaces for consistency.
+     */
+    public long getConsistencyTime()
+    {
+        return m_consistencyTime.get();
+    }
+
+    /**
+     * Returns the time spent selecting the next candidate permutation and
+     * checking its substitutions.
+     */
+    public long getPermutationTime()
+    {
+        return m_permutationTime.get();
+    }
+
+    /**
+     * Returns the number of resources the initial candidates were populated
+     * for, including the resources they depend on.
+     */
+    public int getResourceCount()
+    {
+        return m_resourceCount;
+    }
+
+    /**
+     * Returns the number of requirements that have candidates.
+     */
+    public int getRequirementCount()
+    {
+        return m_requirementCount;
+    }
+
+    /**
+     * Returns the number of candidates of all requirements.
+     */
+    public long getCandidateCount()
+    {
+        return m_candidateCount;
+    }
+
+    /**
+     * Returns the number of permutations checked that were created to
+     * resolve uses constraint violations, including the initial one.
+     */
+    public long getUsesPermutations()
+    {
+        return m_usesPermutations.get();
+    }
+
+    /**
+     * Returns the number of permutations checked that were created by
+     * backtracking on the candidates of a requirement.
+     */
+    public long getImportPermutations()
+    {
+        return m_importPermutations.get();
+    }
+
+    /**
+     * Returns the number of permutations checked that were created to
+     * resolve substitutable exports.
+     */
+    public long getSubstitutePermutations()
+    {
+        return m_substitutePermutations.get();
+    }
+
+    /**
+     * Returns the number of uses directives found in the uses cache.
+     */
+    public long getUsesCacheHits()
+    {
+        return m_usesCacheHits.get();
+    }
+
+    /**
+     * Returns the number of uses directives that had to be parsed.
+     */
+    public long getUsesCacheMisses()
+    {
+        return m_usesCacheMisses.get();
+    }
+
+    /**
+     * Returns how often each requirement was blamed for a failed permutation.
+     */
+    public Map<Requirement, Integer> getOffendingRequirements()
+    {
+        Map<Requirement, Integer> result = new HashMap<Requirement, Integer>();
+        for (Map.Entry<Requirement, AtomicInteger> entry : m_offendingRequirements.entrySet())
+        {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the requirements blamed most often for failed permutations,
+     * most blamed first.
+     */
+    public List<Requirement> getTopOffendingRequirements(int max)
+    {
+        final Map<Requirement, Integer> counts = getOffendingRequirements();
+        List<Requirement> result = new ArrayList<Requirement>(counts.keySet());
+        Collections.sort(result, new Comparator<Requirement>()
+        {
+            public int compare(Requirement r1, Requirement r2)
+            {
+                return counts.get(r2).compareTo(counts.get(r1));
+            }
+        });
+        return (result.size() > max) ? result.subList(0, max) : result;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Resolve " + (m_successful ? "succeeded" : "failed")
+            + " in " + (m_elapsedTime / 1000000) + " ms: "
+            + "initial candidates " + (getInitialCandidatesTime() / 1000000) + " ms, "
+            + "package spaces " + (getPackageSpacesTime() / 1000000) + " ms, "
+            + "consistency " + (getConsistencyTime() / 1000000) + " ms, "
+            + "permutations " + (getPermutationTime() / 1000000) + " ms; "
+            + m_resourceCount + " resources, "
+            + m_requirementCount + " requirements, "
+            + m_candidateCount + " candidates; "
+            + "permutations checked: " + getUsesPermutations() + " uses, "
+            + getImportPermutations() + " import, "
+            + getSubstitutePermutations() + " substitute; "
+            + "uses cache " + getUsesCacheHits() + " hits, "
+            + getUsesCacheMisses() + " misses";
+    }
+}
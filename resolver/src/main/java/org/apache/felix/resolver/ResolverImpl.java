@@ -25,6 +25,7 @@ import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
+import org.apache.felix.resolver.reason.BudgetExceededException;
 import org.apache.felix.resolver.reason.ReasonException;
 import org.apache.felix.resolver.util.ArrayMap;
 import org.apache.felix.resolver.util.CandidateSelector;
@@ -46,6 +47,21 @@ public class ResolverImpl implements Resolver
 
     private final Executor m_executor;
 
+    // Package spaces of resolved resources, keyed by resource, that can be
+    // reused by later resolve operations as long as the resource keeps the
+    // same wiring; null if package space caching is disabled.
+    private final ConcurrentMap<Resource, ResolvedPackageSpace> m_resolvedSpaces;
+
+    // Number of candidate permutations checked for consistency at the same
+    // time; 1 checks them one at a time.
+    private final int m_permutationBatchSize;
+
+    // Milliseconds a resolve operation may spend and number of candidate
+    // permutations it may check before it settles for the mandatory
+    // resources it can resolve; zero or less is unlimited.
+    private final long m_timeout;
+    private final long m_permutationLimit;
+
     enum PermutationType {
         USES,
         IMPORT,
@@ -88,14 +104,27 @@ public class ResolverImpl implements Resolver
         private final Set<Object> m_processedDeltas = new HashSet<Object>();
         private final Executor m_executor;
         private final Set<Requirement> m_mutated = new HashSet<Requirement>();
-        private final Set<Requirement> m_sub_mutated = new HashSet<Requirement>();
-        private final ConcurrentMap<String, List<String>> m_usesCache = new ConcurrentHashMap<String, List<String>>();
+        private final Set<Requirement> m_sub_mutated;
+        private final ConcurrentMap<String, List<String>> m_usesCache;
+        private final ConcurrentMap<Resource, ResolvedPackageSpace> m_resolvedSpaces;
+        // The session a permutation check was forked from, if any
+        private final ResolveSession m_parent;
         private ResolutionError m_currentError;
         volatile private CancellationException m_isCancelled = null;
-
-        static ResolveSession createSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates)
-        {
-            ResolveSession session = new ResolveSession(resolveContext, executor, dynamicHost, dynamicReq, dynamicCandidates);
+        // The time and permutation budget of this session
+        private final long m_startTime;
+        private final long m_timeout;
+        private final long m_permutationLimit;
+        private long m_checkedPermutations = 0;
+        private boolean m_budgetExceeded = false;
+        // Mandatory resources given up on once the budget was exceeded,
+        // with the error that made them fail in the best permutation found
+        private final Map<Resource, ResolutionError> m_unresolvedResources = new LinkedHashMap<Resource, ResolutionError>();
+        private final ResolveStatistics m_statistics;
+
+        static ResolveSession createSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates, ConcurrentMap<Resource, ResolvedPackageSpace> resolvedSpaces, long timeout, long permutationLimit)
+        {
+            ResolveSession session = new ResolveSession(resolveContext, executor, dynamicHost, dynamicReq, dynamicCandidates, resolvedSpaces, timeout, permutationLimit);
             // call onCancel first
             session.getContext().onCancel(session);
             // now gather the mandatory and optional resources
@@ -103,10 +132,18 @@ public class ResolverImpl implements Resolver
             return session;
         }
 
-        private ResolveSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates)
+        private ResolveSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates, ConcurrentMap<Resource, ResolvedPackageSpace> resolvedSpaces, long timeout, long permutationLimit)
         {
+            m_startTime = System.currentTimeMillis();
+            m_timeout = timeout;
+            m_permutationLimit = permutationLimit;
+            m_statistics = new ResolveStatistics();
             m_resolveContext = resolveContext;
             m_executor = executor;
+            m_resolvedSpaces = resolvedSpaces;
+            m_sub_mutated = new HashSet<Requirement>();
+            m_usesCache = new ConcurrentHashMap<String, List<String>>();
+            m_parent = null;
             m_dynamicHost = dynamicHost;
             m_dynamicReq = dynamicReq;
             m_dynamicCandidates = dynamicCandidates;
@@ -120,6 +157,58 @@ public class ResolverImpl implements Resolver
             }
         }
 
+        /**
+         * Creates a session to check a single permutation of the given session
+         * on another thread. The new session shares the resolve context and
+         * caches of the given session, but records the permutations it adds
+         * and the multiple cardinality candidates it removes on its own, so
+         * that the given session can merge them once the check is done.
+         */
+        private ResolveSession(ResolveSession parent)
+        {
+            m_startTime = parent.m_startTime;
+            // The budget is only checked by the parent session.
+            m_timeout = 0;
+            m_permutationLimit = 0;
+            m_statistics = parent.m_statistics;
+            m_resolveContext = parent.m_resolveContext;
+            m_executor = new DumbExecutor();
+            m_resolvedSpaces = parent.m_resolvedSpaces;
+            m_sub_mutated = new HashSet<Requirement>(parent.m_sub_mutated);
+            m_usesCache = parent.m_usesCache;
+            m_parent = parent;
+            m_dynamicHost = parent.m_dynamicHost;
+            m_dynamicReq = parent.m_dynamicReq;
+            m_dynamicCandidates = parent.m_dynamicCandidates;
+            m_mandatoryResources = parent.m_mandatoryResources;
+            m_optionalResources = parent.m_optionalResources;
+            m_validRelatedResources = parent.m_validRelatedResources;
+            m_relatedResources = parent.m_relatedResources;
+        }
+
+        ResolveSession fork() {
+            return new ResolveSession(this);
+        }
+
+        /**
+         * Merges the permutations added by a session created with
+         * {@link #fork()} into this session, ahead of all permutations
+         * merged before.
+         */
+        void merge(ResolveSession forked) {
+            clearMutateIndexes();
+            for (Candidates permutation : forked.m_usesPermutations) {
+                addPermutation(PermutationType.USES, permutation);
+            }
+            for (Candidates permutation : forked.m_importPermutations) {
+                addPermutation(PermutationType.IMPORT, permutation);
+            }
+            for (Candidates permutation : forked.m_substPermutations) {
+                addPermutation(PermutationType.SUBSTITUTE, permutation);
+            }
+            m_sub_mutated.addAll(forked.m_sub_mutated);
+        }
+
         private void initMandatoryAndOptionalResources() {
             if (!isDynamic()) {
                 m_mandatoryResources.addAll(getContext().getMandatoryResources());
@@ -131,15 +220,58 @@ public class ResolverImpl implements Resolver
             return m_multipleCardCandidates;
         }
 
+        void setMultipleCardCandidates(Candidates candidates)
+        {
+            m_multipleCardCandidates = candidates;
+        }
+
         ResolveContext getContext()
         {
             return m_resolveContext;
         }
 
+        ResolvedPackageSpace getResolvedPackageSpace(Resource resource) {
+            // The package space of a dynamically importing host changes
+            // with the dynamic import, so it is never taken from the cache.
+            if (m_resolvedSpaces == null || resource.equals(m_dynamicHost)) {
+                return null;
+            }
+            ResolvedPackageSpace space = m_resolvedSpaces.get(resource);
+            if (space != null && space.m_wiring != getContext().getWirings().get(resource)) {
+                return null;
+            }
+            return space;
+        }
+
+        void cacheResolvedPackageSpace(Resource resource, Wiring wiring, List<WireCandidate> wireCandidates, Packages packages) {
+            if (m_resolvedSpaces != null && !resource.equals(m_dynamicHost)) {
+                m_resolvedSpaces.put(resource, new ResolvedPackageSpace(wiring, wireCandidates, packages));
+            }
+        }
+
+        void pruneResolvedPackageSpaces() {
+            if (m_resolvedSpaces == null) {
+                return;
+            }
+            // Drop the package spaces of resources that were refreshed or
+            // uninstalled since they were cached.
+            Map<Resource, Wiring> wirings = getContext().getWirings();
+            for (Iterator<Entry<Resource, ResolvedPackageSpace>> it = m_resolvedSpaces.entrySet().iterator(); it.hasNext();) {
+                Entry<Resource, ResolvedPackageSpace> entry = it.next();
+                if (entry.getValue().m_wiring != wirings.get(entry.getKey())) {
+                    it.remove();
+                }
+            }
+        }
+
         ConcurrentMap<String, List<String>> getUsesCache() {
             return m_usesCache;
         }
 
+        ResolveStatistics getStatistics() {
+            return m_statistics;
+        }
+
         void permutateIfNeeded(PermutationType type, Requirement req, Candidates permutation) {
             List<Capability> candidates = permutation.getCandidates(req);
             if ((candidates != null) && (candidates.size() > 1))
@@ -198,24 +330,29 @@ public class ResolverImpl implements Resolver
 
         Candidates getNextPermutation() {
             Candidates next = null;
+            PermutationType type;
             do {
                 if (!m_usesPermutations.isEmpty())
                 {
                     next = m_usesPermutations.remove(0);
+                    type = PermutationType.USES;
                 }
                 else if (!m_importPermutations.isEmpty())
                 {
                     next = m_importPermutations.remove(0);
+                    type = PermutationType.IMPORT;
                 }
                 else if (!m_substPermutations.isEmpty())
                 {
                     next = m_substPermutations.remove(0);
+                    type = PermutationType.SUBSTITUTE;
                 }
                 else {
                     return null;
                 }
             }
             while(!m_processedDeltas.add(next.getDelta()));
+            m_statistics.addPermutation(type);
             // Null out each time a new permutation is attempted.
             // We only use this to store a valid permutation which is a
             // delta of the current permutation.
@@ -265,6 +402,38 @@ public class ResolverImpl implements Resolver
             return m_usesPermutations.size() + m_importPermutations.size() + m_substPermutations.size(); 
         }
 
+        void addCheckedPermutations(int count) {
+            m_checkedPermutations += count;
+        }
+
+        long getCheckedPermutations() {
+            return m_checkedPermutations;
+        }
+
+        long getElapsedTime() {
+            return System.currentTimeMillis() - m_startTime;
+        }
+
+        /**
+         * Checks whether this session has used up its time or permutation
+         * budget. Once it has, it stays exceeded for the rest of the session.
+         */
+        boolean checkBudget() {
+            if (!m_budgetExceeded) {
+                m_budgetExceeded = (m_permutationLimit > 0 && m_checkedPermutations >= m_permutationLimit)
+                    || (m_timeout > 0 && getElapsedTime() >= m_timeout);
+            }
+            return m_budgetExceeded;
+        }
+
+        boolean isBudgetExceeded() {
+            return m_budgetExceeded;
+        }
+
+        Map<Resource, ResolutionError> getUnresolvedResources() {
+            return m_unresolvedResources;
+        }
+
         Executor getExecutor() {
             return m_executor;
         }
@@ -338,34 +507,46 @@ public class ResolverImpl implements Resolver
             m_isCancelled = new CancellationException();
         }
 
+        private CancellationException getCancellation() {
+            return m_isCancelled != null ? m_isCancelled : m_parent.getCancellation();
+        }
+
         boolean isCancelled() {
-            return m_isCancelled != null;
+            return m_isCancelled != null || (m_parent != null && m_parent.isCancelled());
         }
 
         void checkForCancel() throws ResolutionException {
             if (isCancelled()) {
-                throw new ResolutionException("Resolver operation has been cancelled.", m_isCancelled, null);
+                throw new ResolutionException("Resolver operation has been cancelled.", getCancellation(), null);
             }
         }
     }
 
     public ResolverImpl(Logger logger)
     {
-        this(logger, Runtime.getRuntime().availableProcessors());
+        this(logger, new ResolverOptions());
     }
 
     public ResolverImpl(Logger logger, int parallelism)
     {
-        this.m_logger = logger;
-        this.m_parallelism = parallelism;
-        this.m_executor = null;
+        this(logger, new ResolverOptions().setParallelism(parallelism));
     }
 
     public ResolverImpl(Logger logger, Executor executor)
+    {
+        this(logger, new ResolverOptions().setExecutor(executor));
+    }
+
+    public ResolverImpl(Logger logger, ResolverOptions options)
     {
         this.m_logger = logger;
-        this.m_parallelism = -1;
-        this.m_executor = executor;
+        this.m_executor = options.getExecutor();
+        this.m_parallelism = (m_executor != null) ? -1 : options.getParallelism();
+        this.m_resolvedSpaces = options.isCachePackageSpaces()
+            ? new ConcurrentHashMap<Resource, ResolvedPackageSpace>() : null;
+        this.m_permutationBatchSize = options.getPermutationBatchSize();
+        this.m_timeout = options.getTimeout();
+        this.m_permutationLimit = options.getPermutationLimit();
     }
 
     public Map<Resource, List<Wire>> resolve(ResolveContext rc) throws ResolutionException
@@ -417,19 +598,37 @@ public class ResolverImpl implements Resolver
 
     public Map<Resource, List<Wire>> resolve(ResolveContext rc, Executor executor) throws ResolutionException
     {
-        ResolveSession session = ResolveSession.createSession(rc, executor, null, null, null);
+        ResolveSession session = ResolveSession.createSession(rc, executor, null, null, null, m_resolvedSpaces, m_timeout, m_permutationLimit);
         return doResolve(session);
     }
 
     private Map<Resource, List<Wire>> doResolve(ResolveSession session) throws ResolutionException {
+        boolean successful = false;
+        try
+        {
+            Map<Resource, List<Wire>> wireMap = resolveSession(session);
+            successful = true;
+            return wireMap;
+        }
+        finally
+        {
+            session.getStatistics().done(successful);
+            m_logger.logResolveStatistics(session.getStatistics());
+        }
+    }
+
+    private Map<Resource, List<Wire>> resolveSession(ResolveSession session) throws ResolutionException {
         Map<Resource, List<Wire>> wireMap = new HashMap<Resource, List<Wire>>();
+        session.pruneResolvedPackageSpaces();
         boolean retry;
         do
         {
             retry = false;
             try
             {
+                long start = System.nanoTime();
                 getInitialCandidates(session);
+                session.getStatistics().addInitialCandidatesTime(System.nanoTime() - start);
                 if (session.getCurrentError() != null) {
                     throw session.getCurrentError().toException();
                 }
@@ -453,6 +652,21 @@ public class ResolverImpl implements Resolver
                             retry = true;
                         }
                     }
+                    // If the budget is used up, also give up on the mandatory
+                    // resources that failed in the best permutation found, so
+                    // that at least the others get resolved.
+                    if (session.isBudgetExceeded() && !session.isDynamic())
+                    {
+                        for (Resource faultyResource : resourceKeys)
+                        {
+                            if (session.getMandatoryResources().remove(faultyResource))
+                            {
+                                session.getUnresolvedResources().put(
+                                    faultyResource, faultyResources.get(faultyResource));
+                                retry = true;
+                            }
+                        }
+                    }
                     // log all the resolution exceptions for the uses constraint violations
                     for (Map.Entry<Resource, ResolutionError> usesError : faultyResources.entrySet())
                     {
@@ -460,6 +674,11 @@ public class ResolverImpl implements Resolver
                     }
                     if (!retry)
                     {
+                        if (session.isBudgetExceeded())
+                        {
+                            throw new BudgetExceededError(session,
+                                session.getCurrentError(), Collections.<Resource, List<Wire>>emptyMap()).toException();
+                        }
                         throw session.getCurrentError().toException();
                     }
                 }
@@ -502,6 +721,10 @@ public class ResolverImpl implements Resolver
         }
         while (retry);
 
+        if (!session.getUnresolvedResources().isEmpty())
+        {
+            throw new BudgetExceededError(session, null, wireMap).toException();
+        }
         return wireMap;
     }
 
@@ -551,21 +774,32 @@ public class ResolverImpl implements Resolver
         }
         else
         {
+            session.getStatistics().setCandidateCounts(
+                initialCandidates.getNbResources(),
+                initialCandidates.getNbRequirements(),
+                initialCandidates.getNbCandidates());
             // Record the initial candidate permutation.
             session.addPermutation(PermutationType.USES, initialCandidates);
         }
     }
 
     private Candidates findValidCandidates(ResolveSession session, Map<Resource, ResolutionError> faultyResources) {
+        if (m_permutationBatchSize > 1)
+        {
+            return findValidCandidatesInBatches(session, faultyResources);
+        }
         Candidates allCandidates = null;
         boolean foundFaultyResources = false;
         do
         {
+            long start = System.nanoTime();
             allCandidates = session.getNextPermutation();
+            session.getStatistics().addPermutationTime(System.nanoTime() - start);
             if (allCandidates == null)
             {
                 break;
             }
+            session.addCheckedPermutations(1);
 
 //allCandidates.dump();
 
@@ -594,7 +828,128 @@ public class ResolverImpl implements Resolver
                 }
             }
         }
-        while (!session.isCancelled() && session.getCurrentError() != null);
+        while (!session.isCancelled() && session.getCurrentError() != null && !session.checkBudget());
+
+        return allCandidates;
+    }
+
+    private Candidates findValidCandidatesInBatches(final ResolveSession session, Map<Resource, ResolutionError> faultyResources) {
+        Candidates allCandidates = null;
+        boolean foundFaultyResources = false;
+        do
+        {
+            // Take the next permutations in priority order.
+            long start = System.nanoTime();
+            final List<Candidates> batch = new ArrayList<Candidates>(m_permutationBatchSize);
+            while (batch.size() < m_permutationBatchSize)
+            {
+                Candidates next = session.getNextPermutation();
+                if (next == null)
+                {
+                    break;
+                }
+                batch.add(next);
+            }
+            session.getStatistics().addPermutationTime(System.nanoTime() - start);
+            if (batch.isEmpty())
+            {
+                break;
+            }
+
+            final int size = batch.size();
+            session.addCheckedPermutations(size);
+            final ResolveSession[] forks = new ResolveSession[size];
+            final ResolutionError[] errors = new ResolutionError[size];
+            @SuppressWarnings("unchecked")
+            final Map<Resource, ResolutionError>[] faulty = new Map[size];
+            if (size == 1)
+            {
+                // Nothing to check concurrently, so let the check itself use
+                // the executor.
+                faulty[0] = new HashMap<Resource, ResolutionError>();
+                errors[0] = checkConsistency(session, batch.get(0), faulty[0]);
+            }
+            else
+            {
+                final AtomicInteger firstValid = new AtomicInteger(size);
+                EnhancedExecutor executor = new EnhancedExecutor(session.getExecutor());
+                for (int i = 0; i < size; i++)
+                {
+                    forks[i] = session.fork();
+                    faulty[i] = new HashMap<Resource, ResolutionError>();
+                }
+                for (int i = 0; i < size; i++)
+                {
+                    final int index = i;
+                    executor.execute(new Runnable()
+                    {
+                        public void run()
+                        {
+                            if (index > firstValid.get())
+                            {
+                                return;
+                            }
+                            errors[index] = checkConsistency(forks[index], batch.get(index), faulty[index]);
+                            if (errors[index] == null && !forks[index].isCancelled())
+                            {
+                                // Stop checking the permutations with a lower priority.
+                                int valid;
+                                while (index < (valid = firstValid.get())
+                                    && !firstValid.compareAndSet(valid, index));
+                                for (int j = index + 1; j < size; j++)
+                                {
+                                    forks[j].run();
+                                }
+                            }
+                        }
+                    });
+                }
+                executor.await();
+                if (session.isCancelled())
+                {
+                    break;
+                }
+            }
+
+            // Use the results in priority order, as if the permutations were
+            // checked one after the other.
+            int winner = -1;
+            for (int i = 0; i < size && winner < 0; i++)
+            {
+                allCandidates = batch.get(i);
+                session.setCurrentError(errors[i]);
+                if (!faulty[i].isEmpty())
+                {
+                    if (!foundFaultyResources)
+                    {
+                        foundFaultyResources = true;
+                        faultyResources.putAll(faulty[i]);
+                    }
+                    else if (faultyResources.size() > faulty[i].size())
+                    {
+                        // save the optimal faultyResources which has less
+                        faultyResources.clear();
+                        faultyResources.putAll(faulty[i]);
+                    }
+                }
+                if (errors[i] == null)
+                {
+                    winner = i;
+                }
+            }
+            if (size > 1)
+            {
+                // Queue the permutations derived from the checked ones, so
+                // that those derived from the first permutation come first.
+                for (int i = (winner < 0 ? size : winner + 1) - 1; i >= 0; i--)
+                {
+                    session.merge(forks[i]);
+                }
+                session.setMultipleCardCandidates(
+                    winner < 0 ? null : forks[winner].getMultipleCardCandidates());
+            }
+        }
+        while (!session.isCancelled() && session.getCurrentError() != null && !session.checkBudget());
 
         return allCandidates;
     }
@@ -604,15 +959,39 @@ public class ResolverImpl implements Resolver
         Candidates allCandidates,
         Map<Resource, ResolutionError> currentFaultyResources)
     {
-        ResolutionError rethrow = allCandidates.checkSubstitutes();
+        ResolveStatistics statistics = session.getStatistics();
+        long start = System.nanoTime();
+        ResolutionError rethrow = allCandidates.checkSubstitutes(session);
+        statistics.addPermutationTime(System.nanoTime() - start);
         if (rethrow != null)
         {
             return rethrow;
         }
         Map<Resource, Resource> allhosts = allCandidates.getRootHosts();
         // Calculate package spaces
+        start = System.nanoTime();
         Map<Resource, Packages> resourcePkgMap =
             calculatePackageSpaces(session, allCandidates, allhosts.values());
+        statistics.addPackageSpacesTime(System.nanoTime() - start);
+        start = System.nanoTime();
+        try
+        {
+            return checkHostsConsistency(session, allCandidates, allhosts, resourcePkgMap, currentFaultyResources);
+        }
+        finally
+        {
+            statistics.addConsistencyTime(System.nanoTime() - start);
+        }
+    }
+
+    private ResolutionError checkHostsConsistency(
+        ResolveSession session,
+        Candidates allCandidates,
+        Map<Resource, Resource> allhosts,
+        Map<Resource, Packages> resourcePkgMap,
+        Map<Resource, ResolutionError> currentFaultyResources)
+    {
+        ResolutionError rethrow;
         ResolutionError error = null;
         // Check package consistency
         Map<Resource, Object> resultCache =
@@ -631,6 +1010,7 @@ public class ResolverImpl implements Resolver
                 // check that the faulty requirement is not from a fragment
                 for (Requirement faultyReq : rethrow.getUnresolvedRequirements())
                 {
+                    session.getStatistics().addOffendingRequirement(faultyReq);
                     if (faultyReq instanceof WrappedRequirement)
                     {
                         faultyResource =
@@ -668,7 +1048,7 @@ public class ResolverImpl implements Resolver
                         "Matching candidate does not provide a package name.");
                 }
             }
-            ResolveSession session = ResolveSession.createSession(context,  new DumbExecutor(), host, dynamicRequirement, matches);
+            ResolveSession session = ResolveSession.createSession(context,  new DumbExecutor(), host, dynamicRequirement, matches, m_resolvedSpaces, m_timeout, m_permutationLimit);
             return doResolve(session);
         }
 
@@ -1053,6 +1433,7 @@ public class ResolverImpl implements Resolver
                 {
                     // Parse these uses directive.
                     uses = session.getUsesCache().get(s);
+                    session.getStatistics().addUsesCacheLookup(uses != null);
                     if (uses == null)
                     {
                         uses = parseUses(s);
@@ -1126,6 +1507,10 @@ public class ResolverImpl implements Resolver
     {
         final EnhancedExecutor executor = new EnhancedExecutor(session.getExecutor());
 
+        // Resolved resources whose package space is reused from a previous
+        // resolve; their packages are complete and must not be modified.
+        final Map<Resource, Packages> cachedPackages = new ConcurrentHashMap<Resource, Packages>();
+
         // Parallel compute wire candidates
         final Map<Resource, List<WireCandidate>> allWireCandidates = new ConcurrentHashMap<Resource, List<WireCandidate>>();
         {
@@ -1139,7 +1524,17 @@ public class ResolverImpl implements Resolver
                 }
                 public void run()
                 {
-                    List<WireCandidate> wireCandidates = getWireCandidates(session, allCandidates, resource);
+                    List<WireCandidate> wireCandidates;
+                    ResolvedPackageSpace space = session.getResolvedPackageSpace(resource);
+                    if (space != null)
+                    {
+                        wireCandidates = space.m_wireCandidates;
+                        cachedPackages.put(resource, space.m_packages);
+                    }
+                    else
+                    {
+                        wireCandidates = getWireCandidates(session, allCandidates, resource);
+                    }
                     allWireCandidates.put(resource, wireCandidates);
                     for (WireCandidate w : wireCandidates)
                     {
@@ -1166,6 +1561,12 @@ public class ResolverImpl implements Resolver
         final OpenHashMap<Resource, Packages> allPackages = new OpenHashMap<Resource, Packages>(allCandidates.getNbResources());
         for (final Resource resource : allWireCandidates.keySet())
         {
+            Packages cached = cachedPackages.get(resource);
+            if (cached != null)
+            {
+                allPackages.put(resource, cached);
+                continue;
+            }
             final Packages packages = new Packages(resource);
             allPackages.put(resource, packages);
             executor.execute(new Runnable()
@@ -1182,6 +1583,10 @@ public class ResolverImpl implements Resolver
         // Parallel compute package lists
         for (final Resource resource : allWireCandidates.keySet())
         {
+            if (cachedPackages.containsKey(resource))
+            {
+                continue;
+            }
             executor.execute(new Runnable()
             {
                 public void run()
@@ -1200,7 +1605,7 @@ public class ResolverImpl implements Resolver
         {
             final Resource resource = entry.getKey();
             final Packages packages = entry.getValue();
-            if (!packages.m_requiredPkgs.isEmpty())
+            if (!packages.m_requiredPkgs.isEmpty() && !cachedPackages.containsKey(resource))
             {
                 getPackageSourcesInternal(session, allPackages, resource, packages);
             }
@@ -1211,7 +1616,7 @@ public class ResolverImpl implements Resolver
         {
             final Resource resource = entry.getKey();
             final Packages packages = entry.getValue();
-            if (packages.m_sources.isEmpty())
+            if (packages.m_sources.isEmpty() && !cachedPackages.containsKey(resource))
             {
                 executor.execute(new Runnable()
                 {
@@ -1227,6 +1632,10 @@ public class ResolverImpl implements Resolver
         // Parallel compute uses
         for (final Resource resource : allWireCandidates.keySet())
         {
+            if (cachedPackages.containsKey(resource))
+            {
+                continue;
+            }
             executor.execute(new Runnable()
             {
                 public void run()
@@ -1237,9 +1646,42 @@ public class ResolverImpl implements Resolver
         }
         executor.await();
 
+        // Remember the package spaces of resolved resources, so that later
+        // resolves only compute the package spaces of resources that changed.
+        for (Map.Entry<Resource, List<WireCandidate>> entry : allWireCandidates.entrySet())
+        {
+            Resource resource = entry.getKey();
+            if (!cachedPackages.containsKey(resource))
+            {
+                cacheResolvedPackageSpace(session, resource, entry.getValue(), allPackages.get(resource));
+            }
+        }
+
         return allPackages;
     }
 
+    private static void cacheResolvedPackageSpace(
+        ResolveSession session, Resource resource,
+        List<WireCandidate> wireCandidates, Packages packages)
+    {
+        Map<Resource, Wiring> wirings = session.getContext().getWirings();
+        Wiring wiring = wirings.get(resource);
+        if (wiring == null)
+        {
+            return;
+        }
+        // The package space only depends on the wiring if all providers
+        // are resolved too; otherwise it depends on the current candidates.
+        for (WireCandidate w : wireCandidates)
+        {
+            if (!wirings.containsKey(w.capability.getResource()))
+            {
+                return;
+            }
+        }
+        session.cacheResolvedPackageSpace(resource, wiring, wireCandidates, packages);
+    }
+
     private static List<String> parseUses(String s) {
         int nb = 1;
         int l = s.length();
@@ -2079,6 +2521,24 @@ public class ResolverImpl implements Resolver
         }
     }
 
+    /**
+     * The package space computed for a resolved resource, which stays valid
+     * as long as the resource has the same wiring.
+     */
+    static final class ResolvedPackageSpace
+    {
+        final Wiring m_wiring;
+        final List<WireCandidate> m_wireCandidates;
+        final Packages m_packages;
+
+        ResolvedPackageSpace(Wiring wiring, List<WireCandidate> wireCandidates, Packages packages)
+        {
+            m_wiring = wiring;
+            m_wireCandidates = wireCandidates;
+            m_packages = packages;
+        }
+    }
+
     private static final class WireCandidate
     {
         public final Requirement requirement;
@@ -2238,6 +2698,74 @@ public class ResolverImpl implements Resolver
         }
     }
 
+    private static final class BudgetExceededError extends ResolutionError {
+
+        private final long m_checkedPermutations;
+        private final long m_elapsedTime;
+        private final Map<Resource, ResolutionError> m_unresolvedResources;
+        private final ResolutionError m_cause;
+        private final Map<Resource, List<Wire>> m_wireMap;
+
+        public BudgetExceededError(ResolveSession session, ResolutionError cause, Map<Resource, List<Wire>> wireMap) {
+            this.m_checkedPermutations = session.getCheckedPermutations();
+            this.m_elapsedTime = session.getElapsedTime();
+            this.m_unresolvedResources = new LinkedHashMap<Resource, ResolutionError>(session.getUnresolvedResources());
+            this.m_cause = cause;
+            this.m_wireMap = wireMap;
+        }
+
+        public String getMessage() {
+            StringBuilder sb = new StringBuilder("Resolution budget exceeded after checking ")
+                .append(m_checkedPermutations).append(" permutations in ")
+                .append(m_elapsedTime).append(" ms. ");
+            if (m_unresolvedResources.isEmpty())
+            {
+                sb.append("No consistent subset of the mandatory resources was found.");
+            }
+            else
+            {
+                sb.append("Resolved ").append(m_wireMap.size())
+                    .append(" resources, but gave up on the mandatory resources ");
+                for (Iterator<Resource> it = m_unresolvedResources.keySet().iterator(); it.hasNext();)
+                {
+                    Resource resource = it.next();
+                    sb.append(Util.getSymbolicName(resource)).append(" [").append(resource).append(']');
+                    if (it.hasNext())
+                    {
+                        sb.append(", ");
+                    }
+                }
+                sb.append('.');
+            }
+            Collection<Requirement> reqs = getUnresolvedRequirements();
+            if (!reqs.isEmpty())
+            {
+                sb.append(" Requirements still in conflict: ").append(reqs);
+            }
+            return sb.toString();
+        }
+
+        public Collection<Requirement> getUnresolvedRequirements() {
+            Set<Requirement> reqs = new LinkedHashSet<Requirement>();
+            for (ResolutionError error : m_unresolvedResources.values())
+            {
+                reqs.addAll(error.getUnresolvedRequirements());
+            }
+            if (m_cause != null)
+            {
+                reqs.addAll(m_cause.getUnresolvedRequirements());
+            }
+            return reqs;
+        }
+
+        public ResolutionException toException() {
+            return new BudgetExceededException(getMessage(),
+                m_cause != null ? m_cause.toException() : null, getUnresolvedRequirements(),
+                new ArrayList<Resource>(m_unresolvedResources.keySet()), m_wireMap,
+                m_checkedPermutations, m_elapsedTime);
+        }
+    }
+
     private static final class UseConstraintError extends ResolutionError {
 
         private final ResolveContext m_context;
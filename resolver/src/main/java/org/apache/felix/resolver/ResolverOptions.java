@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Options of a {@link ResolverImpl}. By default, a resolver uses a thread
+ * per available processor, does not reuse package spaces across resolve
+ * operations, checks candidate permutations one at a time and does not
+ * limit the time or permutations a resolve operation may spend.
+ */
+public class ResolverOptions
+{
+    private int m_parallelism = Runtime.getRuntime().availableProcessors();
+    private Executor m_executor;
+    private boolean m_cachePackageSpaces;
+    private int m_permutationBatchSize = 1;
+    private long m_timeout;
+    private long m_permutationLimit;
+
+    public int getParallelism()
+    {
+        return m_parallelism;
+    }
+
+    /**
+     * Sets the number of threads a resolve operation creates if no executor
+     * is set.
+     */
+    public ResolverOptions setParallelism(int parallelism)
+    {
+        m_parallelism = parallelism;
+        return this;
+    }
+
+    public Executor getExecutor()
+    {
+        return m_executor;
+    }
+
+    /**
+     * Sets the executor running the tasks of resolve operations, instead of
+     * creating threads for each resolve operation.
+     */
+    public ResolverOptions setExecutor(Executor executor)
+    {
+        m_executor = executor;
+        return this;
+    }
+
+    public boolean isCachePackageSpaces()
+    {
+        return m_cachePackageSpaces;
+    }
+
+    /**
+     * Sets whether the package spaces of resolved resources are reused by
+     * later resolve operations as long as the resources keep their wiring.
+     */
+    public ResolverOptions setCachePackageSpaces(boolean cachePackageSpaces)
+    {
+        m_cachePackageSpaces = cachePackageSpaces;
+        return this;
+    }
+
+    public int getPermutationBatchSize()
+    {
+        return m_permutationBatchSize;
+    }
+
+    /**
+     * Sets the number of candidate permutations checked for consistency at
+     * the same time whenever the first permutation is not consistent. Of
+     * the permutations checked together, the consistent one with the
+     * highest priority is used, so the result does not depend on thread
+     * scheduling; it may differ from the result of checking the
+     * permutations one at a time though, since the permutations derived
+     * from a failed permutation are only tried after the whole batch.
+     */
+    public ResolverOptions setPermutationBatchSize(int permutationBatchSize)
+    {
+        m_permutationBatchSize = Math.max(1, permutationBatchSize);
+        return this;
+    }
+
+    public long getTimeout()
+    {
+        return m_timeout;
+    }
+
+    /**
+     * Sets the time in milliseconds a resolve operation may spend looking
+     * for a consistent solution; zero or less means unlimited.
+     * @see #setPermutationLimit(long)
+     */
+    public ResolverOptions setTimeout(long timeout)
+    {
+        m_timeout = timeout;
+        return this;
+    }
+
+    public long getPermutationLimit()
+    {
+        return m_permutationLimit;
+    }
+
+    /**
+     * Sets the number of candidate permutations a resolve operation may
+     * check looking for a consistent solution; zero or less means
+     * unlimited. Once a limit is reached, the resolver gives up on the
+     * mandatory resources that fail in the best permutation found so far
+     * and resolves the remaining ones. Optional resources are dropped as
+     * usual, but if any mandatory resource had to be given up on, a
+     * {@link org.apache.felix.resolver.reason.BudgetExceededException} holding the wires of the resolved
+     * resources is thrown.
+     */
+    public ResolverOptions setPermutationLimit(long permutationLimit)
+    {
+        m_permutationLimit = permutationLimit;
+        return this;
+    }
+}
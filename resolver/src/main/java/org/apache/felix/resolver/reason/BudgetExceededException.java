@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.reason;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
+
+/**
+ * An exception that is thrown when the resolver exceeded its time or
+ * permutation budget. It holds the wires of the largest consistent subset
+ * of the mandatory resources the resolver found in time, so that the caller
+ * can still apply them.
+ *
+ * @see {@link ReasonException.Reason#BudgetExceeded}
+ */
+public class BudgetExceededException extends ReasonException {
+
+    private static final long serialVersionUID = 3917408624785362054L;
+
+    public BudgetExceededException(
+        String message, Throwable cause, Collection<Requirement> unresolvedRequirements,
+        Collection<Resource> unresolvedResources, Map<Resource, List<Wire>> wireMap,
+        long permutationCount, long elapsedTime) {
+        super(Reason.BudgetExceeded, message, cause, unresolvedRequirements);
+        this.unresolvedResources = unresolvedResources;
+        this.wireMap = wireMap;
+        this.permutationCount = permutationCount;
+        this.elapsedTime = elapsedTime;
+    }
+
+    /**
+     * Returns the mandatory resources that were given up on.
+     */
+    public Collection<Resource> getUnresolvedResources() {
+        return unresolvedResources;
+    }
+
+    /**
+     * Returns the wires of the mandatory resources that could be resolved,
+     * which may be empty.
+     */
+    public Map<Resource, List<Wire>> getWireMap() {
+        return wireMap;
+    }
+
+    /**
+     * Returns the number of candidate permutations that were checked.
+     */
+    public long getPermutationCount() {
+        return permutationCount;
+    }
+
+    /**
+     * Returns the time spent resolving in milliseconds.
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    private final transient Collection<Resource> unresolvedResources;
+    private final transient Map<Resource, List<Wire>> wireMap;
+    private final long permutationCount;
+    private final long elapsedTime;
+
+}
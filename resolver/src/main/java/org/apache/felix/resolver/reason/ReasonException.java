@@ -77,7 +77,21 @@ public class ReasonException extends ResolutionException {
          * <p>
          * This reason has no a transitive cause.
          */
-        UseConstraint
+        UseConstraint,
+
+        /**
+         * Represents the scenario where the resolver ran out of time or
+         * candidate permutations before it found a consistent solution for
+         * all mandatory resources.
+         * <p>
+         * The exception is a {@link BudgetExceededException} that holds the
+         * wires of the mandatory resources that could be resolved.
+         * {@link ReasonException#getUnresolvedRequirements()} will return
+         * the requirements to blame for the remaining mandatory resources.
+         * <p>
+         * This reason may have a transitive cause.
+         */
+        BudgetExceeded
     }
 
     private static final long serialVersionUID = -5276675175114379539L;
@@ -31,6 +31,7 @@ import java.util.Set;
 
 import org.apache.felix.resolver.Logger;
 import org.apache.felix.resolver.ResolverImpl;
+import org.apache.felix.resolver.ResolverOptions;
 import org.apache.felix.resolver.test.util.CandidateComparator;
 import org.apache.felix.resolver.test.util.CapabilitySet;
 import org.apache.felix.resolver.test.util.ClauseParser;
@@ -118,6 +119,90 @@ public class BigResolutionTest {
         checkResolutions(wiring1, wiring2);
     }
 
+    @Test
+    @Ignore
+    public void testIncrementalResolution() throws Exception {
+        final ResolveContext rc = buildResolutionContext();
+        Map<Resource, List<Wire>> wires = new ResolverImpl(new Logger(Logger.LOG_INFO)).resolve(rc);
+
+        // Keep everything resolved except for a few resources nobody
+        // depends on, which are resolved again as if they were installed
+        // into the running system.
+        final Map<Resource, List<Wire>> invertedWires = new HashMap<Resource, List<Wire>>();
+        for (Resource res : wires.keySet()) {
+            invertedWires.put(res, new ArrayList<Wire>());
+        }
+        for (List<Wire> resWires : wires.values()) {
+            for (Wire wire : resWires) {
+                invertedWires.get(wire.getProvider()).add(wire);
+            }
+        }
+        final List<Resource> mandatory = new ArrayList<Resource>();
+        for (Resource res : wires.keySet()) {
+            if (invertedWires.get(res).isEmpty() && mandatory.size() < 10) {
+                mandatory.add(res);
+            }
+        }
+        final Map<Resource, Wiring> wirings = new HashMap<Resource, Wiring>();
+        for (Resource res : wires.keySet()) {
+            if (!mandatory.contains(res)) {
+                wirings.put(res, new ResolvedWiring(res, wires, invertedWires));
+            }
+        }
+        ResolveContext incremental = new ResolveContext() {
+            @Override
+            public Collection<Resource> getMandatoryResources() {
+                return mandatory;
+            }
+
+            @Override
+            public List<Capability> findProviders(Requirement requirement) {
+                return rc.findProviders(requirement);
+            }
+
+            @Override
+            public int insertHostedCapability(List<Capability> capabilities, HostedCapability hostedCapability) {
+                return rc.insertHostedCapability(capabilities, hostedCapability);
+            }
+
+            @Override
+            public boolean isEffective(Requirement requirement) {
+                return rc.isEffective(requirement);
+            }
+
+            @Override
+            public Map<Resource, Wiring> getWirings() {
+                return wirings;
+            }
+        };
+
+        System.out.println("Resolving " + mandatory.size() + " resources against "
+                + wirings.size() + " resolved resources");
+        Map<Resource, List<Wire>> full = runIncrementalResolution("Without package space cache",
+                new ResolverImpl(new Logger(Logger.LOG_INFO), 1), incremental);
+        Map<Resource, List<Wire>> cached = runIncrementalResolution("With package space cache",
+                new ResolverImpl(new Logger(Logger.LOG_INFO),
+                        new ResolverOptions().setParallelism(1).setCachePackageSpaces(true)), incremental);
+        checkResolutions(full, cached);
+    }
+
+    private Map<Resource, List<Wire>> runIncrementalResolution(String name, ResolverImpl resolver, ResolveContext rc) throws Exception {
+        Map<Resource, List<Wire>> wires = resolver.resolve(rc);
+        RunningStat stats = new RunningStat();
+        for (int i = 1; i <= 20; i++) {
+            long t0 = System.nanoTime();
+            Map<Resource, List<Wire>> newWires = resolver.resolve(rc);
+            long t1 = System.nanoTime();
+            stats.put((t1 - t0) * 1E-6);
+            assertEquals(wires, newWires);
+        }
+        System.out.println(name);
+        System.out.println("    Min:    " + String.format("%7.2f", stats.getMin()) + " ms");
+        System.out.println("    Max:    " + String.format("%7.2f", stats.getMax()) + " ms");
+        System.out.println("    Avg:    " + String.format("%7.2f", stats.getAverage()) + " ms");
+        return wires;
+    }
+
     private ResolveContext buildResolutionContext() throws IOException, BundleException {
         Object resolution;
 
@@ -400,6 +485,51 @@ public class BigResolutionTest {
         }
     }
 
+    private static class ResolvedWiring implements Wiring {
+        private final Resource resource;
+        private final Map<Resource, List<Wire>> wires;
+        private final Map<Resource, List<Wire>> invertedWires;
+
+        ResolvedWiring(Resource resource, Map<Resource, List<Wire>> wires, Map<Resource, List<Wire>> invertedWires) {
+            this.resource = resource;
+            this.wires = wires;
+            this.invertedWires = invertedWires;
+        }
+
+        public List<Capability> getResourceCapabilities(String namespace) {
+            return resource.getCapabilities(namespace);
+        }
+
+        public List<Requirement> getResourceRequirements(String namespace) {
+            return resource.getRequirements(namespace);
+        }
+
+        public List<Wire> getProvidedResourceWires(String namespace) {
+            return filter(invertedWires.get(resource), namespace);
+        }
+
+        public List<Wire> getRequiredResourceWires(String namespace) {
+            return filter(wires.get(resource), namespace);
+        }
+
+        public Resource getResource() {
+            return resource;
+        }
+
+        private static List<Wire> filter(List<Wire> wires, String namespace) {
+            if (namespace == null) {
+                return wires;
+            }
+            List<Wire> result = new ArrayList<Wire>();
+            for (Wire wire : wires) {
+                if (namespace.equals(wire.getCapability().getNamespace())) {
+                    result.add(wire);
+                }
+            }
+            return result;
+        }
+    }
+
     public static class RunningStat {
 
         private int count = 0;
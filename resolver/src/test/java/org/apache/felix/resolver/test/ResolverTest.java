@@ -19,6 +19,7 @@
 package org.apache.felix.resolver.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -29,12 +30,19 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.felix.resolver.Logger;
+import org.apache.felix.resolver.ResolveStatistics;
 import org.apache.felix.resolver.ResolverImpl;
+import org.apache.felix.resolver.ResolverOptions;
+import org.apache.felix.resolver.reason.BudgetExceededException;
+import org.apache.felix.resolver.reason.ReasonException;
 import org.apache.felix.resolver.test.util.BundleCapability;
 import org.apache.felix.resolver.test.util.BundleRequirement;
 import org.apache.felix.resolver.test.util.GenericCapability;
@@ -913,6 +921,230 @@ public class ResolverTest
         resolver.resolve(rci);
     }
 
+    @Test
+    public void testResolvedPackageSpaceCache() throws Exception
+    {
+        ResolverImpl resolver = new ResolverImpl(new Logger(Logger.LOG_DEBUG),
+            new ResolverOptions().setParallelism(1).setCachePackageSpaces(true));
+
+        ResourceImpl q1 = new ResourceImpl("Q1");
+        Capability q1_pkgCap = addCap(q1, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.q");
+
+        ResourceImpl q2 = new ResourceImpl("Q2");
+        Capability q2_pkgCap = addCap(q2, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.q");
+
+        ResourceImpl a1 = new ResourceImpl("A");
+        Capability a1_pkgCap = addCap(a1, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.a", "org.foo.q");
+        Requirement a1_pkgReq = addReq(a1, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.q");
+
+        ResourceImpl b1 = new ResourceImpl("B");
+        Requirement b_pkgReq1 = addReq(b1, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.a");
+        Requirement b_pkgReq2 = addReq(b1, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.q");
+
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+        candMap.put(b_pkgReq1, Collections.singletonList(a1_pkgCap));
+        candMap.put(b_pkgReq2, Arrays.asList(q2_pkgCap, q1_pkgCap));
+
+        // A is resolved against Q1, so B must import org.foo.q from Q1 too,
+        // also once the package space of A is reused.
+        Map<Resource, Wiring> wirings = createWirings(a1, a1_pkgReq, q1_pkgCap, q1, q2);
+        ResolveContextImpl rci = new ResolveContextImpl(wirings, candMap,
+            Collections.<Resource> singletonList(b1), Collections.<Resource> emptyList());
+        for (int i = 0; i < 2; i++)
+        {
+            Map<Resource, List<Wire>> wireMap = resolver.resolve(rci);
+            assertEquals(1, wireMap.size());
+            assertEquals(q1, wireMap.get(b1).get(1).getProvider());
+        }
+
+        // Once A is refreshed and resolved against Q2, the package space
+        // cached for its previous wiring must no longer be used.
+        wirings = createWirings(a1, a1_pkgReq, q2_pkgCap, q1, q2);
+        rci = new ResolveContextImpl(wirings, candMap,
+            Collections.<Resource> singletonList(b1), Collections.<Resource> emptyList());
+        Map<Resource, List<Wire>> wireMap = resolver.resolve(rci);
+        assertEquals(1, wireMap.size());
+        assertEquals(q2, wireMap.get(b1).get(1).getProvider());
+    }
+
+    @Test
+    public void testPermutationBatches() throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            Map<String, List<String>> expected = getProviderNames(new ResolverImpl(
+                new Logger(Logger.LOG_DEBUG), 1).resolve(populatePermutationScenario()));
+            for (int i = 0; i < 5; i++)
+            {
+                ResolverImpl resolver = new ResolverImpl(new Logger(Logger.LOG_DEBUG),
+                    new ResolverOptions().setExecutor(executor).setPermutationBatchSize(4));
+                Map<String, List<String>> providers = getProviderNames(
+                    resolver.resolve(populatePermutationScenario()));
+                assertEquals(expected, providers);
+                for (int j = 0; j < 5; j++)
+                {
+                    // B must use the same org.foo.q as A.
+                    assertEquals(Arrays.asList("A", "Q1"), providers.get("B" + j));
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testPermutationLimit() throws Exception
+    {
+        // A limit that is not reached does not change the result.
+        Map<String, List<String>> expected = getProviderNames(new ResolverImpl(
+            new Logger(Logger.LOG_DEBUG), 1).resolve(populatePermutationScenario()));
+        ResolverImpl resolver = new ResolverImpl(new Logger(Logger.LOG_DEBUG),
+            new ResolverOptions().setParallelism(1).setPermutationLimit(1000));
+        assertEquals(expected, getProviderNames(
+            resolver.resolve(populatePermutationScenario())));
+
+        // Only the first permutation may be checked, in which every B
+        // violates the uses constraint of A, so only A gets resolved.
+        resolver = new ResolverImpl(new Logger(Logger.LOG_DEBUG),
+            new ResolverOptions().setParallelism(1).setPermutationLimit(1));
+        try
+        {
+            resolver.resolve(populatePermutationScenario());
+            fail("Expected the permutation limit to be exceeded.");
+        }
+        catch (BudgetExceededException ex)
+        {
+            assertEquals(ReasonException.Reason.BudgetExceeded, ex.getReason());
+            Map<String, List<String>> providers = getProviderNames(ex.getWireMap());
+            assertEquals(Arrays.asList("Q1"), providers.get("A"));
+            for (int i = 0; i < 5; i++)
+            {
+                assertFalse(providers.containsKey("B" + i));
+            }
+            Set<String> unresolved = new HashSet<String>();
+            for (Resource resource : ex.getUnresolvedResources())
+            {
+                unresolved.add(getResourceName(resource));
+            }
+            assertEquals(new HashSet<String>(Arrays.asList("B0", "B1", "B2", "B3", "B4")), unresolved);
+            assertEquals(2, ex.getPermutationCount());
+            assertFalse(ex.getUnresolvedRequirements().isEmpty());
+        }
+    }
+
+    @Test
+    public void testResolveStatistics() throws Exception
+    {
+        final List<ResolveStatistics> reported = new ArrayList<ResolveStatistics>();
+        Logger logger = new Logger(Logger.LOG_DEBUG)
+        {
+            @Override
+            public void logResolveStatistics(ResolveStatistics statistics)
+            {
+                reported.add(statistics);
+            }
+        };
+        ResolveContext rci = populatePermutationScenario();
+        new ResolverImpl(logger, 1).resolve(rci);
+
+        assertEquals(1, reported.size());
+        ResolveStatistics statistics = reported.get(0);
+        assertTrue(statistics.isSuccessful());
+        assertTrue(statistics.getElapsedTime() > 0);
+        assertEquals(9, statistics.getResourceCount());
+        assertEquals(11, statistics.getRequirementCount());
+        assertEquals(21, statistics.getCandidateCount());
+        // The initial permutation fails, since every B uses another org.foo.q than A.
+        assertTrue(statistics.getUsesPermutations() + statistics.getImportPermutations() > 1);
+        assertTrue(statistics.getUsesCacheHits() + statistics.getUsesCacheMisses() > 0);
+        List<Requirement> offending = statistics.getTopOffendingRequirements(3);
+        assertFalse(offending.isEmpty());
+        assertTrue(offending.size() <= 3);
+        for (Requirement req : offending)
+        {
+            assertTrue(getResourceName(req.getResource()).startsWith("B"));
+        }
+    }
+
+    private static Map<String, List<String>> getProviderNames(Map<Resource, List<Wire>> wireMap)
+    {
+        Map<String, List<String>> providers = new HashMap<String, List<String>>();
+        for (Map.Entry<Resource, List<Wire>> entry : wireMap.entrySet())
+        {
+            List<String> names = new ArrayList<String>();
+            for (Wire wire : entry.getValue())
+            {
+                names.add(getResourceName(wire.getProvider()));
+            }
+            providers.put(getResourceName(entry.getKey()), names);
+        }
+        return providers;
+    }
+
+    private static ResolveContext populatePermutationScenario()
+    {
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+
+        ResourceImpl q1 = new ResourceImpl("Q1");
+        Capability q1_pkgCap = addCap(q1, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.q");
+        ResourceImpl q2 = new ResourceImpl("Q2");
+        Capability q2_pkgCap = addCap(q2, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.q");
+        ResourceImpl q3 = new ResourceImpl("Q3");
+        Capability q3_pkgCap = addCap(q3, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.q");
+
+        ResourceImpl a1 = new ResourceImpl("A");
+        Capability a1_pkgCap = addCap(a1, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.a", "org.foo.q");
+        Requirement a1_pkgReq = addReq(a1, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.q");
+        candMap.put(a1_pkgReq, Collections.singletonList(q1_pkgCap));
+
+        List<Resource> mandatory = new ArrayList<Resource>();
+        mandatory.add(a1);
+        for (int i = 0; i < 5; i++)
+        {
+            // Every B prefers a different org.foo.q than A uses, so each of
+            // them causes a uses constraint violation.
+            ResourceImpl b = new ResourceImpl("B" + i);
+            Requirement b_pkgReq1 = addReq(b, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.a");
+            Requirement b_pkgReq2 = addReq(b, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.q");
+            candMap.put(b_pkgReq1, Collections.singletonList(a1_pkgCap));
+            candMap.put(b_pkgReq2, (i % 2 == 0)
+                ? Arrays.asList(q2_pkgCap, q3_pkgCap, q1_pkgCap)
+                : Arrays.asList(q3_pkgCap, q2_pkgCap, q1_pkgCap));
+            mandatory.add(b);
+        }
+
+        return new ResolveContextImpl(Collections.<Resource, Wiring> emptyMap(), candMap,
+            mandatory, Collections.<Resource> emptyList());
+    }
+
+    private static Map<Resource, Wiring> createWirings(Resource a1,
+        Requirement a1_pkgReq, Capability qCap, Resource... providers)
+    {
+        Map<Resource, List<Wire>> wires = new HashMap<Resource, List<Wire>>();
+        Map<Resource, List<Wire>> invertedWires = new HashMap<Resource, List<Wire>>();
+        for (Resource provider : providers)
+        {
+            wires.put(provider, new ArrayList<Wire>());
+            invertedWires.put(provider, new ArrayList<Wire>());
+        }
+        wires.put(a1, new ArrayList<Wire>());
+        invertedWires.put(a1, new ArrayList<Wire>());
+        wires.get(a1).add(new SimpleWire(a1_pkgReq, qCap));
+        invertedWires.get(qCap.getResource()).add(new SimpleWire(a1_pkgReq, qCap));
+
+        Map<Resource, Wiring> wirings = new HashMap<Resource, Wiring>();
+        wirings.put(a1, new SimpleWiring(a1, a1.getCapabilities(null), wires, invertedWires));
+        for (Resource provider : providers)
+        {
+            wirings.put(provider, new SimpleWiring(provider,
+                provider.getCapabilities(null), wires, invertedWires));
+        }
+        return wirings;
+    }
+
     private ResolveContext populateScenario17(boolean realSubstitute,
         boolean felixResolveContext, boolean existingWirings)
     {
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.scr.impl.inject.Annotations;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures creating a component property type from the configuration of a
+ * component and reading its members, as done for every activation of a
+ * prototype scoped or factory component. Run it on an older build to
+ * compare against the previous implementation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class AnnotationsBenchmark
+{
+    public @interface Config
+    {
+        String PREFIX_ = "my.";
+
+        String name() default "component";
+
+        int max_connections() default 10;
+
+        long timeout() default 1000L;
+
+        boolean enabled() default true;
+
+        String[] hosts() default {};
+    }
+
+    private Map<String, Object> m_properties;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        m_properties = new HashMap<String, Object>();
+        m_properties.put("my.name", "benchmark");
+        m_properties.put("my.max.connections", "42");
+        m_properties.put("my.timeout", 500);
+        m_properties.put("my.enabled", Boolean.TRUE);
+        m_properties.put("my.hosts", new String[] { "a", "b", "c" });
+    }
+
+    @Benchmark
+    public Config toObject()
+    {
+        return Annotations.toObject(Config.class, m_properties, null, true);
+    }
+
+    @Benchmark
+    public int toObjectAndRead()
+    {
+        Config config = Annotations.toObject(Config.class, m_properties, null, true);
+        return config.name().length() + config.max_connections()
+            + (int) config.timeout() + (config.enabled() ? 1 : 0)
+            + config.hosts().length;
+    }
+}
@@ -29,7 +29,9 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -81,7 +83,7 @@ public class BundleComponentActivator implements ComponentActivator
     private final List<ComponentHolder<?>> m_holders = new ArrayList<>();
 
     // thread acting upon configurations
-    private final ComponentActorThread m_componentActor;
+    private final ComponentActor m_componentActor;
 
     // true as long as the dispose method is not called
     private final AtomicBoolean m_active = new AtomicBoolean( true );
@@ -98,7 +100,14 @@ public class BundleComponentActivator implements ComponentActivator
 
     private static class ListenerInfo implements ServiceListener
     {
-        private Map<Filter, List<ExtendedServiceListener<ExtendedServiceEvent>>> filterMap = new HashMap<>();
+        // the listeners without filter, replaced on every change
+        private volatile List<ExtendedServiceListener<ExtendedServiceEvent>> unfiltered = Collections.emptyList();
+
+        // the listeners by filter; the lists are replaced on every change
+        private final Map<Filter, List<ExtendedServiceListener<ExtendedServiceEvent>>> filterMap = new ConcurrentHashMap<>();
+
+        // index of the keys of filterMap, updated together with filterMap
+        private final FilterIndex filterIndex = new FilterIndex();
 
         @Override
         public void serviceChanged(ServiceEvent event)
@@ -106,32 +115,46 @@ public class BundleComponentActivator implements ComponentActivator
             ServiceReference<?> ref = event.getServiceReference();
             ExtendedServiceEvent extEvent = null;
             ExtendedServiceEvent endMatchEvent = null;
-            Map<Filter, List<ExtendedServiceListener<ExtendedServiceEvent>>> filterMap;
-            synchronized ( this )
+            final List<ExtendedServiceListener<ExtendedServiceEvent>> unfiltered = this.unfiltered;
+            if ( !unfiltered.isEmpty() )
             {
-                filterMap = this.filterMap;
+                extEvent = new ExtendedServiceEvent( event );
+                for ( ExtendedServiceListener<ExtendedServiceEvent> forwardTo : unfiltered )
+                {
+                    forwardTo.serviceChanged( extEvent );
+                }
             }
-            for ( Map.Entry<Filter, List<ExtendedServiceListener<ExtendedServiceEvent>>> entry : filterMap.entrySet() )
+            // only the candidate filters can match, so only they need to
+            // be evaluated; the listeners of all other filters only have to
+            // be told of modified services no longer matching
+            final Set<Filter> candidates = filterIndex.getCandidates( ref );
+            final boolean modified = event.getType() == ServiceEvent.MODIFIED;
+            for ( Filter filter : modified ? filterMap.keySet() : candidates )
             {
-                Filter filter = entry.getKey();
-                if ( filter == null || filter.match( ref ) )
+                final List<ExtendedServiceListener<ExtendedServiceEvent>> listeners = filterMap.get( filter );
+                if ( listeners == null )
+                {
+                    // removed concurrently
+                    continue;
+                }
+                if ( ( !modified || candidates.contains( filter ) ) && filter.match( ref ) )
                 {
                     if ( extEvent == null )
                     {
                         extEvent = new ExtendedServiceEvent( event );
                     }
-                    for ( ExtendedServiceListener<ExtendedServiceEvent> forwardTo : entry.getValue() )
+                    for ( ExtendedServiceListener<ExtendedServiceEvent> forwardTo : listeners )
                     {
                         forwardTo.serviceChanged( extEvent );
                     }
                 }
-                else if ( event.getType() == ServiceEvent.MODIFIED )
+                else if ( modified )
                 {
                     if ( endMatchEvent == null )
                     {
                         endMatchEvent = new ExtendedServiceEvent( ServiceEvent.MODIFIED_ENDMATCH, ref );
                     }
-                    for ( ExtendedServiceListener<ExtendedServiceEvent> forwardTo : entry.getValue() )
+                    for ( ExtendedServiceListener<ExtendedServiceEvent> forwardTo : listeners )
                     {
                         forwardTo.serviceChanged( endMatchEvent );
                     }
@@ -149,38 +172,65 @@ public class BundleComponentActivator implements ComponentActivator
 
         public synchronized void add(Filter filter, ExtendedServiceListener<ExtendedServiceEvent> listener)
         {
-            filterMap = new HashMap<>( filterMap );
+            if ( filter == null )
+            {
+                unfiltered = added( unfiltered, listener );
+                return;
+            }
             List<ExtendedServiceListener<ExtendedServiceEvent>> listeners = filterMap.get( filter );
             if ( listeners == null )
             {
-                listeners = Collections.<ExtendedServiceListener<ExtendedServiceEvent>> singletonList( listener );
+                filterMap.put( filter, Collections.singletonList( listener ) );
+                filterIndex.add( filter );
             }
             else
             {
-                listeners = new ArrayList<>( listeners );
-                listeners.add( listener );
+                filterMap.put( filter, added( listeners, listener ) );
             }
-            filterMap.put( filter, listeners );
         }
 
         public synchronized boolean remove(Filter filter, ExtendedServiceListener<ExtendedServiceEvent> listener)
         {
-            List<ExtendedServiceListener<ExtendedServiceEvent>> listeners = filterMap.get( filter );
-            if ( listeners != null )
+            if ( filter == null )
             {
-                filterMap = new HashMap<>( filterMap );
-                listeners = new ArrayList<>( listeners );
-                listeners.remove( listener );
-                if ( listeners.isEmpty() )
-                {
-                    filterMap.remove( filter );
-                }
-                else
+                unfiltered = removed( unfiltered, listener );
+            }
+            else
+            {
+                List<ExtendedServiceListener<ExtendedServiceEvent>> listeners = filterMap.get( filter );
+                if ( listeners != null )
                 {
-                    filterMap.put( filter, listeners );
+                    listeners = removed( listeners, listener );
+                    if ( listeners.isEmpty() )
+                    {
+                        filterIndex.remove( filter );
+                        filterMap.remove( filter );
+                    }
+                    else
+                    {
+                        filterMap.put( filter, listeners );
+                    }
                 }
             }
-            return filterMap.isEmpty();
+            return unfiltered.isEmpty() && filterMap.isEmpty();
+        }
+
+        private static List<ExtendedServiceListener<ExtendedServiceEvent>> added(
+            List<ExtendedServiceListener<ExtendedServiceEvent>> listeners,
+            ExtendedServiceListener<ExtendedServiceEvent> listener)
+        {
+            listeners = new ArrayList<>( listeners );
+            listeners.add( listener );
+            return listeners;
+        }
+
+        private static List<ExtendedServiceListener<ExtendedServiceEvent>> removed(
+            List<ExtendedServiceListener<ExtendedServiceEvent>> listeners,
+            ExtendedServiceListener<ExtendedServiceEvent> listener)
+        {
+            listeners = new ArrayList<>( listeners );
+            listeners.remove( listener );
+            return listeners;
         }
     }
 
@@ -242,7 +292,7 @@ public class BundleComponentActivator implements ComponentActivator
      */
     public BundleComponentActivator(final ScrLogger scrLogger,
             final ComponentRegistry componentRegistry,
-            final ComponentActorThread componentActor,
+            final ComponentActor componentActor,
             final BundleContext context,
             final ScrConfiguration configuration,
             final List<ComponentMetadata> cachedComponentMetadata)
@@ -712,13 +762,29 @@ public class BundleComponentActivator implements ComponentActivator
      */
     @Override
     public void schedule(Runnable task)
+    {
+        schedule( null, task );
+    }
+
+    /**
+     * Schedules the given <code>task</code> for asynchrounous execution after
+     * all tasks scheduled before with the same <code>key</code>, or
+     * synchronously runs the task if the actor is not running. If this
+     * instance is {@link #isActive() not active}, the task is not executed.
+     *
+     * @param key The key of the tasks to run in order, usually the component
+     *      holder the task acts upon, or <code>null</code>
+     * @param task The component task to execute
+     */
+    @Override
+    public void schedule(Object key, Runnable task)
     {
         if ( isActive() )
         {
-            ComponentActorThread cat = m_componentActor;
+            ComponentActor cat = m_componentActor;
             if ( cat != null )
             {
-                cat.schedule( task );
+                cat.schedule( key, task );
             }
             else
             {
@@ -0,0 +1,392 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.Map;
+
+import org.apache.felix.scr.impl.logger.ScrLogger;
+import org.osgi.service.log.LogService;
+
+
+/**
+ * The <code>ComponentActor</code> runs the asynchronous tasks of the
+ * service component runtime, such as enabling and disabling components, on
+ * a pool of worker threads.
+ * <p>
+ * Tasks are scheduled with a key, usually the component holder they act
+ * upon. Tasks with the same key are run one after the other in the order
+ * they were scheduled, while tasks with different keys may run concurrently.
+ * All tasks scheduled without a key share a single queue. The worker
+ * threads always take up the oldest task whose key has no task running, so
+ * with a single worker thread all tasks are run in the order they were
+ * scheduled.
+ */
+class ComponentActor
+{
+
+    // the key of the tasks scheduled without a key
+    private static final Object DEFAULT_KEY = new Object();
+
+    // the queues of tasks waiting to be run, by key; a key is only
+    // present while it has tasks waiting or running
+    private final Map<Object, TaskQueue> queues = new HashMap<>();
+
+    // the queues with tasks waiting and none running, ordered by the
+    // sequence number of their first task, which is the order the worker
+    // threads should take them up
+    private final LinkedList<TaskQueue> ready = new LinkedList<>();
+
+    private final ScrLogger logger;
+
+    private final Thread[] workers;
+
+    // number of tasks waiting or running
+    private int pending;
+
+    // sequence number of the next task scheduled
+    private long sequence;
+
+    private boolean terminated;
+
+    // metrics
+    private int maxQueueLength;
+
+    private long taskCount;
+
+    private long totalLatency;
+
+    private long maxLatency;
+
+
+    ComponentActor( final ScrLogger log, final int threads )
+    {
+        logger = log;
+        workers = new Thread[Math.max( 1, threads )];
+    }
+
+
+    void start()
+    {
+        for ( int i = 0; i < workers.length; i++ )
+        {
+            String name = workers.length == 1 ? "SCR Component Actor" : "SCR Component Actor " + ( i + 1 );
+            workers[i] = new Thread( new Worker(), name );
+            workers[i].setDaemon( true );
+            workers[i].start();
+        }
+    }
+
+
+    // waits for all tasks scheduled so far to be run and then causes
+    // the worker threads to terminate
+    void terminate()
+    {
+        synchronized ( queues )
+        {
+            while ( pending > 0 )
+            {
+                boolean interrupted = Thread.interrupted();
+                try
+                {
+                    queues.wait();
+                }
+                catch ( InterruptedException e )
+                {
+                    interrupted = true;
+                    logger.log(LogService.LOG_ERROR,
+                        "Interrupted exception waiting for queue to empty", e);
+                }
+                finally
+                {
+                    if (interrupted)
+                    { // restore interrupt status
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            terminated = true;
+            queues.notifyAll();
+        }
+        logger.log( LogService.LOG_DEBUG, "Component actor ran {0} tasks, average latency {1} ms, maximum latency {2} ms, maximum queue length {3}",
+            null, getTaskCount(), getAverageLatency(), getMaxLatency(), getMaxQueueLength() );
+    }
+
+
+    // queue the given runnable to be run as soon as possible
+    void schedule( Runnable task )
+    {
+        schedule( null, task );
+    }
+
+
+    // queue the given runnable to be run as soon as possible, but after
+    // all tasks scheduled before with the same key
+    void schedule( Object key, Runnable task )
+    {
+        if ( key == null )
+        {
+            key = DEFAULT_KEY;
+        }
+        synchronized ( queues )
+        {
+            TaskQueue queue = queues.get( key );
+            if ( queue == null )
+            {
+                queue = new TaskQueue( key );
+                queues.put( key, queue );
+            }
+            queue.tasks.add( new Task( task, sequence++ ) );
+            if ( !queue.busy )
+            {
+                // the task is the last one scheduled, so the queue goes
+                // to the end of the line
+                queue.busy = true;
+                ready.add( queue );
+            }
+
+            pending++;
+            maxQueueLength = Math.max( maxQueueLength, pending );
+
+            logger.log( LogService.LOG_DEBUG, "Adding task [{0}] as #{1} in the queue", null,
+                    task, pending);
+
+            // notify the waiting threads
+            queues.notifyAll();
+        }
+    }
+
+
+    /**
+     * Returns the number of tasks waiting to be run or running.
+     */
+    int getQueueLength()
+    {
+        synchronized ( queues )
+        {
+            return pending;
+        }
+    }
+
+
+    /**
+     * Returns the largest number of tasks that were waiting or running at
+     * the same time.
+     */
+    int getMaxQueueLength()
+    {
+        synchronized ( queues )
+        {
+            return maxQueueLength;
+        }
+    }
+
+
+    /**
+     * Returns the number of tasks that were started.
+     */
+    long getTaskCount()
+    {
+        synchronized ( queues )
+        {
+            return taskCount;
+        }
+    }
+
+
+    /**
+     * Returns the average time in milliseconds tasks waited to be started.
+     */
+    long getAverageLatency()
+    {
+        synchronized ( queues )
+        {
+            return taskCount == 0 ? 0 : totalLatency / taskCount / 1000000;
+        }
+    }
+
+
+    /**
+     * Returns the longest time in milliseconds a task waited to be started.
+     */
+    long getMaxLatency()
+    {
+        synchronized ( queues )
+        {
+            return maxLatency / 1000000;
+        }
+    }
+
+
+    // takes the next task of a queue that is ready, waiting for one if
+    // there is none; returns null once terminated
+    private Task take()
+    {
+        synchronized ( queues )
+        {
+            while ( ready.isEmpty() )
+            {
+                if ( terminated )
+                {
+                    return null;
+                }
+                boolean interrupted = Thread.interrupted();
+                try
+                {
+                    queues.wait();
+                }
+                catch ( InterruptedException ie )
+                {
+                    interrupted = true;
+                    // don't care
+                }
+                finally
+                {
+                    if (interrupted)
+                    { // restore interrupt status
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+
+            TaskQueue queue = ready.removeFirst();
+            Task task = queue.tasks.removeFirst();
+            task.queue = queue;
+
+            long latency = System.nanoTime() - task.scheduled;
+            taskCount++;
+            totalLatency += latency;
+            maxLatency = Math.max( maxLatency, latency );
+            return task;
+        }
+    }
+
+
+    // marks the given task as done, which allows the next task with the
+    // same key to be run
+    private void done( Task task )
+    {
+        synchronized ( queues )
+        {
+            TaskQueue queue = task.queue;
+            if ( queue.tasks.isEmpty() )
+            {
+                queue.busy = false;
+                queues.remove( queue.key );
+            }
+            else
+            {
+                // get back in line by the next task, so the tasks are taken
+                // up in the order they were scheduled, as far as tasks with
+                // the same key are not running
+                long next = queue.tasks.getFirst().sequence;
+                ListIterator<TaskQueue> it = ready.listIterator( ready.size() );
+                while ( it.hasPrevious() )
+                {
+                    if ( it.previous().tasks.getFirst().sequence < next )
+                    {
+                        it.next();
+                        break;
+                    }
+                }
+                it.add( queue );
+            }
+            pending--;
+            queues.notifyAll();
+        }
+    }
+
+
+    private class Worker implements Runnable
+    {
+
+        // waits on tasks coming into the queues. As tasks come in, this
+        // method calls their run method, logs any exception happening and
+        // keeps on waiting for the next task until the actor is terminated.
+        @Override
+        public void run()
+        {
+            logger.log( LogService.LOG_DEBUG, "Starting ComponentActor", null );
+
+            for ( ;; )
+            {
+                final Task task = take();
+                if ( task == null )
+                {
+                    logger.log( LogService.LOG_DEBUG, "Shutting down ComponentActor", null );
+                    return;
+                }
+
+                try
+                {
+                    // execute the task, log any issues
+                    logger.log( LogService.LOG_DEBUG, "Running task: " + task.task, null );
+                    task.task.run();
+                }
+                catch ( Throwable t )
+                {
+                    logger.log( LogService.LOG_ERROR, "Unexpected problem executing task " + task.task, t );
+                }
+                finally
+                {
+                    done( task );
+                }
+            }
+        }
+    }
+
+
+    private static class TaskQueue
+    {
+        final Object key;
+
+        final LinkedList<Task> tasks = new LinkedList<>();
+
+        // whether a task of this queue is waiting in the ready list or running
+        boolean busy;
+
+
+        TaskQueue( final Object key )
+        {
+            this.key = key;
+        }
+    }
+
+
+    private static class Task
+    {
+        final Runnable task;
+
+        final long sequence;
+
+        final long scheduled = System.nanoTime();
+
+        TaskQueue queue;
+
+
+        Task( final Runnable task, final long sequence )
+        {
+            this.task = task;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -70,6 +70,7 @@ public class ComponentCommands implements ServiceTrackerCustomizer<Object, Servi
     private final BundleContext context;
     private final ServiceComponentRuntime scr;
     private final ScrConfiguration scrConfig;
+    private final ComponentActor componentActor;
     private final ServiceTracker<Object, ServiceRegistration<?>> gogoRuntimeTracker;
 
     private final Comparator<ComponentConfigurationDTO> configDtoComparator = new Comparator<ComponentConfigurationDTO>() {
@@ -134,9 +135,14 @@ public class ComponentCommands implements ServiceTrackerCustomizer<Object, Servi
     }
 
     protected ComponentCommands(BundleContext context, ServiceComponentRuntime scr, ScrConfiguration scrConfig) {
+        this(context, scr, scrConfig, null);
+    }
+
+    ComponentCommands(BundleContext context, ServiceComponentRuntime scr, ScrConfiguration scrConfig, ComponentActor componentActor) {
         this.context = context;
         this.scr = scr;
         this.scrConfig = scrConfig;
+        this.componentActor = componentActor;
         this.gogoRuntimeTracker = new ServiceTracker<>(context, "org.apache.felix.service.command.CommandProcessor", this);
     }
 
@@ -234,6 +240,14 @@ public class ComponentCommands implements ServiceTrackerCustomizer<Object, Servi
         out.put("Stop timeout ms", Long.toString(scrConfig.stopTimeout()));
         out.put("Global extender", Boolean.toString(scrConfig.globalExtender()));
         out.put("Info Service registered", scrConfig.infoAsService() ? "Supported" : "Unsupported");
+        out.put("Component actor threads", Integer.toString(scrConfig.actorThreads()));
+        if (componentActor != null) {
+            out.put("Component actor queue length", Integer.toString(componentActor.getQueueLength()));
+            out.put("Component actor max queue length", Integer.toString(componentActor.getMaxQueueLength()));
+            out.put("Component actor tasks", Long.toString(componentActor.getTaskCount()));
+            out.put("Component actor average latency ms", Long.toString(componentActor.getAverageLatency()));
+            out.put("Component actor max latency ms", Long.toString(componentActor.getMaxLatency()));
+        }
 
         StringBuilder builder = new StringBuilder();
         printColumnsAligned("SCR Configuration", out, '=', builder);
@@ -0,0 +1,293 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.ServiceReference;
+
+
+/**
+ * The <code>FilterIndex</code> indexes the target filters of the references
+ * listening for services of the same interface by one of the equality terms
+ * of each filter, such as <code>(name=foo)</code> in
+ * <code>(&amp;(name=foo)(service.scope=prototype))</code>. For a service
+ * event only the filters whose indexed term matches a property of the
+ * service have to be evaluated, all other filters cannot match the service.
+ * <p>
+ * Filters without a usable equality term are always evaluated. Filters are
+ * added and removed one at a time by a single thread at a time, while the
+ * candidates may be looked up concurrently.
+ */
+class FilterIndex
+{
+
+    // attributes which are only used for indexing if a filter has no other
+    // equality term, as all or many services share their values
+    private static final Set<String> UNSELECTIVE_ATTRIBUTES = new HashSet<>(
+        Arrays.asList( Constants.OBJECTCLASS.toLowerCase(), Constants.SERVICE_SCOPE.toLowerCase() ) );
+
+    // the filters without equality term
+    private final Set<Filter> m_unindexed = newSet();
+
+    // indexed filters by attribute (in lower case) and value
+    private final ConcurrentMap<String, ConcurrentMap<String, Set<Filter>>> m_index = new ConcurrentHashMap<>();
+
+
+    /**
+     * Adds the filter to the index.
+     */
+    void add( final Filter filter )
+    {
+        final String[] term = getIndexTerm( filter.toString() );
+        if ( term == null )
+        {
+            m_unindexed.add( filter );
+            return;
+        }
+
+        final String attribute = term[0].toLowerCase();
+        ConcurrentMap<String, Set<Filter>> byValue = m_index.get( attribute );
+        if ( byValue == null )
+        {
+            byValue = new ConcurrentHashMap<>();
+            m_index.put( attribute, byValue );
+        }
+        Set<Filter> indexed = byValue.get( term[1] );
+        if ( indexed == null )
+        {
+            indexed = newSet();
+            byValue.put( term[1], indexed );
+        }
+        indexed.add( filter );
+    }
+
+
+    /**
+     * Removes the filter from the index.
+     */
+    void remove( final Filter filter )
+    {
+        final String[] term = getIndexTerm( filter.toString() );
+        if ( term == null )
+        {
+            m_unindexed.remove( filter );
+            return;
+        }
+
+        final String attribute = term[0].toLowerCase();
+        final ConcurrentMap<String, Set<Filter>> byValue = m_index.get( attribute );
+        if ( byValue == null )
+        {
+            return;
+        }
+        final Set<Filter> indexed = byValue.get( term[1] );
+        if ( indexed != null && indexed.remove( filter ) && indexed.isEmpty() )
+        {
+            byValue.remove( term[1] );
+            if ( byValue.isEmpty() )
+            {
+                m_index.remove( attribute );
+            }
+        }
+    }
+
+
+    /**
+     * Returns the filters which may match the service. The filters not
+     * returned do not match the service. The returned set must not be
+     * modified.
+     */
+    Set<Filter> getCandidates( final ServiceReference<?> ref )
+    {
+        if ( m_index.isEmpty() )
+        {
+            return Collections.unmodifiableSet( m_unindexed );
+        }
+
+        final Set<Filter> candidates = new LinkedHashSet<>( m_unindexed );
+        for ( Map.Entry<String, ConcurrentMap<String, Set<Filter>>> entry : m_index.entrySet() )
+        {
+            final Map<String, Set<Filter>> byValue = entry.getValue();
+            final Object value = ref.getProperty( entry.getKey() );
+            if ( value == null )
+            {
+                continue;
+            }
+            else if ( value instanceof String )
+            {
+                addAll( candidates, byValue.get( value ) );
+            }
+            else if ( value instanceof String[] )
+            {
+                for ( String v : (String[]) value )
+                {
+                    addAll( candidates, byValue.get( v ) );
+                }
+            }
+            else
+            {
+                // other types are compared after converting the filter
+                // value, so all filters on the attribute may match
+                for ( Set<Filter> filters : byValue.values() )
+                {
+                    candidates.addAll( filters );
+                }
+            }
+        }
+        return candidates;
+    }
+
+
+    private static void addAll( final Set<Filter> candidates, final Set<Filter> filters )
+    {
+        if ( filters != null )
+        {
+            candidates.addAll( filters );
+        }
+    }
+
+
+    private static Set<Filter> newSet()
+    {
+        return Collections.newSetFromMap( new ConcurrentHashMap<Filter, Boolean>() );
+    }
+
+
+    /**
+     * Returns the attribute and value of the equality term of the given
+     * filter string used for indexing, or <code>null</code> if the filter
+     * has no equality term which must match for the filter to match. Terms
+     * on attributes shared by many services are only used if the filter has
+     * no other term.
+     */
+    static String[] getIndexTerm( final String filter )
+    {
+        final List<String[]> terms = new ArrayList<>();
+        if ( filter.startsWith( "(&" ) && filter.endsWith( ")" ) )
+        {
+            int start = 2;
+            while ( start < filter.length() - 1 && filter.charAt( start ) == '(' )
+            {
+                final int end = findClosingParenthesis( filter, start );
+                if ( end < 0 )
+                {
+                    return null;
+                }
+                addEqualityTerm( terms, filter.substring( start, end + 1 ) );
+                start = end + 1;
+            }
+        }
+        else
+        {
+            addEqualityTerm( terms, filter );
+        }
+
+        String[] result = null;
+        for ( String[] term : terms )
+        {
+            if ( !UNSELECTIVE_ATTRIBUTES.contains( term[0].toLowerCase() ) )
+            {
+                return term;
+            }
+            if ( result == null )
+            {
+                result = term;
+            }
+        }
+        return result;
+    }
+
+
+    // returns the index of the parenthesis closing the one at start
+    private static int findClosingParenthesis( final String filter, final int start )
+    {
+        int depth = 0;
+        for ( int i = start; i < filter.length(); i++ )
+        {
+            switch ( filter.charAt( i ) )
+            {
+                case '\\':
+                    i++;
+                    break;
+                case '(':
+                    depth++;
+                    break;
+                case ')':
+                    if ( --depth == 0 )
+                    {
+                        return i;
+                    }
+                    break;
+            }
+        }
+        return -1;
+    }
+
+
+    // adds the attribute and unescaped value of the simple filter if it is
+    // an equality term without wildcards
+    private static void addEqualityTerm( final List<String[]> terms, final String simple )
+    {
+        if ( simple.length() < 4 || simple.charAt( 0 ) != '(' || simple.charAt( simple.length() - 1 ) != ')' )
+        {
+            return;
+        }
+        final int eq = simple.indexOf( '=' );
+        if ( eq < 2 )
+        {
+            return;
+        }
+        final String attribute = simple.substring( 1, eq );
+        if ( attribute.indexOf( '(' ) >= 0 || "&|!~<>".indexOf( attribute.charAt( attribute.length() - 1 ) ) >= 0
+            || "&|!".indexOf( attribute.charAt( 0 ) ) >= 0 )
+        {
+            return;
+        }
+
+        final StringBuilder value = new StringBuilder();
+        for ( int i = eq + 1; i < simple.length() - 1; i++ )
+        {
+            char c = simple.charAt( i );
+            if ( c == '*' )
+            {
+                // presence or substring
+                return;
+            }
+            if ( c == '\\' && i < simple.length() - 2 )
+            {
+                c = simple.charAt( ++i );
+            }
+            value.append( c );
+        }
+        terms.add( new String[] { attribute, value.toString() } );
+    }
+}
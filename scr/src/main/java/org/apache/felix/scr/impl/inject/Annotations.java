@@ -20,6 +20,7 @@ package org.apache.felix.scr.impl.inject;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
@@ -53,6 +54,16 @@ public class Annotations
         }
     }
 
+    /** The property keys and proxy constructor of each type, computed once */
+    private static final ClassValue<TypeInfo> TYPE_INFOS = new ClassValue<TypeInfo>()
+    {
+        @Override
+        protected TypeInfo computeValue(final Class<?> type)
+        {
+            return new TypeInfo(type);
+        }
+    };
+
     /** Constant for the single element method */
     private static final String VALUE_METHOD = "value";
 
@@ -138,24 +149,15 @@ public class Annotations
     @SuppressWarnings("unchecked")
 	static public <T> T toObject(Class<T> clazz, Map<String, Object> props, Bundle b, boolean supportsInterfaces )
     {
-        final boolean isSingleElementAnn = isSingleElementAnnotation(clazz);
-        final String prefix = getPrefix(clazz);
+        final TypeInfo info = TYPE_INFOS.get(clazz);
         final Map<String, Object> m = new HashMap<>();
 
         final Map<String, Method> complexFields = new HashMap<>();
-        for ( final Method method: clazz.getMethods() )
+        for ( int i = 0; i < info.methods.length; i++ )
         {
+            final Method method = info.methods[i];
             final String name = method.getName();
-            final String mapped;
-            if ( isSingleElementAnn && name.equals(VALUE_METHOD) )
-            {
-                mapped = mapTypeNameToKey(clazz.getSimpleName());
-            }
-            else
-            {
-                mapped = mapIdentifierToKey(name);
-            }
-            final String key = (prefix == null ? mapped : prefix.concat(mapped));
+            final String key = info.keys[i];
 
             Object raw = props.get(key);
             Class<?> returnType = method.getReturnType();
@@ -235,6 +237,17 @@ public class Annotations
         }
 
         final InvocationHandler h = new Handler(m, clazz);
+        if ( info.proxyConstructor != null )
+        {
+            try
+            {
+                return (T) info.proxyConstructor.newInstance(h);
+            }
+            catch ( final Exception e )
+            {
+                // fall through and let the Proxy class report the problem
+            }
+        }
         return (T) Proxy.newProxyInstance(clazz.getClassLoader(), new Class<?>[] { clazz }, h);
     }
 
@@ -428,6 +441,60 @@ public class Annotations
         }
     }
 
+    /**
+     * The members of a component property type with the keys of the
+     * properties they return and the constructor of the proxy class
+     * implementing the type. Computing these with reflection and regular
+     * expressions for every component instance would dominate the cost of
+     * creating prototype scoped and factory components.
+     */
+    private final static class TypeInfo
+    {
+        private final Method[] methods;
+
+        private final String[] keys;
+
+        private final Constructor<?> proxyConstructor;
+
+        TypeInfo(final Class<?> type)
+        {
+            final boolean isSingleElementAnn = isSingleElementAnnotation(type);
+            final String prefix = getPrefix(type);
+
+            methods = type.getMethods();
+            keys = new String[methods.length];
+            for ( int i = 0; i < methods.length; i++ )
+            {
+                final String name = methods[i].getName();
+                final String mapped;
+                if ( isSingleElementAnn && name.equals(VALUE_METHOD) )
+                {
+                    mapped = mapTypeNameToKey(type.getSimpleName());
+                }
+                else
+                {
+                    mapped = mapIdentifierToKey(name);
+                }
+                keys[i] = (prefix == null ? mapped : prefix.concat(mapped));
+            }
+
+            Constructor<?> constructor = null;
+            if ( type.isInterface() && Modifier.isPublic(type.getModifiers()) )
+            {
+                try
+                {
+                    constructor = Proxy.getProxyClass(type.getClassLoader(), type)
+                        .getConstructor(InvocationHandler.class);
+                }
+                catch ( final Exception e )
+                {
+                    // use Proxy.newProxyInstance
+                }
+            }
+            proxyConstructor = constructor;
+        }
+    }
+
     private final static class Invalid
     {
         private final String message;
@@ -443,7 +443,7 @@ public abstract class AbstractComponentManager<S> implements ComponentManager<S>
         if (async)
         {
             final Deferred<Void> latch = enableLatch;
-            m_container.getActivator().schedule(new Runnable()
+            m_container.getActivator().schedule(m_container, new Runnable()
             {
 
                 long count = taskCounter.incrementAndGet();
@@ -535,7 +535,7 @@ public abstract class AbstractComponentManager<S> implements ComponentManager<S>
         if (async)
         {
             final Deferred<Void> latch = enableLatch;
-            m_container.getActivator().schedule(new Runnable()
+            m_container.getActivator().schedule(m_container, new Runnable()
             {
 
                 long count = taskCounter.incrementAndGet();
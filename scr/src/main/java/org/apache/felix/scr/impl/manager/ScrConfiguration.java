@@ -70,6 +70,10 @@ public interface ScrConfiguration
 
     String PROP_CACHE_METADATA = "ds.cache.metadata";
 
+    String PROP_ACTOR_THREADS = "ds.actor.threads";
+
+    int DEFAULT_ACTOR_THREADS = 1;
+
     /**
      * Returns the current log level.
      * @return
@@ -101,4 +105,11 @@ public interface ScrConfiguration
 
     boolean cacheMetadata();
 
+    /**
+     * Returns the number of threads running asynchronous component tasks.
+     * This is only read when the Declarative Services implementation starts.
+     * @since 2.2
+     */
+    int actorThreads();
+
 }
@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.scr.impl.logger.MockScrLogger;
+
+
+public class ComponentActorTest extends TestCase
+{
+
+    public void test_tasks_with_same_key_run_in_order() throws Exception
+    {
+        final ComponentActor actor = new ComponentActor( new MockScrLogger(), 4 );
+        actor.start();
+
+        final List<List<Integer>> runs = new ArrayList<>();
+        for ( int k = 0; k < 8; k++ )
+        {
+            final List<Integer> run = Collections.synchronizedList( new ArrayList<Integer>() );
+            runs.add( run );
+            for ( int i = 0; i < 50; i++ )
+            {
+                final int index = i;
+                actor.schedule( "key" + k, new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        run.add( index );
+                    }
+                } );
+            }
+        }
+        actor.terminate();
+
+        for ( List<Integer> run : runs )
+        {
+            assertEquals( 50, run.size() );
+            for ( int i = 0; i < 50; i++ )
+            {
+                assertEquals( Integer.valueOf( i ), run.get( i ) );
+            }
+        }
+        assertEquals( 0, actor.getQueueLength() );
+        assertEquals( 400, actor.getTaskCount() );
+        assertTrue( actor.getMaxQueueLength() > 0 );
+    }
+
+
+    public void test_single_worker_runs_tasks_in_schedule_order() throws Exception
+    {
+        final ComponentActor actor = new ComponentActor( new MockScrLogger(), 1 );
+
+        // schedule before starting, so the queues of all keys are waiting
+        // when the worker takes up the first task, e.g. A(k1), C(k1), B(k2)
+        // must run as A, C, B
+        final List<Integer> run = Collections.synchronizedList( new ArrayList<Integer>() );
+        final String[] keys = { "k1", "k1", "k2", "k1", "k3", "k2", "k2", "k1", null, "k3" };
+        for ( int i = 0; i < 100; i++ )
+        {
+            final int index = i;
+            actor.schedule( keys[i % keys.length], new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    run.add( index );
+                }
+            } );
+        }
+        actor.start();
+        actor.terminate();
+
+        assertEquals( 100, run.size() );
+        for ( int i = 0; i < 100; i++ )
+        {
+            assertEquals( Integer.valueOf( i ), run.get( i ) );
+        }
+    }
+
+
+    public void test_tasks_with_different_keys_run_concurrently() throws Exception
+    {
+        final ComponentActor actor = new ComponentActor( new MockScrLogger(), 2 );
+        actor.start();
+
+        // the first task blocks until the second one ran, which is only
+        // possible if they run on different threads
+        final CountDownLatch latch = new CountDownLatch( 1 );
+        final boolean[] released = new boolean[1];
+        actor.schedule( "a", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    released[0] = latch.await( 5, TimeUnit.SECONDS );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        } );
+        actor.schedule( "b", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                latch.countDown();
+            }
+        } );
+        actor.terminate();
+
+        assertTrue( released[0] );
+    }
+
+
+    public void test_tasks_with_same_key_do_not_overlap() throws Exception
+    {
+        final ComponentActor actor = new ComponentActor( new MockScrLogger(), 4 );
+        actor.start();
+
+        final int[] running = new int[1];
+        final boolean[] overlapped = new boolean[1];
+        for ( int i = 0; i < 20; i++ )
+        {
+            actor.schedule( null, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    synchronized ( running )
+                    {
+                        overlapped[0] |= running[0]++ > 0;
+                    }
+                    Thread.yield();
+                    synchronized ( running )
+                    {
+                        running[0]--;
+                    }
+                }
+            } );
+        }
+        actor.terminate();
+
+        assertFalse( overlapped[0] );
+        assertEquals( 20, actor.getTaskCount() );
+    }
+}
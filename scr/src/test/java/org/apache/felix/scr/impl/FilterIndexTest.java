@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.mockito.Mockito;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceReference;
+
+
+public class FilterIndexTest extends TestCase
+{
+
+    public void test_index_term()
+    {
+        assertTerm( "name", "foo", "(name=foo)" );
+        assertTerm( "name", "foo", "(&(service.scope=prototype)(name=foo))" );
+        assertTerm( "service.scope", "prototype", "(service.scope=prototype)" );
+        assertTerm( "name", "a(b)*", "(name=a\\(b\\)\\*)" );
+        assertTerm( "name", "foo", "(&(|(a=b)(c=d))(!(e=f))(name=foo))" );
+
+        assertNull( FilterIndex.getIndexTerm( "(name=foo*)" ) );
+        assertNull( FilterIndex.getIndexTerm( "(name=*)" ) );
+        assertNull( FilterIndex.getIndexTerm( "(name>=foo)" ) );
+        assertNull( FilterIndex.getIndexTerm( "(name~=foo)" ) );
+        assertNull( FilterIndex.getIndexTerm( "(|(name=foo)(name=bar))" ) );
+        assertNull( FilterIndex.getIndexTerm( "(!(name=foo))" ) );
+    }
+
+
+    public void test_candidates() throws Exception
+    {
+        final List<Filter> filters = new ArrayList<>();
+        for ( int i = 0; i < 500; i++ )
+        {
+            filters.add( FrameworkUtil.createFilter( "(name=component" + i + ")" ) );
+        }
+        final Filter range = FrameworkUtil.createFilter( "(ranking>=5)" );
+        filters.add( range );
+
+        final FilterIndex index = index( filters );
+
+        assertEquals( set( filters.get( 42 ), range ), index.getCandidates( reference( "name", "component42" ) ) );
+        assertEquals( set( filters.get( 1 ), filters.get( 2 ), range ),
+            index.getCandidates( reference( "name", new String[] { "component1", "component2" } ) ) );
+        assertEquals( set( range ), index.getCandidates( reference( "name", "other" ) ) );
+        assertEquals( set( range ), index.getCandidates( reference( "other", "component42" ) ) );
+
+        // non string values are converted by the filter, so all may match
+        assertEquals( filters.size(), index.getCandidates( reference( "name", 42 ) ).size() );
+    }
+
+
+    public void test_candidates_match() throws Exception
+    {
+        final List<Filter> filters = Arrays.asList(
+            FrameworkUtil.createFilter( "(&(service.scope=prototype)(name=a))" ),
+            FrameworkUtil.createFilter( "(name=b)" ),
+            FrameworkUtil.createFilter( "(Name=c)" ),
+            FrameworkUtil.createFilter( "(name=d*)" ) );
+        final FilterIndex index = index( filters );
+
+        for ( String name : new String[] { "a", "b", "c", "dd", "e" } )
+        {
+            final ServiceReference<?> ref = reference( "name", name );
+            Mockito.when( ref.getProperty( "service.scope" ) ).thenReturn( "prototype" );
+            final Set<Filter> candidates = index.getCandidates( ref );
+            for ( Filter filter : filters )
+            {
+                if ( filter.match( ref ) )
+                {
+                    assertTrue( filter + " matches " + name, candidates.contains( filter ) );
+                }
+            }
+        }
+    }
+
+
+    public void test_add_remove() throws Exception
+    {
+        final Filter a = FrameworkUtil.createFilter( "(name=a)" );
+        final Filter a2 = FrameworkUtil.createFilter( "(&(name=a)(ranking>=5))" );
+        final Filter range = FrameworkUtil.createFilter( "(ranking>=5)" );
+        final FilterIndex index = index( Arrays.asList( a, a2, range ) );
+        final ServiceReference<?> ref = reference( "name", "a" );
+        assertEquals( set( a, a2, range ), index.getCandidates( ref ) );
+
+        index.remove( a );
+        assertEquals( set( a2, range ), index.getCandidates( ref ) );
+        index.remove( range );
+        assertEquals( set( a2 ), index.getCandidates( ref ) );
+        index.remove( a2 );
+        assertEquals( set(), index.getCandidates( ref ) );
+
+        index.add( range );
+        assertEquals( set( range ), index.getCandidates( ref ) );
+        index.add( a );
+        assertEquals( set( a, range ), index.getCandidates( ref ) );
+        assertEquals( set( range ), index.getCandidates( reference( "name", "b" ) ) );
+    }
+
+
+    private static FilterIndex index( final List<Filter> filters )
+    {
+        final FilterIndex index = new FilterIndex();
+        for ( Filter filter : filters )
+        {
+            index.add( filter );
+        }
+        return index;
+    }
+
+
+    private static void assertTerm( final String attribute, final String value, final String filter )
+    {
+        final String[] term = FilterIndex.getIndexTerm( filter );
+        assertNotNull( filter, term );
+        assertEquals( attribute, term[0] );
+        assertEquals( value, term[1] );
+    }
+
+
+    private static ServiceReference<?> reference( final String key, final Object value )
+    {
+        final ServiceReference<?> ref = Mockito.mock( ServiceReference.class );
+        Mockito.when( ref.getPropertyKeys() ).thenReturn( new String[] { key, "service.scope" } );
+        Mockito.when( ref.getProperty( key ) ).thenReturn( value );
+        Mockito.when( ref.getProperty( key.toLowerCase() ) ).thenReturn( value );
+        return ref;
+    }
+
+
+    private static Set<Filter> set( final Filter... filters )
+    {
+        return new HashSet<>( Arrays.asList( filters ) );
+    }
+}